@@ -45,8 +45,7 @@ public class GitHubApiController {
 
         String githubApiResponseBody = githubApiResponse.getBody();
         StringBuilder formatted = new StringBuilder();
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode repos = mapper.readTree(githubApiResponseBody);
+        JsonNode repos = JsonSupport.MAPPER.readTree(githubApiResponseBody);
         if (repos.isArray()) {
             for (JsonNode repo : repos) {
                 String name = repo.path("name").asText("");
@@ -1,7 +1,5 @@
 package com.cap.api.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.nio.file.Files;
@@ -38,117 +36,47 @@ public class JiraChangeLogger {
     private static List<String> getJiraStoryChanges(String previousJson, String currentJson) {
         List<String> changes = new ArrayList<>();
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode prevRoot = mapper.readTree(previousJson);
-            JsonNode currRoot = mapper.readTree(currentJson);
-            JsonNode prevIssues = prevRoot.path("issues");
-            JsonNode currIssues = currRoot.path("issues");
-            if (!prevIssues.isArray() || !currIssues.isArray()) return changes;
-            
+            List<JiraJsonExtractor.JiraIssue> prevIssues = JiraJsonExtractor.parseIssues(previousJson);
+            List<JiraJsonExtractor.JiraIssue> currIssues = JiraJsonExtractor.parseIssues(currentJson);
+
             // Map previous issues by key
-            java.util.Map<String, JsonNode> prevMap = new java.util.HashMap<>();
-            for (JsonNode issue : prevIssues) {
-                String key = issue.path("key").asText("");
-                prevMap.put(key, issue);
+            java.util.Map<String, JiraJsonExtractor.JiraIssue> prevMap = new java.util.LinkedHashMap<>();
+            for (JiraJsonExtractor.JiraIssue issue : prevIssues) {
+                prevMap.put(issue.key(), issue);
             }
-            
-            for (JsonNode currIssue : currIssues) {
-                String key = currIssue.path("key").asText("");
-                JsonNode prevIssue = prevMap.get(key);
-                
+            java.util.Set<String> currKeys = new java.util.HashSet<>();
+
+            for (JiraJsonExtractor.JiraIssue currIssue : currIssues) {
+                String key = currIssue.key();
+                currKeys.add(key);
+                JiraJsonExtractor.JiraIssue prevIssue = prevMap.get(key);
+
                 if (prevIssue != null) {
-                    String prevSummary = prevIssue.path("fields").path("summary").asText("");
-                    String currSummary = currIssue.path("fields").path("summary").asText("");
-                    String prevStatus = prevIssue.path("fields").path("status").path("name").asText("");
-                    String currStatus = currIssue.path("fields").path("status").path("name").asText("");
-                    String prevDescription = prevIssue.path("fields").path("description").asText("");
-                    String currDescription = currIssue.path("fields").path("description").asText("");
-                    String prevConfluence = prevIssue.path("fields").path("customfield_confluence").asText("");
-                    String currConfluence = currIssue.path("fields").path("customfield_confluence").asText("");
-                    
-                    // Collect all comments bodies
-                    StringBuilder prevComments = new StringBuilder();
-                    JsonNode prevCommentsNode = prevIssue.path("fields").path("comment").path("comments");
-                    if (prevCommentsNode.isArray()) {
-                        for (JsonNode comment : prevCommentsNode) {
-                            prevComments.append(comment.path("body").asText("")).append("||");
-                        }
-                    }
-                    
-                    StringBuilder currComments = new StringBuilder();
-                    JsonNode currCommentsNode = currIssue.path("fields").path("comment").path("comments");
-                    if (currCommentsNode.isArray()) {
-                        for (JsonNode comment : currCommentsNode) {
-                            currComments.append(comment.path("body").asText("")).append("||");
-                        }
-                    }
-                    
-                    boolean changed = false;
-                    if (!prevSummary.equals(currSummary) || 
-                        !prevStatus.equals(currStatus) || 
-                        !prevDescription.equals(currDescription) || 
-                        !prevConfluence.equals(currConfluence) || 
-                        !prevComments.toString().equals(currComments.toString())) {
-                        changed = true;
-                    }
-                    
+                    String currComments = currIssue.joinedComments();
+                    boolean changed = !prevIssue.summary().equals(currIssue.summary())
+                        || !prevIssue.status().equals(currIssue.status())
+                        || !prevIssue.description().equals(currIssue.description())
+                        || !prevIssue.confluence().equals(currIssue.confluence())
+                        || !prevIssue.joinedComments().equals(currComments);
+
                     if (changed) {
                         // Add the whole story content instead of just the changes
-                        StringBuilder storyContent = new StringBuilder();
-                        storyContent.append("Key: ").append(key).append("\n");
-                        storyContent.append("Summary: ").append(currSummary).append("\n");
-                        storyContent.append("Status: ").append(currStatus).append("\n");
-                        storyContent.append("Description: ").append(currDescription).append("\n");
-                        if (!currConfluence.isEmpty()) {
-                            storyContent.append("Confluence Content: ").append(currConfluence).append("\n");
-                        }
-                        if (currComments.length() > 0) {
-                            storyContent.append("Comments: ").append(currComments).append("\n");
-                        }
-                        changes.add(storyContent.toString());
+                        changes.add(storyContent(currIssue, currComments));
                     }
                 } else {
                     // New story added - include full content
-                    StringBuilder storyContent = new StringBuilder();
-                    storyContent.append("Key: ").append(key).append("\n");
-                    storyContent.append("Summary: ").append(currIssue.path("fields").path("summary").asText("")).append("\n");
-                    storyContent.append("Status: ").append(currIssue.path("fields").path("status").path("name").asText("")).append("\n");
-                    storyContent.append("Description: ").append(currIssue.path("fields").path("description").asText("")).append("\n");
-                    String confluence = currIssue.path("fields").path("customfield_confluence").asText("");
-                    if (!confluence.isEmpty()) {
-                        storyContent.append("Confluence Content: ").append(confluence).append("\n");
-                    }
-                    
-                    StringBuilder comments = new StringBuilder();
-                    JsonNode commentsNode = currIssue.path("fields").path("comment").path("comments");
-                    if (commentsNode.isArray()) {
-                        for (JsonNode comment : commentsNode) {
-                            comments.append(comment.path("body").asText("")).append("||");
-                        }
-                    }
-                    if (comments.length() > 0) {
-                        storyContent.append("Comments: ").append(comments).append("\n");
-                    }
-                    changes.add(storyContent.toString());
+                    changes.add(storyContent(currIssue, currIssue.joinedComments()));
                 }
             }
-            
+
             // Detect removed stories
-            for (String key : prevMap.keySet()) {
-                boolean found = false;
-                for (JsonNode currIssue : currIssues) {
-                    if (currIssue.path("key").asText("").equals(key)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
-                    JsonNode prevIssue = prevMap.get(key);
+            for (JiraJsonExtractor.JiraIssue prevIssue : prevMap.values()) {
+                if (!currKeys.contains(prevIssue.key())) {
                     StringBuilder storyContent = new StringBuilder();
-                    storyContent.append("REMOVED - Key: ").append(key).append("\n");
-                    storyContent.append("Summary: ").append(prevIssue.path("fields").path("summary").asText("")).append("\n");
-                    storyContent.append("Status: ").append(prevIssue.path("fields").path("status").path("name").asText("")).append("\n");
-                    storyContent.append("Description: ").append(prevIssue.path("fields").path("description").asText("")).append("\n");
+                    storyContent.append("REMOVED - Key: ").append(prevIssue.key()).append("\n");
+                    storyContent.append("Summary: ").append(prevIssue.summary()).append("\n");
+                    storyContent.append("Status: ").append(prevIssue.status()).append("\n");
+                    storyContent.append("Description: ").append(prevIssue.description()).append("\n");
                     changes.add(storyContent.toString());
                 }
             }
@@ -158,4 +86,19 @@ public class JiraChangeLogger {
         }
         return changes;
     }
-}
\ No newline at end of file
+
+    private static String storyContent(JiraJsonExtractor.JiraIssue issue, String comments) {
+        StringBuilder storyContent = new StringBuilder();
+        storyContent.append("Key: ").append(issue.key()).append("\n");
+        storyContent.append("Summary: ").append(issue.summary()).append("\n");
+        storyContent.append("Status: ").append(issue.status()).append("\n");
+        storyContent.append("Description: ").append(issue.description()).append("\n");
+        if (!issue.confluence().isEmpty()) {
+            storyContent.append("Confluence Content: ").append(issue.confluence()).append("\n");
+        }
+        if (!comments.isEmpty()) {
+            storyContent.append("Comments: ").append(comments).append("\n");
+        }
+        return storyContent.toString();
+    }
+}
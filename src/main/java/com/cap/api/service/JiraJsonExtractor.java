@@ -0,0 +1,207 @@
+package com.cap.api.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming extractor for Jira REST payloads. Walks the token stream once and keeps only
+ * the fields the agent reads, so a multi-MB search response never becomes a JsonNode tree;
+ * everything else (changelogs, renderedFields, avatars, ...) is skipped without allocation.
+ * Scalar fields follow {@code JsonNode.asText("")}: null and object values read as "".
+ */
+public final class JiraJsonExtractor {
+
+    /** The projection of an issue used by the agent and the story change log. */
+    public record JiraIssue(String key, String summary, String status, String description,
+                            String created, String priority, String confluence, List<String> commentBodies) {
+
+        /** The {@code key|summary|status|description} line the agent passes around. */
+        public String toLine() {
+            return key + "|" + summary + "|" + status + "|" + description;
+        }
+
+        public String joinedComments() {
+            StringBuilder sb = new StringBuilder();
+            for (String body : commentBodies) sb.append(body).append("||");
+            return sb.toString();
+        }
+    }
+
+    /** One page of {@code /rest/api/3/issue/{key}/comment}, with comment bodies flattened to text. */
+    public record CommentPage(int startAt, int total, List<String> texts) {
+    }
+
+    private JiraJsonExtractor() {
+    }
+
+    public static List<JiraIssue> parseIssues(String json) throws IOException {
+        try (JsonParser p = JsonSupport.FACTORY.createParser(json)) {
+            return readIssues(p);
+        }
+    }
+
+    public static List<JiraIssue> parseIssues(InputStream in) throws IOException {
+        try (JsonParser p = JsonSupport.FACTORY.createParser(in)) {
+            return readIssues(p);
+        }
+    }
+
+    public static CommentPage parseCommentPage(String json) throws IOException {
+        try (JsonParser p = JsonSupport.FACTORY.createParser(json)) {
+            return readCommentPage(p);
+        }
+    }
+
+    private static List<JiraIssue> readIssues(JsonParser p) throws IOException {
+        List<JiraIssue> issues = new ArrayList<>();
+        if (p.nextToken() != JsonToken.START_OBJECT) return issues;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken t = p.nextToken();
+            if ("issues".equals(name) && t == JsonToken.START_ARRAY) {
+                while (nextElement(p)) {
+                    issues.add(readIssue(p));
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+        return issues;
+    }
+
+    private static JiraIssue readIssue(JsonParser p) throws IOException {
+        String key = "", summary = "", status = "", description = "", created = "", priority = "", confluence = "";
+        List<String> comments = new ArrayList<>();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken t = p.nextToken();
+            if ("key".equals(name)) {
+                key = scalar(p);
+            } else if ("fields".equals(name) && t == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = p.currentName();
+                    JsonToken ft = p.nextToken();
+                    switch (field) {
+                        case "summary" -> summary = scalar(p);
+                        case "description" -> description = scalar(p);
+                        case "created" -> created = scalar(p);
+                        case "customfield_confluence" -> confluence = scalar(p);
+                        case "status" -> status = ft == JsonToken.START_OBJECT ? member(p, "name") : scalar(p);
+                        case "priority" -> priority = ft == JsonToken.START_OBJECT ? member(p, "name") : scalar(p);
+                        case "comment" -> {
+                            if (ft == JsonToken.START_OBJECT) readIssueComments(p, comments);
+                            else p.skipChildren();
+                        }
+                        default -> p.skipChildren();
+                    }
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+        return new JiraIssue(key, summary, status, description, created, priority, confluence, comments);
+    }
+
+    private static void readIssueComments(JsonParser p, List<String> out) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken t = p.nextToken();
+            if ("comments".equals(name) && t == JsonToken.START_ARRAY) {
+                while (nextElement(p)) {
+                    out.add(member(p, "body"));
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    private static CommentPage readCommentPage(JsonParser p) throws IOException {
+        int startAt = 0, total = 0;
+        List<String> texts = new ArrayList<>();
+        if (p.nextToken() != JsonToken.START_OBJECT) return new CommentPage(0, 0, texts);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken t = p.nextToken();
+            if ("startAt".equals(name)) {
+                startAt = p.getValueAsInt(0);
+            } else if ("total".equals(name)) {
+                total = p.getValueAsInt(0);
+            } else if ("comments".equals(name) && t == JsonToken.START_ARRAY) {
+                while (nextElement(p)) {
+                    StringBuilder sb = new StringBuilder();
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = p.currentName();
+                        JsonToken ft = p.nextToken();
+                        if ("body".equals(field) && ft == JsonToken.VALUE_STRING) {
+                            sb.append(p.getText());
+                        } else if ("body".equals(field) && ft.isStructStart()) {
+                            appendDocumentText(p, sb);
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                    texts.add(sb.toString());
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+        return new CommentPage(startAt, total, texts);
+    }
+
+    /**
+     * Concatenates every {@code text} member inside an Atlassian document node.
+     * The parser is on the node's start token and is left on its end token.
+     */
+    private static void appendDocumentText(JsonParser p, StringBuilder sb) throws IOException {
+        int depth = 1;
+        while (depth > 0) {
+            JsonToken t = p.nextToken();
+            if (t == null) return;
+            if (t.isStructStart()) {
+                depth++;
+            } else if (t.isStructEnd()) {
+                depth--;
+            } else if (t == JsonToken.FIELD_NAME && "text".equals(p.currentName())) {
+                if (p.nextToken() == JsonToken.VALUE_STRING) sb.append(p.getText());
+                else p.skipChildren();
+            }
+        }
+    }
+
+    /** Advances to the next object in the current array, skipping non-object elements. */
+    private static boolean nextElement(JsonParser p) throws IOException {
+        JsonToken t;
+        while ((t = p.nextToken()) != null && t != JsonToken.END_ARRAY) {
+            if (t == JsonToken.START_OBJECT) return true;
+            p.skipChildren();
+        }
+        return false;
+    }
+
+    /** Reads one member of the object the parser is on, skipping the rest of it. */
+    private static String member(JsonParser p, String wanted) throws IOException {
+        String value = "";
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            p.nextToken();
+            if (wanted.equals(name)) value = scalar(p);
+            else p.skipChildren();
+        }
+        return value;
+    }
+
+    private static String scalar(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == null || t == JsonToken.VALUE_NULL) return "";
+        if (t.isScalarValue()) return p.getText();
+        p.skipChildren();
+        return "";
+    }
+}
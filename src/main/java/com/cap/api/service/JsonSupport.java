@@ -0,0 +1,22 @@
+package com.cap.api.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Shared Jackson configuration. ObjectMapper is thread-safe once configured and expensive
+ * to build (it caches serializers and deserializers), so callers use this instance instead
+ * of creating one per request.
+ */
+public final class JsonSupport {
+
+    public static final ObjectMapper MAPPER = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /** Factory for streaming parsers, sharing the mapper's symbol tables. */
+    public static final JsonFactory FACTORY = MAPPER.getFactory();
+
+    private JsonSupport() {
+    }
+}
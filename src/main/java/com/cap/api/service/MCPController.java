@@ -1,11 +1,14 @@
 package com.cap.api.service;
 
+import com.cap.api.service.agent.JiraWebhookIngestor;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
 import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 
+import java.util.Map;
+
 @RestController
 @RequestMapping("/mcp")
 public class MCPController {
@@ -13,6 +16,9 @@ public class MCPController {
     @SuppressWarnings("unused")
     private OAuth2AuthorizedClientService authorizedClientService;
 
+    @Autowired
+    private JiraWebhookIngestor jiraWebhookIngestor;
+
     // Authentication status endpoint
     @GetMapping("/auth/status")
     public ResponseEntity<String> authStatus(OAuth2AuthenticationToken authentication) {
@@ -29,11 +35,31 @@ public class MCPController {
         return ResponseEntity.ok("Data sync triggered");
     }
 
-    // Webhook handler endpoint (stub)
+    // Jira webhook: verify, dedupe and queue; processing happens off the request thread
     @PostMapping("/webhook")
-    public ResponseEntity<String> handleWebhook(@RequestBody String payload) {
-        // Implement webhook logic here
-        return ResponseEntity.ok("Webhook received");
+    public ResponseEntity<String> handleWebhook(@RequestBody byte[] payload,
+                                                @RequestHeader(value = "X-Hub-Signature", required = false) String signature) {
+        JiraWebhookIngestor.Result result = jiraWebhookIngestor.ingest(payload, signature);
+        switch (result) {
+            case ACCEPTED:
+                return ResponseEntity.accepted().body("Webhook queued");
+            case DUPLICATE:
+            case IGNORED:
+                return ResponseEntity.ok("Webhook ignored: " + result.name().toLowerCase());
+            case UNAUTHORIZED:
+                return ResponseEntity.status(401).body("Invalid signature");
+            case DISABLED:
+                return ResponseEntity.status(404).body("Webhook not configured");
+            case BUSY:
+                return ResponseEntity.status(503).header("Retry-After", "5").body("Webhook queue full");
+            default:
+                return ResponseEntity.badRequest().body("Malformed payload");
+        }
+    }
+
+    @GetMapping("/webhook/stats")
+    public ResponseEntity<Map<String, Object>> webhookStats() {
+        return ResponseEntity.ok(jiraWebhookIngestor.getStats());
     }
 
     // Reporting endpoint (stub)
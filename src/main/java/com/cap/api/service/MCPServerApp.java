@@ -5,10 +5,15 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
+import java.util.Map;
+
 @SpringBootApplication
 @EnableScheduling
 public class MCPServerApp {
     public static void main(String[] args) {
-        SpringApplication.run(MCPServerApp.class, args);
+        SpringApplication app = new SpringApplication(MCPServerApp.class);
+        // Lowest-precedence defaults; application.yaml still overrides them
+        app.setDefaultProperties(Map.of("management.endpoints.web.exposure.include", "health,prometheus"));
+        app.run(args);
     }
 }
@@ -25,6 +25,10 @@ public class SecurityConfig {
         http
             .authorizeHttpRequests(auth -> auth
                 .requestMatchers("/mcp/sync").permitAll()
+                // Jira cannot log in; the payload is authenticated by its HMAC signature instead
+                .requestMatchers(org.springframework.http.HttpMethod.POST, "/mcp/webhook").permitAll()
+                // Prometheus scrapes without a login; keep the port off the public network
+                .requestMatchers("/actuator/health", "/actuator/prometheus").permitAll()
                 .requestMatchers("/logout").permitAll()
                 .anyRequest().authenticated()
             );
@@ -38,7 +42,7 @@ public class SecurityConfig {
                 .logoutSuccessUrl("/")
             );
         http
-            .csrf();
+            .csrf(csrf -> csrf.ignoringRequestMatchers("/mcp/webhook"));
         return http.build();
     }
 
@@ -0,0 +1,131 @@
+package com.cap.api.service.agent;
+
+import com.cap.api.service.JsonSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Drives {@link DefectProcessingAgent#processDefects()} once against the
+ * {@link UpstreamStandInServer} and reports tickets/minute, per-stage latency percentiles,
+ * LLM usage and JVM resource use. Run with {@code --spring.profiles.active=bench}; the report
+ * goes to the log and to {@code agent_generated/bench/report-<timestamp>.json}. When
+ * {@code agent.bench.minTicketsPerMinute} is set, a lower throughput exits with status 1 so
+ * CI can gate performance changes offline.
+ */
+@Component
+@Profile("bench")
+public class AgentBenchmarkRunner implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(AgentBenchmarkRunner.class);
+    private static final String REPORT_DIR = "agent_generated/bench";
+
+    @Value("${agent.bench.minTicketsPerMinute:0}")
+    private double minTicketsPerMinute;
+    @Value("${agent.bench.exitOnFinish:true}")
+    private boolean exitOnFinish;
+
+    @Autowired
+    private DefectProcessingAgent agent;
+    @Autowired
+    private UpstreamStandInServer standIn;
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        int tickets = standIn.getTickets();
+        log.info("Benchmark: driving {} synthetic ticket(s) through the defect agent", tickets);
+        ResourceSample before = ResourceSample.take();
+        long started = System.nanoTime();
+        agent.processDefects();
+        long elapsedNanos = System.nanoTime() - started;
+        ResourceSample after = ResourceSample.take();
+
+        Map<String, Object> pipeline = agent.getPipelineStats();
+        long completed = completedTickets(pipeline);
+        double elapsedMinutes = elapsedNanos / 60e9;
+        double ticketsPerMinute = elapsedMinutes > 0 ? completed / elapsedMinutes : 0;
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("tickets", tickets);
+        report.put("completed", completed);
+        report.put("elapsedMillis", elapsedNanos / 1_000_000);
+        report.put("ticketsPerMinute", Math.round(ticketsPerMinute * 10) / 10.0);
+        report.put("pipeline", pipeline);
+        report.put("llmUsage", agent.getLlmUsageStats());
+        report.put("upstreamRequests", standIn.getRequestCounts());
+        report.put("resources", after.since(before));
+
+        String json = JsonSupport.MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(report);
+        Path out = Path.of(REPORT_DIR, "report-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json");
+        Files.createDirectories(out.getParent());
+        Files.writeString(out, json);
+        log.info("Benchmark finished: {} of {} ticket(s) in {} ms, {} tickets/min; report written to {}\n{}",
+            completed, tickets, elapsedNanos / 1_000_000, report.get("ticketsPerMinute"), out, json);
+
+        boolean passed = minTicketsPerMinute <= 0 || ticketsPerMinute >= minTicketsPerMinute;
+        if (!passed) {
+            log.error("Benchmark below threshold: {} tickets/min < agent.bench.minTicketsPerMinute={}",
+                report.get("ticketsPerMinute"), minTicketsPerMinute);
+        }
+        if (exitOnFinish) {
+            int code = SpringApplication.exit(context, () -> passed ? 0 : 1);
+            System.exit(code);
+        }
+    }
+
+    /** Tickets that left the last (Jira comment) stage successfully. */
+    private static long completedTickets(Map<String, Object> pipeline) {
+        Object comment = pipeline.get("comment");
+        if (comment instanceof Map<?, ?> stage && stage.get("completed") instanceof Number n) {
+            return n.longValue();
+        }
+        return 0;
+    }
+
+    /** Cumulative CPU and GC counters plus heap and thread peaks. */
+    private record ResourceSample(long cpuNanos, long gcCount, long gcMillis, long heapPeakBytes, int threadPeak) {
+        static ResourceSample take() {
+            long gcCount = 0, gcMillis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcCount += Math.max(0, gc.getCollectionCount());
+                gcMillis += Math.max(0, gc.getCollectionTime());
+            }
+            long heapPeak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) heapPeak += pool.getPeakUsage().getUsed();
+            }
+            long cpu = ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os
+                ? os.getProcessCpuTime() : -1;
+            return new ResourceSample(cpu, gcCount, gcMillis, heapPeak, ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        }
+
+        Map<String, Object> since(ResourceSample before) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("cpuMillis", cpuNanos < 0 ? null : (cpuNanos - before.cpuNanos) / 1_000_000);
+            m.put("gcCount", gcCount - before.gcCount);
+            m.put("gcMillis", gcMillis - before.gcMillis);
+            m.put("heapPeakMb", heapPeakBytes / (1024 * 1024));
+            m.put("threadPeak", threadPeak);
+            return m;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.cap.api.service.agent;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coordinates agent replicas through three tables in the application database (the local
+ * H2 works for a single host; point {@code spring.datasource} at a shared database for a
+ * real cluster):
+ * <ul>
+ *   <li>{@code agent_cluster_nodes}: one heartbeat row per live node.</li>
+ *   <li>{@code agent_cluster_leader}: a single leased row; only its holder polls in LEADER mode.</li>
+ *   <li>{@code agent_ticket_claims}: a leased claim per issue key, renewed while the ticket is
+ *       in flight and turned into a DONE marker when it completes, so no two nodes process
+ *       the same ticket regardless of mode.</li>
+ * </ul>
+ * In PARTITION mode every node polls but only enqueues the issue keys it owns by rendezvous
+ * hashing over live nodes; when a node stops heartbeating its keys move to the survivors
+ * and its claims expire after the lease.
+ */
+@Component
+public class AgentClusterCoordinator {
+    private static final Logger log = LoggerFactory.getLogger(AgentClusterCoordinator.class);
+
+    public enum Mode { NONE, LEADER, PARTITION }
+
+    @Value("${agent.cluster.mode:NONE}")
+    private Mode mode;
+    @Value("${agent.cluster.nodeId:}")
+    private String configuredNodeId;
+    @Value("${agent.cluster.leaseMs:30000}")
+    private long leaseMs;
+    @Value("${agent.cluster.claimLeaseMs:600000}")
+    private long claimLeaseMs;
+    @Value("${agent.cluster.doneRetentionMs:604800000}")
+    private long doneRetentionMs;
+
+    @Autowired(required = false)
+    private JdbcTemplate jdbcTemplate;
+
+    private String nodeId;
+    private final Set<String> heldClaims = ConcurrentHashMap.newKeySet();
+    private volatile List<String> liveNodes = List.of();
+    private volatile long leaderUntil;
+    private volatile long lastHeartbeatAt;
+
+    @PostConstruct
+    public void start() {
+        nodeId = configuredNodeId != null && !configuredNodeId.isBlank() ? configuredNodeId : defaultNodeId();
+        liveNodes = List.of(nodeId);
+        if (!isClustered()) return;
+        if (jdbcTemplate == null) {
+            log.warn("agent.cluster.mode={} but no DataSource is configured; running as a single node", mode);
+            mode = Mode.NONE;
+            return;
+        }
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS agent_cluster_nodes ("
+            + "node_id VARCHAR(128) PRIMARY KEY, heartbeat_at BIGINT NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS agent_cluster_leader ("
+            + "id INT PRIMARY KEY, node_id VARCHAR(128) NOT NULL, lease_until BIGINT NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS agent_ticket_claims ("
+            + "issue_key VARCHAR(64) PRIMARY KEY, node_id VARCHAR(128) NOT NULL, "
+            + "state VARCHAR(16) NOT NULL, lease_until BIGINT NOT NULL)");
+        log.info("Agent node {} joining cluster in {} mode", nodeId, mode);
+        heartbeat();
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "node";
+        }
+        return host + "-" + ProcessHandle.current().pid() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    public boolean isClustered() {
+        return mode != null && mode != Mode.NONE;
+    }
+
+    /**
+     * Renews this node's heartbeat, leadership and in-flight claims, and refreshes the live
+     * node list used for partitioning.
+     */
+    @Scheduled(fixedDelayString = "${agent.cluster.heartbeatMs:10000}")
+    public void heartbeat() {
+        if (!isClustered()) return;
+        long now = System.currentTimeMillis();
+        try {
+            if (jdbcTemplate.update("UPDATE agent_cluster_nodes SET heartbeat_at = ? WHERE node_id = ?", now, nodeId) == 0) {
+                insertIgnoringDuplicate("INSERT INTO agent_cluster_nodes (node_id, heartbeat_at) VALUES (?, ?)", nodeId, now);
+            }
+            liveNodes = jdbcTemplate.queryForList(
+                "SELECT node_id FROM agent_cluster_nodes WHERE heartbeat_at >= ? ORDER BY node_id", String.class, now - leaseMs);
+            if (mode == Mode.LEADER) {
+                renewLeadership(now);
+            }
+            if (!heldClaims.isEmpty()) {
+                jdbcTemplate.update("UPDATE agent_ticket_claims SET lease_until = ? WHERE node_id = ? AND state = 'CLAIMED'",
+                    now + claimLeaseMs, nodeId);
+            }
+            // housekeeping: long-dead nodes and expired DONE markers
+            jdbcTemplate.update("DELETE FROM agent_cluster_nodes WHERE heartbeat_at < ?", now - 10 * leaseMs);
+            jdbcTemplate.update("DELETE FROM agent_ticket_claims WHERE state = 'DONE' AND lease_until < ?", now);
+            lastHeartbeatAt = now;
+        } catch (DataAccessException e) {
+            log.warn("Cluster heartbeat failed for node {}: {}", nodeId, e.getMessage());
+        }
+    }
+
+    private void renewLeadership(long now) {
+        boolean wasLeader = isLeader();
+        long until = now + leaseMs;
+        int updated = jdbcTemplate.update(
+            "UPDATE agent_cluster_leader SET node_id = ?, lease_until = ? WHERE id = 1 AND (node_id = ? OR lease_until < ?)",
+            nodeId, until, nodeId, now);
+        if (updated == 0) {
+            updated = insertIgnoringDuplicate("INSERT INTO agent_cluster_leader (id, node_id, lease_until) VALUES (1, ?, ?)", nodeId, until);
+        }
+        // keep a safety margin so a slow heartbeat drops leadership before the lease lapses
+        leaderUntil = updated > 0 ? until - leaseMs / 3 : 0;
+        if (isLeader() != wasLeader) {
+            log.info("Node {} {} leadership", nodeId, isLeader() ? "acquired" : "lost");
+        }
+    }
+
+    private int insertIgnoringDuplicate(String sql, Object... args) {
+        try {
+            return jdbcTemplate.update(sql, args);
+        } catch (DuplicateKeyException e) {
+            return 0;
+        }
+    }
+
+    public boolean isLeader() {
+        return System.currentTimeMillis() < leaderUntil;
+    }
+
+    /** Whether this node should run the Jira poll at all. */
+    public boolean shouldPoll() {
+        return mode != Mode.LEADER || isLeader();
+    }
+
+    /**
+     * Whether a polled issue belongs to this node. Only PARTITION mode splits keys; the
+     * owner is the live node with the highest hash of (node, issue key).
+     */
+    public boolean owns(String issueKey) {
+        if (mode != Mode.PARTITION) return true;
+        List<String> nodes = liveNodes;
+        if (nodes.isEmpty() || !nodes.contains(nodeId)) return true;
+        String owner = null;
+        long best = Long.MIN_VALUE;
+        for (String node : nodes) {
+            long score = mix(node.hashCode() * 31L + issueKey.hashCode());
+            if (owner == null || score > best) {
+                best = score;
+                owner = node;
+            }
+        }
+        return nodeId.equals(owner);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Takes the cluster-wide claim on a ticket. Fails if another node holds a live claim or
+     * the ticket is already DONE; an expired claim (dead node) can be taken over. Fails
+     * closed when the database is unreachable.
+     */
+    public boolean tryClaim(String issueKey) {
+        if (!isClustered()) return true;
+        long now = System.currentTimeMillis();
+        try {
+            int updated = jdbcTemplate.update(
+                "UPDATE agent_ticket_claims SET node_id = ?, lease_until = ? WHERE issue_key = ? AND state = 'CLAIMED' AND (node_id = ? OR lease_until < ?)",
+                nodeId, now + claimLeaseMs, issueKey, nodeId, now);
+            if (updated == 0) {
+                updated = insertIgnoringDuplicate(
+                    "INSERT INTO agent_ticket_claims (issue_key, node_id, state, lease_until) VALUES (?, ?, 'CLAIMED', ?)",
+                    issueKey, nodeId, now + claimLeaseMs);
+            }
+            if (updated > 0) {
+                heldClaims.add(issueKey);
+                return true;
+            }
+            log.debug("Ticket {} is claimed by another node or already done", issueKey);
+            return false;
+        } catch (DataAccessException e) {
+            log.warn("Could not claim {}: {}", issueKey, e.getMessage());
+            return false;
+        }
+    }
+
+    /** Marks a claimed ticket DONE so no node picks it up again within the retention. */
+    public void complete(String issueKey) {
+        if (!isClustered() || !heldClaims.remove(issueKey)) return;
+        try {
+            jdbcTemplate.update("UPDATE agent_ticket_claims SET state = 'DONE', lease_until = ? WHERE issue_key = ? AND node_id = ?",
+                System.currentTimeMillis() + doneRetentionMs, issueKey, nodeId);
+        } catch (DataAccessException e) {
+            log.warn("Could not mark {} done: {}", issueKey, e.getMessage());
+        }
+    }
+
+    /** Gives up a claim (failed or not queued) so any node may retry the ticket. */
+    public void release(String issueKey) {
+        if (!isClustered() || !heldClaims.remove(issueKey)) return;
+        try {
+            jdbcTemplate.update("DELETE FROM agent_ticket_claims WHERE issue_key = ? AND node_id = ? AND state = 'CLAIMED'", issueKey, nodeId);
+        } catch (DataAccessException e) {
+            log.warn("Could not release {}: {}", issueKey, e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("mode", mode == null ? null : mode.name());
+        m.put("nodeId", nodeId);
+        m.put("leader", mode == Mode.LEADER ? isLeader() : null);
+        m.put("liveNodes", liveNodes);
+        m.put("heldClaims", heldClaims.size());
+        m.put("lastHeartbeatAt", lastHeartbeatAt);
+        return m;
+    }
+
+    /**
+     * Leaves the cluster: hands leadership and unfinished claims back immediately instead of
+     * letting the survivors wait out the leases.
+     */
+    @PreDestroy
+    public void stop() {
+        if (!isClustered() || jdbcTemplate == null) return;
+        try {
+            jdbcTemplate.update("DELETE FROM agent_ticket_claims WHERE node_id = ? AND state = 'CLAIMED'", nodeId);
+            jdbcTemplate.update("DELETE FROM agent_cluster_leader WHERE node_id = ?", nodeId);
+            jdbcTemplate.update("DELETE FROM agent_cluster_nodes WHERE node_id = ?", nodeId);
+        } catch (DataAccessException e) {
+            log.warn("Could not leave cluster cleanly: {}", e.getMessage());
+        }
+        heldClaims.clear();
+        leaderUntil = 0;
+    }
+}
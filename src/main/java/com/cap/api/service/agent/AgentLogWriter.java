@@ -0,0 +1,321 @@
+package com.cap.api.service.agent;
+
+import com.cap.api.service.JsonSupport;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Asynchronous JSON-lines writer for agent artifacts (defect_agent_log, last_suggestions).
+ * Callers only enqueue; a single writer thread drains the bounded queue in batches, writes
+ * each file once per batch (group commit), fsyncs according to {@code agent.log.fsync}
+ * and rotates files by size or age, gzipping rotated files off the writer thread.
+ * When the queue is full, records are dropped and counted rather than blocking the caller.
+ */
+@Component
+public class AgentLogWriter {
+    private static final Logger log = LoggerFactory.getLogger(AgentLogWriter.class);
+    private static final ObjectMapper MAPPER = JsonSupport.MAPPER;
+    private static final DateTimeFormatter ROTATE_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    public static final Path DEFECT_AGENT_LOG = Path.of("defect_agent_log.jsonl");
+    public static final Path LAST_SUGGESTIONS = Path.of("agent_generated", "last_suggestions.jsonl");
+
+    /** NONE leaves flushing to the OS, BATCH fsyncs every group commit, INTERVAL at most every fsyncIntervalMs. */
+    public enum FsyncPolicy { NONE, BATCH, INTERVAL }
+
+    @Value("${agent.log.queueCapacity:10000}")
+    private int queueCapacity;
+    @Value("${agent.log.maxBatch:512}")
+    private int maxBatch;
+    @Value("${agent.log.fsync:INTERVAL}")
+    private FsyncPolicy fsyncPolicy;
+    @Value("${agent.log.fsyncIntervalMs:1000}")
+    private long fsyncIntervalMs;
+    @Value("${agent.log.maxBytes:10485760}")
+    private long maxBytes;
+    @Value("${agent.log.rotateIntervalMs:86400000}")
+    private long rotateIntervalMs;
+    @Value("${agent.log.keepRotated:10}")
+    private int keepRotated;
+
+    private static final class Entry {
+        final Path file;
+        final byte[] line;
+        final CompletableFuture<Void> barrier;
+
+        Entry(Path file, byte[] line, CompletableFuture<Void> barrier) {
+            this.file = file;
+            this.line = line;
+            this.barrier = barrier;
+        }
+    }
+
+    private static final class OpenFile {
+        FileChannel channel;
+        long size;
+        long openedAt;
+        boolean dirty;
+    }
+
+    private static final Entry STOP = new Entry(null, null, null);
+
+    private BlockingQueue<Entry> queue;
+    private final Map<Path, OpenFile> files = new HashMap<>();
+    private final ExecutorService compressor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "agent-log-compressor");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private Thread writer;
+    private long lastFsyncAt;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(Math.max(16, queueCapacity));
+        writer = new Thread(this::runWriter, "agent-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues one JSON line for {@code file}. Never blocks; returns false if the record was dropped.
+     */
+    public boolean append(Path file, String type, Map<String, Object> fields) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("ts", Instant.now().toString());
+        record.put("type", type);
+        record.putAll(fields);
+        byte[] line;
+        try {
+            line = (MAPPER.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.warn("Could not serialize {} record: {}", type, e.getMessage());
+            return false;
+        }
+        if (queue == null || !queue.offer(new Entry(file, line, null))) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits until everything queued so far is written (and fsynced unless the policy is
+     * NONE). For callers that are about to read the files (e.g. committing them), not for
+     * the processing hot path.
+     */
+    public boolean flush(long timeoutMs) {
+        CompletableFuture<Void> barrier = new CompletableFuture<>();
+        try {
+            if (queue == null || !queue.offer(new Entry(null, null, barrier), timeoutMs, TimeUnit.MILLISECONDS)) return false;
+            barrier.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void runWriter() {
+        List<Entry> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                Entry first = queue.poll(fsyncPolicy == FsyncPolicy.INTERVAL ? fsyncIntervalMs : 1000, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, Math.max(1, maxBatch) - 1);
+                }
+                List<CompletableFuture<Void>> barriers = new ArrayList<>();
+                Map<Path, List<byte[]>> byFile = new LinkedHashMap<>();
+                for (Entry e : batch) {
+                    if (e == STOP) {
+                        running = false;
+                    } else if (e.barrier != null) {
+                        barriers.add(e.barrier);
+                    } else {
+                        byFile.computeIfAbsent(e.file, f -> new ArrayList<>()).add(e.line);
+                    }
+                }
+                for (Map.Entry<Path, List<byte[]>> group : byFile.entrySet()) {
+                    writeGroup(group.getKey(), group.getValue());
+                }
+                if (!byFile.isEmpty()) batches.incrementAndGet();
+                long now = System.currentTimeMillis();
+                boolean fsync = !barriers.isEmpty() || !running
+                    || (fsyncPolicy == FsyncPolicy.BATCH && !byFile.isEmpty())
+                    || (fsyncPolicy == FsyncPolicy.INTERVAL && now - lastFsyncAt >= fsyncIntervalMs);
+                if (fsync) fsyncDirty();
+                barriers.forEach(b -> b.complete(null));
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (Exception e) {
+                log.error("Agent log writer error: {}", e.getMessage(), e);
+                batch.clear();
+            }
+        }
+        closeAll();
+    }
+
+    private void writeGroup(Path file, List<byte[]> lines) throws IOException {
+        OpenFile f = open(file);
+        int total = 0;
+        for (byte[] l : lines) total += l.length;
+        ByteBuffer buf = ByteBuffer.allocate(total);
+        for (byte[] l : lines) buf.put(l);
+        buf.flip();
+        while (buf.hasRemaining()) f.channel.write(buf);
+        f.size += total;
+        f.dirty = true;
+        written.addAndGet(lines.size());
+        if (f.size >= maxBytes || System.currentTimeMillis() - f.openedAt >= rotateIntervalMs) {
+            rotate(file, f);
+        }
+    }
+
+    private OpenFile open(Path file) throws IOException {
+        OpenFile f = files.get(file);
+        if (f == null) {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            f = new OpenFile();
+            f.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            f.size = f.channel.size();
+            f.openedAt = System.currentTimeMillis();
+            files.put(file, f);
+        }
+        return f;
+    }
+
+    private void rotate(Path file, OpenFile f) throws IOException {
+        f.channel.force(false);
+        f.channel.close();
+        files.remove(file);
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        // several rotations can fall in the same second (a burst, or a restart); the sequence keeps them apart
+        String stamp = LocalDateTime.now().format(ROTATE_SUFFIX);
+        Path rotated;
+        int seq = 0;
+        do {
+            rotated = file.resolveSibling(String.format("%s.%s-%03d%s", base, stamp, seq++, ext));
+        } while (Files.exists(rotated) || Files.exists(rotated.resolveSibling(rotated.getFileName() + ".gz")));
+        Files.move(file, rotated);
+        Path toCompress = rotated;
+        compressor.submit(() -> compress(toCompress, base, ext));
+    }
+
+    private void compress(Path rotated, String base, String ext) {
+        Path gz = rotated.resolveSibling(rotated.getFileName() + ".gz");
+        try (InputStream in = Files.newInputStream(rotated);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            log.warn("Could not compress {}: {}", rotated, e.getMessage());
+            return;
+        }
+        try {
+            Files.deleteIfExists(rotated);
+            Path dir = rotated.toAbsolutePath().getParent();
+            List<Path> old;
+            try (Stream<Path> s = Files.list(dir)) {
+                old = s.filter(p -> {
+                    String n = p.getFileName().toString();
+                    return n.startsWith(base + ".") && n.endsWith(ext + ".gz");
+                }).sorted().toList();
+            }
+            for (int i = 0; i < old.size() - Math.max(0, keepRotated); i++) {
+                Files.deleteIfExists(old.get(i));
+            }
+        } catch (IOException e) {
+            log.warn("Could not prune rotated logs for {}: {}", base, e.getMessage());
+        }
+    }
+
+    private void fsyncDirty() {
+        for (OpenFile f : files.values()) {
+            if (!f.dirty) continue;
+            try {
+                if (fsyncPolicy != FsyncPolicy.NONE) f.channel.force(false);
+                f.dirty = false;
+            } catch (IOException e) {
+                log.warn("fsync failed: {}", e.getMessage());
+            }
+        }
+        lastFsyncAt = System.currentTimeMillis();
+    }
+
+    private void closeAll() {
+        for (OpenFile f : files.values()) {
+            try {
+                f.channel.force(false);
+                f.channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close agent log: {}", e.getMessage());
+            }
+        }
+        files.clear();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("queued", queue == null ? 0 : queue.size());
+        m.put("written", written.get());
+        m.put("dropped", dropped.get());
+        m.put("batches", batches.get());
+        m.put("fsyncPolicy", fsyncPolicy == null ? null : fsyncPolicy.name());
+        return m;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (writer == null) return;
+        try {
+            queue.offer(STOP, 5, TimeUnit.SECONDS);
+            writer.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        compressor.shutdown();
+    }
+}
@@ -0,0 +1,183 @@
+package com.cap.api.service.agent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer instrumentation for the defect agent, scraped via {@code /actuator/prometheus}:
+ * <ul>
+ *   <li>{@code agent.upstream.requests}: timer per upstream (jira, openai, github) and operation, with outcome.</li>
+ *   <li>{@code agent.upstream.inflight}: calls currently open per upstream.</li>
+ *   <li>{@code agent.pipeline.stage}: timer per pipeline stage and outcome.</li>
+ *   <li>{@code agent.git.command}: timer per git subcommand and outcome.</li>
+ *   <li>{@code agent.llm.tokens}: prompt/cached/completion tokens from the OpenAI {@code usage} field, per task.</li>
+ *   <li>{@code agent.failures}: failures per component and cause (HTTP status, timeout, ...).</li>
+ * </ul>
+ * Timers publish percentile histograms so latency quantiles can be aggregated across nodes.
+ */
+@Component
+public class AgentMetrics {
+    private static final Logger log = LoggerFactory.getLogger(AgentMetrics.class);
+
+    @Autowired(required = false)
+    private MeterRegistry registry;
+
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (registry == null) {
+            // no Actuator registry (e.g. a slimmed-down deployment): keep recording in memory
+            log.info("No MeterRegistry configured; agent metrics are kept in a SimpleMeterRegistry");
+            registry = new SimpleMeterRegistry();
+        }
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Runs an upstream call, timing it and tracking it as in flight. Exceptions are counted
+     * as failures by cause and rethrown.
+     */
+    public <T> T timeUpstream(String upstream, String operation, Callable<T> call) throws Exception {
+        AtomicInteger active = upstreamInFlight(upstream);
+        active.incrementAndGet();
+        long started = System.nanoTime();
+        String outcome = "success";
+        try {
+            return call.call();
+        } catch (Exception e) {
+            outcome = cause(e);
+            recordFailure(upstream, e);
+            throw e;
+        } finally {
+            active.decrementAndGet();
+            recordUpstream(upstream, operation, System.nanoTime() - started, outcome);
+        }
+    }
+
+    /** Records an upstream call timed by the caller. */
+    public void recordUpstream(String upstream, String operation, long nanos, String outcome) {
+        Timer.builder("agent.upstream.requests")
+            .description("Latency of calls to Jira, Azure OpenAI and GitHub")
+            .tags("upstream", upstream, "operation", operation, "outcome", outcome)
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Tracks open calls for upstreams timed outside {@link #timeUpstream}. */
+    public AtomicInteger upstreamInFlight(String upstream) {
+        return inFlight.computeIfAbsent(upstream, u -> {
+            AtomicInteger active = new AtomicInteger();
+            Gauge.builder("agent.upstream.inflight", active, AtomicInteger::get)
+                .description("Upstream calls currently in flight")
+                .tags("upstream", u)
+                .register(registry);
+            return active;
+        });
+    }
+
+    public void recordStage(String stage, long nanos, boolean succeeded) {
+        Timer.builder("agent.pipeline.stage")
+            .description("Time a ticket spends in each defect pipeline stage")
+            .tags("stage", stage, "outcome", succeeded ? "success" : "failure")
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordGitCommand(String command, long nanos, int exitCode) {
+        recordGitCommand(command, nanos, exitCode, false);
+    }
+
+    public void recordGitCommand(String command, long nanos, int exitCode, boolean timedOut) {
+        String outcome = timedOut ? "timeout" : exitCode == 0 ? "success" : "exit_nonzero";
+        Timer.builder("agent.git.command")
+            .description("Duration of git subprocesses")
+            .tags("command", command, "outcome", outcome)
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+        if (timedOut) {
+            countFailure("git", "timeout");
+        } else if (exitCode != 0) {
+            countFailure("git", "exit_" + exitCode);
+        }
+    }
+
+    public void recordTokens(String task, long promptTokens, long completionTokens) {
+        recordTokens(task, promptTokens, 0, completionTokens);
+    }
+
+    /** As above; {@code cachedTokens} are the prompt tokens the provider served from its prompt cache. */
+    public void recordTokens(String task, long promptTokens, long cachedTokens, long completionTokens) {
+        if (promptTokens > 0) tokens(task, "prompt").increment(promptTokens);
+        if (cachedTokens > 0) tokens(task, "cached").increment(cachedTokens);
+        if (completionTokens > 0) tokens(task, "completion").increment(completionTokens);
+    }
+
+    private Counter tokens(String task, String type) {
+        return Counter.builder("agent.llm.tokens")
+            .description("Tokens reported in the OpenAI usage field")
+            .baseUnit("tokens")
+            .tags("task", task, "type", type)
+            .register(registry);
+    }
+
+    public void recordFailure(String component, Throwable error) {
+        countFailure(component, cause(error));
+    }
+
+    public void countFailure(String component, String cause) {
+        Counter.builder("agent.failures")
+            .description("Agent failures by component and cause")
+            .tags("component", component, "cause", cause)
+            .register(registry)
+            .increment();
+    }
+
+    /**
+     * Registers a gauge read from {@code value} on each scrape. The supplier is held
+     * strongly, so lambdas stay registered.
+     */
+    public void gauge(String name, String description, Supplier<? extends Number> value, String... tags) {
+        Gauge.builder(name, value, v -> {
+                Number n = v.get();
+                return n == null ? Double.NaN : n.doubleValue();
+            })
+            .description(description)
+            .tags(tags)
+            .strongReference(true)
+            .register(registry);
+    }
+
+    /** A low-cardinality cause tag: HTTP status, timeout, connect, unavailable or the exception type. */
+    static String cause(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof HttpStatusCodeException http) return "http_" + http.getStatusCode().value();
+            if (t instanceof java.net.SocketTimeoutException || t instanceof java.net.http.HttpTimeoutException) return "timeout";
+            if (t instanceof java.net.ConnectException || t instanceof java.net.UnknownHostException) return "connect";
+            if (t instanceof UpstreamRateLimiter.UpstreamUnavailableException) return "unavailable";
+        }
+        return error == null ? "unknown" : error.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,129 @@
+package com.cap.api.service.agent;
+
+import com.cap.api.service.JsonSupport;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Assembles a streamed ({@code stream=true}) chat completion from its server-sent events.
+ * Each {@code data:} line carries a chunk whose {@code choices[0].delta.content} is appended;
+ * {@code data: [DONE]} ends the stream. With {@code stopAfterCodeBlock} reading stops as soon
+ * as a complete fenced code block has arrived, which drops the model's trailing commentary.
+ * <p>
+ * Stopping early closes {@code in} before the end of the body. Spring's response close()
+ * drains whatever is left, so without that the call would still wait for the whole
+ * generation; closing the unfinished stream drops the connection instead. The final usage
+ * chunk is lost with it, which {@link Result#isUsageReported()} tells the caller.
+ */
+public class ChatCompletionStreamReader {
+    private static final ObjectMapper MAPPER = JsonSupport.MAPPER;
+    private static final String FENCE = "```";
+
+    @FunctionalInterface
+    public interface Listener {
+        void onChunk(int chunks, int chars);
+    }
+
+    public static class Result {
+        private final String content;
+        private final long promptTokens;
+        private final long cachedTokens;
+        private final long completionTokens;
+        private final int chunks;
+        private final boolean terminatedEarly;
+        private final boolean usageReported;
+
+        Result(String content, long promptTokens, long cachedTokens, long completionTokens, int chunks, boolean terminatedEarly,
+               boolean usageReported) {
+            this.content = content;
+            this.promptTokens = promptTokens;
+            this.cachedTokens = cachedTokens;
+            this.completionTokens = completionTokens;
+            this.chunks = chunks;
+            this.terminatedEarly = terminatedEarly;
+            this.usageReported = usageReported;
+        }
+
+        public String getContent() { return content; }
+        public long getPromptTokens() { return promptTokens; }
+        public long getCachedTokens() { return cachedTokens; }
+        public long getCompletionTokens() { return completionTokens; }
+        public int getChunks() { return chunks; }
+        public boolean isTerminatedEarly() { return terminatedEarly; }
+        /** Whether a usage chunk arrived; false when the stream was cut before it. */
+        public boolean isUsageReported() { return usageReported; }
+    }
+
+    public static Result read(InputStream in, boolean stopAfterCodeBlock, Listener listener) throws IOException {
+        StringBuilder content = new StringBuilder();
+        long promptTokens = 0;
+        long cachedTokens = 0;
+        long completionTokens = 0;
+        int chunks = 0;
+        boolean usageReported = false;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.startsWith("data:")) continue; // blank separators, comments, event names
+            String data = line.substring(5).trim();
+            if (data.isEmpty()) continue;
+            if ("[DONE]".equals(data)) break;
+            JsonNode chunk;
+            try {
+                chunk = MAPPER.readTree(data);
+            } catch (IOException e) {
+                continue;
+            }
+            JsonNode usage = chunk.path("usage");
+            if (usage.isObject()) {
+                usageReported = true;
+                promptTokens = usage.path("prompt_tokens").asLong(promptTokens);
+                cachedTokens = usage.path("prompt_tokens_details").path("cached_tokens").asLong(cachedTokens);
+                completionTokens = usage.path("completion_tokens").asLong(completionTokens);
+            }
+            JsonNode delta = chunk.path("choices").path(0).path("delta").path("content");
+            if (!delta.isTextual()) continue;
+            int scanFrom = Math.max(0, content.length() - FENCE.length());
+            content.append(delta.asText());
+            chunks++;
+            if (listener != null) listener.onChunk(chunks, content.length());
+            if (stopAfterCodeBlock) {
+                int end = closingFenceEnd(content, scanFrom);
+                if (end > 0) {
+                    content.setLength(end);
+                    abandon(in);
+                    return new Result(content.toString(), promptTokens, cachedTokens, completionTokens, chunks, true, usageReported);
+                }
+            }
+        }
+        return new Result(content.toString(), promptTokens, cachedTokens, completionTokens, chunks, false, usageReported);
+    }
+
+    /** Closes the body mid-stream, which makes the HTTP client drop the connection rather than read on. */
+    private static void abandon(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    /**
+     * Returns the end offset of the first closing fence at or after {@code scanFrom},
+     * or -1 while the first code block is still open.
+     */
+    private static int closingFenceEnd(StringBuilder text, int scanFrom) {
+        int open = text.indexOf(FENCE);
+        if (open < 0) return -1;
+        int bodyStart = text.indexOf("\n", open + FENCE.length());
+        if (bodyStart < 0) return -1;
+        int close = text.indexOf(FENCE, Math.max(bodyStart, scanFrom));
+        return close < 0 ? -1 : close + FENCE.length();
+    }
+}
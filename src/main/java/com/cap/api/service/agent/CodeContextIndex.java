@@ -0,0 +1,324 @@
+package com.cap.api.service.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Local retrieval over the project's Java sources for code-fix prompts. Files are split into
+ * method-level chunks (members at class depth, with their Javadoc and annotations; class
+ * headers and fields form their own chunk), chunk text is tokenized into split identifiers
+ * and comment words, and chunks are ranked with BM25. {@link #buildContext} packs the best
+ * chunks into a token budget estimated by {@link TokenEstimator}.
+ */
+@Component
+public class CodeContextIndex {
+    private static final Logger log = LoggerFactory.getLogger(CodeContextIndex.class);
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final Pattern WORD = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Pattern CAMEL = Pattern.compile("(?<=[a-z0-9])(?=[A-Z])|(?<=[A-Z])(?=[A-Z][a-z])|_");
+    private static final Set<String> STOPWORDS = Set.of(
+        "public", "private", "protected", "static", "final", "void", "return", "new", "this", "class",
+        "import", "package", "if", "else", "for", "while", "try", "catch", "throw", "throws", "null",
+        "true", "false", "int", "long", "boolean", "string", "the", "a", "an", "and", "or", "of", "to",
+        "in", "is", "it", "be", "on", "with", "as", "at", "by", "from", "that", "not", "java",
+        "util", "org", "com", "springframework", "override", "var");
+
+    @Value("${agent.context.enabled:true}")
+    private boolean enabled;
+    @Value("${agent.context.root:src/main/java}")
+    private String sourceRoot;
+    @Value("${agent.context.maxChunkLines:80}")
+    private int maxChunkLines;
+    @Value("${agent.context.refreshMs:300000}")
+    private long refreshMs;
+
+    /** A contiguous slice of one source file. */
+    public record Chunk(Path file, int startLine, int endLine, String text, int tokens) {
+    }
+
+    private static final class Index {
+        final List<Chunk> chunks;
+        final int[] lengths;
+        final double avgLength;
+        final Map<String, int[][]> postings;
+        final long builtAt = System.currentTimeMillis();
+
+        Index(List<Chunk> chunks, int[] lengths, Map<String, int[][]> postings) {
+            this.chunks = chunks;
+            this.lengths = lengths;
+            this.postings = postings;
+            this.avgLength = lengths.length == 0 ? 1 : Math.max(1, Arrays.stream(lengths).average().orElse(1));
+        }
+    }
+
+    @Autowired(required = false)
+    private SourceFileIndex sourceFileIndex;
+
+    private volatile Index index;
+
+    @PostConstruct
+    public void watchSources() {
+        // rebuild lazily after any source change instead of waiting for refreshMs
+        if (sourceFileIndex != null) sourceFileIndex.addListener(path -> invalidate());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Ranks chunks against {@code query} and concatenates the best ones that fit in
+     * {@code tokenBudget}. Returns an empty string when nothing relevant is found.
+     */
+    public String buildContext(String query, int tokenBudget) {
+        if (!enabled || query == null || query.isBlank() || tokenBudget <= 0) return "";
+        Index idx = index();
+        List<Integer> ranked = rank(idx, query);
+        StringBuilder sb = new StringBuilder();
+        int remaining = tokenBudget;
+        int packed = 0;
+        for (int i : ranked) {
+            Chunk c = idx.chunks.get(i);
+            String header = "// " + c.file() + " lines " + c.startLine() + "-" + c.endLine() + "\n";
+            int cost = c.tokens() + TokenEstimator.estimate(header);
+            if (cost > remaining) continue;
+            sb.append(header).append(c.text()).append('\n');
+            remaining -= cost;
+            packed++;
+            if (remaining < 32) break;
+        }
+        if (packed == 0) return "";
+        log.info("Packed {} source snippet(s), ~{} tokens of context", packed, tokenBudget - remaining);
+        return "Relevant source code from the repository:\n```java\n" + sb + "```";
+    }
+
+    /** Chunk indexes with a positive BM25 score, best first. */
+    private List<Integer> rank(Index idx, String query) {
+        Map<String, Integer> queryTerms = new HashMap<>();
+        for (String t : tokenize(query)) queryTerms.merge(t, 1, Integer::sum);
+        double[] scores = new double[idx.chunks.size()];
+        int n = idx.chunks.size();
+        for (String term : queryTerms.keySet()) {
+            int[][] post = idx.postings.get(term);
+            if (post == null) continue;
+            int df = post[0].length;
+            double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+            for (int j = 0; j < df; j++) {
+                int doc = post[0][j];
+                int tf = post[1][j];
+                double norm = tf + K1 * (1 - B + B * idx.lengths[doc] / idx.avgLength);
+                scores[doc] += idf * tf * (K1 + 1) / norm;
+            }
+        }
+        List<Integer> ranked = new ArrayList<>();
+        for (int i = 0; i < n; i++) if (scores[i] > 0) ranked.add(i);
+        ranked.sort((a, b) -> Double.compare(scores[b], scores[a]));
+        return ranked;
+    }
+
+    private Index index() {
+        Index idx = index;
+        if (idx == null || (refreshMs > 0 && System.currentTimeMillis() - idx.builtAt > refreshMs)) {
+            synchronized (this) {
+                if (index == idx) {
+                    index = build();
+                }
+                idx = index;
+            }
+        }
+        return idx;
+    }
+
+    /** Drops the current index so the next query rebuilds it. */
+    public void invalidate() {
+        index = null;
+    }
+
+    private Index build() {
+        long started = System.currentTimeMillis();
+        List<Chunk> chunks = new ArrayList<>();
+        Path root = Path.of(sourceRoot);
+        if (Files.isDirectory(root)) {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.filter(p -> p.toString().endsWith(".java")).forEach(p -> chunkFile(p, chunks));
+            } catch (IOException e) {
+                log.warn("Could not index {}: {}", root, e.getMessage());
+            }
+        }
+        Map<String, Map<Integer, Integer>> tf = new HashMap<>();
+        int[] lengths = new int[chunks.size()];
+        for (int i = 0; i < chunks.size(); i++) {
+            List<String> terms = tokenize(chunks.get(i).text());
+            lengths[i] = terms.size();
+            for (String t : terms) {
+                tf.computeIfAbsent(t, k -> new LinkedHashMap<>()).merge(i, 1, Integer::sum);
+            }
+        }
+        Map<String, int[][]> postings = new HashMap<>(tf.size() * 2);
+        for (Map.Entry<String, Map<Integer, Integer>> e : tf.entrySet()) {
+            int[][] post = new int[2][e.getValue().size()];
+            int j = 0;
+            for (Map.Entry<Integer, Integer> p : e.getValue().entrySet()) {
+                post[0][j] = p.getKey();
+                post[1][j] = p.getValue();
+                j++;
+            }
+            postings.put(e.getKey(), post);
+        }
+        log.info("Indexed {} source chunk(s), {} term(s) from {} in {} ms", chunks.size(), postings.size(), root, System.currentTimeMillis() - started);
+        return new Index(chunks, lengths, postings);
+    }
+
+    /**
+     * Splits a file at class-member boundaries by tracking brace depth (string, char and
+     * comment contents are ignored). Members longer than maxChunkLines are windowed.
+     */
+    private void chunkFile(Path file, List<Chunk> out) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.debug("Skipping {}: {}", file, e.getMessage());
+            return;
+        }
+        List<String> header = new ArrayList<>();
+        int headerStart = -1;
+        int depth = 0;
+        int memberStart = -1;
+        int leadStart = -1;
+        boolean inBlockComment = false;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            String trimmed = line.trim();
+            int before = depth;
+            int[] state = braceDelta(line, inBlockComment);
+            depth += state[0];
+            inBlockComment = state[1] == 1;
+            if (memberStart >= 0) {
+                if (depth <= 1) {
+                    addChunk(file, lines, memberStart, i, out);
+                    memberStart = -1;
+                    leadStart = -1;
+                }
+                continue;
+            }
+            if (before == 1 && depth > 1) {
+                memberStart = leadStart >= 0 ? leadStart : i;
+                continue;
+            }
+            // Javadoc, annotations and signature lines wrapped before the opening brace lead into the member
+            if (before == 1 && depth == 1 && !trimmed.isEmpty() && !trimmed.endsWith(";") && !trimmed.equals("}")) {
+                if (leadStart < 0) leadStart = i;
+                continue;
+            }
+            if (before == 1 && trimmed.isEmpty()) {
+                leadStart = -1;
+                continue;
+            }
+            if (trimmed.startsWith("import ") || trimmed.startsWith("package ") || trimmed.isEmpty()) continue;
+            // class declaration, fields and anything else at depth 0/1 go to the header chunk
+            if (leadStart >= 0) {
+                for (int j = leadStart; j < i; j++) header.add(lines.get(j));
+                leadStart = -1;
+            }
+            if (headerStart < 0) headerStart = i;
+            header.add(line);
+        }
+        if (!header.isEmpty()) {
+            String text = String.join("\n", header);
+            out.add(new Chunk(file, headerStart + 1, headerStart + header.size(), text, TokenEstimator.estimate(text)));
+        }
+    }
+
+    private void addChunk(Path file, List<String> lines, int start, int end, List<Chunk> out) {
+        int window = Math.max(10, maxChunkLines);
+        for (int s = start; s <= end; s += window) {
+            int e = Math.min(end, s + window - 1);
+            String text = String.join("\n", lines.subList(s, e + 1));
+            out.add(new Chunk(file, s + 1, e + 1, text, TokenEstimator.estimate(text)));
+        }
+    }
+
+    /** Returns {net brace change, 1 if the line ends inside a block comment}. */
+    private static int[] braceDelta(String line, boolean inBlockComment) {
+        int delta = 0;
+        boolean inString = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            char next = i + 1 < line.length() ? line.charAt(i + 1) : 0;
+            if (inBlockComment) {
+                if (c == '*' && next == '/') {
+                    inBlockComment = false;
+                    i++;
+                }
+            } else if (inString) {
+                if (c == '\\') i++;
+                else if (c == quote) inString = false;
+            } else if (c == '/' && next == '/') {
+                break;
+            } else if (c == '/' && next == '*') {
+                inBlockComment = true;
+                i++;
+            } else if (c == '"' || c == '\'') {
+                inString = true;
+                quote = c;
+            } else if (c == '{') {
+                delta++;
+            } else if (c == '}') {
+                delta--;
+            }
+        }
+        return new int[]{delta, inBlockComment ? 1 : 0};
+    }
+
+    /**
+     * Lower-cased identifier parts and words: {@code processDefectByIssueKey} yields
+     * the full identifier plus process, defect, by, issue, key.
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        Matcher m = WORD.matcher(text);
+        while (m.find()) {
+            String word = m.group();
+            String lower = word.toLowerCase();
+            String[] parts = CAMEL.split(word);
+            if (parts.length > 1 && !STOPWORDS.contains(lower)) terms.add(lower);
+            for (String part : parts) {
+                String p = part.toLowerCase();
+                if (p.length() > 1 && !STOPWORDS.contains(p)) terms.add(p);
+            }
+        }
+        return terms;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        Index idx = index;
+        m.put("enabled", enabled);
+        m.put("chunks", idx == null ? 0 : idx.chunks.size());
+        m.put("terms", idx == null ? 0 : idx.postings.size());
+        m.put("builtAt", idx == null ? null : idx.builtAt);
+        return m;
+    }
+}
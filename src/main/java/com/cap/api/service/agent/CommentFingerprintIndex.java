@@ -0,0 +1,124 @@
+package com.cap.api.service.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local index of Jira comment fingerprints (issue key -> SHA-256 of the normalized text),
+ * so the agent can tell whether a comment was already posted without fetching the issue's
+ * comments. Comments the agent posts are recorded directly; an issue's remote comments are
+ * only fetched (by the caller) on a miss for an issue that has never been synced, after
+ * which the issue is marked synced. Persisted as appended {@code <issueKey>\t<hash>} lines,
+ * with {@code <issueKey>\t*} marking a synced issue.
+ */
+public class CommentFingerprintIndex {
+    private static final Logger log = LoggerFactory.getLogger(CommentFingerprintIndex.class);
+    private static final String SYNCED = "*";
+
+    private final Path file;
+    private final Map<String, Set<String>> hashesByIssue = new ConcurrentHashMap<>();
+    private final Set<String> syncedIssues = ConcurrentHashMap.newKeySet();
+
+    public CommentFingerprintIndex(Path file) {
+        this.file = file;
+    }
+
+    public synchronized void load() {
+        hashesByIssue.clear();
+        syncedIssues.clear();
+        if (!Files.exists(file)) return;
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab <= 0) continue;
+                String issueKey = line.substring(0, tab);
+                String value = line.substring(tab + 1).trim();
+                if (SYNCED.equals(value)) {
+                    syncedIssues.add(issueKey);
+                } else if (!value.isEmpty()) {
+                    hashesByIssue.computeIfAbsent(issueKey, k -> ConcurrentHashMap.newKeySet()).add(value);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not load comment fingerprints: {}", e.getMessage());
+        }
+    }
+
+    public boolean contains(String issueKey, String comment) {
+        Set<String> hashes = hashesByIssue.get(issueKey);
+        return hashes != null && hashes.contains(fingerprint(comment));
+    }
+
+    /**
+     * True once the issue's remote comments have been folded in, so a miss is authoritative.
+     */
+    public boolean isSynced(String issueKey) {
+        return syncedIssues.contains(issueKey);
+    }
+
+    /**
+     * Records a comment the agent just posted.
+     */
+    public synchronized void add(String issueKey, String comment) {
+        String hash = fingerprint(comment);
+        if (hashesByIssue.computeIfAbsent(issueKey, k -> ConcurrentHashMap.newKeySet()).add(hash)) {
+            append(issueKey + "\t" + hash + "\n");
+        }
+    }
+
+    /**
+     * Folds in the comment texts fetched from Jira for an issue and marks it synced.
+     */
+    public synchronized void addRemote(String issueKey, Collection<String> comments) {
+        StringBuilder lines = new StringBuilder();
+        Set<String> hashes = hashesByIssue.computeIfAbsent(issueKey, k -> ConcurrentHashMap.newKeySet());
+        for (String comment : comments) {
+            String hash = fingerprint(comment);
+            if (hashes.add(hash)) lines.append(issueKey).append('\t').append(hash).append('\n');
+        }
+        if (syncedIssues.add(issueKey)) lines.append(issueKey).append('\t').append(SYNCED).append('\n');
+        if (lines.length() > 0) append(lines.toString());
+    }
+
+    private void append(String lines) {
+        try {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            Files.writeString(file, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.warn("Could not persist comment fingerprint: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Hash of the comment with all whitespace removed, so Jira's re-rendering of line
+     * breaks (hardBreak nodes, trailing spaces) does not change the fingerprint.
+     */
+    static String fingerprint(String comment) {
+        String normalized = comment == null ? "" : comment.replaceAll("\\s+", "");
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int size() {
+        return hashesByIssue.values().stream().mapToInt(Set::size).sum();
+    }
+}
@@ -12,6 +12,30 @@ public class DefectActionController {
     @Autowired
     private DefectProcessingAgent defectProcessingAgent;
 
+    @Autowired
+    private UpstreamRateLimiters upstreamRateLimiters;
+
+    @Autowired
+    private LlmProgressTracker llmProgressTracker;
+
+    @Autowired
+    private SourceFileIndex sourceFileIndex;
+
+    @Autowired
+    private AgentClusterCoordinator agentClusterCoordinator;
+
+    @Autowired
+    private GitAgentService gitAgentService;
+
+    @Autowired
+    private GitHubClient gitHubClient;
+
+    @Autowired
+    private FixCompiler fixCompiler;
+
+    @Autowired
+    private NotificationAgent notificationAgent;
+
     /**
      * Trigger processing of a specific JIRA ticket by issue key.
      * Example: POST /api/defect/process?issueKey=SCRUM-123
@@ -21,4 +45,146 @@ public class DefectActionController {
         defectProcessingAgent.processDefectByIssueKey(issueKey);
         return ResponseEntity.ok("Processing triggered for JIRA issue: " + issueKey);
     }
+
+    /**
+     * Per-stage queue depth, concurrency and throughput of the defect pipeline.
+     * Example: GET /api/defect/pipeline
+     */
+    @GetMapping("/pipeline")
+    public ResponseEntity<java.util.Map<String, Object>> pipelineStats() {
+        return ResponseEntity.ok(defectProcessingAgent.getPipelineStats());
+    }
+
+    /**
+     * Scheduler queue depth by priority and project, wait-time percentiles and the next tickets.
+     * Example: GET /api/defect/queue
+     */
+    @GetMapping("/queue")
+    public ResponseEntity<java.util.Map<String, Object>> queue() {
+        return ResponseEntity.ok(defectProcessingAgent.getQueueStats());
+    }
+
+    /**
+     * Ticket workflows with their last completed step, optionally filtered by step.
+     * Example: GET /api/defect/workflows?step=BRANCH_PUSHED&limit=20
+     */
+    @GetMapping("/workflows")
+    public ResponseEntity<java.util.Map<String, Object>> workflows(@RequestParam(required = false) String step,
+                                                                   @RequestParam(defaultValue = "50") int limit) {
+        try {
+            return ResponseEntity.ok(defectProcessingAgent.getWorkflows(step, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(java.util.Map.of("error", "Unknown step: " + step));
+        }
+    }
+
+    /**
+     * One ticket's workflow including the checkpointed step outputs.
+     */
+    @GetMapping("/workflows/{issueKey}")
+    public ResponseEntity<TicketWorkflowStore.Workflow> workflow(@PathVariable String issueKey) {
+        TicketWorkflowStore.Workflow workflow = defectProcessingAgent.getWorkflow(issueKey);
+        return workflow == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(workflow);
+    }
+
+    /**
+     * Requeues a ticket parked after repeated failures; it resumes from its last completed step.
+     */
+    @PostMapping("/workflows/{issueKey}/retry")
+    public ResponseEntity<String> retryWorkflow(@PathVariable String issueKey) {
+        if (!defectProcessingAgent.retryWorkflow(issueKey)) {
+            return ResponseEntity.status(org.springframework.http.HttpStatus.CONFLICT).body("Could not requeue " + issueKey);
+        }
+        return ResponseEntity.ok("Requeued JIRA issue: " + issueKey);
+    }
+
+    /**
+     * LLM token usage and per-ticket latency, split by combined vs per-call mode.
+     * Example: GET /api/defect/llm/usage
+     */
+    @GetMapping("/llm/usage")
+    public ResponseEntity<java.util.Map<String, Object>> llmUsage() {
+        return ResponseEntity.ok(defectProcessingAgent.getLlmUsageStats());
+    }
+
+    /**
+     * Rate limiter, backoff and circuit breaker state per upstream (jira, openai).
+     * Example: GET /api/defect/upstreams
+     */
+    @GetMapping("/upstreams")
+    public ResponseEntity<java.util.Map<String, Object>> upstreams() {
+        return ResponseEntity.ok(upstreamRateLimiters.snapshot());
+    }
+
+    /**
+     * Git worktree pool: worktrees created, idle and leased to fix branches.
+     * Example: GET /api/defect/worktrees
+     */
+    @GetMapping("/worktrees")
+    public ResponseEntity<java.util.Map<String, Object>> worktrees() {
+        return ResponseEntity.ok(gitAgentService.getWorktreeStats());
+    }
+
+    /**
+     * GitHub API client: requests, conditional GETs answered with 304 and the last reported rate limit.
+     * Example: GET /api/defect/github
+     */
+    @GetMapping("/github")
+    public ResponseEntity<java.util.Map<String, Object>> github() {
+        return ResponseEntity.ok(gitHubClient.getStats());
+    }
+
+    /**
+     * In-memory compile checks of generated fixes: passed, failed, skipped and cache hits.
+     * Example: GET /api/defect/compile
+     */
+    @GetMapping("/compile")
+    public ResponseEntity<java.util.Map<String, Object>> compile() {
+        return ResponseEntity.ok(fixCompiler.getStats());
+    }
+
+    /**
+     * In-flight and recently finished streamed LLM completions.
+     * Example: GET /api/defect/progress
+     */
+    @GetMapping("/progress")
+    public ResponseEntity<java.util.Map<String, Object>> progress() {
+        return ResponseEntity.ok(llmProgressTracker.snapshot());
+    }
+
+    /**
+     * Live stream of LLM progress events for in-flight tickets.
+     * Example: GET /api/defect/progress/stream (text/event-stream)
+     */
+    @GetMapping(value = "/progress/stream", produces = org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE)
+    public org.springframework.web.servlet.mvc.method.annotation.SseEmitter progressStream() {
+        return llmProgressTracker.subscribe();
+    }
+
+    /**
+     * Class-to-file index size, watcher state and ambiguous class names.
+     * Example: GET /api/defect/sources
+     */
+    @GetMapping("/sources")
+    public ResponseEntity<java.util.Map<String, Object>> sources() {
+        return ResponseEntity.ok(sourceFileIndex.getStats());
+    }
+
+    /**
+     * This node's cluster mode, leadership, live nodes and held ticket claims.
+     * Example: GET /api/defect/cluster
+     */
+    @GetMapping("/cluster")
+    public ResponseEntity<java.util.Map<String, Object>> cluster() {
+        return ResponseEntity.ok(agentClusterCoordinator.getStats());
+    }
+
+    /**
+     * DL email delivery: queue depth, digests sent, retries and dropped notifications.
+     * Example: GET /api/defect/notifications
+     */
+    @GetMapping("/notifications")
+    public ResponseEntity<java.util.Map<String, Object>> notifications() {
+        return ResponseEntity.ok(notificationAgent.getStats());
+    }
 }
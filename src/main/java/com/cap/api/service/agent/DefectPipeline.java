@@ -0,0 +1,480 @@
+package com.cap.api.service.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Staged pipeline for defect tickets: LLM -> git -> Jira comment.
+ * Each stage has its own worker pool and a bounded queue. When a stage is full the
+ * upstream stage (or the submitter) blocks, so a burst of tickets applies backpressure
+ * instead of piling up unbounded work.
+ */
+public class DefectPipeline {
+    private static final Logger log = LoggerFactory.getLogger(DefectPipeline.class);
+    private static final int LATENCY_SAMPLES = 1024;
+
+    /**
+     * Work item carried through the stages. Each stage fills in its own fields.
+     */
+    public static class Ticket {
+        private final String issueKey;
+        private final String bug;
+        private final long enqueuedAt = System.currentTimeMillis();
+        private final LlmUsage llmUsage;
+        private volatile String branchName;
+        private volatile String suggestion;
+        private volatile String codeFix;
+        private volatile String prUrl;
+        private volatile CompletableFuture<Void> deferred;
+
+        public Ticket(String issueKey, String bug) {
+            this.issueKey = issueKey;
+            this.bug = bug;
+            this.llmUsage = new LlmUsage(issueKey);
+        }
+
+        public String getIssueKey() { return issueKey; }
+        public String getBug() { return bug; }
+        public long getEnqueuedAt() { return enqueuedAt; }
+        public LlmUsage getLlmUsage() { return llmUsage; }
+        public String getBranchName() { return branchName; }
+        public void setBranchName(String branchName) { this.branchName = branchName; }
+        public String getSuggestion() { return suggestion; }
+        public void setSuggestion(String suggestion) { this.suggestion = suggestion; }
+        public String getCodeFix() { return codeFix; }
+        public void setCodeFix(String codeFix) { this.codeFix = codeFix; }
+        public String getPrUrl() { return prUrl; }
+        public void setPrUrl(String prUrl) { this.prUrl = prUrl; }
+
+        /**
+         * Called by a stage handler whose work finishes elsewhere (e.g. in a batch): the
+         * worker is released when the handler returns and the ticket moves to the next stage
+         * when {@code completion} completes, or fails with it.
+         */
+        public void deferUntil(CompletableFuture<Void> completion) { this.deferred = completion; }
+
+        CompletableFuture<Void> takeDeferred() {
+            CompletableFuture<Void> d = deferred;
+            deferred = null;
+            return d;
+        }
+    }
+
+    @FunctionalInterface
+    public interface StageHandler {
+        void handle(Ticket ticket) throws Exception;
+    }
+
+    /** Told how long each stage handler took for a ticket and whether it succeeded. */
+    @FunctionalInterface
+    public interface StageObserver {
+        void onStage(String stage, long nanos, boolean succeeded);
+    }
+
+    /** Told when a ticket leaves the pipeline, whether it went through every stage or not. */
+    @FunctionalInterface
+    public interface CompletionListener {
+        void onFinished(Ticket ticket, boolean succeeded);
+    }
+
+    /**
+     * One stage: a fixed worker pool fed by a bounded queue. A semaphore sized to
+     * workers + queue capacity guards submission, so the executor never rejects and
+     * callers wait for room instead.
+     */
+    public static class Stage {
+        private final String name;
+        private final int workers;
+        private final int capacity;
+        private final ThreadPoolExecutor executor;
+        private final Semaphore permits;
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        // tickets whose handler returned but whose deferred work has not completed
+        private final AtomicInteger deferred = new AtomicInteger();
+        // most recent task durations, for percentiles
+        private final long[] samples = new long[LATENCY_SAMPLES];
+        private long sampleCount;
+        private volatile long firstSubmitAt;
+        private volatile Runnable releaseListener;
+
+        Stage(String name, int workers, int capacity) {
+            this.name = name;
+            this.workers = Math.max(1, workers);
+            this.capacity = Math.max(1, capacity);
+            this.permits = new Semaphore(this.workers + this.capacity);
+            this.executor = new ThreadPoolExecutor(this.workers, this.workers, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(this.capacity), namedThreads("agent-" + name));
+        }
+
+        boolean submit(Runnable task, long timeoutMs) throws InterruptedException {
+            if (!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (firstSubmitAt == 0) firstSubmitAt = System.currentTimeMillis();
+            submitted.incrementAndGet();
+            try {
+                executor.execute(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        task.run();
+                    } finally {
+                        long elapsed = System.nanoTime() - start;
+                        busyNanos.addAndGet(elapsed);
+                        recordSample(elapsed);
+                        permits.release();
+                        Runnable listener = releaseListener;
+                        if (listener != null) listener.run();
+                    }
+                });
+            } catch (RuntimeException e) {
+                permits.release();
+                rejected.incrementAndGet();
+                throw e;
+            }
+            return true;
+        }
+
+        /** Tasks running or queued in this stage. */
+        int load() {
+            return workers + capacity - permits.availablePermits();
+        }
+
+        private synchronized void recordSample(long nanos) {
+            samples[(int) (sampleCount++ % LATENCY_SAMPLES)] = nanos;
+        }
+
+        private synchronized long[] sortedSamples() {
+            long[] sorted = java.util.Arrays.copyOf(samples, (int) Math.min(sampleCount, LATENCY_SAMPLES));
+            java.util.Arrays.sort(sorted);
+            return sorted;
+        }
+
+        private static long percentileMillis(long[] sorted, double q) {
+            if (sorted.length == 0) return 0;
+            int idx = (int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1);
+            return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, idx)]);
+        }
+
+        <T> CompletableFuture<T> call(Callable<T> work, long timeoutMs) throws InterruptedException {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            boolean accepted = submit(() -> {
+                try {
+                    future.complete(work.call());
+                    completed.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    future.completeExceptionally(e);
+                }
+            }, timeoutMs);
+            if (!accepted) {
+                future.completeExceptionally(new IllegalStateException("Stage " + name + " is full"));
+            }
+            return future;
+        }
+
+        void shutdown(long timeoutMs) throws InterruptedException {
+            executor.shutdown();
+            if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                log.warn("Stage {} did not drain within {} ms; {} task(s) still queued", name, timeoutMs, executor.getQueue().size());
+                executor.shutdownNow();
+            }
+        }
+
+        public Map<String, Object> snapshot() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            long done = completed.get();
+            long elapsedMs = firstSubmitAt == 0 ? 0 : System.currentTimeMillis() - firstSubmitAt;
+            m.put("workers", workers);
+            m.put("capacity", capacity);
+            m.put("queued", executor.getQueue().size());
+            m.put("active", executor.getActiveCount());
+            m.put("deferred", deferred.get());
+            m.put("submitted", submitted.get());
+            m.put("completed", done);
+            m.put("failed", failed.get());
+            m.put("rejected", rejected.get());
+            long finished = done + failed.get();
+            m.put("avgMillis", finished == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(busyNanos.get()) / finished);
+            long[] sorted = sortedSamples();
+            m.put("p50Millis", percentileMillis(sorted, 0.50));
+            m.put("p90Millis", percentileMillis(sorted, 0.90));
+            m.put("p99Millis", percentileMillis(sorted, 0.99));
+            m.put("throughputPerMinute", elapsedMs == 0 ? 0.0 : done * 60000.0 / elapsedMs);
+            return m;
+        }
+    }
+
+    private final Stage llmStage;
+    private final Stage gitStage;
+    private final Stage commentStage;
+    private final StageHandler llmHandler;
+    private final StageHandler gitHandler;
+    private final StageHandler commentHandler;
+    private final long submitTimeoutMs;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Object idleLock = new Object();
+    private volatile boolean accepting = true;
+    private volatile CompletionListener completionListener;
+    private volatile StageObserver stageObserver;
+
+    public DefectPipeline(int llmWorkers, int gitWorkers, int commentWorkers, int queueCapacity, long submitTimeoutMs,
+                          StageHandler llmHandler, StageHandler gitHandler, StageHandler commentHandler) {
+        this.llmStage = new Stage("llm", llmWorkers, queueCapacity);
+        this.gitStage = new Stage("git", gitWorkers, queueCapacity);
+        this.commentStage = new Stage("comment", commentWorkers, queueCapacity);
+        this.llmHandler = llmHandler;
+        this.gitHandler = gitHandler;
+        this.commentHandler = commentHandler;
+        this.submitTimeoutMs = submitTimeoutMs;
+    }
+
+    public void setCompletionListener(CompletionListener completionListener) {
+        this.completionListener = completionListener;
+    }
+
+    public void setStageObserver(StageObserver stageObserver) {
+        this.stageObserver = stageObserver;
+    }
+
+    /**
+     * Runs {@code listener} whenever an LLM stage slot frees up, so a scheduler in front of
+     * the pipeline can hand over its next ticket.
+     */
+    public void setLlmReleaseListener(Runnable listener) {
+        llmStage.releaseListener = listener;
+    }
+
+    /**
+     * Whether the LLM stage has a free worker, allowing {@code ahead} extra tickets to wait
+     * in its queue.
+     */
+    public boolean hasLlmRoom(int ahead) {
+        return accepting && llmStage.load() < llmStage.workers + Math.max(0, ahead);
+    }
+
+    /**
+     * Enqueues a ticket at the first stage. Returns false if the ticket is already in
+     * flight, the pipeline is shutting down, or the LLM stage stayed full for the
+     * submit timeout.
+     */
+    public boolean submit(Ticket ticket) {
+        if (!accepting) {
+            log.warn("Pipeline is shutting down; not accepting ticket {}", ticket.getIssueKey());
+            return false;
+        }
+        if (!inFlight.add(ticket.getIssueKey())) {
+            log.debug("Ticket {} already in flight", ticket.getIssueKey());
+            return false;
+        }
+        pending.incrementAndGet();
+        try {
+            if (llmStage.submit(() -> runStage(llmStage, ticket, llmHandler, gitStage), submitTimeoutMs)) {
+                return true;
+            }
+            log.warn("LLM stage full; ticket {} will be retried on a later poll", ticket.getIssueKey());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            log.warn("LLM stage is stopped; not accepting ticket {}", ticket.getIssueKey());
+        }
+        finish(ticket, false);
+        return false;
+    }
+
+    /**
+     * Runs arbitrary LLM work under the LLM stage's concurrency limit.
+     */
+    public <T> CompletableFuture<T> callOnLlmStage(Callable<T> work) {
+        try {
+            return llmStage.call(work, submitTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void runStage(Stage stage, Ticket ticket, StageHandler handler, Stage next) {
+        long started = System.nanoTime();
+        try {
+            handler.handle(ticket);
+        } catch (Exception e) {
+            afterStage(stage, ticket, next, started, e);
+            return;
+        }
+        CompletableFuture<Void> deferred = ticket.takeDeferred();
+        if (deferred == null) {
+            afterStage(stage, ticket, next, started, null);
+            return;
+        }
+        // continue on whichever thread completes the deferred work; this worker is free now
+        stage.deferred.incrementAndGet();
+        deferred.whenComplete((v, t) -> {
+            stage.deferred.decrementAndGet();
+            afterStage(stage, ticket, next, started, t == null ? null
+                : t instanceof java.util.concurrent.CompletionException && t.getCause() != null ? t.getCause() : t);
+        });
+    }
+
+    private void afterStage(Stage stage, Ticket ticket, Stage next, long started, Throwable error) {
+        if (error != null) {
+            stage.failed.incrementAndGet();
+            observe(stage, started, false);
+            log.error("Stage {} failed for {}: {}", stage.name, ticket.getIssueKey(), error.getMessage(), error);
+            finish(ticket, false);
+            return;
+        }
+        stage.completed.incrementAndGet();
+        observe(stage, started, true);
+        if (next == null) {
+            finish(ticket, true);
+            return;
+        }
+        StageHandler nextHandler = next == gitStage ? gitHandler : commentHandler;
+        Stage after = next == gitStage ? commentStage : null;
+        try {
+            // Blocks this worker until the next stage has room: backpressure propagates upstream.
+            while (!next.submit(() -> runStage(next, ticket, nextHandler, after), submitTimeoutMs)) {
+                log.info("Stage {} full; {} waiting to enter it", next.name, ticket.getIssueKey());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted handing {} to stage {}", ticket.getIssueKey(), next.name);
+            finish(ticket, false);
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            // the next stage was shut down while this one was still running (e.g. a task outlived its drain timeout)
+            log.warn("Stage {} is stopped; {} leaves the pipeline unfinished", next.name, ticket.getIssueKey());
+            finish(ticket, false);
+        }
+    }
+
+    private void observe(Stage stage, long startedNanos, boolean succeeded) {
+        StageObserver observer = stageObserver;
+        if (observer == null) return;
+        try {
+            observer.onStage(stage.name, System.nanoTime() - startedNanos, succeeded);
+        } catch (Exception e) {
+            log.debug("Stage observer failed: {}", e.getMessage());
+        }
+    }
+
+    private void finish(Ticket ticket, boolean succeeded) {
+        inFlight.remove(ticket.getIssueKey());
+        CompletionListener listener = completionListener;
+        if (listener != null) {
+            try {
+                listener.onFinished(ticket, succeeded);
+            } catch (Exception e) {
+                log.warn("Completion listener failed for {}: {}", ticket.getIssueKey(), e.getMessage());
+            }
+        }
+        if (pending.decrementAndGet() == 0) {
+            synchronized (idleLock) {
+                idleLock.notifyAll();
+            }
+        }
+    }
+
+    public boolean isInFlight(String issueKey) {
+        return inFlight.contains(issueKey);
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /** Tasks waiting in a stage's queue ("llm", "git" or "comment"). */
+    public int getQueued(String stage) {
+        return stageNamed(stage).executor.getQueue().size();
+    }
+
+    /** Workers currently busy in a stage. */
+    public int getActive(String stage) {
+        return stageNamed(stage).executor.getActiveCount();
+    }
+
+    private Stage stageNamed(String name) {
+        return switch (name) {
+            case "llm" -> llmStage;
+            case "git" -> gitStage;
+            case "comment" -> commentStage;
+            default -> throw new IllegalArgumentException("Unknown stage " + name);
+        };
+    }
+
+    /**
+     * Waits until every submitted ticket has left the pipeline. Returns false on timeout.
+     */
+    public boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (idleLock) {
+            while (pending.get() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                idleLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting tickets and drains the stages in order, so work already past the
+     * LLM stage still reaches git and Jira. Deferred git work is awaited before the comment
+     * stage closes.
+     */
+    public void shutdown(long timeoutMs) {
+        accepting = false;
+        try {
+            llmStage.shutdown(timeoutMs);
+            gitStage.shutdown(timeoutMs);
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (gitStage.deferred.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            if (gitStage.deferred.get() > 0) {
+                log.warn("{} deferred git task(s) still pending after {} ms", gitStage.deferred.get(), timeoutMs);
+            }
+            commentStage.shutdown(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Defect pipeline stopped; {} ticket(s) left in flight", inFlight.size());
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", inFlight.size());
+        stats.put("llm", llmStage.snapshot());
+        stats.put("git", gitStage.snapshot());
+        stats.put("comment", commentStage.snapshot());
+        return stats;
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
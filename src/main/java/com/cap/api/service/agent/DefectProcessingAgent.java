@@ -4,12 +4,12 @@ import org.springframework.stereotype.Component;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.nio.file.Path;
 import java.util.List;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 // LLM integration properties
 import org.springframework.beans.factory.annotation.Value;
@@ -19,7 +19,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import com.cap.api.service.agent.AgentChecklist;
 import com.cap.api.service.agent.NotificationAgent;
 
 /**
@@ -29,7 +28,7 @@ import com.cap.api.service.agent.NotificationAgent;
 public class DefectProcessingAgent {
     private static final Logger log = LoggerFactory.getLogger(DefectProcessingAgent.class);
     // Track last seen bug suggestions by issue key
-    private final Map<String, String> lastBugSuggestions = new HashMap<>();
+    private final Map<String, String> lastBugSuggestions = new ConcurrentHashMap<>();
     @Value("${jira.url}")
     private String jiraUrl;
     @Value("${jira.email}")
@@ -47,9 +46,114 @@ public class DefectProcessingAgent {
     @Value("${azureopenai.deployment-name}")
     private String openAIDeploymentName;
 
+    // Stream completions (stream=true) so progress is visible and code fixes can stop at the closing fence
+    @Value("${azureopenai.stream:false}")
+    private boolean openAIStream;
+
+    @Autowired(required = false)
+    private LlmProgressTracker progressTracker;
+
+    private final java.util.concurrent.atomic.AtomicLong adhocCallSeq = new java.util.concurrent.atomic.AtomicLong();
+
     @Value("${agent.autoProcess:false}")
     private boolean agentAutoProcess;
 
+    // With a webhook secret configured, Jira pushes changes and polling only reconciles missed events
+    @Value("${jira.webhook.secret:}")
+    private String jiraWebhookSecret;
+    @Value("${agent.reconcile.intervalMs:300000}")
+    private long reconcileIntervalMs;
+    private volatile long lastPollAt;
+
+    // Pipeline sizing: LLM calls run in parallel; git runs in pooled worktrees, so size it to
+    // agent.git.worktree.poolSize (with worktrees disabled fixes serialize on the working copy anyway)
+    @Value("${agent.pipeline.llmConcurrency:4}")
+    private int pipelineLlmConcurrency;
+    @Value("${agent.pipeline.gitConcurrency:4}")
+    private int pipelineGitConcurrency;
+    @Value("${agent.pipeline.commentConcurrency:2}")
+    private int pipelineCommentConcurrency;
+    @Value("${agent.pipeline.queueCapacity:50}")
+    private int pipelineQueueCapacity;
+    @Value("${agent.pipeline.submitTimeoutMs:5000}")
+    private long pipelineSubmitTimeoutMs;
+    @Value("${agent.pipeline.shutdownTimeoutMs:60000}")
+    private long pipelineShutdownTimeoutMs;
+
+    private volatile DefectPipeline pipeline;
+
+    // Tickets wait here ordered by Jira priority and age; each agingMs of waiting promotes one priority level
+    @Value("${agent.scheduler.agingMs:600000}")
+    private long schedulerAgingMs;
+    @Value("${agent.scheduler.capacity:1000}")
+    private int schedulerCapacity;
+    // Tickets allowed to wait in the LLM stage's FIFO queue beyond its busy workers
+    @Value("${agent.scheduler.dispatchAhead:0}")
+    private int schedulerDispatchAhead;
+
+    private volatile TicketScheduler scheduler;
+
+    // Burst batching: fixes touching the same component within the window share one branch, push and PR
+    @Value("${agent.batch.enabled:false}")
+    private boolean batchEnabled;
+    @Value("${agent.batch.windowMs:60000}")
+    private long batchWindowMs;
+    @Value("${agent.batch.maxTickets:10}")
+    private int batchMaxTickets;
+    @Value("${agent.batch.groupBy:CLASS}")
+    private FixBatcher.Grouping batchGroupBy;
+    @Value("${agent.batch.threads:2}")
+    private int batchThreads;
+
+    private volatile FixBatcher fixBatcher;
+
+    // When true, summary, rationale and code fix come from one JSON completion per ticket
+    @Value("${agent.llm.combined:false}")
+    private boolean llmCombined;
+
+    // Completion budget for answers that carry a whole source file: at least fixMaxTokens, more when the
+    // prompt holds more source (the fix usually rewrites it), never above maxCompletionTokens
+    @Value("${agent.llm.fixMaxTokens:1024}")
+    private int fixMaxTokens;
+    @Value("${agent.llm.maxCompletionTokens:4096}")
+    private int maxCompletionTokens;
+
+    // Aggregated token usage and latency per LLM mode ("combined" / "per-call")
+    private final Map<String, LlmUsage> llmUsageByMode = new ConcurrentHashMap<>();
+
+    private static final java.util.regex.Pattern CLASS_DECLARATION = java.util.regex.Pattern.compile("class\\s+([A-Za-z0-9_]+)");
+    private static final java.util.regex.Pattern PACKAGE_DECLARATION = java.util.regex.Pattern.compile("(?m)^\\s*package\\s+([\\w.]+)\\s*;");
+    private static final java.util.regex.Pattern ISSUE_KEY = java.util.regex.Pattern.compile("([A-Z]+-\\d+)");
+
+    @Autowired(required = false)
+    private SourceFileIndex sourceFileIndex;
+
+    // Leader election / issue-key partitioning and cluster-wide ticket claims across replicas
+    @Autowired(required = false)
+    private AgentClusterCoordinator clusterCoordinator;
+
+    // Source snippets retrieved for code-fix prompts, packed up to this many estimated tokens
+    @Autowired(required = false)
+    private CodeContextIndex codeContextIndex;
+    @Value("${agent.context.tokenBudget:1500}")
+    private int contextTokenBudget;
+
+    // Fixes that are whole source files are compiled in memory first; one retry gets the compiler errors
+    @Autowired(required = false)
+    private FixCompiler fixCompiler;
+    // Fail the ticket (retried up to agent.workflow.maxAttempts) rather than push a fix that does not compile
+    @Value("${agent.compile.rejectInvalid:true}")
+    private boolean rejectUncompilableFixes;
+
+    /** How the model returns a code fix: the whole file, or diff hunks against the file the ticket names. */
+    enum FixFormat { FULL, DIFF }
+
+    // DIFF falls back to FULL when no single file resolves, it is larger than patchMaxFileChars, or a hunk conflicts
+    @Value("${agent.llm.fixFormat:FULL}")
+    private FixFormat fixFormat;
+    @Value("${agent.llm.patchMaxFileChars:24000}")
+    private int patchMaxFileChars;
+
     private String encodedAuth;
 
     @Autowired(required = false)
@@ -61,27 +165,39 @@ public class DefectProcessingAgent {
     @Value("${github.token:}")
     private String githubToken;
 
-    private static final String PROCESSED_ISSUES_FILE = "agent_generated/processed_issues.txt";
-    // Store as <issueKey>:<yyyyMMdd>
-    private Set<String> processedIssues = new HashSet<>();
+    @Autowired(required = false)
+    private UpstreamRateLimiters rateLimiters;
 
-    // Checklist template for agent actions
-    private AgentChecklist checklist = new AgentChecklist();
+    @Autowired(required = false)
+    private AgentMetrics agentMetrics;
 
-    private void setupChecklistTemplate() {
-        checklist.addTask("Fetch new JIRA issues");
-        checklist.addTask("Analyze defect and suggest fix");
-        checklist.addTask("Apply code fix and commit");
-        checklist.addTask("Create PR and notify DLs");
-    }
+    @Autowired(required = false)
+    private AgentLogWriter agentLogWriter;
 
-    private void markChecklistCompleted(int index) {
-        checklist.markTaskCompleted(index);
-    }
+    // Per-ticket step checkpoints; a restart resumes unfinished tickets from the last completed step
+    @Autowired(required = false)
+    private TicketWorkflowStore workflowStore;
+    @Value("${agent.workflow.maxAttempts:3}")
+    private int workflowMaxAttempts;
+    @Value("${agent.workflow.resumeOnStartup:true}")
+    private boolean workflowResumeOnStartup;
 
-    private void markChecklistUserInputPending(int index) {
-        checklist.markTaskUserInputPending(index);
-    }
+    private static final String PROCESSED_ISSUES_FILE = "agent_generated/processed_issues.txt";
+    // Store as <issueKey>:<yyyyMMdd>, appended once per ticket and compacted in the background
+    private volatile ProcessedIssueStore processedIssues;
+
+    private static final String COMMENT_FINGERPRINTS_FILE = "agent_generated/comment_fingerprints.txt";
+    private static final int JIRA_COMMENT_PAGE_SIZE = 100;
+    private volatile CommentFingerprintIndex commentIndex;
+
+    @Value("${agent.processed.ttlDays:7}")
+    private int processedTtlDays;
+    @Value("${agent.processed.fsyncEvery:16}")
+    private int processedFsyncEvery;
+    @Value("${agent.processed.fsyncIntervalMs:1000}")
+    private long processedFsyncIntervalMs;
+    @Value("${agent.processed.compactIntervalMs:3600000}")
+    private long processedCompactIntervalMs;
 
     private void notifyDLs(String actionSummary) {
         if (notificationAgent != null) {
@@ -93,20 +209,401 @@ public class DefectProcessingAgent {
 
     @PostConstruct
     public void init() {
-        setupChecklistTemplate();
         if (jiraEmail != null && jiraApiToken != null) {
             String auth = jiraEmail + ":" + jiraApiToken;
             encodedAuth = java.util.Base64.getEncoder().encodeToString(auth.getBytes());
         }
         loadProcessedIssues();
+        pipeline();
+        registerGauges();
+    }
+
+    private void registerGauges() {
+        if (agentMetrics == null) return;
+        agentMetrics.gauge("agent.pipeline.inflight", "Tickets between submission and the last pipeline stage",
+            () -> pipeline().getInFlightCount());
+        for (String stage : java.util.List.of("llm", "git", "comment")) {
+            agentMetrics.gauge("agent.pipeline.queued", "Tasks waiting in a pipeline stage queue", () -> pipeline().getQueued(stage), "stage", stage);
+            agentMetrics.gauge("agent.pipeline.active", "Busy workers in a pipeline stage", () -> pipeline().getActive(stage), "stage", stage);
+        }
+        agentMetrics.gauge("agent.scheduler.depth", "Tickets waiting in the priority scheduler", () -> scheduler().size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            for (DefectPipeline.Ticket waiting : scheduler.shutdown()) {
+                if (clusterCoordinator != null) clusterCoordinator.release(waiting.getIssueKey());
+            }
+        }
+        FixBatcher batcher = fixBatcher;
+        // tickets still in the pipeline are pushed straight away instead of waiting for a window
+        if (batcher != null) batcher.drain();
+        if (pipeline != null) {
+            pipeline.shutdown(pipelineShutdownTimeoutMs);
+        }
+        if (batcher != null) batcher.shutdown(pipelineShutdownTimeoutMs);
+        if (processedIssues != null) {
+            processedIssues.close();
+        }
+    }
+
+    private DefectPipeline pipeline() {
+        DefectPipeline p = pipeline;
+        if (p == null) {
+            synchronized (this) {
+                if (pipeline == null) {
+                    pipeline = new DefectPipeline(
+                        pipelineLlmConcurrency > 0 ? pipelineLlmConcurrency : 4,
+                        pipelineGitConcurrency > 0 ? pipelineGitConcurrency : 1,
+                        pipelineCommentConcurrency > 0 ? pipelineCommentConcurrency : 2,
+                        pipelineQueueCapacity > 0 ? pipelineQueueCapacity : 50,
+                        pipelineSubmitTimeoutMs > 0 ? pipelineSubmitTimeoutMs : 5000,
+                        recordingFailures(this::runLlmStage), recordingFailures(this::runGitStage),
+                        recordingFailures(this::runCommentStage));
+                    pipeline.setCompletionListener(this::onTicketFinished);
+                    if (agentMetrics != null) pipeline.setStageObserver(agentMetrics::recordStage);
+                }
+                p = pipeline;
+            }
+        }
+        return p;
+    }
+
+    private TicketScheduler scheduler() {
+        TicketScheduler s = scheduler;
+        if (s == null) {
+            synchronized (this) {
+                if (scheduler == null) {
+                    DefectPipeline p = pipeline();
+                    scheduler = new TicketScheduler(schedulerAgingMs, schedulerCapacity, 500,
+                        this::dispatchTicket, () -> p.hasLlmRoom(schedulerDispatchAhead));
+                    p.setLlmReleaseListener(scheduler::wakeUp);
+                }
+                s = scheduler;
+            }
+        }
+        return s;
+    }
+
+    private FixBatcher fixBatcher() {
+        FixBatcher b = fixBatcher;
+        if (b == null) {
+            synchronized (this) {
+                if (fixBatcher == null) {
+                    fixBatcher = new FixBatcher(batchWindowMs, batchMaxTickets > 0 ? batchMaxTickets : 10,
+                        batchThreads > 0 ? batchThreads : 2, this::pushBatch);
+                }
+                b = fixBatcher;
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Returns per-stage queue depth, concurrency and throughput for the defect pipeline,
+     * plus batch sizes when batching is enabled.
+     */
+    public Map<String, Object> getPipelineStats() {
+        Map<String, Object> stats = new java.util.LinkedHashMap<>(pipeline().getStats());
+        if (batchEnabled) stats.put("batching", fixBatcher().getStats());
+        return stats;
+    }
+
+    /**
+     * Scheduler queue depth by priority and project, wait times and the next tickets to run.
+     */
+    public Map<String, Object> getQueueStats() {
+        return scheduler().getStats();
+    }
+
+    private boolean isQueuedOrInFlight(String issueKey) {
+        return scheduler().contains(issueKey) || pipeline().isInFlight(issueKey);
+    }
+
+    /**
+     * Queues a ticket for the summarize/fix -> git -> Jira comment flow. The scheduler hands it
+     * to the pipeline by priority and age once the LLM stage has room.
+     */
+    private boolean enqueueTicket(String issueKey, String bug, String priority, String created) {
+        if (isQueuedOrInFlight(issueKey)) {
+            return false;
+        }
+        if (clusterCoordinator != null && !clusterCoordinator.tryClaim(issueKey)) {
+            log.info("JIRA ticket {} is being handled by another agent node", issueKey);
+            return false;
+        }
+        DefectPipeline.Ticket ticket = new DefectPipeline.Ticket(issueKey, bug);
+        if (workflowStore != null) {
+            TicketWorkflowStore.Workflow workflow = workflowStore.begin(issueKey, bug, priority, created);
+            if (workflow.attempts() >= workflowMaxAttempts) {
+                log.warn("JIRA ticket {} failed {} time(s) at {} (last error: {}); parked until retried",
+                    issueKey, workflow.attempts(), workflow.step(), workflow.lastError());
+                if (clusterCoordinator != null) clusterCoordinator.release(issueKey);
+                return false;
+            }
+            restoreCheckpoint(ticket, workflow);
+        }
+        boolean queued = scheduler().offer(ticket, priority, TicketScheduler.parseJiraTimestamp(created));
+        if (queued) {
+            log.info("Queued JIRA ticket {} ({} priority) for processing", issueKey, priority == null || priority.isBlank() ? "no" : priority);
+        } else if (clusterCoordinator != null && !isQueuedOrInFlight(issueKey)) {
+            clusterCoordinator.release(issueKey);
+        }
+        return queued;
+    }
+
+    private void dispatchTicket(DefectPipeline.Ticket ticket) {
+        if (!pipeline().submit(ticket) && clusterCoordinator != null && !pipeline().isInFlight(ticket.getIssueKey())) {
+            clusterCoordinator.release(ticket.getIssueKey());
+        }
+    }
+
+    private void onTicketFinished(DefectPipeline.Ticket ticket, boolean succeeded) {
+        if (clusterCoordinator == null) return;
+        if (succeeded) {
+            clusterCoordinator.complete(ticket.getIssueKey());
+        } else {
+            clusterCoordinator.release(ticket.getIssueKey());
+        }
+    }
+
+    private void runLlmStage(DefectPipeline.Ticket ticket) {
+        String issueKey = ticket.getIssueKey();
+        if (reached(issueKey, TicketWorkflowStore.Step.FIX_GENERATED)) {
+            log.info("Resuming {} after fix generation; skipping LLM calls", issueKey);
+            return;
+        }
+        if (ticket.getBranchName() == null) {
+            ticket.setBranchName(createBranchName(issueKey, ticket.getBug()));
+        }
+        // A prompt set through POST /api/prompt replaces the ticket text, as in fixBug
+        String customPrompt = promptController != null ? promptController.consumePrompt(issueKey) : null;
+        String bugForFix = ticket.getBug();
+        if (customPrompt != null && !customPrompt.isBlank()) {
+            log.info("Using custom prompt for {}: {}", issueKey, customPrompt);
+            bugForFix = customPrompt;
+        }
+        String sourceContext = retrieveSourceContext(ticket.getBug());
+        boolean summarized = reached(issueKey, TicketWorkflowStore.Step.SUMMARIZED);
+        // generate a code fix suggestion (may be short) and pass it to GitAgentService so the PR contains a visible change
+        FixBundle bundle = llmCombined && !summarized ? requestCombinedFix(withSourceContext(bugForFix, sourceContext), ticket.getLlmUsage()) : new FixBundle();
+        if (!summarized) {
+            completeRationale(bundle, bugForFix, ticket.getLlmUsage());
+            ticket.setSuggestion(bundle.getRationale());
+            // per-call mode has no summary; a null output is skipped rather than stored as "null"
+            java.util.Map<String, String> outputs = new java.util.HashMap<>();
+            outputs.put(TicketWorkflowStore.SUMMARY, bundle.getSummary());
+            outputs.put(TicketWorkflowStore.SUGGESTION, ticket.getSuggestion());
+            outputs.put(TicketWorkflowStore.BRANCH, ticket.getBranchName());
+            checkpoint(ticket, TicketWorkflowStore.Step.SUMMARIZED, outputs);
+        }
+        completeCodeFix(bundle, bugForFix, sourceContext, ticket.getLlmUsage());
+        CheckedFix checked = compileChecked(bugForFix, sourceContext, bundle.getCodeFix(), ticket.getLlmUsage());
+        if (checked.failed() && rejectUncompilableFixes) {
+            throw new IllegalStateException("Generated fix does not compile:\n" + checked.result().diagnosticsText());
+        }
+        ticket.setCodeFix(checked.codeFix());
+        checkpoint(ticket, TicketWorkflowStore.Step.FIX_GENERATED, java.util.Collections.singletonMap(
+            TicketWorkflowStore.CODE_FIX, ticket.getCodeFix()));
+    }
+
+    private void runGitStage(DefectPipeline.Ticket ticket) throws Exception {
+        if (gitAgentService == null) {
+            throw new IllegalStateException("GitAgentService not available");
+        }
+        if (batchEnabled && !reached(ticket.getIssueKey(), TicketWorkflowStore.Step.BRANCH_PUSHED)) {
+            String component = batchComponent(ticket);
+            // null once the batcher is shutting down: the ticket is then pushed on its own below
+            java.util.concurrent.CompletableFuture<Void> batched = component == null ? null : fixBatcher().add(component, ticket);
+            if (batched != null) {
+                // pushed with the rest of its batch; the ticket moves on to Jira when the batch is done
+                ticket.deferUntil(batched);
+                return;
+            }
+        }
+        pushTicketFix(ticket);
+    }
+
+    /** Pushes the ticket's own branch and opens its PR, skipping steps already checkpointed. */
+    private void pushTicketFix(DefectPipeline.Ticket ticket) throws Exception {
+        String issueKey = ticket.getIssueKey();
+        if (!reached(issueKey, TicketWorkflowStore.Step.BRANCH_PUSHED)) {
+            gitAgentService.pushFixBranch(ticket.getBranchName(), ticket.getCodeFix());
+            checkpoint(ticket, TicketWorkflowStore.Step.BRANCH_PUSHED, java.util.Map.of(TicketWorkflowStore.BRANCH, ticket.getBranchName()));
+        }
+        if (!reached(issueKey, TicketWorkflowStore.Step.PR_CREATED)) {
+            String prUrl = gitAgentService.openPullRequest(ticket.getBranchName());
+            ticket.setPrUrl(prUrl != null ? prUrl : "https://github.com/MonaSharmaCG/AgenticMCPDemo/pull/new/" + ticket.getBranchName());
+            checkpoint(ticket, TicketWorkflowStore.Step.PR_CREATED, java.util.Map.of(TicketWorkflowStore.PR_URL, ticket.getPrUrl()));
+        }
+    }
+
+    /**
+     * What a fix is batched by: the class it changes or, with agent.batch.groupBy=PACKAGE, that
+     * class's package. Null unless the class resolves to exactly one source file, so a ticket
+     * whose target is a guess is pushed on its own rather than into another ticket's PR.
+     */
+    private String batchComponent(DefectPipeline.Ticket ticket) {
+        if (sourceFileIndex == null) return null;
+        String codeFix = ticket.getCodeFix() == null ? "" : ticket.getCodeFix();
+        String className = extractClassNameFromBugOrCode(ticket.getBug(), codeFix);
+        if (className == null) return null;
+        java.util.regex.Matcher pkg = PACKAGE_DECLARATION.matcher(codeFix);
+        String declaredPackage = pkg.find() ? pkg.group(1) : null;
+        SourceFileIndex.Resolution resolution = sourceFileIndex.resolve(className, declaredPackage);
+        if (resolution.path() == null) return null;
+        if (batchGroupBy != FixBatcher.Grouping.PACKAGE) return declaredPackage == null ? className : declaredPackage + "." + className;
+        if (declaredPackage != null) return declaredPackage;
+        return resolution.path().getParent() == null ? className : resolution.path().getParent().toString();
+    }
+
+    /**
+     * Pushes one branch with a commit per ticket (each under the ticket's own fix directory,
+     * named after its Jira key) and opens one PR listing every ticket. Each ticket's workflow
+     * is checkpointed as if it had been pushed alone, pointing at the shared branch and PR.
+     */
+    private void pushBatch(String component, List<DefectPipeline.Ticket> tickets) throws Exception {
+        try {
+            if (tickets.size() == 1) {
+                pushTicketFix(tickets.get(0));
+                return;
+            }
+            String date = java.time.LocalDate.now().format(java.time.format.DateTimeFormatter.BASIC_ISO_DATE);
+            String branch = "defect/batch-" + component.replaceAll("[^A-Za-z0-9._-]+", "-") + "-" + tickets.get(0).getIssueKey() + "-" + date;
+            List<String> keys = tickets.stream().map(DefectPipeline.Ticket::getIssueKey).toList();
+            gitAgentService.pushFixCommits(branch, tickets.stream()
+                .map(t -> GitAgentService.fixCommit(t.getBranchName(), t.getCodeFix())).toList());
+            StringBuilder body = new StringBuilder("Agent-generated fixes for ").append(tickets.size())
+                .append(" tickets touching ").append(component).append(", one commit per ticket:\n");
+            for (DefectPipeline.Ticket t : tickets) {
+                body.append("\n- ").append(t.getIssueKey()).append(" (").append(jiraUrl).append("/browse/").append(t.getIssueKey())
+                    .append("): agent_generated/fixes/").append(t.getBranchName()).append("/fix.txt");
+                t.setBranchName(branch);
+                checkpoint(t, TicketWorkflowStore.Step.BRANCH_PUSHED, java.util.Map.of(TicketWorkflowStore.BRANCH, branch));
+            }
+            String prUrl = gitAgentService.openPullRequest(branch, "Automated fixes for " + component + ": " + String.join(", ", keys), body.toString());
+            for (DefectPipeline.Ticket t : tickets) {
+                t.setPrUrl(prUrl != null ? prUrl : "https://github.com/MonaSharmaCG/AgenticMCPDemo/pull/new/" + branch);
+                checkpoint(t, TicketWorkflowStore.Step.PR_CREATED, java.util.Map.of(TicketWorkflowStore.PR_URL, t.getPrUrl()));
+            }
+            log.info("Pushed {} as one batch on {}", keys, branch);
+        } catch (Exception e) {
+            if (workflowStore != null) {
+                for (DefectPipeline.Ticket t : tickets) workflowStore.recordFailure(t.getIssueKey(), e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    private void runCommentStage(DefectPipeline.Ticket ticket) {
+        if (!reached(ticket.getIssueKey(), TicketWorkflowStore.Step.COMMENTED)) {
+            // After fix and PR, comment PR link back to Jira
+            String comment = "Code fix done and PR raised: " + ticket.getPrUrl() + "\n\nAgent suggestion:\n" + ticket.getSuggestion();
+            updateJiraWithComment(ticket.getBug(), comment);
+            checkpoint(ticket, TicketWorkflowStore.Step.COMMENTED, java.util.Map.of());
+        }
+        markProcessed(ticket.getIssueKey());
+        recordTicketUsage(ticket.getIssueKey(), ticket.getLlmUsage(), ticket.getEnqueuedAt());
+        log.info("Processed defect for JIRA issue {} in {} ms", ticket.getIssueKey(), System.currentTimeMillis() - ticket.getEnqueuedAt());
+    }
+
+    /** Counts a stage failure against the ticket's workflow so repeated failures park it. */
+    private DefectPipeline.StageHandler recordingFailures(DefectPipeline.StageHandler handler) {
+        return ticket -> {
+            try {
+                handler.handle(ticket);
+            } catch (Exception e) {
+                if (workflowStore != null) workflowStore.recordFailure(ticket.getIssueKey(), e.getMessage());
+                throw e;
+            }
+        };
+    }
+
+    private boolean reached(String issueKey, TicketWorkflowStore.Step step) {
+        if (workflowStore == null) return false;
+        TicketWorkflowStore.Workflow workflow = workflowStore.get(issueKey);
+        return workflow != null && workflow.reached(step);
+    }
+
+    private void checkpoint(DefectPipeline.Ticket ticket, TicketWorkflowStore.Step step, java.util.Map<String, String> outputs) {
+        if (workflowStore != null) workflowStore.checkpoint(ticket.getIssueKey(), step, outputs);
+    }
+
+    /** Copies the outputs of steps completed before a restart onto a freshly queued ticket. */
+    private static void restoreCheckpoint(DefectPipeline.Ticket ticket, TicketWorkflowStore.Workflow workflow) {
+        ticket.setBranchName(workflow.output(TicketWorkflowStore.BRANCH));
+        ticket.setSuggestion(workflow.output(TicketWorkflowStore.SUGGESTION));
+        ticket.setCodeFix(workflow.output(TicketWorkflowStore.CODE_FIX));
+        ticket.setPrUrl(workflow.output(TicketWorkflowStore.PR_URL));
+    }
+
+    /**
+     * Re-queues tickets whose workflow was interrupted by a shutdown or crash. They resume from
+     * their last checkpoint, so finished LLM calls and pushed branches are not repeated.
+     */
+    @org.springframework.context.event.EventListener(org.springframework.boot.context.event.ApplicationReadyEvent.class)
+    public void resumeWorkflows() {
+        if (workflowStore == null || !workflowResumeOnStartup) return;
+        int resumed = 0;
+        for (TicketWorkflowStore.Workflow workflow : workflowStore.unfinished()) {
+            if (workflow.attempts() >= workflowMaxAttempts || isProcessed(workflow.issueKey())) continue;
+            if (enqueueTicket(workflow.issueKey(), workflow.output(TicketWorkflowStore.BUG), workflow.priority(), workflow.created())) {
+                log.info("Resuming JIRA ticket {} from {}", workflow.issueKey(), workflow.step());
+                resumed++;
+            }
+        }
+        if (resumed > 0) log.info("Resumed {} unfinished ticket workflow(s)", resumed);
+    }
+
+    /**
+     * Workflow snapshots at {@code step} (all steps when null), most recently updated first,
+     * plus counts per step.
+     */
+    public Map<String, Object> getWorkflows(String step, int limit) {
+        Map<String, Object> result = new java.util.LinkedHashMap<>();
+        if (workflowStore == null) {
+            result.put("enabled", false);
+            return result;
+        }
+        TicketWorkflowStore.Step filter = step == null || step.isBlank() ? null : TicketWorkflowStore.Step.valueOf(step.trim().toUpperCase());
+        result.put("counts", workflowStore.countsByStep());
+        result.put("workflows", workflowStore.list(filter, limit).stream().map(TicketWorkflowStore.Workflow::summary).toList());
+        return result;
+    }
+
+    /** The ticket's workflow including step outputs, or null if the agent has not seen it. */
+    public TicketWorkflowStore.Workflow getWorkflow(String issueKey) {
+        return workflowStore == null ? null : workflowStore.get(issueKey);
+    }
+
+    /** Clears the failure count of a parked ticket and queues it again from its last checkpoint. */
+    public boolean retryWorkflow(String issueKey) {
+        if (workflowStore == null || workflowStore.resetAttempts(issueKey) == null) return false;
+        TicketWorkflowStore.Workflow workflow = workflowStore.get(issueKey);
+        return enqueueTicket(issueKey, workflow.output(TicketWorkflowStore.BUG), workflow.priority(), workflow.created());
+    }
+
+    private void recordTicketUsage(String issueKey, LlmUsage usage, long startedAt) {
+        long elapsed = System.currentTimeMillis() - startedAt;
+        String mode = llmCombined ? "combined" : "per-call";
+        llmUsageByMode.computeIfAbsent(mode, m -> new LlmUsage()).recordTicket(usage, elapsed);
+        log.info("LLM usage for {} [{}]: {}, endToEndMillis={}", issueKey, mode, usage, elapsed);
+    }
+
+    /**
+     * Token usage and end-to-end latency per ticket, aggregated by LLM mode.
+     */
+    public Map<String, Object> getLlmUsageStats() {
+        Map<String, Object> stats = new java.util.LinkedHashMap<>();
+        stats.put("activeMode", llmCombined ? "combined" : "per-call");
+        llmUsageByMode.forEach((mode, usage) -> stats.put(mode, usage.snapshot()));
+        return stats;
     }
 
     // Example usage after automated action:
     public void processDefectAndNotify(String issueKey, String actionSummary) {
-        // ...existing defect processing logic...
-        markChecklistCompleted(2); // e.g., code fix applied
         notifyDLs("Automated action for issue " + issueKey + ": " + actionSummary);
-        markChecklistCompleted(3); // PR created and DLs notified
     }
 
     /**
@@ -119,13 +616,61 @@ public class DefectProcessingAgent {
     }
 
     public void loadProcessedIssues() {
-        try {
-            Path path = Path.of(PROCESSED_ISSUES_FILE);
-            if (java.nio.file.Files.exists(path)) {
-                processedIssues.addAll(java.nio.file.Files.readAllLines(path));
+        processedIssueStore().load();
+    }
+
+    private ProcessedIssueStore processedIssueStore() {
+        ProcessedIssueStore store = processedIssues;
+        if (store == null) {
+            synchronized (this) {
+                if (processedIssues == null) {
+                    processedIssues = new ProcessedIssueStore(Path.of(PROCESSED_ISSUES_FILE),
+                        processedTtlDays > 0 ? processedTtlDays : 7,
+                        processedFsyncEvery > 0 ? processedFsyncEvery : 16,
+                        processedFsyncIntervalMs, processedCompactIntervalMs);
+                }
+                store = processedIssues;
             }
-        } catch (Exception e) {
-            log.warn("Could not load processed issues: {}", e.getMessage());
+        }
+        return store;
+    }
+
+    private CommentFingerprintIndex commentIndex() {
+        CommentFingerprintIndex index = commentIndex;
+        if (index == null) {
+            synchronized (this) {
+                if (commentIndex == null) {
+                    CommentFingerprintIndex loaded = new CommentFingerprintIndex(Path.of(COMMENT_FINGERPRINTS_FILE));
+                    loaded.load();
+                    commentIndex = loaded;
+                }
+                index = commentIndex;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Runs an upstream HTTP call through that upstream's rate limiter, backoff and circuit breaker,
+     * timing each attempt as {@code operation}.
+     */
+    private <T> T callUpstream(String upstream, String operation, java.util.concurrent.Callable<T> call) throws Exception {
+        return callUpstream(upstream, operation, headers -> call.call());
+    }
+
+    /**
+     * As above, for calls that read the response in an extractor and report its headers
+     * there, so the limiter sees rate-limit headers on them too.
+     */
+    private <T> T callUpstream(String upstream, String operation, UpstreamRateLimiter.HeaderReportingCall<T> call) throws Exception {
+        UpstreamRateLimiter.HeaderReportingCall<T> timed = agentMetrics == null ? call
+            : headers -> agentMetrics.timeUpstream(upstream, operation, () -> call.call(headers));
+        try {
+            return rateLimiters == null ? timed.call(headers -> { }) : rateLimiters.get(upstream).execute(timed);
+        } catch (UpstreamRateLimiter.UpstreamUnavailableException e) {
+            // rejected before any attempt was made, so timeUpstream never saw it
+            if (agentMetrics != null) agentMetrics.recordFailure(upstream, e);
+            throw e;
         }
     }
 
@@ -134,6 +679,17 @@ public class DefectProcessingAgent {
      */
     public List<String> fetchJiraBugs() {
         List<String> bugs = new java.util.ArrayList<>();
+        for (com.cap.api.service.JiraJsonExtractor.JiraIssue issue : fetchJiraIssues()) {
+            bugs.add(issue.toLine());
+        }
+        return bugs;
+    }
+
+    /**
+     * Today's unprocessed issues with the fields the scheduler needs (priority, created).
+     */
+    private List<com.cap.api.service.JiraJsonExtractor.JiraIssue> fetchJiraIssues() {
+        List<com.cap.api.service.JiraJsonExtractor.JiraIssue> bugs = new java.util.ArrayList<>();
         try {
             if (jiraUrl == null || encodedAuth == null) {
                 log.warn("JIRA credentials not initialized.");
@@ -161,30 +717,30 @@ public class DefectProcessingAgent {
                         headers.set("Content-Type", "application/json");
                         java.util.Map<String, Object> body = new java.util.HashMap<>();
                         body.put("jql", jql);
-                        body.put("fields", java.util.Arrays.asList("summary", "status", "description", "comment", "created"));
+                        // Only the fields the agent reads; comments are fetched separately when needed
+                        body.put("fields", java.util.Arrays.asList("summary", "status", "description", "created", "priority"));
                         org.springframework.http.HttpEntity<java.util.Map<String, Object>> requestEntity = new org.springframework.http.HttpEntity<>(body, headers);
-                        org.springframework.http.ResponseEntity<String> response = restTemplate.postForEntity(searchUrl, requestEntity, String.class);
-            String jiraJson = response.getBody();
-            com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-            com.fasterxml.jackson.databind.JsonNode root = mapper.readTree(jiraJson);
-            com.fasterxml.jackson.databind.JsonNode issues = root.path("issues");
-            // 'today' already defined above, remove duplicate
-            if (issues.isArray()) {
-                for (com.fasterxml.jackson.databind.JsonNode issue : issues) {
-                    String created = issue.path("fields").path("created").asText("");
-                    if (created.startsWith(today)) {
-                        String key = issue.path("key").asText("");
-                        String summary = issue.path("fields").path("summary").asText("");
-                        String status = issue.path("fields").path("status").path("name").asText("");
-                        String description = issue.path("fields").path("description").asText("");
-                        String line = key + "|" + summary + "|" + status + "|" + description;
-                        String issueKey = extractIssueKey(line);
+            // Parse straight off the response stream into compact records instead of a String plus a JsonNode tree
+            List<com.cap.api.service.JiraJsonExtractor.JiraIssue> issues = callUpstream(UpstreamRateLimiters.JIRA, "search", rateHeaders -> restTemplate.execute(
+                searchUrl,
+                org.springframework.http.HttpMethod.POST,
+                restTemplate.httpEntityCallback(requestEntity),
+                response -> {
+                    rateHeaders.accept(response.getHeaders());
+                    return com.cap.api.service.JiraJsonExtractor.parseIssues(response.getBody());
+                }));
+            if (issues != null) {
+                for (com.cap.api.service.JiraJsonExtractor.JiraIssue issue : issues) {
+                    if (issue.created().startsWith(today)) {
+                        String issueKey = extractIssueKey(issue.toLine());
                         if (issueKey != null && !isProcessed(issueKey)) {
-                            bugs.add(line);
+                            bugs.add(issue);
                         }
                     }
                 }
             }
+        } catch (UpstreamRateLimiter.UpstreamUnavailableException e) {
+            log.warn("Skipping JIRA fetch: {}", e.getMessage());
         } catch (Exception e) {
             log.error("Failed to fetch JIRA bugs: {}", e.getMessage(), e);
         }
@@ -224,78 +780,237 @@ public class DefectProcessingAgent {
     @Autowired(required = false)
     private PromptController promptController;
 
+    // Versioned per-task prompt templates with project and issue overrides
+    @Autowired(required = false)
+    private PromptTemplateRegistry promptTemplates;
+
     public void fixBugs(List<String> bugs) {
         for (String bug : bugs) {
-            String bugForFix = bug;
-            // If bug description is lengthy, summarize first
-            if (bug != null && bug.length() > 400) {
-                String summary = summarizeBugWithLLM(bug);
-                if (summary != null && !summary.isBlank()) {
-                    log.info("LLM summary for bug: {}\nSummary: {}", bug, summary);
-                    bugForFix = summary;
-                }
-            }
-            // Check for custom prompt from REST API
-            String customPrompt = null;
-            if (promptController != null) {
-                customPrompt = promptController.consumePrompt();
-            }
-            if (customPrompt != null && !customPrompt.isBlank()) {
-                log.info("Using custom prompt for bug {}: {}", bug, customPrompt);
-                bugForFix = customPrompt;
-            }
-            String suggestion = suggestFix(bugForFix);
-            String codeFix = generateCodeFixWithLLM(bugForFix);
-            String logEntry = "Suggested fix for bug: " + bug + "\nLLM suggestion: " + suggestion + "\nLLM code fix:\n" + codeFix + "\n";
-            log.info(logEntry);
-            // Log to defect_agent_log.txt
+            LlmUsage usage = new LlmUsage(bug == null ? null : extractIssueKey(bug));
+            long startedAt = System.currentTimeMillis();
             try {
-                java.nio.file.Files.write(
-                    Path.of("defect_agent_log.txt"),
-                    logEntry.getBytes(),
-                    java.nio.file.StandardOpenOption.CREATE,
-                    java.nio.file.StandardOpenOption.APPEND
-                );
-            } catch (Exception e) {
-                log.error("Failed to write to defect_agent_log.txt: {}", e.getMessage(), e);
-            }
-            // If LLM code fix is not clear or is a placeholder, prompt user for clarification
-            if (codeFix == null || codeFix.isBlank() || codeFix.contains("LLM code fix unavailable") || codeFix.toLowerCase().contains("not enough information") || codeFix.length() < 20) {
-                log.info("LLM could not generate a clear code fix for bug: {}. Waiting for user input in GitHub Copilot Agentic.", bug);
-                // Simulate waiting for user input (in real app, this would be an async prompt/UI)
-                String userClarification = waitForUserClarification(bug);
-                if (userClarification != null && !userClarification.isBlank()) {
-                    codeFix = generateCodeFixWithLLM(bugForFix + "\nUser clarification: " + userClarification);
-                } else {
-                    log.info("No user clarification provided. Skipping code update for bug: {}", bug);
-                    continue;
-                }
+                fixBug(bug, usage);
+            } finally {
+                recordTicketUsage(usage.getIssueKey(), usage, startedAt);
             }
-            // Actually update the codebase with the LLM code fix
-            boolean codeUpdated = applyCodeFixToProject(bug, codeFix);
-            if (codeUpdated) {
-                log.info("Codebase updated for bug: {}", bug);
-            } else {
-                log.warn("Failed to update codebase for bug: {}. Code fix: {}", bug, codeFix);
+        }
+    }
+
+    private void fixBug(String bug, LlmUsage usage) {
+        // Check for custom prompt from REST API
+        String customPrompt = null;
+        if (promptController != null) {
+            customPrompt = promptController.consumePrompt(usage.getIssueKey());
+        }
+        boolean hasCustomPrompt = customPrompt != null && !customPrompt.isBlank();
+        // Retrieve with the raw ticket text: it carries more identifiers than a summary
+        String sourceContext = retrieveSourceContext(bug);
+        // Combined mode: one completion returns summary, rationale and code fix together
+        FixBundle bundle = llmCombined ? requestCombinedFix(withSourceContext(hasCustomPrompt ? customPrompt : bug, sourceContext), usage) : new FixBundle();
+        String bugForFix = bug;
+        // If bug description is lengthy, summarize first
+        if (bug != null && bug.length() > 400) {
+            String summary = bundle.getSummary() != null ? bundle.getSummary() : summarizeBugWithLLM(bug, usage);
+            if (summary != null && !summary.isBlank()) {
+                log.info("LLM summary for bug: {}\nSummary: {}", bug, summary);
+                bugForFix = summary;
             }
-            // Write code fix to agent_generated/last_suggestions.txt for traceability
-            try {
-                java.nio.file.Path out = Path.of("agent_generated/last_suggestions.txt");
-                java.nio.file.Files.createDirectories(out.getParent());
-                java.nio.file.Files.write(out, ("Bug: " + bug + "\nCode Fix:\n" + codeFix + "\n---\n").getBytes(), java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
-            } catch (Exception e) {
-                log.error("Failed to write code fix: {}", e.getMessage(), e);
+        }
+        if (hasCustomPrompt) {
+            log.info("Using custom prompt for bug {}: {}", bug, customPrompt);
+            bugForFix = customPrompt;
+        }
+        completeRationale(bundle, bugForFix, usage);
+        completeCodeFix(bundle, bugForFix, sourceContext, usage);
+        String suggestion = bundle.getRationale();
+        String codeFix = bundle.getCodeFix();
+        String logEntry = "Suggested fix for bug: " + bug + "\nLLM suggestion: " + suggestion + "\nLLM code fix:\n" + codeFix + "\n";
+        log.info(logEntry);
+        // Log to defect_agent_log.jsonl (queued; written by the agent log writer thread)
+        writeAgentLog(AgentLogWriter.DEFECT_AGENT_LOG, "suggested_fix", java.util.Map.of(
+            "issueKey", String.valueOf(usage.getIssueKey()), "bug", String.valueOf(bug),
+            "suggestion", String.valueOf(suggestion), "codeFix", String.valueOf(codeFix)));
+        // If LLM code fix is not clear or is a placeholder, prompt user for clarification
+        if (codeFix == null || codeFix.isBlank() || codeFix.contains("LLM code fix unavailable") || codeFix.toLowerCase().contains("not enough information") || codeFix.length() < 20) {
+            log.info("LLM could not generate a clear code fix for bug: {}. Waiting for user input in GitHub Copilot Agentic.", bug);
+            // Simulate waiting for user input (in real app, this would be an async prompt/UI)
+            String userClarification = waitForUserClarification(bug);
+            if (userClarification != null && !userClarification.isBlank()) {
+                codeFix = generateCodeFixWithLLM(withSourceContext(bugForFix + "\nUser clarification: " + userClarification, sourceContext), usage);
+            } else {
+                log.info("No user clarification provided. Skipping code update for bug: {}", bug);
+                return;
             }
-            // Update JIRA with the suggestion as a comment
-            updateJiraWithComment(bug, "[agenticBot] " + suggestion + "\nCode fix applied to codebase.\n" + codeFix);
+        }
+        CheckedFix checked = compileChecked(bugForFix, sourceContext, codeFix, usage);
+        codeFix = checked.codeFix();
+        if (checked.failed()) {
+            log.warn("Not applying fix for bug {}: it does not compile:\n{}", bug, checked.result().diagnosticsText());
+        }
+        // Actually update the codebase with the LLM code fix (the compiled source, without any prose around it)
+        boolean codeUpdated = !checked.failed() && applyCodeFixToProject(bug, checked.compiles() ? checked.result().source() : codeFix);
+        if (codeUpdated) {
+            log.info("Codebase updated for bug: {}", bug);
+        } else {
+            log.warn("Failed to update codebase for bug: {}. Code fix: {}", bug, codeFix);
+        }
+        // Write code fix to agent_generated/last_suggestions.jsonl for traceability
+        writeAgentLog(AgentLogWriter.LAST_SUGGESTIONS, "code_fix", java.util.Map.of(
+            "issueKey", String.valueOf(usage.getIssueKey()), "bug", String.valueOf(bug),
+            "codeFix", String.valueOf(codeFix), "applied", codeUpdated));
+        // Update JIRA with the suggestion as a comment
+        updateJiraWithComment(bug, "[agenticBot] " + suggestion + "\nCode fix applied to codebase.\n" + codeFix);
+    }
+
+    private void writeAgentLog(Path file, String type, java.util.Map<String, Object> fields) {
+        if (agentLogWriter == null) {
+            log.debug("Agent log writer not available; {} record for {} not persisted", type, file);
+        } else if (!agentLogWriter.append(file, type, fields)) {
+            log.warn("Agent log queue full; dropped {} record for {}", type, file);
         }
     }
 
+    /**
+     * Asks the model once for a JSON object holding summary, rationale and code fix.
+     * Fields that are missing or fail validation stay null for the per-call fallback.
+     */
+    private FixBundle requestCombinedFix(String bugDescription, LlmUsage usage) {
+        FixBundle bundle = FixBundle.parse(callOpenAIChatCompletion(bugDescription, usage, LlmTask.COMBINED));
+        List<String> missing = bundle.missingFields();
+        if (!missing.isEmpty()) {
+            log.info("Combined LLM response missing {}; falling back to per-call prompts for them", missing);
+        }
+        return bundle;
+    }
+
+    /**
+     * Fills the rationale if the combined call did not provide it, using the per-call prompt.
+     */
+    private void completeRationale(FixBundle bundle, String bugForFix, LlmUsage usage) {
+        if (bundle.getRationale() != null) {
+            bundle.setRationale("LLM suggestion: " + bundle.getRationale());
+        } else {
+            bundle.setRationale(suggestFix(bugForFix, usage));
+        }
+    }
+
+    /**
+     * Fills the code fix if the combined call did not provide it, using the per-call prompt.
+     */
+    private void completeCodeFix(FixBundle bundle, String bugForFix, String sourceContext, LlmUsage usage) {
+        if (bundle.getCodeFix() == null) {
+            String patched = fixFormat == FixFormat.DIFF ? generatePatchedFix(bugForFix, "", usage) : null;
+            bundle.setCodeFix(patched != null ? patched : generateCodeFixWithLLM(withSourceContext(bugForFix, sourceContext), usage));
+        }
+    }
+
+    /**
+     * Diff format: sends the file the ticket names and asks only for hunks against it, so
+     * output tokens follow the size of the change. Returns the patched file, or null when no
+     * single file resolves, it is too large, or the hunks do not apply cleanly.
+     */
+    private String generatePatchedFix(String bugForFix, String note, LlmUsage usage) {
+        String className = extractClassNameFromBugOrCode(bugForFix, "");
+        if (className == null || sourceFileIndex == null) return null;
+        SourceFileIndex.Resolution target = sourceFileIndex.resolve(className, null);
+        if (target.isAmbiguous() || target.path() == null) return null;
+        String original;
+        try {
+            original = java.nio.file.Files.readString(target.path());
+        } catch (java.io.IOException e) {
+            log.warn("Cannot read {} for a patch fix: {}", target.path(), e.getMessage());
+            return null;
+        }
+        if (original.length() > patchMaxFileChars) {
+            log.info("{} has {} chars, over agent.llm.patchMaxFileChars; asking for the whole file", target.path(), original.length());
+            return null;
+        }
+        String prompt = bugForFix + "\n\nSource file " + target.path().getFileName() + ":\n```java\n" + original + "\n```" + note;
+        String response = callOpenAIChatCompletion(prompt, usage, LlmTask.CODE_PATCH);
+        long started = System.nanoTime();
+        java.util.List<PatchEngine.Hunk> hunks = PatchEngine.parse(response);
+        PatchEngine.Result patched = PatchEngine.apply(original, hunks);
+        if (agentMetrics != null) agentMetrics.recordStage("patch", System.nanoTime() - started, patched.clean());
+        if (hunks.isEmpty()) {
+            log.info("No diff hunks in the patch response for {}; asking for the whole file", className);
+            if (agentMetrics != null) agentMetrics.countFailure("patch", "unparseable");
+            return null;
+        }
+        if (!patched.clean()) {
+            log.info("Patch for {} does not apply ({} of {} hunks applied): {}; asking for the whole file",
+                className, patched.applied(), hunks.size(), patched.conflicts());
+            if (agentMetrics != null) agentMetrics.countFailure("patch", "conflict");
+            return null;
+        }
+        if (patched.fuzzy() > 0) {
+            log.debug("Patch for {} applied with {} fuzzy hunk(s)", className, patched.fuzzy());
+        }
+        return patched.text();
+    }
+
+    /** A code fix and the outcome of compiling it; result is null when no check ran. */
+    private record CheckedFix(String codeFix, FixCompiler.Result result) {
+        boolean failed() {
+            return result != null && result.failed();
+        }
+
+        boolean compiles() {
+            return result != null && result.status() == FixCompiler.Status.PASSED;
+        }
+    }
+
+    /**
+     * Compiles the fix in memory when it is a whole source file. If it does not compile, the
+     * model is asked once more with the compiler errors and the retry is checked the same way.
+     */
+    private CheckedFix compileChecked(String bugForFix, String sourceContext, String codeFix, LlmUsage usage) {
+        if (fixCompiler == null || !fixCompiler.isEnabled()) return new CheckedFix(codeFix, null);
+        FixCompiler.Result first = timedCompile(codeFix);
+        if (!first.failed()) return new CheckedFix(codeFix, first);
+        log.info("Generated fix does not compile; retrying once with the compiler errors:\n{}", first.diagnosticsText());
+        String retried = fixFormat == FixFormat.DIFF
+            ? generatePatchedFix(bugForFix, "\n\nA previous fix for this file did not compile:\n" + first.diagnosticsText(), usage) : null;
+        if (retried == null) {
+            String retryPrompt = bugForFix + "\n\nThis fix does not compile:\n```java\n" + first.source() + "\n```\nCompiler errors:\n"
+                + first.diagnosticsText() + "\nReturn the complete corrected file.";
+            retried = generateCodeFixWithLLM(withSourceContext(retryPrompt, sourceContext), usage);
+        }
+        FixCompiler.Result second = timedCompile(retried);
+        // a retry that is no longer a whole file cannot be checked; keep the first attempt's verdict
+        return second.status() == FixCompiler.Status.SKIPPED ? new CheckedFix(codeFix, first) : new CheckedFix(retried, second);
+    }
+
+    private FixCompiler.Result timedCompile(String codeFix) {
+        long started = System.nanoTime();
+        FixCompiler.Result result = fixCompiler.check(codeFix);
+        if (agentMetrics != null && result.status() != FixCompiler.Status.SKIPPED) {
+            agentMetrics.recordStage("compile", System.nanoTime() - started, !result.failed());
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the source chunks most relevant to the ticket, packed into the context token budget.
+     */
+    private String retrieveSourceContext(String bug) {
+        if (codeContextIndex == null || bug == null) return "";
+        try {
+            return codeContextIndex.buildContext(bug, contextTokenBudget);
+        } catch (Exception e) {
+            log.warn("Source retrieval failed; prompting without context: {}", e.getMessage());
+            return "";
+        }
+    }
+
+    private static String withSourceContext(String prompt, String sourceContext) {
+        return sourceContext == null || sourceContext.isEmpty() ? prompt : prompt + "\n\n" + sourceContext;
+    }
+
     /**
      * Uses LLM to summarize a lengthy bug description in 1-2 lines.
      */
-    private String summarizeBugWithLLM(String bugDescription) {
-        String summary = callOpenAIChatCompletion(bugDescription, "You are an expert Java developer. Summarize the following defect or ticket description in 1-2 concise lines, focusing on the main technical problem and context only. Do not include greetings or extra commentary.");
+    private String summarizeBugWithLLM(String bugDescription, LlmUsage usage) {
+        String summary = callOpenAIChatCompletion(bugDescription, usage, LlmTask.SUMMARIZE);
         if (summary != null && !summary.isBlank()) {
             return summary;
         }
@@ -324,18 +1039,21 @@ public class DefectProcessingAgent {
                 log.warn("Could not determine class to update for bug: {}", bug);
                 return false;
             }
-            // Find the file in src/main/java
-            java.nio.file.Path srcRoot = Path.of("src/main/java");
-            java.util.List<java.nio.file.Path> matches = new java.util.ArrayList<>();
-            java.nio.file.Files.walk(srcRoot)
-                .filter(p -> p.getFileName().toString().equals(className + ".java"))
-                .forEach(matches::add);
-            if (matches.isEmpty()) {
+            if (sourceFileIndex == null) {
+                log.warn("Source index not available; cannot locate class {}", className);
+                return false;
+            }
+            java.util.regex.Matcher pkg = PACKAGE_DECLARATION.matcher(codeFix);
+            SourceFileIndex.Resolution resolution = sourceFileIndex.resolve(className, pkg.find() ? pkg.group(1) : null);
+            if (resolution.isAmbiguous()) {
+                log.warn("Class {} is ambiguous, not updating any of {}", className, resolution.candidates());
+                return false;
+            }
+            if (resolution.path() == null) {
                 log.warn("No source file found for class {}", className);
                 return false;
             }
-            // Overwrite the first match with the new code
-            java.nio.file.Files.writeString(matches.get(0), codeFix);
+            java.nio.file.Files.writeString(resolution.path(), codeFix);
             return true;
         } catch (Exception e) {
             log.error("Failed to apply code fix: {}", e.getMessage(), e);
@@ -348,22 +1066,23 @@ public class DefectProcessingAgent {
      */
     private String extractClassNameFromBugOrCode(String bug, String codeFix) {
         // Try to find a class name in the codeFix
-        java.util.regex.Matcher m = java.util.regex.Pattern.compile("class\\s+([A-Za-z0-9_]+)").matcher(codeFix);
+        java.util.regex.Matcher m = CLASS_DECLARATION.matcher(codeFix);
         if (m.find()) {
             return m.group(1);
         }
-        // Fallback: look for known class names in the bug description
-        if (bug != null && bug.toLowerCase().contains("claimservice")) return "ClaimService";
-        if (bug != null && bug.toLowerCase().contains("invoiceservice")) return "InvoiceService";
-        // Add more heuristics as needed
-        return null;
+        // Fallback: the one indexed class the bug description names; null if it names several
+        return bug != null && sourceFileIndex != null ? sourceFileIndex.findMentionedClass(bug) : null;
     }
 
     /**
      * Uses LLM to generate code fix for a bug description.
      */
     private String generateCodeFixWithLLM(String bugDescription) {
-        String llmCodeFix = callOpenAIChatCompletion(bugDescription, "You are an expert Java developer. Given the following defect description, generate a code fix (Java code only) that resolves the issue. Return only the code block, no explanation.");
+        return generateCodeFixWithLLM(bugDescription, null);
+    }
+
+    private String generateCodeFixWithLLM(String bugDescription, LlmUsage usage) {
+        String llmCodeFix = callOpenAIChatCompletion(bugDescription, usage, LlmTask.CODE_FIX);
         if (llmCodeFix != null && !llmCodeFix.isBlank()) {
             return llmCodeFix;
         }
@@ -374,8 +1093,12 @@ public class DefectProcessingAgent {
      * Suggests a fix based on bug description (simple demo logic).
      */
     private String suggestFix(String bugDescription) {
+        return suggestFix(bugDescription, null);
+    }
+
+    private String suggestFix(String bugDescription, LlmUsage usage) {
         // Use LLM if available
-        String llmSuggestion = callOpenAIChatCompletion(bugDescription, "You are an expert Java developer. Suggest a code fix for the following defect description. Return only the code suggestion and a brief rationale.");
+        String llmSuggestion = callOpenAIChatCompletion(bugDescription, usage, LlmTask.SUGGEST);
         if (llmSuggestion != null && !llmSuggestion.isBlank()) {
             return "LLM suggestion: " + llmSuggestion;
         }
@@ -403,33 +1126,146 @@ public class DefectProcessingAgent {
     /**
      * Calls Azure OpenAI REST API for chat completion.
      */
-    private String callOpenAIChatCompletion(String bugDescription, String systemPrompt) {
+    private String callOpenAIChatCompletion(String bugDescription) {
+        return callOpenAIChatCompletion(bugDescription, null, LlmTask.SUGGEST);
+    }
+
+    /**
+     * {@code max_tokens} for a task. Code fixes are sized from the prompt, since the answer
+     * repeats most of the retrieved source; the combined answer adds room for summary and
+     * rationale plus JSON string escaping of the code, so a typical fix is not cut off.
+     */
+    private int completionTokenBudget(LlmTask task, String prompt) {
+        int fix = Math.max(fixMaxTokens, TokenEstimator.estimate(prompt));
+        int budget = switch (task) {
+            case CODE_FIX -> fix;
+            // escaped quotes and newlines cost about a fifth more
+            case COMBINED -> 256 + fix * 6 / 5;
+            case CODE_PATCH -> fixMaxTokens;
+            default -> 512;
+        };
+        return Math.min(budget, Math.max(512, maxCompletionTokens));
+    }
+
+    /**
+     * Calls Azure OpenAI REST API for chat completion, recording token usage (including
+     * prompt tokens served from the provider cache) and latency into {@code usage} when given.
+     * Messages go shared prefix, ticket text, task instructions, so the calls for one ticket
+     * share their leading part; see {@link PromptTemplateRegistry}.
+     * The combined task requests a JSON object response.
+     */
+    private String callOpenAIChatCompletion(String bugDescription, LlmUsage usage, LlmTask task) {
+        long started = System.currentTimeMillis();
+        boolean jsonResponse = task == LlmTask.COMBINED;
         try {
             org.springframework.web.client.RestTemplate restTemplate = new org.springframework.web.client.RestTemplate();
             String url = openAIEndpoint + "/openai/deployments/" + openAIDeploymentName + "/chat/completions?api-version=" + openAIApiVersion;
             java.util.Map<String, Object> body = new java.util.HashMap<>();
             java.util.List<java.util.Map<String, String>> messages = new java.util.ArrayList<>();
-            messages.add(java.util.Map.of("role", "system", "content", systemPrompt));
+            messages.add(java.util.Map.of("role", "system", "content", PromptTemplateRegistry.SHARED_PREFIX));
             messages.add(java.util.Map.of("role", "user", "content", bugDescription));
+            messages.add(java.util.Map.of("role", "system", "content", taskInstructions(task, usage)));
             body.put("messages", messages);
-            body.put("max_tokens", 512);
+            body.put("max_tokens", completionTokenBudget(task, bugDescription));
+            if (jsonResponse) {
+                body.put("response_format", java.util.Map.of("type", "json_object"));
+            }
             org.springframework.http.HttpHeaders headers = new org.springframework.http.HttpHeaders();
             headers.set("Content-Type", "application/json");
             headers.set("api-key", openAIApiKey);
             org.springframework.http.HttpEntity<java.util.Map<String, Object>> entity = new org.springframework.http.HttpEntity<>(body, headers);
-            org.springframework.http.ResponseEntity<String> response = restTemplate.postForEntity(url, entity, String.class);
+            if (openAIStream) {
+                return streamChatCompletion(restTemplate, url, body, task, usage, started);
+            }
+            org.springframework.http.ResponseEntity<String> response = callUpstream(UpstreamRateLimiters.OPENAI, task.name().toLowerCase(), () -> restTemplate.postForEntity(url, entity, String.class));
             if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                com.fasterxml.jackson.databind.JsonNode root = new com.fasterxml.jackson.databind.ObjectMapper().readTree(response.getBody());
+                com.fasterxml.jackson.databind.JsonNode root = com.cap.api.service.JsonSupport.MAPPER.readTree(response.getBody());
+                com.fasterxml.jackson.databind.JsonNode u = root.path("usage");
+                long promptTokens = u.path("prompt_tokens").asLong(0);
+                long completionTokens = u.path("completion_tokens").asLong(0);
+                long cachedTokens = u.path("prompt_tokens_details").path("cached_tokens").asLong(0);
+                if (usage != null) {
+                    usage.recordCall(promptTokens, cachedTokens, completionTokens, System.currentTimeMillis() - started);
+                }
+                if (agentMetrics != null) {
+                    agentMetrics.recordTokens(task.name().toLowerCase(), promptTokens, cachedTokens, completionTokens);
+                }
                 if (root.has("choices") && root.get("choices").isArray() && root.get("choices").size() > 0) {
                     return root.get("choices").get(0).get("message").get("content").asText();
                 }
             }
+        } catch (UpstreamRateLimiter.UpstreamUnavailableException e) {
+            log.warn("Skipping OpenAI call: {}", e.getMessage());
         } catch (Exception e) {
             log.error("OpenAI REST API error: {}", e.getMessage(), e);
         }
         return null;
     }
 
+    @SuppressWarnings("unchecked")
+    private static long promptTokenEstimate(java.util.Map<String, Object> body) {
+        long tokens = 0;
+        for (java.util.Map<String, String> message : (java.util.List<java.util.Map<String, String>>) body.get("messages")) {
+            tokens += TokenEstimator.estimate(message.get("content"));
+        }
+        return tokens;
+    }
+
+    private String taskInstructions(LlmTask task, LlmUsage usage) {
+        String issueKey = usage == null ? null : usage.getIssueKey();
+        return promptTemplates != null ? promptTemplates.instructions(task, issueKey) : PromptTemplateRegistry.defaultInstructions(task);
+    }
+
+    /**
+     * Streams a chat completion (stream=true) and assembles it from SSE chunks, publishing
+     * progress for the ticket as it goes. Code fixes stop reading once the first fenced
+     * code block is complete.
+     */
+    private String streamChatCompletion(org.springframework.web.client.RestTemplate restTemplate, String url,
+                                        java.util.Map<String, Object> body, LlmTask task, LlmUsage usage, long started) throws Exception {
+        body.put("stream", true);
+        body.put("stream_options", java.util.Map.of("include_usage", true));
+        byte[] payload = com.cap.api.service.JsonSupport.MAPPER.writeValueAsBytes(body);
+        String key = usage != null && usage.getIssueKey() != null ? usage.getIssueKey() : "adhoc-" + adhocCallSeq.incrementAndGet();
+        LlmProgressTracker.Progress progress = progressTracker == null ? null : progressTracker.start(key, task.name());
+        String outcome = "failed";
+        try {
+            ChatCompletionStreamReader.Result result = callUpstream(UpstreamRateLimiters.OPENAI, task.name().toLowerCase(), rateHeaders -> restTemplate.execute(url, org.springframework.http.HttpMethod.POST,
+                request -> {
+                    request.getHeaders().setContentType(org.springframework.http.MediaType.APPLICATION_JSON);
+                    request.getHeaders().setAccept(java.util.List.of(org.springframework.http.MediaType.TEXT_EVENT_STREAM));
+                    request.getHeaders().set("api-key", openAIApiKey);
+                    request.getBody().write(payload);
+                },
+                response -> {
+                    rateHeaders.accept(response.getHeaders());
+                    return ChatCompletionStreamReader.read(response.getBody(), task == LlmTask.CODE_FIX || task == LlmTask.CODE_PATCH,
+                        (chunks, chars) -> {
+                            if (progress != null) progressTracker.update(progress, chunks, chars);
+                        });
+                }));
+            if (result == null) return null;
+            long promptTokens = result.getPromptTokens();
+            long completionTokens = result.getCompletionTokens();
+            if (!result.isUsageReported()) {
+                // cut off before the usage chunk: count what was sent and received locally
+                promptTokens = promptTokenEstimate(body);
+                completionTokens = TokenEstimator.estimate(result.getContent());
+            }
+            if (usage != null) {
+                usage.recordCall(promptTokens, result.getCachedTokens(), completionTokens, System.currentTimeMillis() - started);
+            }
+            if (agentMetrics != null) {
+                agentMetrics.recordTokens(task.name().toLowerCase(), promptTokens, result.getCachedTokens(), completionTokens);
+            }
+            outcome = result.isTerminatedEarly() ? "stopped-after-code-block" : "completed";
+            log.info("Streamed {} completion for {}: {} chunk(s), {} chars, {}", task, key, result.getChunks(), result.getContent().length(), outcome);
+            return result.getContent().isEmpty() ? null : result.getContent();
+        } finally {
+            if (progress != null) progressTracker.finish(progress, outcome);
+        }
+    }
+
     /**
      * Updates JIRA with a comment for the bug using JIRA REST API.
      */
@@ -455,44 +1291,20 @@ public class DefectProcessingAgent {
             headers.set("Authorization", "Basic " + encodedAuth);
             headers.set("Content-Type", "application/json");
             String commentUrl = jiraUrl + (jiraUrl.endsWith("/") ? "" : "/") + "rest/api/3/issue/" + issueKey + "/comment";
-            String getCommentsUrl = commentUrl;
-            com.fasterxml.jackson.databind.ObjectMapper om = new com.fasterxml.jackson.databind.ObjectMapper();
+            com.fasterxml.jackson.databind.ObjectMapper om = com.cap.api.service.JsonSupport.MAPPER;
             org.springframework.web.client.RestTemplate restTemplate = new org.springframework.web.client.RestTemplate();
-            // Fetch existing comments
-            try {
-                org.springframework.http.HttpEntity<String> getEntity = new org.springframework.http.HttpEntity<>(headers);
-                org.springframework.http.ResponseEntity<String> getResponse = restTemplate.exchange(
-                    getCommentsUrl,
-                    org.springframework.http.HttpMethod.GET,
-                    getEntity,
-                    String.class
-                );
-                String responseBody = getResponse.getBody();
-                boolean alreadyExists = false;
-                if (responseBody != null && !responseBody.isEmpty()) {
-                    // Parse and check if comment already exists
-                    com.fasterxml.jackson.databind.JsonNode root = om.readTree(responseBody);
-                    if (root.has("comments")) {
-                        for (com.fasterxml.jackson.databind.JsonNode c : root.get("comments")) {
-                            StringBuilder sb = new StringBuilder();
-                            for (com.fasterxml.jackson.databind.JsonNode para : c.path("body").path("content")) {
-                                for (com.fasterxml.jackson.databind.JsonNode text : para.path("content")) {
-                                    if (text.has("text")) sb.append(text.get("text").asText());
-                                }
-                            }
-                            if (sb.toString().contains(comment)) {
-                                alreadyExists = true;
-                                break;
-                            }
-                        }
-                    }
+            // Dedupe against the local fingerprint index; Jira is only asked on a miss for an unsynced issue
+            CommentFingerprintIndex index = commentIndex();
+            if (!index.contains(issueKey, comment) && !index.isSynced(issueKey)) {
+                try {
+                    index.addRemote(issueKey, fetchJiraCommentTexts(restTemplate, headers, commentUrl));
+                } catch (Exception ex) {
+                    log.error("Exception checking existing comments: {}", ex.getMessage(), ex);
                 }
-                if (alreadyExists) {
-                    log.info("Comment already exists for JIRA issue {}, skipping.", issueKey);
-                    return;
-                }
-            } catch (Exception ex) {
-                log.error("Exception checking existing comments: {}", ex.getMessage(), ex);
+            }
+            if (index.contains(issueKey, comment)) {
+                log.info("Comment already exists for JIRA issue {}, skipping.", issueKey);
+                return;
             }
             // Build Atlassian doc format for comment body
             String payload = om.writeValueAsString(
@@ -516,13 +1328,14 @@ public class DefectProcessingAgent {
             );
             org.springframework.http.HttpEntity<String> entity = new org.springframework.http.HttpEntity<>(payload, headers);
             try {
-                org.springframework.http.ResponseEntity<String> response = restTemplate.exchange(
+                org.springframework.http.ResponseEntity<String> response = callUpstream(UpstreamRateLimiters.JIRA, "comment_post", () -> restTemplate.exchange(
                     commentUrl,
                     org.springframework.http.HttpMethod.POST,
                     entity,
                     String.class
-                );
+                ));
                 if (response.getStatusCode().is2xxSuccessful()) {
+                    index.add(issueKey, comment);
                     log.info("Successfully posted comment to JIRA issue {}", issueKey);
                 } else {
                     log.warn("Failed to post comment to JIRA issue {}: {}", issueKey, response.getStatusCode());
@@ -535,6 +1348,28 @@ public class DefectProcessingAgent {
         }
     }
 
+    /**
+     * Fetches the plain text of every comment on an issue, following startAt/maxResults paging.
+     */
+    private List<String> fetchJiraCommentTexts(org.springframework.web.client.RestTemplate restTemplate,
+                                               org.springframework.http.HttpHeaders headers, String commentUrl) throws Exception {
+        List<String> texts = new java.util.ArrayList<>();
+        org.springframework.http.HttpEntity<String> getEntity = new org.springframework.http.HttpEntity<>(headers);
+        int startAt = 0;
+        while (true) {
+            String pageUrl = commentUrl + "?startAt=" + startAt + "&maxResults=" + JIRA_COMMENT_PAGE_SIZE;
+            org.springframework.http.ResponseEntity<String> page = callUpstream(UpstreamRateLimiters.JIRA, "comment_list", () -> restTemplate.exchange(
+                pageUrl, org.springframework.http.HttpMethod.GET, getEntity, String.class));
+            String body = page.getBody();
+            if (body == null || body.isEmpty()) break;
+            com.cap.api.service.JiraJsonExtractor.CommentPage comments = com.cap.api.service.JiraJsonExtractor.parseCommentPage(body);
+            texts.addAll(comments.texts());
+            startAt += comments.texts().size();
+            if (comments.texts().isEmpty() || startAt >= comments.total()) break;
+        }
+        return texts;
+    }
+
     /**
      * Logs actions and updates JIRA tickets.
      */
@@ -547,24 +1382,26 @@ public class DefectProcessingAgent {
      */
     public void processDefects() {
         // keep for backwards compatibility: single-run invocation
-        List<String> bugs = fetchJiraBugs();
-        analyzeBugs(bugs);
-        for (String bug : bugs) {
+        List<com.cap.api.service.JiraJsonExtractor.JiraIssue> issues = fetchJiraIssues();
+        analyzeBugs(issues.stream().map(com.cap.api.service.JiraJsonExtractor.JiraIssue::toLine).toList());
+        for (com.cap.api.service.JiraJsonExtractor.JiraIssue issue : issues) {
+            String bug = issue.toLine();
             String issueKey = extractIssueKey(bug);
-                if (issueKey != null && !isProcessed(issueKey)) {
-                    String branchName = createBranchName(issueKey, bug);
-                    // generate a code fix suggestion (may be short) and pass it to GitAgentService so the PR contains a visible change
-                    String codeFix = generateCodeFixWithLLM(bug);
-                    gitAgentService.createBranchFromMainAndApplyFix(branchName, bug, codeFix);
-                // After fix and PR, comment PR link back to Jira
-                String prUrl = "https://github.com/MonaSharmaCG/AgenticMCPDemo/pull/new/" + branchName;
-                String suggestion = suggestFix(bug);
-                String comment = "Code fix done and PR raised: " + prUrl + "\n\nAgent suggestion:\n" + suggestion;
-                updateJiraWithComment(bug, comment);
-                markProcessed(issueKey);
+            if (issueKey != null && !isProcessed(issueKey)) {
+                enqueueTicket(issueKey, bug, issue.priority(), issue.created());
             }
         }
+        // Single-run semantics: wait for the queued tickets to leave the scheduler and the pipeline
+        try {
+            long deadline = System.currentTimeMillis() + pipelineShutdownTimeoutMs;
+            if (!scheduler().awaitEmpty(pipelineShutdownTimeoutMs)
+                    || !pipeline().awaitIdle(Math.max(0, deadline - System.currentTimeMillis()))) {
+                log.warn("Defect pipeline still busy after {} ms", pipelineShutdownTimeoutMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+    }
 
     private String createBranchName(String issueKey, String bugDesc) {
         // Use defect/<JIRA-ticket-number>-<yyyyMMdd> for uniqueness per day
@@ -574,7 +1411,7 @@ public class DefectProcessingAgent {
 
     private String extractIssueKey(String bugDesc) {
         // Try to extract JIRA issue key (e.g., SCRUM-123) from bug description
-        java.util.regex.Matcher m = java.util.regex.Pattern.compile("([A-Z]+-\\d+)").matcher(bugDesc);
+        java.util.regex.Matcher m = ISSUE_KEY.matcher(bugDesc);
         if (m.find()) {
             return m.group(1);
         }
@@ -582,20 +1419,11 @@ public class DefectProcessingAgent {
     }
 
     private boolean isProcessed(String issueKey) {
-        String today = java.time.LocalDate.now().format(java.time.format.DateTimeFormatter.BASIC_ISO_DATE);
-        return processedIssues.contains(issueKey + ":" + today);
+        return processedIssueStore().contains(issueKey, java.time.LocalDate.now());
     }
 
     private void markProcessed(String issueKey) {
-        String today = java.time.LocalDate.now().format(java.time.format.DateTimeFormatter.BASIC_ISO_DATE);
-        processedIssues.add(issueKey + ":" + today);
-        try {
-            Path path = Path.of(PROCESSED_ISSUES_FILE);
-            java.nio.file.Files.createDirectories(path.getParent());
-            java.nio.file.Files.write(path, processedIssues);
-        } catch (Exception e) {
-            log.warn("Could not persist processed issue {}: {}", issueKey, e.getMessage());
-        }
+        processedIssueStore().add(issueKey, java.time.LocalDate.now());
     }
 
     /**
@@ -608,9 +1436,18 @@ public class DefectProcessingAgent {
             return;
         }
         java.util.List<String> newOrChangedBugs = new java.util.ArrayList<>();
+        // Suggestions are independent network calls; run them on the LLM stage in parallel
+        Map<String, CompletableFuture<String>> suggestions = new java.util.LinkedHashMap<>();
+        for (String bug : bugs) {
+            suggestions.put(bug, pipeline().callOnLlmStage(() -> suggestFix(bug)));
+        }
+        // Resolved once per bug: a failed stage falls back to one direct call, and the Jira
+        // comment below quotes the same text that decided whether the bug changed
+        Map<String, String> resolved = new java.util.HashMap<>();
+        suggestions.forEach((bug, future) -> resolved.put(bug, future.exceptionally(ex -> suggestFix(bug)).join()));
         for (String bug : bugs) {
             String issueKey = extractIssueKey(bug);
-            String suggestion = suggestFix(bug);
+            String suggestion = resolved.get(bug);
             if (issueKey != null) {
                 String lastSuggestion = lastBugSuggestions.get(issueKey);
                 if (lastSuggestion == null || !lastSuggestion.equals(suggestion)) {
@@ -625,13 +1462,13 @@ public class DefectProcessingAgent {
             logAndUpdateJira(newOrChangedBugs);
             // write suggestions to a file to simulate generated code / artifacts
             try {
-                java.nio.file.Path out = Path.of("agent_generated/last_suggestions.txt");
-                java.nio.file.Files.createDirectories(out.getParent());
-                StringBuilder sb = new StringBuilder();
-                for (String s : newOrChangedBugs) sb.append(s).append("\n---\n");
-                java.nio.file.Files.write(out, sb.toString().getBytes());
+                writeAgentLog(AgentLogWriter.LAST_SUGGESTIONS, "suggestion_batch", java.util.Map.of("bugs", newOrChangedBugs));
                 // If GitAgentService is available, commit and push changes
                 if (gitAgentService != null) {
+                    // The commit picks up the artifacts, so they must be on disk first
+                    if (agentLogWriter != null && !agentLogWriter.flush(10000)) {
+                        log.warn("Agent log writer did not flush within 10s; committed artifacts may be incomplete");
+                    }
                     String repoPath = "."; // root of repo
                     String branch = "agent/" + java.time.Instant.now().getEpochSecond();
                     String msg = "chore(agent): apply suggestions from MCP agent";
@@ -643,7 +1480,7 @@ public class DefectProcessingAgent {
                             // After PR creation, comment PR link back to Jira for each bug
                             for (String bug : newOrChangedBugs) {
                                 String prUrl = "https://github.com/MonaSharmaCG/AgenticMCPDemo/pull/new/" + branch;
-                                String suggestion = suggestFix(bug);
+                                String suggestion = resolved.get(bug);
                                 String comment = "Code fix done and PR raised: " + prUrl + "\n\nAgent suggestion:\n" + suggestion;
                                 updateJiraWithComment(bug, comment);
                             }
@@ -662,32 +1499,35 @@ public class DefectProcessingAgent {
 
     /**
      * Scheduled poller that runs every 10 seconds and updates the list of new tickets only.
-     * No processing or commenting is done here.
+     * When autoProcess is enabled, new tickets are handed to the pipeline; the poller never
+     * waits on LLM, git or Jira comment work itself. When the Jira webhook is configured this
+     * only runs every {@code agent.reconcile.intervalMs} to pick up events the webhook missed.
+     * In a cluster only the leader polls (LEADER mode) or each node takes its own partition
+     * of issue keys (PARTITION mode).
      */
     @Scheduled(fixedDelayString = "10000")
     public void pollJiraScheduled() {
+        long now = System.currentTimeMillis();
+        if (jiraWebhookSecret != null && !jiraWebhookSecret.isBlank() && now - lastPollAt < reconcileIntervalMs) {
+            return;
+        }
+        if (clusterCoordinator != null && !clusterCoordinator.shouldPoll()) {
+            return;
+        }
+        lastPollAt = now;
         try {
-            List<String> bugs = fetchJiraBugs();
+            List<com.cap.api.service.JiraJsonExtractor.JiraIssue> issues = fetchJiraIssues();
             // Just log new tickets for now, do not process
-            for (String bug : bugs) {
+            for (com.cap.api.service.JiraJsonExtractor.JiraIssue issue : issues) {
+                String bug = issue.toLine();
                 String issueKey = extractIssueKey(bug);
-                if (issueKey != null && !isProcessed(issueKey)) {
+                if (issueKey != null && !isProcessed(issueKey) && !isQueuedOrInFlight(issueKey)
+                        && (clusterCoordinator == null || clusterCoordinator.owns(issueKey))) {
                     log.info("New JIRA ticket detected: {}", bug);
                     // If autoProcess is enabled, trigger processing flow for new ticket
-                        if (agentAutoProcess && gitAgentService != null) {
+                    if (agentAutoProcess && gitAgentService != null) {
                         log.info("Auto-processing enabled: handling ticket {}", issueKey);
-                        String branchName = createBranchName(issueKey, bug);
-                        try {
-                            String codeFix = generateCodeFixWithLLM(bug);
-                            gitAgentService.createBranchFromMainAndApplyFix(branchName, bug, codeFix);
-                            String prUrl = "https://github.com/MonaSharmaCG/AgenticMCPDemo/pull/new/" + branchName;
-                            String suggestion = suggestFix(bug);
-                            String comment = "Code fix done and PR raised: " + prUrl + "\n\nAgent suggestion:\n" + suggestion;
-                            updateJiraWithComment(bug, comment);
-                            markProcessed(issueKey);
-                        } catch (Exception ex) {
-                            log.error("Auto-processing failed for {}: {}", issueKey, ex.getMessage(), ex);
-                        }
+                        enqueueTicket(issueKey, bug, issue.priority(), issue.created());
                     }
                 }
             }
@@ -697,22 +1537,36 @@ public class DefectProcessingAgent {
     }
 
     /**
-     * Processes a specific ticket by issue key, only when triggered by API.
+     * Handles an issue pushed by the Jira webhook, applying the same filters as the poller
+     * (created today, not yet processed, autoProcess enabled). Returns true if it was queued.
+     */
+    public boolean onWebhookTicket(String issueKey, String summary, String status, String description, String created, String priority) {
+        if (created == null || !created.startsWith(java.time.LocalDate.now().toString())) {
+            return false;
+        }
+        String bug = issueKey + "|" + summary + "|" + status + "|" + description;
+        String key = extractIssueKey(bug);
+        if (key == null || isProcessed(key) || isQueuedOrInFlight(key)) {
+            return false;
+        }
+        log.info("New JIRA ticket pushed by webhook: {}", bug);
+        if (agentAutoProcess && gitAgentService != null) {
+            return enqueueTicket(key, bug, priority, created);
+        }
+        return false;
+    }
+
+    /**
+     * Queues a specific ticket by issue key for processing, only when triggered by API.
      */
     public void processDefectByIssueKey(String issueKey) {
-        List<String> bugs = fetchJiraBugs();
-        for (String bug : bugs) {
+        for (com.cap.api.service.JiraJsonExtractor.JiraIssue issue : fetchJiraIssues()) {
+            String bug = issue.toLine();
             String key = extractIssueKey(bug);
             if (key != null && key.equals(issueKey) && !isProcessed(key)) {
-                String branchName = createBranchName(key, bug);
-                String codeFix = generateCodeFixWithLLM(bug);
-                gitAgentService.createBranchFromMainAndApplyFix(branchName, bug, codeFix);
-                String prUrl = "https://github.com/MonaSharmaCG/AgenticMCPDemo/pull/new/" + branchName;
-                String suggestion = suggestFix(bug);
-                String comment = "Code fix done and PR raised: " + prUrl + "\n\nAgent suggestion:\n" + suggestion;
-                updateJiraWithComment(bug, comment);
-                markProcessed(key);
-                log.info("Processed defect for JIRA issue {}", key);
+                if (!enqueueTicket(key, bug, issue.priority(), issue.created())) {
+                    log.warn("Ticket {} is already queued or in flight, or the scheduler is full", key);
+                }
                 return;
             }
         }
@@ -0,0 +1,190 @@
+package com.cap.api.service.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects fixed tickets that touch the same component so they are pushed as one branch and
+ * one PR. The first ticket for a component opens a batch; the batch is handed to the
+ * {@link BatchHandler} {@code windowMs} later, or as soon as it holds {@code maxTickets}.
+ * Each ticket gets a future that completes when its batch has been handled.
+ * <p>
+ * After {@link #drain} every open batch is flushed at once and new tickets are handled
+ * immediately, so a shutdown does not wait for windows to expire. Once {@link #shutdown}
+ * has begun, {@link #add} declines tickets and the caller pushes them on its own.
+ */
+public class FixBatcher {
+    private static final Logger log = LoggerFactory.getLogger(FixBatcher.class);
+
+    /** What tickets are batched by. */
+    public enum Grouping { CLASS, PACKAGE }
+
+    /** Pushes one batch; tickets are in arrival order. A thrown exception fails every ticket. */
+    @FunctionalInterface
+    public interface BatchHandler {
+        void handle(String component, List<DefectPipeline.Ticket> tickets) throws Exception;
+    }
+
+    private static final class Batch {
+        final String component;
+        final long openedAt = System.currentTimeMillis();
+        final List<DefectPipeline.Ticket> tickets = new ArrayList<>();
+        final List<CompletableFuture<Void>> completions = new ArrayList<>();
+        ScheduledFuture<?> timer;
+
+        Batch(String component) {
+            this.component = component;
+        }
+    }
+
+    private final long windowMs;
+    private final int maxTickets;
+    private final BatchHandler handler;
+    private final ScheduledExecutorService executor;
+    private final Map<String, Batch> open = new LinkedHashMap<>();
+    private boolean draining;
+    private boolean stopped;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong tickets = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicInteger largest = new AtomicInteger();
+
+    public FixBatcher(long windowMs, int maxTickets, int threads, BatchHandler handler) {
+        this.windowMs = windowMs;
+        this.maxTickets = Math.max(1, maxTickets);
+        this.handler = handler;
+        AtomicInteger seq = new AtomicInteger();
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "agent-batch-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.setRemoveOnCancelPolicy(true);
+        this.executor = pool;
+    }
+
+    /**
+     * Adds the ticket to its component's open batch; the future completes when the batch is
+     * handled. Returns null once the batcher is shutting down.
+     */
+    public CompletableFuture<Void> add(String component, DefectPipeline.Ticket ticket) {
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+        Batch full = null;
+        synchronized (this) {
+            if (stopped) return null;
+            Batch batch = open.get(component);
+            if (batch == null) {
+                batch = new Batch(component);
+                open.put(component, batch);
+                if (!draining) {
+                    Batch opened = batch;
+                    batch.timer = executor.schedule(() -> flush(opened), windowMs, TimeUnit.MILLISECONDS);
+                }
+            }
+            batch.tickets.add(ticket);
+            batch.completions.add(completion);
+            if (draining || batch.tickets.size() >= maxTickets) {
+                open.remove(component);
+                if (batch.timer != null) batch.timer.cancel(false);
+                full = batch;
+            }
+        }
+        if (full != null) submit(full);
+        return completion;
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            // already taken by add() when it filled up
+            if (open.get(batch.component) != batch) return;
+            open.remove(batch.component);
+        }
+        run(batch);
+    }
+
+    private void run(Batch batch) {
+        int size = batch.tickets.size();
+        batches.incrementAndGet();
+        tickets.addAndGet(size);
+        largest.accumulateAndGet(size, Math::max);
+        log.info("Pushing batch of {} ticket(s) for {} collected over {} ms", size, batch.component,
+            System.currentTimeMillis() - batch.openedAt);
+        try {
+            handler.handle(batch.component, List.copyOf(batch.tickets));
+            batch.completions.forEach(c -> c.complete(null));
+        } catch (Throwable t) {
+            failedBatches.incrementAndGet();
+            batch.completions.forEach(c -> c.completeExceptionally(t));
+        }
+    }
+
+    /** Flushes every open batch now and handles later tickets without waiting for a window. */
+    public void drain() {
+        List<Batch> pending;
+        synchronized (this) {
+            draining = true;
+            pending = new ArrayList<>(open.values());
+            open.clear();
+        }
+        for (Batch batch : pending) {
+            if (batch.timer != null) batch.timer.cancel(false);
+            submit(batch);
+        }
+    }
+
+    /** Hands the batch to a flush thread, or runs it here if the pool has already stopped. */
+    private void submit(Batch batch) {
+        try {
+            executor.execute(() -> run(batch));
+        } catch (RejectedExecutionException e) {
+            run(batch);
+        }
+    }
+
+    /** Drains, then stops the flush threads once running batches finish or the timeout passes. */
+    public void shutdown(long timeoutMs) {
+        synchronized (this) {
+            stopped = true;
+        }
+        drain();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                log.warn("Fix batches still running after {} ms", timeoutMs);
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long n = batches.get();
+        m.put("windowMs", windowMs);
+        m.put("maxTickets", maxTickets);
+        m.put("batches", n);
+        m.put("tickets", tickets.get());
+        m.put("avgTicketsPerBatch", n == 0 ? 0 : (double) tickets.get() / n);
+        m.put("largestBatch", largest.get());
+        m.put("failedBatches", failedBatches.get());
+        Map<String, Integer> waiting = new LinkedHashMap<>();
+        open.forEach((component, batch) -> waiting.put(component, batch.tickets.size()));
+        m.put("open", waiting);
+        return m;
+    }
+}
@@ -0,0 +1,83 @@
+package com.cap.api.service.agent;
+
+import com.cap.api.service.JsonSupport;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary, rationale and code fix for one ticket. In combined mode all three come
+ * from a single JSON completion; any field that fails validation is left null so
+ * the caller can fill it with the per-call prompt.
+ */
+public class FixBundle {
+    private static final ObjectMapper MAPPER = JsonSupport.MAPPER;
+
+    private String summary;
+    private String rationale;
+    private String codeFix;
+
+    public String getSummary() { return summary; }
+    public void setSummary(String summary) { this.summary = summary; }
+    public String getRationale() { return rationale; }
+    public void setRationale(String rationale) { this.rationale = rationale; }
+    public String getCodeFix() { return codeFix; }
+    public void setCodeFix(String codeFix) { this.codeFix = codeFix; }
+
+    /**
+     * Parses the model output against the expected schema: a JSON object whose
+     * summary, rationale and codeFix members are non-blank strings. Markdown fences
+     * around the object are tolerated. A response cut off at the token limit keeps the
+     * members that were complete, so only the rest need the per-call fallback. Never
+     * throws; invalid input yields an empty bundle.
+     */
+    public static FixBundle parse(String content) {
+        FixBundle bundle = new FixBundle();
+        if (content == null || content.isBlank()) return bundle;
+        String json = content.trim();
+        if (json.startsWith("```")) {
+            // the closing fence is missing when the answer was truncated
+            int firstNewline = json.indexOf('\n');
+            json = firstNewline < 0 ? "" : json.substring(firstNewline + 1);
+            if (json.trim().endsWith("```")) json = json.substring(0, json.lastIndexOf("```"));
+            json = json.trim();
+        }
+        try (JsonParser parser = MAPPER.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return bundle;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (value != JsonToken.VALUE_STRING) {
+                    parser.skipChildren();
+                    continue;
+                }
+                // getText() reads the whole string, so a member cut off mid-value throws here and is not kept
+                String text = parser.getText();
+                if (text.isBlank()) continue;
+                switch (name) {
+                    case "summary" -> bundle.summary = text;
+                    case "rationale" -> bundle.rationale = text;
+                    case "codeFix" -> bundle.codeFix = text;
+                    default -> { }
+                }
+            }
+        } catch (Exception e) {
+            // not JSON, or truncated: members read so far are kept, the rest count as missing
+        }
+        return bundle;
+    }
+
+    /**
+     * Names of the schema fields that are still missing.
+     */
+    public List<String> missingFields() {
+        List<String> missing = new ArrayList<>();
+        if (summary == null) missing.add("summary");
+        if (rationale == null) missing.add("rationale");
+        if (codeFix == null) missing.add("codeFix");
+        return missing;
+    }
+}
@@ -0,0 +1,430 @@
+package com.cap.api.service.agent;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles a generated fix in memory with {@link JavaCompiler} before it is written or
+ * pushed, so a fix that does not compile is caught in well under a second instead of by CI.
+ * <p>
+ * Only fixes that are a whole compilation unit (a package and a top-level type) are checked;
+ * snippets are reported as {@link Status#SKIPPED}. The unit is compiled against
+ * {@code agent.compile.classpath} (default: this JVM's classpath) with
+ * {@code agent.sources.root} as the source path. javac cannot read the jars nested in a Spring
+ * Boot fat jar, so under {@code java -jar} the fat jar's {@code BOOT-INF/classes} and
+ * {@code BOOT-INF/lib} are extracted once under {@code agent.compile.extractDir} and used
+ * instead. If a fix still fails only because a package outside the project sources is
+ * missing, the classpath is incomplete rather than the fix wrong, and the check is SKIPPED.
+ * Project classes that javac has to compile from source along the way are kept in memory
+ * and offered as class files to later checks; javac prefers the newer of class and source,
+ * so they are only recompiled after their source file changes. One file manager is reused,
+ * which keeps the classpath jars open and indexed; checks run one at a time because it is
+ * not thread-safe.
+ */
+@Component
+public class FixCompiler {
+    private static final Logger log = LoggerFactory.getLogger(FixCompiler.class);
+    private static final Pattern FENCED = Pattern.compile("```[A-Za-z]*\\s*\\n(.*?)```", Pattern.DOTALL);
+    private static final Pattern PACKAGE = Pattern.compile("(?m)^\\s*package\\s+([\\w.]+)\\s*;");
+    private static final Pattern TYPE = Pattern.compile(
+        "(?m)^(?:public\\s+)?(?:(?:final|abstract|sealed|non-sealed|strictfp)\\s+)*(?:class|interface|enum|record|@interface)\\s+([A-Za-z_]\\w*)");
+    private static final Pattern PUBLIC_TYPE = Pattern.compile(
+        "(?m)^public\\s+(?:(?:final|abstract|sealed|non-sealed|strictfp)\\s+)*(?:class|interface|enum|record|@interface)\\s+([A-Za-z_]\\w*)");
+    private static final Pattern MISSING_PACKAGE = Pattern.compile("package ([\\w.]+) does not exist");
+
+    public enum Status { PASSED, FAILED, SKIPPED }
+
+    /** Outcome of one check. {@code source} is the Java code that was compiled (fences removed). */
+    public record Result(Status status, String source, List<String> diagnostics, long millis) {
+        public boolean failed() {
+            return status == Status.FAILED;
+        }
+
+        /** One diagnostic per line, for logs and for feeding back to the model. */
+        public String diagnosticsText() {
+            return String.join("\n", diagnostics);
+        }
+    }
+
+    @Value("${agent.compile.enabled:true}")
+    private boolean enabled;
+    // Defaults to this JVM's classpath; Spring Boot fat jars on it are expanded under extractDir
+    @Value("${agent.compile.classpath:}")
+    private String classpath;
+    @Value("${agent.compile.extractDir:${java.io.tmpdir}/agent-compile-classpath}")
+    private String extractDir;
+    @Value("${agent.sources.root:src/main/java}")
+    private String sourceRoot;
+    @Value("${agent.compile.maxDiagnostics:10}")
+    private int maxDiagnostics;
+    // Results of recent checks by source text, so a resumed or repeated fix is not compiled again
+    @Value("${agent.compile.cacheSize:128}")
+    private int cacheSize;
+
+    private JavaCompiler compiler;
+    private StandardJavaFileManager standardFileManager;
+    private List<String> options;
+    private Map<String, Result> results;
+    // project classes javac compiled from source during earlier checks, by binary name
+    private final Map<String, MemoryClass> projectClasses = new ConcurrentHashMap<>();
+
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong passed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong compileNanos = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        int capacity = Math.max(1, cacheSize);
+        results = java.util.Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                return size() > capacity;
+            }
+        });
+        if (!enabled) return;
+        compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            log.warn("No system Java compiler (running on a JRE?); generated fixes are not compile-checked");
+            return;
+        }
+        standardFileManager = compiler.getStandardFileManager(null, Locale.ROOT, StandardCharsets.UTF_8);
+        String cp = classpath == null || classpath.isBlank() ? System.getProperty("java.class.path", "") : classpath;
+        List<String> entries = expandBootJars(cp, Path.of(extractDir));
+        options = List.of("-classpath", String.join(File.pathSeparator, entries), "-sourcepath", sourceRoot, "-implicit:class",
+            "-proc:none", "-g:none", "-nowarn", "-Xlint:none", "-encoding", "UTF-8");
+        log.info("Compile-checking generated fixes against {} classpath entr(ies), sources under {}", entries.size(), sourceRoot);
+    }
+
+    /**
+     * The classpath entries of {@code cp}, with each Spring Boot fat jar replaced by its
+     * extracted {@code BOOT-INF/classes} directory and {@code BOOT-INF/lib} jars.
+     */
+    static List<String> expandBootJars(String cp, Path extractDir) {
+        List<String> out = new ArrayList<>();
+        for (String entry : cp.split(File.pathSeparator)) {
+            if (entry.isBlank()) continue;
+            List<String> expanded = entry.endsWith(".jar") ? extractBootJar(Path.of(entry), extractDir) : null;
+            if (expanded != null) {
+                out.addAll(expanded);
+            } else {
+                out.add(entry);
+            }
+        }
+        return out;
+    }
+
+    /** Extracts a fat jar once per jar version; null if {@code jar} is not a Spring Boot fat jar. */
+    private static List<String> extractBootJar(Path jar, Path extractDir) {
+        if (!Files.isRegularFile(jar)) return null;
+        try (JarFile fat = new JarFile(jar.toFile())) {
+            if (fat.getEntry("BOOT-INF/classes/") == null && fat.getEntry("BOOT-INF/lib/") == null) return null;
+            Path target = extractDir.resolve(jar.getFileName() + "-" + Files.getLastModifiedTime(jar).toMillis());
+            Path classes = target.resolve("classes");
+            Path lib = target.resolve("lib");
+            Path done = target.resolve(".complete");
+            if (!Files.exists(done)) {
+                Files.createDirectories(classes);
+                Files.createDirectories(lib);
+                Enumeration<JarEntry> entries = fat.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry e = entries.nextElement();
+                    String name = e.getName();
+                    Path dest;
+                    if (name.startsWith("BOOT-INF/classes/") && !e.isDirectory()) {
+                        dest = classes.resolve(name.substring("BOOT-INF/classes/".length())).normalize();
+                    } else if (name.startsWith("BOOT-INF/lib/") && name.endsWith(".jar")) {
+                        dest = lib.resolve(name.substring("BOOT-INF/lib/".length())).normalize();
+                    } else {
+                        continue;
+                    }
+                    if (!dest.startsWith(target)) continue; // no ../ escapes
+                    Files.createDirectories(dest.getParent());
+                    try (InputStream in = fat.getInputStream(e)) {
+                        Files.copy(in, dest, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                Files.createFile(done);
+                log.info("Extracted the classpath of {} into {} for compile checks", jar, target);
+            }
+            List<String> out = new ArrayList<>();
+            out.add(classes.toString());
+            try (var jars = Files.list(lib)) {
+                jars.map(Path::toString).filter(n -> n.endsWith(".jar")).sorted().forEach(out::add);
+            }
+            return out;
+        } catch (IOException e) {
+            log.warn("Could not expand {} for compile checks; using it as is: {}", jar, e.getMessage());
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (standardFileManager == null) return;
+        try {
+            standardFileManager.close();
+        } catch (IOException e) {
+            log.debug("Closing file manager failed: {}", e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return compiler != null;
+    }
+
+    /**
+     * Compiles {@code codeFix} (raw model output; the first fenced block is used if there is
+     * one). Returns SKIPPED when checking is disabled or the fix is not a compilation unit.
+     */
+    public Result check(String codeFix) {
+        checks.incrementAndGet();
+        String source = extractSource(codeFix);
+        String typeName = compiler == null || source == null ? null : primaryType(source);
+        if (typeName == null) {
+            skipped.incrementAndGet();
+            return new Result(Status.SKIPPED, source, List.of(), 0);
+        }
+        Result cached = results.get(source);
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            return cached;
+        }
+        Matcher pkg = PACKAGE.matcher(source);
+        String binaryName = pkg.find() ? pkg.group(1) + "." + typeName : typeName;
+        Result result;
+        synchronized (this) {
+            result = compile(binaryName, source);
+        }
+        (switch (result.status()) {
+            case PASSED -> passed;
+            case FAILED -> failed;
+            case SKIPPED -> skipped;
+        }).incrementAndGet();
+        compileNanos.addAndGet(result.millis() * 1_000_000);
+        results.put(source, result);
+        return result;
+    }
+
+    private Result compile(String binaryName, String source) {
+        long started = System.nanoTime();
+        SourceUnit unit = new SourceUnit(binaryName, source);
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        boolean ok;
+        try {
+            ok = compiler.getTask(null, new CheckFileManager(standardFileManager, unit), diagnostics, options, null, List.of(unit)).call();
+        } catch (RuntimeException e) {
+            // javac bugs or a broken classpath must not fail the ticket as if the fix were wrong
+            log.warn("Compile check of {} aborted: {}", binaryName, e.toString());
+            return new Result(Status.SKIPPED, source, List.of(e.toString()), (System.nanoTime() - started) / 1_000_000);
+        }
+        List<String> messages = new ArrayList<>();
+        String missingExternal = null;
+        for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+            if (d.getKind() != Diagnostic.Kind.ERROR) continue;
+            String message = d.getMessage(Locale.ROOT);
+            Matcher missing = MISSING_PACKAGE.matcher(message);
+            if (missingExternal == null && missing.find() && !isProjectPackage(missing.group(1))) missingExternal = missing.group(1);
+            if (messages.size() >= Math.max(1, maxDiagnostics)) continue;
+            String where = d.getSource() == unit ? "line " + d.getLineNumber()
+                : d.getSource() == null ? "" : d.getSource().getName() + ":" + d.getLineNumber();
+            messages.add((where.isEmpty() ? "" : where + ": ") + message);
+        }
+        long millis = (System.nanoTime() - started) / 1_000_000;
+        if (!ok && missingExternal != null) {
+            // the other errors are mostly the types of that package, so they say nothing about the fix either
+            log.info("Compile check of {} skipped: package {} is not on the compile classpath", binaryName, missingExternal);
+            return new Result(Status.SKIPPED, source, List.copyOf(messages), millis);
+        }
+        log.debug("Compiled {} in {} ms: {}", binaryName, millis, ok ? "ok" : messages);
+        return new Result(ok ? Status.PASSED : Status.FAILED, source, List.copyOf(messages), millis);
+    }
+
+    /**
+     * Whether the package is, or is nested in, a package of the project sources: some package
+     * on the way up from it has .java files under {@code agent.sources.root}. A bare common
+     * prefix such as {@code com} does not count.
+     */
+    private boolean isProjectPackage(String packageName) {
+        Path dir = Path.of(sourceRoot, packageName.split("\\."));
+        Path root = Path.of(sourceRoot);
+        for (; dir != null && !dir.equals(root); dir = dir.getParent()) {
+            if (!Files.isDirectory(dir)) continue;
+            try (var files = Files.list(dir)) {
+                if (files.anyMatch(f -> f.toString().endsWith(".java"))) return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** The Java code in a model response: the first fenced block if any, else the whole text. */
+    static String extractSource(String codeFix) {
+        if (codeFix == null || codeFix.isBlank()) return null;
+        Matcher fenced = FENCED.matcher(codeFix);
+        return fenced.find() ? fenced.group(1) : codeFix.strip();
+    }
+
+    /** The public top-level type, else the first top-level type; null for snippets. */
+    static String primaryType(String source) {
+        Matcher pub = PUBLIC_TYPE.matcher(source);
+        if (pub.find()) return pub.group(1);
+        Matcher any = TYPE.matcher(source);
+        return any.find() ? any.group(1) : null;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long compiled = passed.get() + failed.get();
+        m.put("enabled", isEnabled());
+        m.put("checks", checks.get());
+        m.put("passed", passed.get());
+        m.put("failed", failed.get());
+        m.put("skipped", skipped.get());
+        m.put("cacheHits", cacheHits.get());
+        m.put("cachedProjectClasses", projectClasses.size());
+        m.put("avgCompileMillis", compiled == 0 ? 0 : compileNanos.get() / compiled / 1_000_000.0);
+        return m;
+    }
+
+    /** The fix under check, held in memory. */
+    private static final class SourceUnit extends SimpleJavaFileObject {
+        private final String source;
+
+        SourceUnit(String binaryName, String source) {
+            super(URI.create("string:///" + binaryName.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    /** A class file kept in memory. */
+    private static final class MemoryClass extends SimpleJavaFileObject {
+        private final String binaryName;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile byte[] bytes = new byte[0];
+
+        MemoryClass(String binaryName) {
+            super(URI.create("mem:///" + binaryName.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+            this.binaryName = binaryName;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    bytes = toByteArray();
+                }
+            };
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public long getLastModified() {
+            return createdAt;
+        }
+    }
+
+    /**
+     * Sends class output to memory. Classes compiled from project sources are remembered and
+     * listed on the classpath for later checks; classes of the fix itself are discarded.
+     */
+    private final class CheckFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final SourceUnit unit;
+
+        CheckFileManager(StandardJavaFileManager delegate, SourceUnit unit) {
+            super(delegate);
+            this.unit = unit;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+            MemoryClass output = new MemoryClass(className);
+            if (kind == JavaFileObject.Kind.CLASS && sibling != null && sibling != unit) {
+                projectClasses.put(className, output);
+            }
+            return output;
+        }
+
+        @Override
+        public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+                throws IOException {
+            Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+            if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS) || projectClasses.isEmpty()) {
+                return listed;
+            }
+            List<JavaFileObject> all = new ArrayList<>();
+            listed.forEach(all::add);
+            String prefix = packageName.isEmpty() ? "" : packageName + ".";
+            for (MemoryClass c : projectClasses.values()) {
+                if (!c.binaryName.startsWith(prefix)) continue;
+                String rest = c.binaryName.substring(prefix.length());
+                if (recurse || rest.indexOf('.') < 0) all.add(c);
+            }
+            return all;
+        }
+
+        @Override
+        public String inferBinaryName(Location location, JavaFileObject file) {
+            return file instanceof MemoryClass c ? c.binaryName : super.inferBinaryName(location, file);
+        }
+
+        @Override
+        public boolean isSameFile(FileObject a, FileObject b) {
+            return a == b || (!(a instanceof MemoryClass) && !(b instanceof MemoryClass) && !(a instanceof SourceUnit)
+                && !(b instanceof SourceUnit) && super.isSameFile(a, b));
+        }
+    }
+}
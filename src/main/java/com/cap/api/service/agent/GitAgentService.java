@@ -7,15 +7,9 @@ import org.slf4j.LoggerFactory;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import com.cap.api.service.agent.NotificationAgent;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -24,9 +18,69 @@ public class GitAgentService {
     @Value("${github.token:}")
     private String githubToken;
 
+    // Log git commands instead of running them (benchmarks, local experiments)
+    @Value("${agent.git.dryRun:false}")
+    private boolean gitDryRun;
+
+    // Fixes are committed in a pool of git worktrees sharing this repository's object store,
+    // so several tickets branch and push in parallel without touching the app's own checkout
+    @Value("${agent.git.worktree.enabled:true}")
+    private boolean worktreesEnabled;
+    // Shared by every agent process on the host; each one works in its own locked subdirectory
+    @Value("${agent.git.worktree.root:${java.io.tmpdir}/agent-worktrees}")
+    private String worktreeRoot;
+    @Value("${agent.git.worktree.poolSize:4}")
+    private int worktreePoolSize;
+    @Value("${agent.git.worktree.acquireTimeoutMs:300000}")
+    private long worktreeAcquireTimeoutMs;
+    // Tickets branching within this window reuse one fetch of the base branch
+    @Value("${agent.git.worktree.fetchIntervalMs:30000}")
+    private long worktreeFetchIntervalMs;
+    @Value("${agent.git.repoDir:.}")
+    private String repoDir;
+
+    private volatile GitWorktreeManager worktrees;
+
+    // Fix commits built with plumbing in a bare mirror: no checkout, no working tree scan
+    @Value("${agent.git.plumbing.enabled:true}")
+    private boolean plumbingEnabled;
+    @Value("${agent.git.mirror.dir:${java.io.tmpdir}/agent-mirror.git}")
+    private String mirrorDir;
+    // Partial clone filter for the mirror; trees are all the builder reads
+    @Value("${agent.git.mirror.filter:blob:none}")
+    private String mirrorFilter;
+    @Value("${agent.git.authorName:Defect Agent}")
+    private String gitAuthorName;
+    @Value("${agent.git.authorEmail:defect-agent@users.noreply.github.com}")
+    private String gitAuthorEmail;
+
+    private volatile GitCommitBuilder commitBuilder;
+    // Without worktrees every fix goes through the one working copy, one at a time
+    private final Object workingCopyLock = new Object();
+
     @Autowired(required = false)
     private NotificationAgent notificationAgent;
 
+    @Autowired(required = false)
+    private AgentMetrics agentMetrics;
+
+    @Autowired
+    private ProcessExecutor processExecutor;
+
+    @Autowired
+    private GitHubClient gitHubClient;
+
+    // Per-command limits so a hung push or fetch cannot hold a git stage worker forever
+    @Value("${agent.git.timeoutMs:60000}")
+    private long gitTimeoutMs;
+    @Value("${agent.git.networkTimeoutMs:300000}")
+    private long gitNetworkTimeoutMs;
+
+    // Fail instead of waiting on a credential prompt nobody will answer
+    private static final java.util.Map<String, String> NON_INTERACTIVE = java.util.Map.of("GIT_TERMINAL_PROMPT", "0");
+
+    private final java.util.Map<String, String> remoteUrls = new java.util.concurrent.ConcurrentHashMap<>();
+
     private static final Logger log = LoggerFactory.getLogger(GitAgentService.class);
 
     @PostConstruct
@@ -36,6 +90,46 @@ public class GitAgentService {
         } else {
             log.warn("GitHub token NOT injected from application.yaml");
         }
+        // dry runs never produce object ids, so they keep going through runCommand
+        if (plumbingEnabled && !gitDryRun) {
+            GitCommitBuilder builder = new GitCommitBuilder(new File(repoDir), new File(mirrorDir), "origin", "main", mirrorFilter,
+                worktreeFetchIntervalMs, gitAuthorName, gitAuthorEmail, this::execGit);
+            try {
+                builder.start();
+                commitBuilder = builder;
+                log.info("Fix commits are built with git plumbing in {}", mirrorDir);
+            } catch (Exception e) {
+                log.error("Could not prepare bare mirror {}; fixes need a checkout: {}", mirrorDir, e.getMessage());
+            }
+        }
+        // worktrees are only the fallback when plumbing is off or failed; starting them prunes and fetches
+        if (worktreesEnabled && commitBuilder == null) {
+            GitWorktreeManager manager = new GitWorktreeManager(new File(repoDir), Path.of(worktreeRoot), "origin", "main",
+                worktreePoolSize > 0 ? worktreePoolSize : 4, worktreeFetchIntervalMs, this::runCommand);
+            try {
+                manager.start();
+                worktrees = manager;
+                log.info("Fix branches are committed in up to {} git worktree(s) under {}", worktreePoolSize, worktreeRoot);
+            } catch (Exception e) {
+                log.error("Could not prepare git worktrees under {}; committing fixes in the working copy: {}", worktreeRoot, e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        GitWorktreeManager manager = worktrees;
+        if (manager != null) manager.shutdown(worktreeAcquireTimeoutMs);
+    }
+
+    /** Worktree pool size and usage and plumbing commit counts; empty when fixes use the working copy. */
+    public java.util.Map<String, Object> getWorktreeStats() {
+        java.util.Map<String, Object> stats = new java.util.LinkedHashMap<>();
+        GitWorktreeManager manager = worktrees;
+        stats.put("worktrees", manager == null ? java.util.Map.of("enabled", false) : manager.getStats());
+        GitCommitBuilder builder = commitBuilder;
+        stats.put("plumbing", builder == null ? java.util.Map.of("enabled", false) : builder.getStats());
+        return stats;
     }
 
     /**
@@ -43,44 +137,12 @@ public class GitAgentService {
      */
     public void createBranchFromMainAndApplyFix(String branchName, String bugDesc, String codeFix) {
         try {
-            File repoDir = new File(".");
-            runCommand(repoDir, "git", "checkout", "main");
-            runCommand(repoDir, "git", "pull", "origin", "main");
-            runCommand(repoDir, "git", "checkout", "-b", branchName);
-            // Apply fix for bugDesc: write codeFix to agent_generated/fixes/<branchName>/fix.txt
-            try {
-                if (codeFix != null && !codeFix.isBlank()) {
-                    Path outDir = Path.of("agent_generated", "fixes", branchName);
-                    Files.createDirectories(outDir);
-                    Path outFile = outDir.resolve("fix.txt");
-                    Files.writeString(outFile, codeFix);
-                }
-            } catch (Exception e) {
-                log.error("Failed to write code fix file: {}", e.getMessage(), e);
-            }
-            runCommand(repoDir, "git", "add", ".");
-            runCommand(repoDir, "git", "commit", "-m", "Fix for " + branchName);
-            runCommand(repoDir, "git", "push", "-u", "origin", branchName);
-            // After pushing, create PR via GitHub API and post a summary comment
+            pushFixBranch(branchName, codeFix);
             try {
-                if (githubToken != null && !githubToken.isBlank()) {
-                    String prTitle = "Automated fix: " + branchName;
-                    String prBody = "Agent-generated suggested fix. See agent_generated/fixes/" + branchName + "/fix.txt";
-                    String prUrl = createPrOnly(branchName, prTitle, prBody, "");
-                    log.info("Created PR: {}", prUrl == null ? "(no url)" : prUrl);
-                    // Notify DLs after PR creation
-                    if (notificationAgent != null) {
-                        notificationAgent.notifyDLs("Automated PR created: " + prTitle);
-                    } else {
-                        log.info("NotificationAgent not available. PR: {}", prTitle);
-                    }
-                } else {
-                    log.warn("GitHub token not configured; skipping PR creation for branch {}", branchName);
-                }
+                openPullRequest(branchName);
             } catch (Exception e) {
                 log.error("Failed to create PR: {}", e.getMessage(), e);
             }
-            // Create PR (reuse commitPushAndCreatePr logic or call GitHub API)
             // Optionally trigger GitHub Actions workflow if needed
         } catch (Exception e) {
             log.error("Failed to create branch and apply fix: {}", e.getMessage(), e);
@@ -88,121 +150,207 @@ public class GitAgentService {
     }
 
     /**
-     * Create a PR for an existing branch and post a comment summarizing the agent's changes.
-     * Returns the PR html_url if successful.
+     * Branches from main (resetting the branch if a previous attempt left it behind), writes
+     * codeFix to agent_generated/fixes/<branchName>/fix.txt, commits and pushes. Throws if the
+     * push fails, so callers do not record a branch that never reached the remote.
+     * <p>
+     * The commit is built with plumbing in the bare mirror when available, else in a pooled
+     * worktree; both may be called concurrently. Otherwise fixes are serialized through the
+     * application's working copy.
      */
-    public String createPrOnly(String branchName, String prTitle, String prBody, String reviewersCsv) throws Exception {
-        File repoDir = new File(".");
-        // derive remote url
-        ProcessBuilder rb = new ProcessBuilder("git", "config", "--get", "remote.origin.url");
-        rb.directory(repoDir);
-        Process pr = rb.start();
-        String remoteUrl;
-        try (BufferedReader r = new BufferedReader(new InputStreamReader(pr.getInputStream()))) {
-            remoteUrl = r.readLine();
+    public void pushFixBranch(String branchName, String codeFix) throws Exception {
+        pushFixCommits(branchName, java.util.List.of(fixCommit(branchName, codeFix)));
+    }
+
+    /**
+     * The commit {@link #pushFixBranch} makes for one ticket: codeFix at
+     * agent_generated/fixes/<fixName>/fix.txt with message "Fix for <fixName>".
+     */
+    public static GitCommitBuilder.FileCommit fixCommit(String fixName, String codeFix) {
+        return new GitCommitBuilder.FileCommit("agent_generated/fixes/" + fixName + "/fix.txt", codeFix == null ? "" : codeFix,
+            "Fix for " + fixName);
+    }
+
+    /**
+     * Branches from main and makes one commit per entry, in order, then pushes the branch
+     * once. Used for batches that carry several tickets' fixes; see {@link #pushFixBranch}.
+     */
+    public void pushFixCommits(String branchName, java.util.List<GitCommitBuilder.FileCommit> fixes) throws Exception {
+        GitCommitBuilder builder = commitBuilder;
+        if (builder != null) {
+            builder.commitFiles(branchName, fixes);
+            return;
         }
-        pr.waitFor();
-        if (remoteUrl == null) throw new RuntimeException("Could not determine remote.origin.url");
-        String owner = null, repo = null;
-        String path = remoteUrl;
-        if (path.endsWith(".git")) path = path.substring(0, path.length()-4);
-        if (path.contains("github.com")) {
-            if (path.startsWith("https://")) {
-                String[] parts = path.split("github.com/");
-                if (parts.length > 1) {
-                    String[] prt = parts[1].split("/");
-                    if (prt.length >= 2) { owner = prt[0]; repo = prt[1]; }
-                }
-            } else if (path.startsWith("git@")) {
-                String[] parts = path.split(":");
-                if (parts.length > 1) {
-                    String[] prt = parts[1].split("/");
-                    if (prt.length >= 2) { owner = prt[0]; repo = prt[1]; }
-                }
+        GitWorktreeManager manager = worktrees;
+        if (manager == null) {
+            synchronized (workingCopyLock) {
+                pushFixBranchInWorkingCopy(branchName, fixes);
             }
+            return;
         }
-        if (owner == null || repo == null) throw new RuntimeException("Could not parse owner/repo from remote url");
-
-        String prApi = String.format("https://api.github.com/repos/%s/%s/pulls", owner, repo);
-        String json = String.format("{\"title\":\"%s\",\"head\":\"%s\",\"base\":\"%s\",\"body\":\"%s\"}", escape(prTitle), escape(branchName), escape("main"), escape(prBody));
-        URL url = new URL(prApi);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "token " + githubToken);
-        conn.setRequestProperty("Accept", "application/vnd.github+json");
-        conn.setDoOutput(true);
-        conn.getOutputStream().write(json.getBytes(StandardCharsets.UTF_8));
-        int code = conn.getResponseCode();
-        StringBuilder resp = new StringBuilder();
-        try (BufferedReader r = new BufferedReader(new InputStreamReader(code >= 200 && code < 300 ? conn.getInputStream() : conn.getErrorStream()))) {
-            String ln;
-            while ((ln = r.readLine()) != null) resp.append(ln).append('\n');
+        try (GitWorktreeManager.Lease worktree = manager.acquire(worktreeAcquireTimeoutMs)) {
+            worktree.checkoutNewBranch(branchName);
+            for (GitCommitBuilder.FileCommit fix : fixes) {
+                Path fixFile = writeFixFile(worktree.dir().toPath(), fix);
+                // stage only the fix: nothing else in the worktree belongs to this ticket
+                if (fixFile != null) worktree.check("git", "add", "--", fix.path());
+                worktree.check("git", "commit", "--allow-empty", "-m", fix.message());
+            }
+            worktree.check("git", "push", "-u", "origin", branchName);
         }
-        ObjectMapper om = new ObjectMapper();
+    }
+
+    private void pushFixBranchInWorkingCopy(String branchName, java.util.List<GitCommitBuilder.FileCommit> fixes) throws Exception {
+        File repoDir = new File(this.repoDir);
+        checkCommand(repoDir, "git", "checkout", "main");
+        checkCommand(repoDir, "git", "pull", "origin", "main");
+        checkCommand(repoDir, "git", "checkout", "-B", branchName);
+        for (GitCommitBuilder.FileCommit fix : fixes) {
+            Path fixFile = writeFixFile(repoDir.toPath(), fix);
+            if (fixFile != null) checkCommand(repoDir, "git", "add", "--", fix.path());
+            checkCommand(repoDir, "git", "commit", "--allow-empty", "-m", fix.message());
+        }
+        checkCommand(repoDir, "git", "push", "-u", "origin", branchName);
+    }
+
+    private void checkCommand(File dir, String... command) throws Exception {
+        int rc = runCommand(dir, command);
+        if (rc != 0) {
+            throw new IllegalStateException(String.join(" ", java.util.Arrays.copyOf(command, Math.min(3, command.length))) + " exited with " + rc);
+        }
+    }
+
+    /** Writes the fix under {@code base}; returns the file written, or null if there was nothing to write. */
+    private Path writeFixFile(Path base, GitCommitBuilder.FileCommit fix) {
+        if (fix.content().isBlank()) return null;
         try {
-            JsonNode root = om.readTree(resp.toString());
-            String prUrl = root.has("html_url") ? root.get("html_url").asText() : null;
-            String prNum = root.has("number") ? root.get("number").asText() : null;
-            // request reviewers if provided
-            if (reviewersCsv != null && !reviewersCsv.isBlank() && prNum != null) {
-                try {
-                    String reviewersApi = String.format("https://api.github.com/repos/%s/%s/pulls/%s/requested_reviewers", owner, repo, prNum);
-                    String revJson = String.format("{\"reviewers\":[%s]}", joinReviewers(reviewersCsv));
-                    URL rurl = new URL(reviewersApi);
-                    HttpURLConnection rc2 = (HttpURLConnection) rurl.openConnection();
-                    rc2.setRequestMethod("POST");
-                    rc2.setRequestProperty("Authorization", "token " + githubToken);
-                    rc2.setRequestProperty("Accept", "application/vnd.github+json");
-                    rc2.setDoOutput(true);
-                    rc2.getOutputStream().write(revJson.getBytes(StandardCharsets.UTF_8));
-                    int rcCode = rc2.getResponseCode();
-                    log.info("Requested reviewers; HTTP code: {}", rcCode);
-                } catch (Exception ex) {
-                    log.error("Failed to request reviewers: {}", ex.getMessage(), ex);
-                }
-            }
-            // Post summary comment to PR (issues API)
-            if (prNum != null) {
-                try {
-                    String commentApi = String.format("https://api.github.com/repos/%s/%s/issues/%s/comments", owner, repo, prNum);
-                    String commentJson = String.format("{\"body\":\"%s\"}", escape("[agenticBot] Agent applied suggested fix. See: " + prBody));
-                    URL curl = new URL(commentApi);
-                    HttpURLConnection cc = (HttpURLConnection) curl.openConnection();
-                    cc.setRequestMethod("POST");
-                    cc.setRequestProperty("Authorization", "token " + githubToken);
-                    cc.setRequestProperty("Accept", "application/vnd.github+json");
-                    cc.setDoOutput(true);
-                    cc.getOutputStream().write(commentJson.getBytes(StandardCharsets.UTF_8));
-                    int ccode = cc.getResponseCode();
-                    log.info("Posted PR comment; HTTP code: {}", ccode);
-                } catch (Exception ex) {
-                    log.error("Failed to post PR comment: {}", ex.getMessage(), ex);
-                }
-            }
-            return prUrl;
-        } catch (Exception ex) {
-            log.error("Failed to parse PR response: {}", ex.getMessage());
+            Path file = base.resolve(fix.path());
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, fix.content());
+            return file;
+        } catch (Exception e) {
+            log.error("Failed to write code fix file: {}", e.getMessage(), e);
             return null;
         }
     }
 
+    /**
+     * Opens a PR for a pushed fix branch, posts the summary comment and notifies the DLs.
+     * Returns the PR url, or null when no GitHub token is configured or GitHub returned none
+     * (e.g. a PR for the branch already exists).
+     */
+    public String openPullRequest(String branchName) throws Exception {
+        return openPullRequest(branchName, "Automated fix: " + branchName,
+            "Agent-generated suggested fix. See agent_generated/fixes/" + branchName + "/fix.txt");
+    }
+
+    /** {@link #openPullRequest(String)} with the caller's title and body. */
+    public String openPullRequest(String branchName, String prTitle, String prBody) throws Exception {
+        if (githubToken == null || githubToken.isBlank()) {
+            log.warn("GitHub token not configured; skipping PR creation for branch {}", branchName);
+            return null;
+        }
+        String prUrl = createPrOnly(branchName, prTitle, prBody, "");
+        log.info("Created PR: {}", prUrl == null ? "(no url)" : prUrl);
+        // Notify DLs after PR creation
+        if (notificationAgent != null) {
+            notificationAgent.notifyDLs("Automated PR created: " + prTitle);
+        } else {
+            log.info("NotificationAgent not available. PR: {}", prTitle);
+        }
+        return prUrl;
+    }
+
+    /**
+     * Create a PR for an existing branch and post a comment summarizing the agent's changes.
+     * Returns the PR html_url, or null if GitHub rejected the request.
+     */
+    public String createPrOnly(String branchName, String prTitle, String prBody, String reviewersCsv) throws Exception {
+        GitHubClient.PullRequest pr = createPullRequest(new File(repoDir), branchName, "main", prTitle, prBody, reviewersCsv,
+            "[agenticBot] Agent applied suggested fix. See: " + prBody);
+        return pr == null ? null : pr.htmlUrl();
+    }
+
+    /**
+     * Opens the PR through the shared {@link GitHubClient}; owner/repo comes from
+     * github.repository or the remote of {@code dir}. 4xx responses are logged and give null.
+     */
+    private GitHubClient.PullRequest createPullRequest(File dir, String branchName, String baseBranch, String prTitle, String prBody,
+                                                       String reviewersCsv, String comment) throws Exception {
+        GitHubClient.Repo repo = gitHubClient.configuredRepository() != null ? gitHubClient.configuredRepository()
+            : gitHubClient.repository(remoteOriginUrl(dir));
+        try {
+            return gitHubClient.createPullRequest(repo, branchName, baseBranch, prTitle, prBody, reviewers(reviewersCsv), comment);
+        } catch (org.springframework.web.client.HttpClientErrorException e) {
+            log.error("GitHub rejected PR for {} in {}: {} {}", branchName, repo, e.getStatusCode().value(), e.getResponseBodyAsString());
+            return null;
+        }
+    }
+
+    private static java.util.List<String> reviewers(String csv) {
+        if (csv == null || csv.isBlank()) return java.util.List.of();
+        return java.util.Arrays.stream(csv.split(",")).map(String::trim).filter(r -> !r.isEmpty()).toList();
+    }
+
+    /**
+     * Runs a git command through the {@link ProcessExecutor} with the timeout for its
+     * subcommand. Output is captured, not streamed to the log; a failure logs its tail.
+     * Returns the exit code, -1 if the command timed out.
+     */
     private int runCommand(File dir, String... command) throws Exception {
-        ProcessBuilder pb = new ProcessBuilder(command);
-        if (dir != null) pb.directory(dir);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-            String line;
-            while ((line = r.readLine()) != null) {
-                log.info(line);
-            }
+        if (gitDryRun) {
+            log.info("[dry run] {}", String.join(" ", command));
+            return 0;
+        }
+        return execGit(dir, null, null, command).exitCode();
+    }
+
+    /**
+     * Runs git with extra environment and optional stdin, returning exit code, stdout and stderr.
+     */
+    private GitCommitBuilder.Output execGit(File dir, java.util.Map<String, String> env, String stdin, String... command) throws Exception {
+        java.util.Map<String, String> environment = new java.util.HashMap<>(NON_INTERACTIVE);
+        if (env != null) environment.putAll(env);
+        ProcessExecutor.Result result = processExecutor.run(dir, environment, stdin, gitTimeout(command), command);
+        // tag by subcommand only: arguments carry branch names and messages
+        String subcommand = command.length > 1 ? command[1] : command[0];
+        if (agentMetrics != null) {
+            agentMetrics.recordGitCommand(subcommand, result.nanos(), result.exitCode(), result.timedOut());
+        }
+        if (result.timedOut()) {
+            log.error("git {} timed out after {} ms in {}:\n{}", subcommand, gitTimeout(command), dir, result.output());
+        } else if (result.exitCode() != 0) {
+            log.warn("git {} exited with {} in {}:\n{}", subcommand, result.exitCode(), dir, result.output());
+        } else if (log.isDebugEnabled()) {
+            log.debug("{}:\n{}", String.join(" ", command), result.output());
         }
-        return p.waitFor();
+        return new GitCommitBuilder.Output(result.exitCode(), result.stdout(), result.stderr());
+    }
+
+    /** Network commands get agent.git.networkTimeoutMs, everything else agent.git.timeoutMs. */
+    private long gitTimeout(String... command) {
+        String subcommand = command.length > 1 ? command[1] : "";
+        return switch (subcommand) {
+            case "push", "pull", "fetch", "clone", "ls-remote" -> gitNetworkTimeoutMs;
+            default -> gitTimeoutMs;
+        };
+    }
+
+    /** remote.origin.url of the repository, read once per directory. */
+    private String remoteOriginUrl(File dir) throws Exception {
+        String key = dir.getCanonicalPath();
+        String cached = remoteUrls.get(key);
+        if (cached != null) return cached;
+        GitCommitBuilder.Output out = execGit(dir, null, null, "git", "config", "--get", "remote.origin.url");
+        String url = out.line();
+        if (out.exitCode() != 0 || url.isEmpty()) throw new RuntimeException("Could not determine remote.origin.url");
+        remoteUrls.put(key, url);
+        return url;
     }
 
     /**
      * Commit all changes, create a branch, push to remote and create PR via GitHub API.
-     * The method expects GITHUB_TOKEN in environment for authentication.
+     * The token authenticates the push; returns the PR html_url, or null if GitHub rejected it.
      */
     public String commitPushAndCreatePr(String repoPath, String branchName, String commitMessage, String baseBranch, String prTitle, String prBody, String reviewersCsv, String githubToken) throws Exception {
         File repoDir = new File(repoPath);
@@ -220,16 +368,7 @@ public class GitAgentService {
             throw new RuntimeException("GitHub token is required to push and create PR");
         }
         // update remote url to include token temporarily
-        // derive remote url
-        ProcessBuilder rb = new ProcessBuilder("git", "config", "--get", "remote.origin.url");
-        rb.directory(repoDir);
-        Process pr = rb.start();
-        String remoteUrl;
-        try (BufferedReader r = new BufferedReader(new InputStreamReader(pr.getInputStream()))) {
-            remoteUrl = r.readLine();
-        }
-        pr.waitFor();
-        if (remoteUrl == null) throw new RuntimeException("Could not determine remote.origin.url");
+        String remoteUrl = remoteOriginUrl(repoDir);
         String authRemote = remoteUrl;
         if (remoteUrl.startsWith("https://")) {
             authRemote = remoteUrl.replaceFirst("https://", "https://" + token + "@");
@@ -241,84 +380,7 @@ public class GitAgentService {
             runCommand(repoDir, "git", "remote", "set-url", "origin", remoteUrl);
         }
 
-        // create PR via GitHub API; infer owner/repo from remote url
-        // remote formats: https://github.com/owner/repo.git or git@github.com:owner/repo.git
-        String owner = null, repo = null;
-        if (remoteUrl.contains("github.com")) {
-            String path = remoteUrl;
-            if (path.endsWith(".git")) path = path.substring(0, path.length()-4);
-            if (path.startsWith("https://")) {
-                String[] parts = path.split("github.com/");
-                if (parts.length > 1) {
-                    String[] prt = parts[1].split("/");
-                    if (prt.length >= 2) { owner = prt[0]; repo = prt[1]; }
-                }
-            } else if (path.startsWith("git@")) {
-                String[] parts = path.split(":" );
-                if (parts.length > 1) {
-                    String[] prt = parts[1].split("/");
-                    if (prt.length >= 2) { owner = prt[0]; repo = prt[1]; }
-                }
-            }
-        }
-        if (owner == null || repo == null) throw new RuntimeException("Could not parse owner/repo from remote url");
-
-        String prApi = String.format("https://api.github.com/repos/%s/%s/pulls", owner, repo);
-        String json = String.format("{\"title\":\"%s\",\"head\":\"%s\",\"base\":\"%s\",\"body\":\"%s\"}", escape(prTitle), escape(branchName), escape(baseBranch), escape(prBody));
-        URL url = new URL(prApi);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "token " + token);
-        conn.setRequestProperty("Accept", "application/vnd.github+json");
-        conn.setDoOutput(true);
-        conn.getOutputStream().write(json.getBytes(StandardCharsets.UTF_8));
-        int code = conn.getResponseCode();
-        StringBuilder resp = new StringBuilder();
-        try (BufferedReader r = new BufferedReader(new InputStreamReader(code >= 200 && code < 300 ? conn.getInputStream() : conn.getErrorStream()))) {
-            String ln;
-            while ((ln = r.readLine()) != null) resp.append(ln).append('\n');
-        }
-        ObjectMapper om = new ObjectMapper();
-        // optionally request reviewers
-    if (reviewersCsv != null && !reviewersCsv.isBlank()) {
-            // try to parse PR number via JSON
-            try {
-                JsonNode root = om.readTree(resp.toString());
-                if (root.has("number")) {
-                    String prNum = root.get("number").asText();
-                    String reviewersApi = String.format("https://api.github.com/repos/%s/%s/pulls/%s/requested_reviewers", owner, repo, prNum);
-                    String revJson = String.format("{\"reviewers\":[%s]}", joinReviewers(reviewersCsv));
-                    URL rurl = new URL(reviewersApi);
-                    HttpURLConnection rc2 = (HttpURLConnection) rurl.openConnection();
-                    rc2.setRequestMethod("POST");
-                    rc2.setRequestProperty("Authorization", "token " + token);
-                    rc2.setRequestProperty("Accept", "application/vnd.github+json");
-                    rc2.setDoOutput(true);
-                    rc2.getOutputStream().write(revJson.getBytes(StandardCharsets.UTF_8));
-                    int rcCode = rc2.getResponseCode();
-                    log.info("Requested reviewers; HTTP code: {}", rcCode);
-                } else {
-                    log.warn("PR created but could not find PR number in response: {}", resp.toString());
-                }
-            } catch (Exception ex) {
-                log.error("Failed to request reviewers: {}", ex.getMessage(), ex);
-            }
-        }
-        return resp.toString();
-    }
-
-    private String joinReviewers(String csv) {
-        String[] parts = csv.split(",");
-        StringBuilder sb = new StringBuilder();
-        for (int i=0;i<parts.length;i++) {
-            if (i>0) sb.append(',');
-            sb.append('"').append(parts[i].trim()).append('"');
-        }
-        return sb.toString();
-    }
-
-    private String escape(String s) {
-        if (s == null) return "";
-        return s.replace("\\","\\\\").replace("\"","\\\"").replace("\n","\\n");
+        GitHubClient.PullRequest pr = createPullRequest(repoDir, branchName, baseBranch, prTitle, prBody, reviewersCsv, null);
+        return pr == null ? null : pr.htmlUrl();
     }
 }
@@ -0,0 +1,197 @@
+package com.cap.api.service.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates fix commits with git plumbing in a local bare mirror of the repository, without a
+ * checkout or any working tree:
+ * <ol>
+ *   <li>{@code hash-object -w --stdin} stores the file as a blob,</li>
+ *   <li>{@code ls-tree} / {@code mktree} rewrite only the trees on the file's path, bottom up,</li>
+ *   <li>{@code commit-tree} makes the commit on top of the fetched {@code origin/<base>},</li>
+ *   <li>{@code update-ref} points the branch at it and {@code push} sends it.</li>
+ * </ol>
+ * Cost grows with the depth of the file's path, not with the size of the repository. The
+ * mirror is cloned once (optionally as a blobless partial clone, since only trees are read)
+ * and refreshed with incremental fetches of the base branch, at most once per
+ * {@code fetchIntervalMs}. All steps are safe to run for several branches concurrently.
+ */
+public class GitCommitBuilder {
+    private static final Logger log = LoggerFactory.getLogger(GitCommitBuilder.class);
+
+    /** Exit code and output of one git invocation. */
+    public record Output(int exitCode, String stdout, String stderr) {
+        public String line() {
+            return stdout.strip();
+        }
+    }
+
+    /** One file written by one commit. */
+    public record FileCommit(String path, String content, String message) {}
+
+    /** Runs git in {@code dir} with extra environment and optional stdin. */
+    @FunctionalInterface
+    public interface GitExec {
+        Output exec(File dir, Map<String, String> env, String stdin, String... command) throws Exception;
+    }
+
+    private final File sourceRepo;
+    private final File mirror;
+    private final String remote;
+    private final String baseBranch;
+    private final String cloneFilter;
+    private final long fetchIntervalMs;
+    private final Map<String, String> identity;
+    private final GitExec git;
+
+    private final Object fetchLock = new Object();
+    private volatile long lastFetchAt;
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong buildNanos = new AtomicLong();
+
+    public GitCommitBuilder(File sourceRepo, File mirror, String remote, String baseBranch, String cloneFilter, long fetchIntervalMs,
+                            String authorName, String authorEmail, GitExec git) {
+        this.sourceRepo = sourceRepo;
+        this.mirror = mirror;
+        this.remote = remote;
+        this.baseBranch = baseBranch;
+        this.cloneFilter = cloneFilter;
+        this.fetchIntervalMs = fetchIntervalMs;
+        this.git = git;
+        Map<String, String> env = new LinkedHashMap<>();
+        env.put("GIT_AUTHOR_NAME", authorName);
+        env.put("GIT_AUTHOR_EMAIL", authorEmail);
+        env.put("GIT_COMMITTER_NAME", authorName);
+        env.put("GIT_COMMITTER_EMAIL", authorEmail);
+        this.identity = Map.copyOf(env);
+    }
+
+    /**
+     * Clones the bare mirror from the source repository's remote if it does not exist yet,
+     * then fetches the base branch.
+     */
+    public void start() throws Exception {
+        if (!Files.isDirectory(mirror.toPath().resolve("objects"))) {
+            String url = check(sourceRepo, null, null, "git", "config", "--get", "remote." + remote + ".url").line();
+            Files.createDirectories(mirror.toPath().getParent());
+            List<String> clone = new ArrayList<>(List.of("git", "clone", "--bare", "--single-branch", "--branch", baseBranch));
+            if (cloneFilter != null && !cloneFilter.isBlank()) clone.add("--filter=" + cloneFilter);
+            clone.add(url);
+            clone.add(mirror.getPath());
+            check(null, null, null, clone.toArray(new String[0]));
+            log.info("Cloned bare mirror of {} into {}", url, mirror);
+        }
+        fetchBase(true);
+    }
+
+    /**
+     * Commits {@code content} at {@code path} on top of the base branch as {@code branch}
+     * (replacing any local branch of that name) and pushes it. Returns the commit id.
+     */
+    public String commitFile(String branch, String path, String content, String message) throws Exception {
+        return commitFiles(branch, List.of(new FileCommit(path, content, message)));
+    }
+
+    /**
+     * Like {@link #commitFile} with one commit per entry, in order, on a single branch that is
+     * pushed once. Returns the id of the last commit.
+     */
+    public String commitFiles(String branch, List<FileCommit> files) throws Exception {
+        long started = System.nanoTime();
+        fetchBase(false);
+        String base = check(mirror, null, null, "git", "rev-parse", "--verify", "refs/remotes/" + remote + "/" + baseBranch + "^{commit}").line();
+        String tree = check(mirror, null, null, "git", "rev-parse", base + "^{tree}").line();
+        String commit = base;
+        for (FileCommit file : files) {
+            String blob = check(mirror, null, file.content(), "git", "hash-object", "-w", "--stdin").line();
+            tree = replaceEntry(tree, file.path().split("/"), 0, "100644 blob " + blob);
+            commit = check(mirror, identity, file.message(), "git", "commit-tree", tree, "-p", commit).line();
+        }
+        check(mirror, null, null, "git", "update-ref", "refs/heads/" + branch, commit);
+        long built = System.nanoTime() - started;
+        buildNanos.addAndGet(built);
+        commits.addAndGet(files.size());
+        log.info("Built {} commit(s) up to {} for {} on {} in {} ms without a checkout", files.size(),
+            commit.substring(0, Math.min(12, commit.length())), branch, base.substring(0, Math.min(12, base.length())), built / 1_000_000);
+        Output push = git.exec(mirror, null, null, "git", "push", remote, "refs/heads/" + branch + ":refs/heads/" + branch);
+        if (push.exitCode() != 0) {
+            throw new IllegalStateException("git push of " + branch + " exited with " + push.exitCode() + ": " + push.stderr().strip());
+        }
+        return commit;
+    }
+
+    /**
+     * Returns the id of {@code treeId} (null for a tree that does not exist yet) with the entry
+     * at {@code segments[depth..]} set to {@code leaf} ("mode type id"), writing new trees for
+     * each directory on the path.
+     */
+    private String replaceEntry(String treeId, String[] segments, int depth, String leaf) throws Exception {
+        String name = segments[depth];
+        List<String> entries = new ArrayList<>();
+        String child = null;
+        if (treeId != null) {
+            // "<mode> <type> <id>\t<name>" per line; -z keeps names with special characters verbatim
+            for (String entry : check(mirror, null, null, "git", "ls-tree", "-z", treeId).stdout().split("\0")) {
+                if (entry.isEmpty()) continue;
+                int tab = entry.indexOf('\t');
+                if (entry.substring(tab + 1).equals(name)) {
+                    if (entry.startsWith("040000 tree ")) child = entry.substring(12, tab);
+                } else {
+                    entries.add(entry);
+                }
+            }
+        }
+        String replacement = depth == segments.length - 1 ? leaf : "040000 tree " + replaceEntry(child, segments, depth + 1, leaf);
+        entries.add(replacement + "\t" + name);
+        StringBuilder input = new StringBuilder();
+        for (String entry : entries) input.append(entry).append('\0');
+        // --missing: a blobless mirror does not hold the blobs the unchanged entries point at
+        return check(mirror, null, input.toString(), "git", "mktree", "-z", "--missing").line();
+    }
+
+    /** Fetches the base branch into refs/remotes/<remote>/<base>, coalescing concurrent callers. */
+    private void fetchBase(boolean force) throws Exception {
+        if (!force && System.currentTimeMillis() - lastFetchAt < fetchIntervalMs) return;
+        synchronized (fetchLock) {
+            if (!force && System.currentTimeMillis() - lastFetchAt < fetchIntervalMs) return;
+            check(mirror, null, null, "git", "fetch", "--no-tags", remote,
+                "+refs/heads/" + baseBranch + ":refs/remotes/" + remote + "/" + baseBranch);
+            lastFetchAt = System.currentTimeMillis();
+            fetches.incrementAndGet();
+        }
+    }
+
+    private Output check(File dir, Map<String, String> env, String stdin, String... command) throws Exception {
+        Output out = git.exec(dir, env, stdin, command);
+        if (out.exitCode() != 0) {
+            throw new IllegalStateException(String.join(" ", command) + " exited with " + out.exitCode() + ": " + out.stderr().strip());
+        }
+        return out;
+    }
+
+    public Path getMirror() {
+        return mirror.toPath();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long n = commits.get();
+        m.put("mirror", mirror.getPath());
+        m.put("commits", n);
+        m.put("fetches", fetches.get());
+        m.put("lastFetchAt", lastFetchAt);
+        m.put("avgBuildMillis", n == 0 ? 0 : buildNanos.get() / n / 1_000_000.0);
+        return m;
+    }
+}
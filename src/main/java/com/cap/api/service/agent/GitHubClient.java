@@ -0,0 +1,330 @@
+package com.cap.api.service.agent;
+
+import com.cap.api.service.JsonSupport;
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GitHub REST client shared by every PR the agent opens.
+ * <ul>
+ *   <li>One {@link HttpClient} keeps connections (and TLS sessions) to the API alive across
+ *       calls, with connect and read timeouts.</li>
+ *   <li>Request bodies are serialized with Jackson; owner/repo is parsed once per remote.</li>
+ *   <li>After the PR is created, requesting reviewers and posting the summary comment are
+ *       independent, so they run concurrently.</li>
+ *   <li>GETs send {@code If-None-Match} with the last ETag; a 304 is served from the cache
+ *       and does not count against GitHub's rate limit.</li>
+ *   <li>Calls go through the {@code github} {@link UpstreamRateLimiter}, which pauses on
+ *       {@code X-RateLimit-Remaining: 0} until {@code X-RateLimit-Reset}.</li>
+ * </ul>
+ */
+@Component
+public class GitHubClient {
+    private static final Logger log = LoggerFactory.getLogger(GitHubClient.class);
+    private static final String API_VERSION = "2022-11-28";
+
+    /** Repository coordinates. */
+    public record Repo(String owner, String name) {
+        @Override
+        public String toString() {
+            return owner + "/" + name;
+        }
+    }
+
+    public record PullRequest(long number, String htmlUrl) {}
+
+    private record CachedResponse(String etag, String body) {}
+
+    @Value("${github.token:}")
+    private String token;
+    @Value("${github.api.url:https://api.github.com}")
+    private String apiUrl;
+    // owner/repo; when set, used instead of parsing remote.origin.url
+    @Value("${github.repository:}")
+    private String repository;
+    @Value("${agent.github.connectTimeoutMs:5000}")
+    private long connectTimeoutMs;
+    @Value("${agent.github.readTimeoutMs:30000}")
+    private long readTimeoutMs;
+    // Conditional GETs remembered (by URL) for If-None-Match
+    @Value("${agent.github.etagCacheSize:256}")
+    private int etagCacheSize;
+
+    @Autowired(required = false)
+    private UpstreamRateLimiters upstreamRateLimiters;
+
+    @Autowired(required = false)
+    private AgentMetrics agentMetrics;
+
+    private RestTemplate restTemplate;
+    private ExecutorService followUps;
+    private volatile Repo configuredRepo;
+    private final Map<String, Repo> remoteRepos = new ConcurrentHashMap<>();
+    private Map<String, CachedResponse> etags;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong pullsCreated = new AtomicLong();
+    private volatile long rateLimit = -1;
+    private volatile long rateRemaining = -1;
+    private volatile long rateResetEpochSeconds = -1;
+
+    @PostConstruct
+    public void init() {
+        HttpClient http = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(http);
+        factory.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+        restTemplate = new RestTemplate(factory);
+        AtomicInteger seq = new AtomicInteger();
+        followUps = Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r, "github-followup-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        int capacity = Math.max(1, etagCacheSize);
+        etags = java.util.Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > capacity;
+            }
+        });
+        if (repository != null && !repository.isBlank()) {
+            String[] parts = repository.trim().split("/");
+            if (parts.length == 2) {
+                configuredRepo = new Repo(parts[0], parts[1]);
+            } else {
+                log.warn("Ignoring github.repository '{}': expected owner/repo", repository);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (followUps != null) followUps.shutdownNow();
+    }
+
+    public boolean hasToken() {
+        return token != null && !token.isBlank();
+    }
+
+    /** github.repository when set; null means callers must supply the remote url. */
+    public Repo configuredRepository() {
+        return configuredRepo;
+    }
+
+    /** github.repository when set, else owner/repo parsed from {@code remoteUrl} (cached per url). */
+    public Repo repository(String remoteUrl) {
+        Repo configured = configuredRepo;
+        if (configured != null) return configured;
+        if (remoteUrl == null) throw new IllegalStateException("github.repository is not set and no remote url was given");
+        return remoteRepos.computeIfAbsent(remoteUrl, GitHubClient::parseRemoteUrl);
+    }
+
+    /**
+     * Parses https ({@code https://[token@]github.com/owner/repo.git}) and ssh
+     * ({@code git@github.com:owner/repo.git}, {@code ssh://git@github.com/owner/repo}) remotes.
+     */
+    static Repo parseRemoteUrl(String remoteUrl) {
+        String path = remoteUrl.trim();
+        if (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+        if (path.endsWith(".git")) path = path.substring(0, path.length() - 4);
+        int host = path.indexOf("github.com");
+        if (host >= 0) {
+            String rest = path.substring(host + "github.com".length());
+            if (rest.startsWith(":") || rest.startsWith("/")) {
+                String[] parts = rest.substring(1).split("/");
+                if (parts.length == 2 && !parts[0].isEmpty() && !parts[1].isEmpty()) return new Repo(parts[0], parts[1]);
+            }
+        }
+        throw new IllegalArgumentException("Could not parse owner/repo from remote url");
+    }
+
+    /**
+     * Opens a PR from {@code head} into {@code base}, then requests {@code reviewers} and posts
+     * {@code comment} (either may be empty) concurrently; their failures are logged, not thrown.
+     * If GitHub rejects the PR because one is already open for the branch, that PR is returned
+     * without follow-ups.
+     */
+    public PullRequest createPullRequest(Repo repo, String head, String base, String title, String body,
+                                         List<String> reviewers, String comment) throws Exception {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("title", title);
+        request.put("head", head);
+        request.put("base", base);
+        request.put("body", body == null ? "" : body);
+        PullRequest pr;
+        try {
+            ResponseEntity<String> response = exchange("create_pull", HttpMethod.POST, request, null,
+                "/repos/{owner}/{repo}/pulls", repo.owner(), repo.name());
+            pr = pullRequest(JsonSupport.MAPPER.readTree(response.getBody()));
+        } catch (HttpClientErrorException e) {
+            // 422 also answers a create retried after a lost response
+            if (e.getStatusCode().value() != 422) throw e;
+            PullRequest existing = findOpenPullRequest(repo, head);
+            if (existing == null) throw e;
+            log.info("Pull request for {} already open: {}", head, existing.htmlUrl());
+            return existing;
+        }
+        if (pr == null) throw new IllegalStateException("GitHub returned no pull request number for " + head);
+        pullsCreated.incrementAndGet();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        if (reviewers != null && !reviewers.isEmpty()) {
+            pending.add(followUp("request_reviewers", pr, Map.of("reviewers", reviewers),
+                "/repos/{owner}/{repo}/pulls/{number}/requested_reviewers", repo.owner(), repo.name(), pr.number()));
+        }
+        if (comment != null && !comment.isBlank()) {
+            pending.add(followUp("pr_comment", pr, Map.of("body", comment),
+                "/repos/{owner}/{repo}/issues/{number}/comments", repo.owner(), repo.name(), pr.number()));
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+        return pr;
+    }
+
+    /** The open PR whose head is {@code branch} in {@code repo}, or null. */
+    public PullRequest findOpenPullRequest(Repo repo, String branch) throws Exception {
+        JsonNode pulls = getJson("list_pulls", "/repos/{owner}/{repo}/pulls?state=open&head={head}",
+            repo.owner(), repo.name(), repo.owner() + ":" + branch);
+        return pulls.isArray() && !pulls.isEmpty() ? pullRequest(pulls.get(0)) : null;
+    }
+
+    private static PullRequest pullRequest(JsonNode node) {
+        if (node == null || !node.hasNonNull("number")) return null;
+        return new PullRequest(node.get("number").asLong(), node.path("html_url").asText(null));
+    }
+
+    private CompletableFuture<Void> followUp(String operation, PullRequest pr, Object body, String path, Object... vars) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                exchange(operation, HttpMethod.POST, body, null, path, vars);
+            } catch (Exception e) {
+                log.error("GitHub {} for PR #{} failed: {}", operation, pr.number(), e.getMessage());
+            }
+        }, followUps);
+    }
+
+    /**
+     * GET with If-None-Match: a 304 returns the body cached with the ETag, anything else
+     * replaces the cache entry.
+     */
+    private JsonNode getJson(String operation, String path, Object... vars) throws Exception {
+        String key = restTemplate.getUriTemplateHandler().expand(apiUrl + path, vars).toString();
+        CachedResponse cached = etags.get(key);
+        ResponseEntity<String> response = exchange(operation, HttpMethod.GET, null, cached == null ? null : cached.etag(), path, vars);
+        String body;
+        if (response.getStatusCode().value() == 304 && cached != null) {
+            notModified.incrementAndGet();
+            body = cached.body();
+        } else {
+            body = response.getBody();
+            String etag = response.getHeaders().getETag();
+            if (etag != null && body != null) etags.put(key, new CachedResponse(etag, body));
+        }
+        return JsonSupport.MAPPER.readTree(body == null || body.isEmpty() ? "null" : body);
+    }
+
+    /**
+     * Sends one API call under the github rate limiter, timed as {@code operation}. 4xx and
+     * 5xx responses are thrown as {@link HttpStatusCodeException}.
+     */
+    private ResponseEntity<String> exchange(String operation, HttpMethod method, Object body, String ifNoneMatch,
+                                            String path, Object... vars) throws Exception {
+        if (!hasToken()) throw new IllegalStateException("github.token is not configured");
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, "token " + token);
+        headers.set(HttpHeaders.ACCEPT, "application/vnd.github+json");
+        headers.set("X-GitHub-Api-Version", API_VERSION);
+        if (ifNoneMatch != null) headers.setIfNoneMatch(ifNoneMatch);
+        String json = null;
+        if (body != null) {
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            json = JsonSupport.MAPPER.writeValueAsString(body);
+        }
+        HttpEntity<String> entity = new HttpEntity<>(json, headers);
+        Callable<ResponseEntity<String>> call = () -> {
+            requests.incrementAndGet();
+            try {
+                ResponseEntity<String> response = restTemplate.exchange(apiUrl + path, method, entity, String.class, vars);
+                recordRateLimit(response.getHeaders());
+                return response;
+            } catch (HttpStatusCodeException e) {
+                recordRateLimit(e.getResponseHeaders());
+                throw e;
+            }
+        };
+        Callable<ResponseEntity<String>> timed = agentMetrics == null ? call
+            : () -> agentMetrics.timeUpstream(UpstreamRateLimiters.GITHUB, operation, call);
+        try {
+            return upstreamRateLimiters == null ? timed.call() : upstreamRateLimiters.get(UpstreamRateLimiters.GITHUB).execute(timed);
+        } catch (UpstreamRateLimiter.UpstreamUnavailableException e) {
+            // rejected before any attempt was made, so timeUpstream never saw it
+            if (agentMetrics != null) agentMetrics.recordFailure(UpstreamRateLimiters.GITHUB, e);
+            throw e;
+        }
+    }
+
+    private void recordRateLimit(HttpHeaders headers) {
+        if (headers == null) return;
+        rateLimit = headerLong(headers, "X-RateLimit-Limit", rateLimit);
+        rateRemaining = headerLong(headers, "X-RateLimit-Remaining", rateRemaining);
+        rateResetEpochSeconds = headerLong(headers, "X-RateLimit-Reset", rateResetEpochSeconds);
+    }
+
+    private static long headerLong(HttpHeaders headers, String name, long fallback) {
+        String value = headers.getFirst(name);
+        if (value == null) return fallback;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("apiUrl", apiUrl);
+        Repo configured = configuredRepo;
+        m.put("repository", configured != null ? configured.toString() : remoteRepos.values().stream().map(Repo::toString).distinct().toList());
+        m.put("requests", requests.get());
+        m.put("pullsCreated", pullsCreated.get());
+        m.put("notModified", notModified.get());
+        m.put("etagEntries", etags.size());
+        Map<String, Object> rate = new LinkedHashMap<>();
+        rate.put("limit", rateLimit);
+        rate.put("remaining", rateRemaining);
+        rate.put("resetEpochSeconds", rateResetEpochSeconds);
+        m.put("rateLimit", rate);
+        return m;
+    }
+}
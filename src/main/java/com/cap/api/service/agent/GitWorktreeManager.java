@@ -0,0 +1,325 @@
+package com.cap.api.service.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of reusable {@code git worktree}s of one repository. All worktrees share the
+ * repository's object store and refs, so creating one costs a checkout rather than a clone,
+ * and a fetch made for one ticket is visible to every other. Each fix gets its own working
+ * directory, so branches are created, committed and pushed in parallel without touching the
+ * checkout the application runs from.
+ * <p>
+ * {@link #acquire} hands out an idle worktree or adds one while fewer than {@code maxWorktrees}
+ * exist; closing the {@link Lease} resets the worktree to a clean detached state and returns
+ * it to the pool, or removes it if a command failed and its state is unknown.
+ * <p>
+ * Several agent processes on one host may share {@code root}: each keeps its worktrees in
+ * its own {@code node-<pid>-<id>} subdirectory and holds a file lock on the matching
+ * {@code .lock} file while it runs. {@link #start} only removes subdirectories whose lock it
+ * can take, i.e. those left by a process that is gone.
+ */
+public class GitWorktreeManager {
+    private static final Logger log = LoggerFactory.getLogger(GitWorktreeManager.class);
+
+    /** Runs a git command in a directory and returns its exit code. */
+    @FunctionalInterface
+    public interface GitRunner {
+        int run(File dir, String... command) throws Exception;
+    }
+
+    private final File repoDir;
+    private final Path root;
+    private final Path instanceDir;
+    private final String remote;
+    private final String baseBranch;
+    private final int maxWorktrees;
+    private final long fetchIntervalMs;
+    private final GitRunner git;
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<Path> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger seq = new AtomicInteger();
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final Object fetchLock = new Object();
+    private volatile long lastFetchAt;
+    private FileChannel lockChannel;
+    private FileLock instanceLock;
+
+    public GitWorktreeManager(File repoDir, Path root, String remote, String baseBranch, int maxWorktrees, long fetchIntervalMs, GitRunner git) {
+        this.repoDir = repoDir;
+        this.root = root;
+        this.instanceDir = root.resolve("node-" + ProcessHandle.current().pid() + "-" + UUID.randomUUID().toString().substring(0, 8));
+        this.remote = remote;
+        this.baseBranch = baseBranch;
+        this.maxWorktrees = maxWorktrees;
+        this.fetchIntervalMs = fetchIntervalMs;
+        this.git = git;
+        this.permits = new Semaphore(maxWorktrees, true);
+    }
+
+    /**
+     * Claims this instance's directory under the root, removes worktrees left there by
+     * processes that are no longer running and prunes their metadata.
+     */
+    public void start() throws Exception {
+        Files.createDirectories(instanceDir);
+        lockChannel = FileChannel.open(lockFile(instanceDir), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        instanceLock = lockChannel.tryLock();
+        if (instanceLock == null) {
+            lockChannel.close();
+            throw new IllegalStateException("Worktree directory " + instanceDir + " is locked by another process");
+        }
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root)) {
+            for (Path dir : dirs) {
+                if (Files.isDirectory(dir) && !dir.equals(instanceDir)) removeIfAbandoned(dir);
+            }
+        }
+        git.run(repoDir, "git", "worktree", "prune");
+    }
+
+    private static Path lockFile(Path dir) {
+        return dir.resolveSibling(dir.getFileName() + ".lock");
+    }
+
+    /** Removes another instance's directory if no live process holds its lock. */
+    private void removeIfAbandoned(Path dir) {
+        Path lockFile = lockFile(dir);
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                return; // held by another manager in this JVM
+            }
+            if (lock == null) return;
+            try {
+                try (DirectoryStream<Path> worktrees = Files.newDirectoryStream(dir)) {
+                    for (Path wt : worktrees) {
+                        if (Files.isDirectory(wt)) remove(wt);
+                    }
+                }
+                deleteRecursively(dir);
+                log.info("Removed worktrees of a stopped agent instance under {}", dir);
+            } finally {
+                lock.release();
+            }
+            Files.deleteIfExists(lockFile);
+        } catch (IOException e) {
+            log.warn("Could not clean up stale worktree directory {}: {}", dir, e.getMessage());
+        }
+    }
+
+    /**
+     * Waits up to {@code timeoutMs} for a worktree, creating one if the pool has room. The
+     * worktree is detached at the freshly fetched {@code <remote>/<baseBranch>}.
+     */
+    public Lease acquire(long timeoutMs) throws Exception {
+        if (!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("No git worktree free within " + timeoutMs + " ms (" + maxWorktrees + " in use)");
+        }
+        try {
+            fetchBase();
+            Path dir = idle.pollFirst();
+            if (dir == null) {
+                dir = instanceDir.resolve("wt-" + seq.incrementAndGet());
+                // --detach: the base branch may itself be checked out in the main working copy
+                check(repoDir, "git", "worktree", "add", "--detach", "--force", dir.toString(), remote + "/" + baseBranch);
+                created.incrementAndGet();
+            } else {
+                check(dir.toFile(), "git", "checkout", "--detach", "--force", remote + "/" + baseBranch);
+            }
+            leases.incrementAndGet();
+            return new Lease(dir);
+        } catch (Exception e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Fetches the base branch into the shared refs, at most once per {@code fetchIntervalMs}
+     * however many tickets are branching concurrently.
+     */
+    private void fetchBase() throws Exception {
+        if (System.currentTimeMillis() - lastFetchAt < fetchIntervalMs) return;
+        synchronized (fetchLock) {
+            if (System.currentTimeMillis() - lastFetchAt < fetchIntervalMs) return;
+            check(repoDir, "git", "fetch", remote, baseBranch);
+            lastFetchAt = System.currentTimeMillis();
+        }
+    }
+
+    private void check(File dir, String... command) throws Exception {
+        int rc = git.run(dir, command);
+        if (rc != 0) {
+            throw new IllegalStateException(String.join(" ", command) + " exited with " + rc);
+        }
+    }
+
+    private void release(Lease lease) {
+        try {
+            if (lease.healthy && recycle(lease)) {
+                idle.addFirst(lease.dir); // most recently used first: its files are still in the page cache
+            } else {
+                discarded.incrementAndGet();
+                remove(lease.dir);
+            }
+        } catch (Exception e) {
+            log.warn("Could not return worktree {} to the pool: {}", lease.dir, e.getMessage());
+        } finally {
+            permits.release();
+        }
+    }
+
+    /** Resets a used worktree and deletes its local branch (the pushed branch stays on the remote). */
+    private boolean recycle(Lease lease) throws Exception {
+        File dir = lease.dir.toFile();
+        if (git.run(dir, "git", "checkout", "--detach", "--force") != 0) return false;
+        if (git.run(dir, "git", "reset", "--hard") != 0 || git.run(dir, "git", "clean", "-fdx") != 0) return false;
+        for (String branch : lease.branches) {
+            git.run(dir, "git", "branch", "-D", branch);
+        }
+        return true;
+    }
+
+    private void remove(Path dir) {
+        try {
+            if (git.run(repoDir, "git", "worktree", "remove", "--force", dir.toString()) != 0) {
+                deleteRecursively(dir);
+            }
+        } catch (Exception e) {
+            log.warn("Could not remove worktree {}: {}", dir, e.getMessage());
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (var paths = Files.walk(dir)) {
+            List<Path> all = new ArrayList<>(paths.toList());
+            java.util.Collections.reverse(all);
+            for (Path p : all) Files.deleteIfExists(p);
+        }
+    }
+
+    /** Waits for leased worktrees up to {@code timeoutMs}, then removes every worktree. */
+    public void shutdown(long timeoutMs) {
+        boolean quiesced = false;
+        try {
+            quiesced = permits.tryAcquire(maxWorktrees, timeoutMs, TimeUnit.MILLISECONDS);
+            if (!quiesced) {
+                log.warn("Worktrees still leased after {} ms; removing idle ones only", timeoutMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Path dir;
+        while ((dir = idle.pollFirst()) != null) {
+            remove(dir);
+        }
+        try {
+            git.run(repoDir, "git", "worktree", "prune");
+        } catch (Exception e) {
+            log.debug("git worktree prune failed: {}", e.getMessage());
+        }
+        // leased worktrees that outlived the timeout stay, and the next start removes them
+        try {
+            if (instanceLock != null) {
+                if (quiesced) {
+                    deleteRecursively(instanceDir);
+                    Files.deleteIfExists(lockFile(instanceDir));
+                }
+                instanceLock.release();
+                lockChannel.close();
+            }
+        } catch (IOException e) {
+            log.debug("Could not release worktree directory {}: {}", instanceDir, e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("root", instanceDir.toString());
+        m.put("maxWorktrees", maxWorktrees);
+        int leased = maxWorktrees - permits.availablePermits();
+        m.put("live", idle.size() + leased);
+        m.put("idle", idle.size());
+        m.put("leased", leased);
+        m.put("created", created.get());
+        m.put("discarded", discarded.get());
+        m.put("leases", leases.get());
+        return m;
+    }
+
+    /** A worktree checked out for one fix; close it to hand it back to the pool. */
+    public final class Lease implements AutoCloseable {
+        private final Path dir;
+        private final List<String> branches = new ArrayList<>();
+        private boolean healthy = true;
+        private boolean closed;
+
+        private Lease(Path dir) {
+            this.dir = dir;
+        }
+
+        public File dir() {
+            return dir.toFile();
+        }
+
+        /** Creates (or resets) {@code branch} at the current base commit and checks it out. */
+        public void checkoutNewBranch(String branch) throws Exception {
+            branches.add(branch);
+            check("git", "checkout", "-B", branch);
+        }
+
+        /** {@link #run}, throwing if the command exits nonzero. */
+        public void check(String... command) throws Exception {
+            int rc = run(command);
+            if (rc != 0) {
+                throw new IllegalStateException(String.join(" ", java.util.Arrays.copyOf(command, Math.min(3, command.length))) + " exited with " + rc);
+            }
+        }
+
+        /** Runs a git command in this worktree; a nonzero exit marks the worktree for removal. */
+        public int run(String... command) throws Exception {
+            int rc;
+            try {
+                rc = git.run(dir.toFile(), command);
+            } catch (Exception e) {
+                healthy = false;
+                throw e;
+            }
+            if (rc != 0) healthy = false;
+            return rc;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            release(this);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.cap.api.service.agent;
+
+import com.cap.api.service.JsonSupport;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Push-based Jira ingestion for {@code POST /mcp/webhook}. Verifies the HMAC-SHA256
+ * signature Jira sends in {@code X-Hub-Signature}, drops duplicate and stale events per
+ * issue, and hands tickets to {@link DefectProcessingAgent} through a bounded queue so the
+ * HTTP thread returns immediately.
+ */
+@Component
+public class JiraWebhookIngestor {
+    private static final Logger log = LoggerFactory.getLogger(JiraWebhookIngestor.class);
+    private static final ObjectMapper MAPPER = JsonSupport.MAPPER;
+    private static final int LATENCY_SAMPLES = 256;
+
+    public enum Result { ACCEPTED, DUPLICATE, IGNORED, UNAUTHORIZED, DISABLED, BUSY, BAD_REQUEST }
+
+    @Value("${jira.webhook.secret:}")
+    private String webhookSecret;
+    @Value("${jira.webhook.queueCapacity:500}")
+    private int queueCapacity;
+    @Value("${jira.webhook.dedupeEntries:10000}")
+    private int dedupeEntries;
+
+    @Autowired
+    private DefectProcessingAgent defectProcessingAgent;
+
+    private static final class Event {
+        final String issueKey;
+        final String summary;
+        final String status;
+        final String description;
+        final String created;
+        final String priority;
+        final long receivedAtNanos = System.nanoTime();
+
+        Event(String issueKey, String summary, String status, String description, String created, String priority) {
+            this.issueKey = issueKey;
+            this.summary = summary;
+            this.status = status;
+            this.description = description;
+            this.created = created;
+            this.priority = priority;
+        }
+    }
+
+    private BlockingQueue<Event> queue;
+    private Map<String, Long> lastEventByIssue;
+    private Thread dispatcher;
+    private volatile boolean running;
+    private final long[] latencyMicros = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong overflow = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        int maxEntries = Math.max(100, dedupeEntries);
+        lastEventByIssue = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        running = true;
+        dispatcher = new Thread(this::dispatch, "jira-webhook-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    public boolean isEnabled() {
+        return webhookSecret != null && !webhookSecret.isBlank();
+    }
+
+    /**
+     * Validates and queues one webhook delivery. Only cheap work happens here.
+     */
+    public Result ingest(byte[] payload, String signature) {
+        received.incrementAndGet();
+        if (!isEnabled()) {
+            return Result.DISABLED;
+        }
+        if (!signatureMatches(payload, signature)) {
+            rejected.incrementAndGet();
+            log.warn("Rejected Jira webhook with missing or invalid signature");
+            return Result.UNAUTHORIZED;
+        }
+        JsonNode root;
+        try {
+            root = MAPPER.readTree(payload);
+        } catch (Exception e) {
+            return Result.BAD_REQUEST;
+        }
+        String eventType = root.path("webhookEvent").asText("");
+        JsonNode issue = root.path("issue");
+        String issueKey = issue.path("key").asText("");
+        if (issueKey.isEmpty() || !(eventType.startsWith("jira:issue_created") || eventType.startsWith("jira:issue_updated"))) {
+            return Result.IGNORED;
+        }
+        long timestamp = root.path("timestamp").asLong(0);
+        synchronized (lastEventByIssue) {
+            Long last = lastEventByIssue.get(issueKey);
+            // Same or older timestamp for this issue: a redelivery or an out-of-order event
+            if (last != null && timestamp != 0 && timestamp <= last) {
+                duplicates.incrementAndGet();
+                return Result.DUPLICATE;
+            }
+            lastEventByIssue.put(issueKey, timestamp);
+        }
+        JsonNode fields = issue.path("fields");
+        Event event = new Event(issueKey,
+            fields.path("summary").asText(""),
+            fields.path("status").path("name").asText(""),
+            fields.path("description").asText(""),
+            fields.path("created").asText(""),
+            fields.path("priority").path("name").asText(""));
+        if (!queue.offer(event)) {
+            overflow.incrementAndGet();
+            synchronized (lastEventByIssue) {
+                // let Jira's retry (or reconciliation polling) deliver it again
+                lastEventByIssue.remove(issueKey);
+            }
+            return Result.BUSY;
+        }
+        return Result.ACCEPTED;
+    }
+
+    private boolean signatureMatches(byte[] payload, String signature) {
+        if (signature == null || signature.isBlank()) return false;
+        String hex = signature.trim();
+        if (hex.startsWith("sha256=")) hex = hex.substring("sha256=".length());
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(webhookSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            byte[] expected = mac.doFinal(payload);
+            return MessageDigest.isEqual(expected, HexFormat.of().parseHex(hex.toLowerCase()));
+        } catch (IllegalArgumentException e) {
+            return false;
+        } catch (Exception e) {
+            log.error("Could not verify webhook signature: {}", e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private void dispatch() {
+        while (running) {
+            Event event;
+            try {
+                event = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (event == null) continue;
+            try {
+                if (defectProcessingAgent.onWebhookTicket(event.issueKey, event.summary, event.status, event.description, event.created, event.priority)) {
+                    enqueued.incrementAndGet();
+                    recordLatency(System.nanoTime() - event.receivedAtNanos);
+                }
+            } catch (Exception e) {
+                log.error("Failed to hand webhook ticket {} to the agent: {}", event.issueKey, e.getMessage(), e);
+            }
+        }
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencyMicros[latencyCount % LATENCY_SAMPLES] = TimeUnit.NANOSECONDS.toMicros(nanos);
+        latencyCount++;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", isEnabled());
+        m.put("received", received.get());
+        m.put("rejectedSignature", rejected.get());
+        m.put("duplicates", duplicates.get());
+        m.put("enqueued", enqueued.get());
+        m.put("overflow", overflow.get());
+        m.put("queued", queue == null ? 0 : queue.size());
+        int n = Math.min(latencyCount, LATENCY_SAMPLES);
+        if (n > 0) {
+            long[] sorted = Arrays.copyOf(latencyMicros, n);
+            Arrays.sort(sorted);
+            m.put("detectToQueuedMedianMicros", sorted[n / 2]);
+            m.put("detectToQueuedMaxMicros", sorted[n - 1]);
+        }
+        return m;
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (dispatcher != null) dispatcher.interrupt();
+    }
+}
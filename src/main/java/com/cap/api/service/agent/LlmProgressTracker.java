@@ -0,0 +1,132 @@
+package com.cap.api.service.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Live progress of streamed LLM completions, keyed by ticket. Snapshots are served over
+ * REST and pushed to SSE subscribers as chunks arrive.
+ */
+@Component
+public class LlmProgressTracker {
+    private static final Logger log = LoggerFactory.getLogger(LlmProgressTracker.class);
+    private static final long PUSH_INTERVAL_MS = 250;
+    private static final int RECENT_LIMIT = 50;
+
+    public static class Progress {
+        private final String key;
+        private final String task;
+        private final long startedAt = System.currentTimeMillis();
+        private volatile int chunks;
+        private volatile int chars;
+        private volatile long lastChunkAt;
+        private volatile long lastPushAt;
+        private volatile String outcome;
+
+        Progress(String key, String task) {
+            this.key = key;
+            this.task = task;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            long now = System.currentTimeMillis();
+            m.put("key", key);
+            m.put("task", task);
+            m.put("chunks", chunks);
+            m.put("chars", chars);
+            m.put("elapsedMillis", now - startedAt);
+            m.put("millisSinceLastChunk", lastChunkAt == 0 ? null : now - lastChunkAt);
+            m.put("state", outcome == null ? "streaming" : outcome);
+            return m;
+        }
+    }
+
+    private final Map<String, Progress> inFlight = new ConcurrentHashMap<>();
+    private final Deque<Progress> recent = new ArrayDeque<>();
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+
+    public Progress start(String key, String task) {
+        Progress p = new Progress(key, task);
+        inFlight.put(key, p);
+        push(p);
+        return p;
+    }
+
+    public void update(Progress p, int chunks, int chars) {
+        p.chunks = chunks;
+        p.chars = chars;
+        p.lastChunkAt = System.currentTimeMillis();
+        if (p.lastChunkAt - p.lastPushAt >= PUSH_INTERVAL_MS) {
+            push(p);
+        }
+    }
+
+    public void finish(Progress p, String outcome) {
+        p.outcome = outcome;
+        inFlight.remove(p.key, p);
+        synchronized (recent) {
+            recent.addFirst(p);
+            while (recent.size() > RECENT_LIMIT) recent.removeLast();
+        }
+        push(p);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        List<Map<String, Object>> active = new ArrayList<>();
+        inFlight.values().forEach(p -> active.add(p.toMap()));
+        List<Map<String, Object>> done = new ArrayList<>();
+        synchronized (recent) {
+            recent.forEach(p -> done.add(p.toMap()));
+        }
+        m.put("inFlight", active);
+        m.put("recent", done);
+        return m;
+    }
+
+    /**
+     * Registers an SSE subscriber; it receives the current in-flight set, then one
+     * {@code progress} event per update.
+     */
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(0L);
+        emitters.add(emitter);
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(() -> emitters.remove(emitter));
+        emitter.onError(e -> emitters.remove(emitter));
+        for (Progress p : inFlight.values()) {
+            if (!send(emitter, p)) break;
+        }
+        return emitter;
+    }
+
+    private void push(Progress p) {
+        p.lastPushAt = System.currentTimeMillis();
+        for (SseEmitter emitter : emitters) {
+            send(emitter, p);
+        }
+    }
+
+    private boolean send(SseEmitter emitter, Progress p) {
+        try {
+            emitter.send(SseEmitter.event().name("progress").data(p.toMap()));
+            return true;
+        } catch (Exception e) {
+            log.debug("Dropping progress subscriber: {}", e.getMessage());
+            emitters.remove(emitter);
+            return false;
+        }
+    }
+}
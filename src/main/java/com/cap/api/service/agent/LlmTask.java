@@ -0,0 +1,14 @@
+package com.cap.api.service.agent;
+
+/**
+ * The kinds of chat completion the defect agent asks for.
+ */
+public enum LlmTask {
+    SUMMARIZE,
+    SUGGEST,
+    CODE_FIX,
+    /** Code fix returned as diff hunks against one source file included in the prompt. */
+    CODE_PATCH,
+    /** Summary, rationale and code fix returned together as one JSON object. */
+    COMBINED
+}
@@ -0,0 +1,92 @@
+package com.cap.api.service.agent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token and latency counters for LLM calls. One instance tracks a single ticket;
+ * the agent merges finished tickets into per-mode totals.
+ */
+public class LlmUsage {
+    private final String issueKey;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong promptTokens = new AtomicLong();
+    // prompt tokens the provider served from its prompt cache (usage.prompt_tokens_details.cached_tokens)
+    private final AtomicLong cachedTokens = new AtomicLong();
+    private final AtomicLong completionTokens = new AtomicLong();
+    private final AtomicLong llmMillis = new AtomicLong();
+    private final AtomicLong tickets = new AtomicLong();
+    private final AtomicLong ticketMillis = new AtomicLong();
+
+    public LlmUsage() {
+        this(null);
+    }
+
+    public LlmUsage(String issueKey) {
+        this.issueKey = issueKey;
+    }
+
+    public String getIssueKey() { return issueKey; }
+
+    public void recordCall(long prompt, long completion, long millis) {
+        recordCall(prompt, 0, completion, millis);
+    }
+
+    public void recordCall(long prompt, long cached, long completion, long millis) {
+        calls.incrementAndGet();
+        promptTokens.addAndGet(prompt);
+        cachedTokens.addAndGet(cached);
+        completionTokens.addAndGet(completion);
+        llmMillis.addAndGet(millis);
+    }
+
+    /**
+     * Folds a finished ticket's usage into these totals.
+     */
+    public void recordTicket(LlmUsage ticket, long endToEndMillis) {
+        calls.addAndGet(ticket.calls.get());
+        promptTokens.addAndGet(ticket.promptTokens.get());
+        cachedTokens.addAndGet(ticket.cachedTokens.get());
+        completionTokens.addAndGet(ticket.completionTokens.get());
+        llmMillis.addAndGet(ticket.llmMillis.get());
+        tickets.incrementAndGet();
+        ticketMillis.addAndGet(endToEndMillis);
+    }
+
+    public long getCalls() { return calls.get(); }
+    public long getPromptTokens() { return promptTokens.get(); }
+    public long getCachedTokens() { return cachedTokens.get(); }
+    public long getCompletionTokens() { return completionTokens.get(); }
+
+    /** Share of prompt tokens served from the provider's prompt cache. */
+    public double getCachedTokenRatio() {
+        long prompt = promptTokens.get();
+        return prompt == 0 ? 0 : (double) cachedTokens.get() / prompt;
+    }
+    public long getLlmMillis() { return llmMillis.get(); }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long t = tickets.get();
+        m.put("tickets", t);
+        m.put("calls", calls.get());
+        m.put("promptTokens", promptTokens.get());
+        m.put("cachedPromptTokens", cachedTokens.get());
+        m.put("cachedTokenRatio", Math.round(getCachedTokenRatio() * 1000) / 1000.0);
+        m.put("completionTokens", completionTokens.get());
+        m.put("llmMillis", llmMillis.get());
+        if (t > 0) {
+            m.put("avgCallsPerTicket", (double) calls.get() / t);
+            m.put("avgTokensPerTicket", (double) (promptTokens.get() + completionTokens.get()) / t);
+            m.put("avgTicketMillis", ticketMillis.get() / t);
+        }
+        return m;
+    }
+
+    @Override
+    public String toString() {
+        return "calls=" + calls.get() + ", promptTokens=" + promptTokens.get() + ", cachedTokens=" + cachedTokens.get()
+            + ", completionTokens=" + completionTokens.get() + ", llmMillis=" + llmMillis.get();
+    }
+}
@@ -4,9 +4,15 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 
@@ -20,33 +26,142 @@ public class NotificationAgent {
     @Autowired(required = false)
     private JavaMailSender mailSender;
 
+    @Autowired(required = false)
+    private AgentMetrics agentMetrics;
+
+    // Mail is sent by a background worker; bursts within the digest window go out as one email
+    @Value("${agent.notify.async:true}")
+    private boolean async;
+    @Value("${agent.notify.queueCapacity:1000}")
+    private int queueCapacity;
+    @Value("${agent.notify.digestWindowMs:15000}")
+    private long digestWindowMs;
+    @Value("${agent.notify.maxDigest:50}")
+    private int maxDigest;
+    @Value("${agent.notify.maxAttempts:3}")
+    private int maxAttempts;
+    @Value("${agent.notify.backoffMs:1000}")
+    private long backoffMs;
+    @Value("${agent.notify.shutdownTimeoutMs:10000}")
+    private long shutdownTimeoutMs;
+    // One message addressed to every DL; when false each DL gets its own copy, still sent in one SMTP session
+    @Value("${agent.notify.mergeRecipients:true}")
+    private boolean mergeRecipients;
+
+    private volatile NotificationDispatcher dispatcher;
+
     public void notifyDLs(String message) {
-        // In a real app, send email or message to DLs. Here, just log.
         log.info("Notifying DLs [{}]: {}", developerDlEmails, message);
-        // Send email to each DL
-        if (mailSender != null && developerDlEmails != null && !developerDlEmails.isBlank()) {
-            for (String email : developerDlEmails.split(",")) {
-                sendEmail(email.trim(), "Agent Notification", message);
-            }
-        } else {
+        if (mailSender == null || recipients().length == 0) {
             log.warn("MailSender not configured or DL emails missing. Message: {}", message);
+            return;
+        }
+        if (!async) {
+            try {
+                sendDigest(List.of(message));
+            } catch (Exception e) {
+                log.error("Failed to send email to {}: {}", developerDlEmails, e.getMessage());
+            }
+        } else if (!dispatcher().offer(message)) {
+            log.warn("Notification queue full or closed; dropped: {}", message);
         }
     }
 
-    private void sendEmail(String to, String subject, String text) {
-        try {
+    private NotificationDispatcher dispatcher() {
+        NotificationDispatcher d = dispatcher;
+        if (d == null) {
+            synchronized (this) {
+                if (dispatcher == null) {
+                    dispatcher = new NotificationDispatcher(queueCapacity, digestWindowMs, maxDigest, maxAttempts, backoffMs,
+                        this::sendDigest);
+                    if (agentMetrics != null) {
+                        NotificationDispatcher created = dispatcher;
+                        agentMetrics.gauge("agent.notify.queue", "Notifications waiting to be mailed", created::queueDepth);
+                    }
+                }
+                d = dispatcher;
+            }
+        }
+        return d;
+    }
+
+    /** Mails the notifications as one email, or one per DL, in a single send call. */
+    private void sendDigest(List<String> messages) throws Exception {
+        String[] to = recipients();
+        String subject = messages.size() == 1 ? "Agent Notification" : "Agent Notification: " + messages.size() + " updates";
+        String text;
+        if (messages.size() == 1) {
+            text = messages.get(0);
+        } else {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < messages.size(); i++) {
+                sb.append(i + 1).append(". ").append(messages.get(i)).append("\n\n");
+            }
+            text = sb.toString().trim();
+        }
+        List<String[]> addressees = new ArrayList<>();
+        if (mergeRecipients) {
+            addressees.add(to);
+        } else {
+            for (String address : to) addressees.add(new String[] {address});
+        }
+        List<SimpleMailMessage> mails = new ArrayList<>();
+        for (String[] mailTo : addressees) {
             SimpleMailMessage mailMessage = new SimpleMailMessage();
-            mailMessage.setTo(to);
+            mailMessage.setTo(mailTo);
             mailMessage.setSubject(subject);
             mailMessage.setText(text);
-            mailSender.send(mailMessage);
-            log.info("Email sent to {}", to);
-        } catch (Exception e) {
-            log.error("Failed to send email to {}: {}", to, e.getMessage());
+            mails.add(mailMessage);
+        }
+        send(mails.toArray(new SimpleMailMessage[0]));
+        log.info("Email sent to {} ({} notification(s))", String.join(", ", to), messages.size());
+    }
+
+    /**
+     * Sends the emails in one session. If only some are refused, the retry is limited to those,
+     * so DLs that already got the digest do not get it again.
+     */
+    private void send(SimpleMailMessage[] batch) throws Exception {
+        try {
+            if (agentMetrics != null) {
+                agentMetrics.timeUpstream("mail", "send", () -> {
+                    mailSender.send(batch);
+                    return null;
+                });
+            } else {
+                mailSender.send(batch);
+            }
+        } catch (MailSendException e) {
+            Map<Object, Exception> failedMessages = e.getFailedMessages();
+            SimpleMailMessage[] failed = Arrays.stream(batch).filter(failedMessages::containsKey).toArray(SimpleMailMessage[]::new);
+            if (failed.length == 0 || failed.length == batch.length) throw e;
+            log.warn("{} of {} notification email(s) were refused; only those will be retried", failed.length, batch.length);
+            throw new NotificationDispatcher.PartialDeliveryException(e.getMessage(), e, () -> send(failed));
         }
     }
 
+    private String[] recipients() {
+        if (developerDlEmails == null) return new String[0];
+        return Arrays.stream(developerDlEmails.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toArray(String[]::new);
+    }
+
     public List<String> getDlEmailList() {
         return List.of(developerDlEmails.split(","));
     }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("async", async);
+        m.put("mergeRecipients", mergeRecipients);
+        m.put("recipients", recipients().length);
+        NotificationDispatcher d = dispatcher;
+        if (d != null) m.put("dispatcher", d.getStats());
+        return m;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        NotificationDispatcher d = dispatcher;
+        if (d != null) d.shutdown(shutdownTimeoutMs);
+    }
 }
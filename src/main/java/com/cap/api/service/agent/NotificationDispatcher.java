@@ -0,0 +1,191 @@
+package com.cap.api.service.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends notifications off the caller's thread. Messages go into a bounded queue; one worker
+ * takes the first waiting message, keeps collecting for {@code digestWindowMs} (or until
+ * {@code maxDigest} are held) and hands them to the {@link DigestHandler} as one digest, so a
+ * burst of events becomes one delivery. A failed delivery is retried up to
+ * {@code maxAttempts} times, waiting {@code backoffMs}, then twice as long, and so on; when
+ * the handler reports that part of the digest went out ({@link PartialDeliveryException}),
+ * later attempts only repeat the part that failed.
+ * <p>
+ * When the queue is full, {@link #offer} drops the message rather than block the agent.
+ * {@link #shutdown} stops collecting and delivers what is queued before the timeout.
+ */
+public class NotificationDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(NotificationDispatcher.class);
+    // how often the worker looks at the shutdown flag while waiting
+    private static final long POLL_SLICE_MS = 100;
+
+    /** Delivers one digest; messages are in arrival order. A thrown exception triggers a retry. */
+    @FunctionalInterface
+    public interface DigestHandler {
+        void deliver(List<String> messages) throws Exception;
+    }
+
+    /** One try at sending what is left of a digest. */
+    @FunctionalInterface
+    public interface Attempt {
+        void run() throws Exception;
+    }
+
+    /**
+     * Thrown by a {@link DigestHandler} when only part of a digest was delivered (e.g. one of
+     * several emails was refused). Retries run {@link #remaining} instead of the handler, so
+     * the part that did go out is not sent twice.
+     */
+    public static class PartialDeliveryException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final transient Attempt remaining;
+
+        public PartialDeliveryException(String message, Throwable cause, Attempt remaining) {
+            super(message, cause);
+            this.remaining = remaining;
+        }
+
+        public Attempt remaining() {
+            return remaining;
+        }
+    }
+
+    private final BlockingQueue<String> queue;
+    private final int capacity;
+    private final long digestWindowMs;
+    private final int maxDigest;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final DigestHandler handler;
+    private final Thread worker;
+    private volatile boolean draining;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong digests = new AtomicLong();
+    private final AtomicLong digested = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failedDigests = new AtomicLong();
+    private final AtomicInteger largest = new AtomicInteger();
+
+    public NotificationDispatcher(int capacity, long digestWindowMs, int maxDigest, int maxAttempts, long backoffMs,
+                                  DigestHandler handler) {
+        this.capacity = Math.max(1, capacity);
+        this.queue = new ArrayBlockingQueue<>(this.capacity);
+        this.digestWindowMs = Math.max(0, digestWindowMs);
+        this.maxDigest = Math.max(1, maxDigest);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMs = Math.max(0, backoffMs);
+        this.handler = handler;
+        this.worker = new Thread(this::run, "agent-notify");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /** Queues the message; false when the queue is full or the dispatcher is shutting down. */
+    public boolean offer(String message) {
+        if (draining || !queue.offer(message)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        queued.incrementAndGet();
+        return true;
+    }
+
+    private void run() {
+        try {
+            while (!draining || !queue.isEmpty()) {
+                String first = queue.poll(POLL_SLICE_MS, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                List<String> digest = new ArrayList<>();
+                digest.add(first);
+                long deadline = System.currentTimeMillis() + digestWindowMs;
+                while (digest.size() < maxDigest && !draining) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) break;
+                    String next = queue.poll(Math.min(wait, POLL_SLICE_MS), TimeUnit.MILLISECONDS);
+                    if (next != null) digest.add(next);
+                }
+                queue.drainTo(digest, maxDigest - digest.size());
+                deliver(digest);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deliver(List<String> digest) throws InterruptedException {
+        digests.incrementAndGet();
+        digested.addAndGet(digest.size());
+        largest.accumulateAndGet(digest.size(), Math::max);
+        List<String> messages = List.copyOf(digest);
+        Attempt next = () -> handler.deliver(messages);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                next.run();
+                delivered.addAndGet(digest.size());
+                return;
+            } catch (Exception e) {
+                if (e instanceof PartialDeliveryException partial && partial.remaining() != null) {
+                    next = partial.remaining();
+                }
+                if (attempt >= maxAttempts) {
+                    failedDigests.incrementAndGet();
+                    log.error("Dropping {} notification(s) after {} attempt(s): {}", digest.size(), attempt, e.getMessage());
+                    return;
+                }
+                long wait = backoffMs << (attempt - 1);
+                retries.incrementAndGet();
+                log.warn("Notification delivery failed (attempt {} of {}), retrying in {} ms: {}", attempt, maxAttempts, wait, e.getMessage());
+                Thread.sleep(wait);
+            }
+        }
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    /** Stops accepting messages, sends what is queued without waiting for a window, and stops the worker. */
+    public void shutdown(long timeoutMs) {
+        draining = true;
+        try {
+            worker.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive()) {
+            log.warn("Notifications still being sent after {} ms; abandoning {} queued", timeoutMs, queue.size());
+            worker.interrupt();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long n = digests.get();
+        m.put("capacity", capacity);
+        m.put("digestWindowMs", digestWindowMs);
+        m.put("queueDepth", queue.size());
+        m.put("queued", queued.get());
+        m.put("dropped", dropped.get());
+        m.put("digests", n);
+        m.put("avgMessagesPerDigest", n == 0 ? 0 : (double) digested.get() / n);
+        m.put("largestDigest", largest.get());
+        m.put("delivered", delivered.get());
+        m.put("retries", retries.get());
+        m.put("failedDigests", failedDigests.get());
+        return m;
+    }
+}
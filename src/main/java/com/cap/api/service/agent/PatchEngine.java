@@ -0,0 +1,383 @@
+package com.cap.api.service.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies model-written edits to a source file, so a code fix costs output tokens in
+ * proportion to the change instead of the file. Two formats are understood:
+ * <ul>
+ *   <li>unified diff hunks ({@code @@ -12,5 +12,6 @@} followed by {@code ' '}, {@code '-'}
+ *       and {@code '+'} lines; file headers are ignored),</li>
+ *   <li>search/replace blocks ({@code <<<<<<< SEARCH}, existing lines, {@code =======},
+ *       replacement, {@code >>>>>>> REPLACE}).</li>
+ * </ul>
+ * A hunk's existing lines are looked up exactly at the line the hunk names, then exactly
+ * anywhere after the previous hunk, then ignoring whitespace, then fuzzily: the window of
+ * the file most similar by Myers diff, if at least {@link #MIN_SIMILARITY} of its lines
+ * match and one of the matching lines carries code. Braces and blank lines alone match
+ * between almost any two methods, so they never place a hunk by themselves. Inside the
+ * window the hunk is aligned to the file with Myers diff, so context lines keep the file's
+ * version, file lines the model did not show are kept, and added lines are re-indented to
+ * the file's indentation. Hunks that cannot be placed are reported as conflicts; the caller
+ * decides whether a partly applied patch is usable.
+ */
+public final class PatchEngine {
+    /** Share of a hunk's existing lines that must match for a fuzzy placement. */
+    public static final double MIN_SIMILARITY = 0.75;
+
+    private static final Pattern FENCED = Pattern.compile("```[A-Za-z]*\\s*\\n(.*?)```", Pattern.DOTALL);
+    private static final Pattern HUNK_HEADER = Pattern.compile("^@@\\s*-(\\d+)?(?:,\\d+)?.*?@@");
+    /** Lines that say nothing about where they are: blank, or only brackets and separators. */
+    private static final Pattern TRIVIAL = Pattern.compile("[\\s{}()\\[\\];,]*");
+
+    private PatchEngine() {
+    }
+
+    /** One line of a hunk: ' ' context, '-' removed or '+' added. */
+    public record Line(char op, String text) {}
+
+    /** Edits at one place in the file; {@code oldStart} is 1-based, or 0 when not given. */
+    public record Hunk(int oldStart, List<Line> lines) {
+        List<String> before() {
+            List<String> b = new ArrayList<>();
+            for (Line l : lines) if (l.op() != '+') b.add(l.text());
+            return b;
+        }
+    }
+
+    /** A hunk that was not applied. {@code hunk} is its 1-based position in the patch. */
+    public record Conflict(int hunk, String reason, String firstLine) {
+        @Override
+        public String toString() {
+            return "hunk " + hunk + ": " + reason + (firstLine == null ? "" : " near \"" + firstLine.strip() + "\"");
+        }
+    }
+
+    /** The patched text, how many hunks applied (and how many of those only fuzzily) and the conflicts. */
+    public record Result(String text, int applied, int fuzzy, List<Conflict> conflicts) {
+        public boolean clean() {
+            return conflicts.isEmpty() && applied > 0;
+        }
+    }
+
+    /** Parses unified diff hunks or search/replace blocks out of a model response. */
+    public static List<Hunk> parse(String response) {
+        List<Hunk> hunks = new ArrayList<>();
+        if (response == null) return hunks;
+        StringBuilder body = new StringBuilder();
+        Matcher fenced = FENCED.matcher(response);
+        while (fenced.find()) body.append(fenced.group(1)).append('\n');
+        String text = (body.length() > 0 ? body.toString() : response).replace("\r\n", "\n");
+        return text.contains("<<<<<<< SEARCH") ? parseSearchReplace(text) : parseUnified(text);
+    }
+
+    private static List<Hunk> parseUnified(String text) {
+        List<Hunk> hunks = new ArrayList<>();
+        List<Line> current = null;
+        int start = 0;
+        for (String raw : text.split("\n", -1)) {
+            Matcher header = HUNK_HEADER.matcher(raw);
+            if (header.find()) {
+                addHunk(hunks, start, current);
+                current = new ArrayList<>();
+                start = header.group(1) == null ? 0 : Integer.parseInt(header.group(1));
+            } else if (current != null) {
+                if (raw.startsWith("---") || raw.startsWith("+++") || raw.startsWith("diff ") || raw.startsWith("index ")) {
+                    addHunk(hunks, start, current);
+                    current = null;
+                } else if (raw.startsWith("+") || raw.startsWith("-") || raw.startsWith(" ")) {
+                    current.add(new Line(raw.charAt(0), raw.substring(1)));
+                } else if (raw.isEmpty()) {
+                    // models often drop the leading space of blank context lines
+                    current.add(new Line(' ', ""));
+                } else if (!raw.startsWith("\\")) {
+                    // prose after the hunk
+                    addHunk(hunks, start, current);
+                    current = null;
+                }
+            }
+        }
+        addHunk(hunks, start, current);
+        return hunks;
+    }
+
+    private static void addHunk(List<Hunk> hunks, int start, List<Line> lines) {
+        if (lines == null) return;
+        // trailing blank "context" is usually the gap before the next header, not part of the hunk
+        while (!lines.isEmpty() && lines.get(lines.size() - 1).op() == ' ' && lines.get(lines.size() - 1).text().isBlank()) {
+            lines.remove(lines.size() - 1);
+        }
+        boolean changes = lines.stream().anyMatch(l -> l.op() != ' ');
+        if (changes) hunks.add(new Hunk(start, List.copyOf(lines)));
+    }
+
+    private static List<Hunk> parseSearchReplace(String text) {
+        List<Hunk> hunks = new ArrayList<>();
+        List<String> search = null;
+        List<String> replace = null;
+        for (String raw : text.split("\n", -1)) {
+            String marker = raw.strip();
+            if (marker.startsWith("<<<<<<<") && marker.endsWith("SEARCH")) {
+                search = new ArrayList<>();
+                replace = null;
+            } else if (search != null && replace == null && marker.equals("=======")) {
+                replace = new ArrayList<>();
+            } else if (replace != null && marker.startsWith(">>>>>>>")) {
+                hunks.add(new Hunk(0, searchReplaceLines(search, replace)));
+                search = null;
+                replace = null;
+            } else if (replace != null) {
+                replace.add(raw);
+            } else if (search != null) {
+                search.add(raw);
+            }
+        }
+        return hunks;
+    }
+
+    /** Expresses a search/replace pair as hunk lines, with the lines they share as context. */
+    private static List<Line> searchReplaceLines(List<String> search, List<String> replace) {
+        int[] match = align(normalize(search), normalize(replace));
+        List<Line> lines = new ArrayList<>();
+        int r = 0;
+        for (int s = 0; s < search.size(); s++) {
+            if (match[s] < 0) {
+                lines.add(new Line('-', search.get(s)));
+                continue;
+            }
+            while (r < match[s]) lines.add(new Line('+', replace.get(r++)));
+            lines.add(new Line(' ', search.get(s)));
+            r++;
+        }
+        while (r < replace.size()) lines.add(new Line('+', replace.get(r++)));
+        return lines;
+    }
+
+    /** Applies the hunks in order to {@code original}. */
+    public static Result apply(String original, List<Hunk> hunks) {
+        String newline = original.contains("\r\n") ? "\r\n" : "\n";
+        List<String> file = new ArrayList<>(List.of(original.replace("\r\n", "\n").split("\n", -1)));
+        List<Conflict> conflicts = new ArrayList<>();
+        int applied = 0;
+        int fuzzy = 0;
+        int cursor = 0;
+        int offset = 0;
+        for (int h = 0; h < hunks.size(); h++) {
+            Hunk hunk = hunks.get(h);
+            List<String> before = hunk.before();
+            int hint = hunk.oldStart() > 0 ? hunk.oldStart() - 1 + offset : -1;
+            if (before.isEmpty()) {
+                if (hint < 0 || hint > file.size()) {
+                    conflicts.add(new Conflict(h + 1, "insertion without context or line number", null));
+                    continue;
+                }
+                List<String> added = new ArrayList<>();
+                for (Line l : hunk.lines()) added.add(l.text());
+                file.addAll(hint, added);
+                cursor = hint + added.size();
+                offset += added.size();
+                applied++;
+                continue;
+            }
+            Placement at = locate(file, before, hint, cursor);
+            if (at == null) {
+                conflicts.add(new Conflict(h + 1, "existing lines not found", before.get(0)));
+                continue;
+            }
+            List<String> window = file.subList(at.start, at.start + before.size());
+            List<String> replacement = splice(hunk, before, window, at.fuzzy);
+            int removed = window.size();
+            window.clear();
+            file.addAll(at.start, replacement);
+            cursor = at.start + replacement.size();
+            offset += replacement.size() - removed;
+            applied++;
+            if (at.fuzzy) fuzzy++;
+        }
+        return new Result(String.join(newline, file), applied, fuzzy, List.copyOf(conflicts));
+    }
+
+    private record Placement(int start, boolean fuzzy) {}
+
+    private static Placement locate(List<String> file, List<String> before, int hint, int cursor) {
+        int size = before.size();
+        if (size > file.size()) return null;
+        // 1. exact, where the hunk says it is
+        if (hint >= 0 && hint + size <= file.size() && matches(file, hint, before, false)) return new Placement(hint, false);
+        // 2./3. exact, then ignoring whitespace: closest to the hint, preferring positions after the previous hunk
+        for (boolean loose : new boolean[] {false, true}) {
+            int found = nearest(file, before, hint, cursor, loose);
+            if (found >= 0) return new Placement(found, loose);
+        }
+        // 4. most similar window that shares at least one line of real code with the hunk
+        List<String> normBefore = normalize(before);
+        boolean[] anchor = new boolean[size];
+        boolean anyAnchor = false;
+        for (int i = 0; i < size; i++) {
+            anchor[i] = !TRIVIAL.matcher(normBefore.get(i)).matches();
+            anyAnchor |= anchor[i];
+        }
+        if (!anyAnchor) return null;
+        List<String> normFile = normalize(file);
+        int best = -1;
+        int bestMatched = 0;
+        for (int start = 0; start + size <= file.size(); start++) {
+            int[] match = align(normBefore, normFile.subList(start, start + size));
+            if (!anchored(match, anchor)) continue;
+            int matched = count(match);
+            boolean better = matched > bestMatched || (matched == bestMatched && best >= 0
+                && distance(start, hint, cursor) < distance(best, hint, cursor));
+            if (better) {
+                best = start;
+                bestMatched = matched;
+            }
+        }
+        return best >= 0 && bestMatched >= Math.ceil(MIN_SIMILARITY * size) ? new Placement(best, true) : null;
+    }
+
+    private static int nearest(List<String> file, List<String> before, int hint, int cursor, boolean loose) {
+        int best = -1;
+        for (int start = 0; start + before.size() <= file.size(); start++) {
+            if (matches(file, start, before, loose) && (best < 0 || distance(start, hint, cursor) < distance(best, hint, cursor))) {
+                best = start;
+            }
+        }
+        return best;
+    }
+
+    /** Distance to the hint (or the cursor without one); positions before the cursor rank last. */
+    private static long distance(int start, int hint, int cursor) {
+        long d = Math.abs(start - (hint >= 0 ? hint : cursor));
+        return start < cursor ? d + Integer.MAX_VALUE : d;
+    }
+
+    private static boolean matches(List<String> file, int start, List<String> lines, boolean loose) {
+        for (int i = 0; i < lines.size(); i++) {
+            String a = file.get(start + i);
+            String b = lines.get(i);
+            if (loose ? !normalize(a).equals(normalize(b)) : !a.equals(b)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Rewrites the window: context lines keep the file's text, removed lines are dropped,
+     * added lines are inserted (re-indented), and window lines the hunk does not mention stay.
+     */
+    private static List<String> splice(Hunk hunk, List<String> before, List<String> window, boolean fuzzy) {
+        int[] match = align(normalize(before), normalize(window));
+        String[] indent = fuzzy ? indentShift(before, window, match) : null;
+        List<String> out = new ArrayList<>();
+        int b = 0;
+        int w = 0;
+        for (Line line : hunk.lines()) {
+            if (line.op() == '+') {
+                String text = line.text();
+                if (indent != null && text.startsWith(indent[0])) text = indent[1] + text.substring(indent[0].length());
+                out.add(text);
+                continue;
+            }
+            int at = match[b++];
+            if (at < 0) continue;
+            while (w < at) out.add(window.get(w++));
+            if (line.op() == ' ') out.add(window.get(at));
+            w = at + 1;
+        }
+        while (w < window.size()) out.add(window.get(w++));
+        return out;
+    }
+
+    /** {hunk indent, file indent} of the first aligned non-blank pair whose indentation differs, else null. */
+    private static String[] indentShift(List<String> before, List<String> window, int[] match) {
+        for (int i = 0; i < before.size(); i++) {
+            if (match[i] < 0 || before.get(i).isBlank()) continue;
+            String hunkIndent = leadingWhitespace(before.get(i));
+            String fileIndent = leadingWhitespace(window.get(match[i]));
+            return hunkIndent.equals(fileIndent) ? null : new String[] {hunkIndent, fileIndent};
+        }
+        return null;
+    }
+
+    private static String leadingWhitespace(String s) {
+        int i = 0;
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return s.substring(0, i);
+    }
+
+    private static String normalize(String line) {
+        return line.strip().replaceAll("\\s+", " ");
+    }
+
+    private static List<String> normalize(List<String> lines) {
+        List<String> out = new ArrayList<>(lines.size());
+        for (String l : lines) out.add(normalize(l));
+        return out;
+    }
+
+    private static boolean anchored(int[] match, boolean[] anchor) {
+        for (int i = 0; i < match.length; i++) {
+            if (match[i] >= 0 && anchor[i]) return true;
+        }
+        return false;
+    }
+
+    private static int count(int[] match) {
+        int n = 0;
+        for (int m : match) if (m >= 0) n++;
+        return n;
+    }
+
+    /**
+     * Myers' O(ND) shortest edit script between {@code a} and {@code b}; returns for each
+     * element of {@code a} the index of its matching element in {@code b}, or -1.
+     */
+    static int[] align(List<String> a, List<String> b) {
+        int n = a.size();
+        int m = b.size();
+        int max = n + m;
+        int off = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+        int[] match = new int[n];
+        java.util.Arrays.fill(match, -1);
+        for (int d = 0; d <= max; d++) {
+            trace.add(v.clone());
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[off + k - 1] < v[off + k + 1]) ? v[off + k + 1] : v[off + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a.get(x).equals(b.get(y))) {
+                    x++;
+                    y++;
+                }
+                v[off + k] = x;
+                if (x >= n && y >= m) {
+                    backtrack(trace, off, n, m, match);
+                    return match;
+                }
+            }
+        }
+        return match;
+    }
+
+    private static void backtrack(List<int[]> trace, int off, int x, int y, int[] match) {
+        for (int d = trace.size() - 1; d >= 0 && (x > 0 || y > 0); d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int prevK = k == -d || (k != d && v[off + k - 1] < v[off + k + 1]) ? k + 1 : k - 1;
+            int prevX = v[off + prevK];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                match[x - 1] = y - 1;
+                x--;
+                y--;
+            }
+            if (d > 0) {
+                x = prevX;
+                y = prevY;
+            }
+        }
+    }
+}
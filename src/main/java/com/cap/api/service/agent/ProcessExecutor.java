@@ -0,0 +1,286 @@
+package com.cap.api.service.agent;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs external commands (git) off the caller's thread with a per-command timeout, a cap on
+ * concurrently running processes and bounded diagnostic output.
+ * <p>
+ * {@link #start} returns immediately with a future; cancelling the future or exceeding the
+ * timeout destroys the process and its children (a hung {@code git push} leaves an ssh or
+ * https helper behind). Stdout is kept whole, since callers parse it ({@code git ls-tree -z}
+ * of a large directory runs well past any sensible log size). Stderr, where git writes its
+ * progress, is kept in a ring buffer of {@code agent.process.outputLimitBytes}, and
+ * {@link Result#output()} caps stdout to the same size, so the copy that ends up in logs and
+ * error messages stays bounded.
+ */
+@Component
+public class ProcessExecutor {
+    private static final Logger log = LoggerFactory.getLogger(ProcessExecutor.class);
+    private static final long DESTROY_GRACE_MS = 2000;
+
+    @Value("${agent.process.maxConcurrent:8}")
+    private int maxConcurrent;
+    @Value("${agent.process.defaultTimeoutMs:120000}")
+    private long defaultTimeoutMs;
+    @Value("${agent.process.outputLimitBytes:65536}")
+    private int outputLimitBytes;
+
+    @Autowired(required = false)
+    private AgentMetrics agentMetrics;
+
+    private Semaphore permits;
+    private ExecutorService executor;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * Outcome of one process. {@code exitCode} is -1 when it timed out or could not start.
+     * {@code stdout} is complete; {@code stderr} is its last outputLimitBytes, and
+     * {@code output} is the tail of stdout then stderr, for logs and error messages.
+     */
+    public record Result(List<String> command, int exitCode, String stdout, String stderr, String output, boolean timedOut, long nanos) {
+        public boolean succeeded() {
+            return exitCode == 0 && !timedOut;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(maxConcurrent > 0 ? maxConcurrent : 8, true);
+        AtomicInteger seq = new AtomicInteger();
+        // waiting for the child and pumping its streams is blocking I/O, so threads are cheap and unbounded;
+        // the semaphore bounds how many processes actually run
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "agent-process-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        if (agentMetrics != null) {
+            agentMetrics.gauge("agent.process.running", "External processes currently running", running::get);
+            agentMetrics.gauge("agent.process.waiting", "External processes waiting for a concurrency permit", waiting::get);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    /** Runs the command and waits for it; see {@link #start}. */
+    public Result run(File dir, Map<String, String> env, String stdin, long timeoutMs, String... command) throws InterruptedException {
+        CompletableFuture<Result> future = start(dir, env, stdin, timeoutMs, command);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException re ? re : new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Starts the command once a concurrency permit is free and completes the future when it
+     * exits or is killed. {@code timeoutMs <= 0} uses {@code agent.process.defaultTimeoutMs};
+     * {@code env} is added to this JVM's environment and {@code stdin} (may be null) is
+     * written and closed.
+     */
+    public CompletableFuture<Result> start(File dir, Map<String, String> env, String stdin, long timeoutMs, String... command) {
+        long timeout = timeoutMs > 0 ? timeoutMs : defaultTimeoutMs;
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        waiting.incrementAndGet();
+        executor.execute(() -> {
+            boolean permitted = false;
+            try {
+                permits.acquire();
+                permitted = true;
+                waiting.decrementAndGet();
+                if (future.isDone()) return; // cancelled while waiting
+                running.incrementAndGet();
+                try {
+                    future.complete(execute(dir, env, stdin, timeout, command, future));
+                } finally {
+                    running.decrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                if (permitted) {
+                    permits.release();
+                } else {
+                    waiting.decrementAndGet();
+                }
+            }
+        });
+        return future;
+    }
+
+    private Result execute(File dir, Map<String, String> env, String stdin, long timeoutMs, String[] command,
+                           CompletableFuture<Result> future) throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        ProcessBuilder pb = new ProcessBuilder(command);
+        if (dir != null) pb.directory(dir);
+        if (env != null) pb.environment().putAll(env);
+        Process process = pb.start();
+        // cancel(true) on the caller's future kills the process
+        future.whenComplete((r, t) -> {
+            if (t instanceof CancellationException) {
+                cancelled.incrementAndGet();
+                destroy(process);
+            }
+        });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputRingBuffer err = new OutputRingBuffer(outputLimitBytes);
+        CompletableFuture<Void> outPump = CompletableFuture.runAsync(() -> drain(process.getInputStream(), out), executor);
+        CompletableFuture<Void> errPump = CompletableFuture.runAsync(() -> err.drain(process.getErrorStream()), executor);
+        try (OutputStream in = process.getOutputStream()) {
+            if (stdin != null) in.write(stdin.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // the process exited without reading its input; its exit code tells the rest
+            log.debug("{}: stdin closed early: {}", command[0], e.getMessage());
+        }
+        boolean exited = process.waitFor(timeoutMs, TimeUnit.MILLISECONDS);
+        if (!exited) {
+            timedOut.incrementAndGet();
+            log.warn("{} did not finish within {} ms; killing it", String.join(" ", command), timeoutMs);
+            destroy(process);
+        }
+        // the pumps end once the streams close, which destroy() guarantees
+        try {
+            CompletableFuture.allOf(outPump, errPump).get(DESTROY_GRACE_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.debug("Output of {} not fully drained: {}", command[0], e.getMessage());
+        }
+        completed.incrementAndGet();
+        byte[] stdout;
+        synchronized (out) {
+            stdout = out.toByteArray();
+        }
+        String stderr = err.toString();
+        String stdoutTail = tail(stdout, outputLimitBytes);
+        String output = stderr.isEmpty() ? stdoutTail : stdoutTail.isEmpty() ? stderr : stdoutTail + "\n" + stderr;
+        return new Result(List.of(command), exited ? process.exitValue() : -1, new String(stdout, StandardCharsets.UTF_8), stderr,
+            output, !exited, System.nanoTime() - started);
+    }
+
+    private static void drain(InputStream in, ByteArrayOutputStream sink) {
+        byte[] chunk = new byte[8192];
+        try (in) {
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                synchronized (sink) {
+                    sink.write(chunk, 0, n);
+                }
+            }
+        } catch (IOException e) {
+            // stream closed by destroy()
+        }
+    }
+
+    /** The last {@code limit} bytes, prefixed with how many were dropped before them. */
+    static String tail(byte[] bytes, int limit) {
+        int size = Math.min(bytes.length, Math.max(1, limit));
+        String text = new String(bytes, bytes.length - size, size, StandardCharsets.UTF_8);
+        return bytes.length > size ? "[" + (bytes.length - size) + " bytes dropped]\n" + text : text;
+    }
+
+    private static void destroy(Process process) {
+        process.descendants().forEach(ProcessHandle::destroy);
+        process.destroy();
+        try {
+            if (!process.waitFor(DESTROY_GRACE_MS, TimeUnit.MILLISECONDS)) {
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("maxConcurrent", maxConcurrent);
+        m.put("running", running.get());
+        m.put("waiting", waiting.get());
+        m.put("completed", completed.get());
+        m.put("timedOut", timedOut.get());
+        m.put("cancelled", cancelled.get());
+        return m;
+    }
+
+    /** Keeps the last {@code capacity} bytes written and counts what was dropped before them. */
+    static final class OutputRingBuffer {
+        private final byte[] buf;
+        private long total;
+
+        OutputRingBuffer(int capacity) {
+            buf = new byte[Math.max(1, capacity)];
+        }
+
+        void drain(InputStream in) {
+            byte[] chunk = new byte[8192];
+            try (in) {
+                int n;
+                while ((n = in.read(chunk)) > 0) write(chunk, n);
+            } catch (IOException e) {
+                // stream closed by destroy()
+            }
+        }
+
+        synchronized void write(byte[] b, int len) {
+            int off = 0;
+            if (len > buf.length) {
+                off = len - buf.length;
+                total += off;
+                len = buf.length;
+            }
+            for (int i = 0; i < len; i++) {
+                buf[(int) (total++ % buf.length)] = b[off + i];
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            int size = (int) Math.min(total, buf.length);
+            byte[] tail = new byte[size];
+            int start = (int) ((total - size) % buf.length);
+            for (int i = 0; i < size; i++) tail[i] = buf[(start + i) % buf.length];
+            String text = new String(tail, StandardCharsets.UTF_8);
+            return total > size ? "[" + (total - size) + " bytes dropped]\n" + text : text;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.cap.api.service.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Processed-issue log: one {@code <issueKey>:<yyyyMMdd>} line appended per ticket.
+ * <ul>
+ *   <li>Appends go to a channel that stays open; fsync happens every {@code fsyncEvery}
+ *       appends or every {@code fsyncIntervalMs}, whichever comes first.</li>
+ *   <li>Entries older than {@code ttlDays} are dropped on load and by compaction, which
+ *       rewrites only the live entries and atomically swaps the file in.</li>
+ *   <li>A torn last line (a crash mid-append) is dropped on load, and the file is rewritten
+ *       so the next append does not continue it.</li>
+ * </ul>
+ * Memory and startup cost are therefore bounded by the tickets seen within the TTL.
+ */
+public class ProcessedIssueStore {
+    private static final Logger log = LoggerFactory.getLogger(ProcessedIssueStore.class);
+    private static final DateTimeFormatter DAY = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final Pattern ENTRY = Pattern.compile(".+:\\d{8}");
+
+    private final Path file;
+    private final int ttlDays;
+    private final int fsyncEvery;
+    private final Set<String> entries = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService maintenance;
+    private FileChannel channel;
+    private int unsynced;
+    private long logLines;
+
+    public ProcessedIssueStore(Path file, int ttlDays, int fsyncEvery, long fsyncIntervalMs, long compactIntervalMs) {
+        this.file = file;
+        this.ttlDays = Math.max(1, ttlDays);
+        this.fsyncEvery = Math.max(1, fsyncEvery);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "processed-issues-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        if (fsyncIntervalMs > 0) {
+            maintenance.scheduleWithFixedDelay(this::sync, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        if (compactIntervalMs > 0) {
+            maintenance.scheduleWithFixedDelay(this::compactIfNeeded, compactIntervalMs, compactIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reads the log, keeping only entries inside the TTL, and compacts it if it carried
+     * expired, duplicate or malformed lines or does not end with a newline.
+     */
+    public synchronized void load() {
+        entries.clear();
+        logLines = 0;
+        String cutoff = cutoff();
+        boolean torn = false;
+        if (Files.exists(file)) {
+            try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    logLines++;
+                    line = line.trim();
+                    if (!line.isEmpty() && isLive(line, cutoff)) entries.add(line);
+                }
+                torn = !endsWithNewline();
+            } catch (IOException e) {
+                log.warn("Could not load processed issues: {}", e.getMessage());
+            }
+        }
+        if (logLines > entries.size() || torn) {
+            compact();
+        }
+        log.info("Loaded {} processed issue(s) from {} line(s) in {}", entries.size(), logLines, file);
+    }
+
+    public boolean contains(String issueKey, LocalDate day) {
+        return entries.contains(issueKey + ":" + day.format(DAY));
+    }
+
+    /**
+     * Records a processed ticket with a single append; O(1) regardless of history.
+     */
+    public synchronized void add(String issueKey, LocalDate day) {
+        String entry = issueKey + ":" + day.format(DAY);
+        if (!entries.add(entry)) return;
+        try {
+            FileChannel ch = channel();
+            ByteBuffer buf = ByteBuffer.wrap((entry + "\n").getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) ch.write(buf);
+            logLines++;
+            if (++unsynced >= fsyncEvery) {
+                ch.force(false);
+                unsynced = 0;
+            }
+        } catch (IOException e) {
+            log.warn("Could not persist processed issue {}: {}", issueKey, e.getMessage());
+        }
+    }
+
+    public synchronized void sync() {
+        if (channel == null || unsynced == 0) return;
+        try {
+            channel.force(false);
+            unsynced = 0;
+        } catch (IOException e) {
+            log.warn("Could not fsync {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Compacts when entries have expired or the log is more than twice the live set.
+     */
+    public synchronized void compactIfNeeded() {
+        String cutoff = cutoff();
+        boolean expired = entries.removeIf(e -> !isLive(e, cutoff));
+        if (expired || logLines > 2L * entries.size() + 100) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        Path tmp = file.resolveSibling(file.getFileName() + ".compact");
+        try {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            closeChannel();
+            Files.write(tmp, entries, StandardCharsets.UTF_8);
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Compacted {} from {} to {} line(s)", file, logLines, entries.size());
+            logLines = entries.size();
+        } catch (IOException e) {
+            log.warn("Could not compact {}: {}", file, e.getMessage());
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            if (unsynced > 0) channel.force(false);
+            channel.close();
+            channel = null;
+            unsynced = 0;
+        }
+    }
+
+    private boolean endsWithNewline() throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() == 0) return true;
+            ByteBuffer last = ByteBuffer.allocate(1);
+            ch.read(last, ch.size() - 1);
+            return last.get(0) == '\n';
+        }
+    }
+
+    private String cutoff() {
+        return LocalDate.now().minusDays(ttlDays).format(DAY);
+    }
+
+    private static boolean isLive(String entry, String cutoff) {
+        if (!ENTRY.matcher(entry).matches()) return false;
+        int idx = entry.lastIndexOf(':');
+        // yyyyMMdd compares correctly as a string
+        return entry.substring(idx + 1).compareTo(cutoff) > 0;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public synchronized void close() {
+        maintenance.shutdownNow();
+        try {
+            closeChannel();
+        } catch (IOException e) {
+            log.warn("Could not close {}: {}", file, e.getMessage());
+        }
+    }
+}
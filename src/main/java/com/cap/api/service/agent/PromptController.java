@@ -1,29 +1,117 @@
 package com.cap.api.service.agent;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
 @Component
 @RestController
 @RequestMapping("/api/prompt")
 public class PromptController {
-    private String customPrompt = null;
+    // Prompt for whichever ticket fixBugs takes next; taken atomically so two tickets cannot both use it
+    private final AtomicReference<String> nextPrompt = new AtomicReference<>();
+    // Prompts for specific tickets, consumed when that ticket is processed
+    private final Map<String, String> issuePrompts = new ConcurrentHashMap<>();
+
+    @Autowired
+    private PromptTemplateRegistry templates;
 
+    /**
+     * Sets the prompt used instead of the ticket text. With issueKey it applies to that ticket
+     * only; without it, to the next ticket processed.
+     */
     @PostMapping
-    public ResponseEntity<String> setPrompt(@RequestBody String prompt) {
-        this.customPrompt = prompt;
+    public ResponseEntity<String> setPrompt(@RequestBody String prompt, @RequestParam(required = false) String issueKey) {
+        if (issueKey != null && !issueKey.isBlank()) {
+            issuePrompts.put(issueKey.trim(), prompt);
+            return ResponseEntity.ok("Prompt updated for " + issueKey.trim());
+        }
+        nextPrompt.set(prompt);
         return ResponseEntity.ok("Prompt updated");
     }
 
     @GetMapping
-    public ResponseEntity<String> getPrompt() {
-        return ResponseEntity.ok(customPrompt == null ? "" : customPrompt);
+    public ResponseEntity<String> getPrompt(@RequestParam(required = false) String issueKey) {
+        String p = issueKey != null && !issueKey.isBlank() ? issuePrompts.get(issueKey.trim()) : nextPrompt.get();
+        return ResponseEntity.ok(p == null ? "" : p);
     }
 
     public String consumePrompt() {
-        String p = customPrompt;
-        customPrompt = null;
-        return p;
+        return nextPrompt.getAndSet(null);
+    }
+
+    /** The ticket's own prompt if one was set, else the next-ticket prompt. */
+    public String consumePrompt(String issueKey) {
+        String p = issueKey == null ? null : issuePrompts.remove(issueKey);
+        return p != null ? p : consumePrompt();
+    }
+
+    /**
+     * Active prompt templates per task and scope, plus the shared prefix.
+     * Example: GET /api/prompt/templates
+     */
+    @GetMapping("/templates")
+    public ResponseEntity<Map<String, Object>> templates() {
+        return ResponseEntity.ok(templates.snapshot());
+    }
+
+    /**
+     * All versions of a task's template for a scope (default, project key or issue key).
+     * Example: GET /api/prompt/templates/code_fix?scope=SCRUM
+     */
+    @GetMapping("/templates/{task}")
+    public ResponseEntity<?> templateVersions(@PathVariable String task, @RequestParam(required = false) String scope) {
+        LlmTask t = task(task);
+        if (t == null) return ResponseEntity.badRequest().body("Unknown task: " + task);
+        return ResponseEntity.ok(templates.versions(t, scope).stream().map(PromptTemplateRegistry.PromptTemplate::describe).toList());
+    }
+
+    /**
+     * Registers a new template version. {{issueKey}}, {{project}} and {{task}} are filled in per call.
+     * Example: PUT /api/prompt/templates/suggest?scope=SCRUM-615
+     */
+    @PutMapping("/templates/{task}")
+    public ResponseEntity<?> putTemplate(@PathVariable String task, @RequestParam(required = false) String scope, @RequestBody String template) {
+        LlmTask t = task(task);
+        if (t == null) return ResponseEntity.badRequest().body("Unknown task: " + task);
+        try {
+            return ResponseEntity.ok(templates.register(t, scope, template).describe());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /** Reactivates an earlier version as the newest one. */
+    @PostMapping("/templates/{task}/rollback")
+    public ResponseEntity<?> rollbackTemplate(@PathVariable String task, @RequestParam(required = false) String scope, @RequestParam int version) {
+        LlmTask t = task(task);
+        if (t == null) return ResponseEntity.badRequest().body("Unknown task: " + task);
+        try {
+            return ResponseEntity.ok(templates.rollback(t, scope, version).describe());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /** Removes a project or issue override so the next broader scope applies again. */
+    @DeleteMapping("/templates/{task}")
+    public ResponseEntity<String> deleteTemplate(@PathVariable String task, @RequestParam String scope) {
+        LlmTask t = task(task);
+        if (t == null) return ResponseEntity.badRequest().body("Unknown task: " + task);
+        return templates.remove(t, scope) ? ResponseEntity.ok("Removed " + t.name().toLowerCase() + " template for " + scope)
+            : ResponseEntity.notFound().build();
+    }
+
+    private static LlmTask task(String name) {
+        try {
+            return LlmTask.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 }
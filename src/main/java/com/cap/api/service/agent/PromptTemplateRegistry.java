@@ -0,0 +1,229 @@
+package com.cap.api.service.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Versioned prompt templates per {@link LlmTask}, with optional overrides per Jira project
+ * ({@code SCRUM}) or issue ({@code SCRUM-615}). The most specific scope wins: issue, then
+ * project, then the built-in default.
+ * <p>
+ * Templates are parsed once when registered; {@code {{issueKey}}}, {@code {{project}}} and
+ * {@code {{task}}} placeholders are filled in on render. A chat request is laid out as
+ * <ol>
+ *   <li>{@link #SHARED_PREFIX}: identical for every task and ticket,</li>
+ *   <li>the ticket and retrieved source: identical for every task of one ticket,</li>
+ *   <li>the task instructions rendered from the template,</li>
+ * </ol>
+ * so the calls for one ticket share everything up to the task instructions. The shared
+ * prefix alone is far below the 1024 tokens the provider needs before it caches a prompt;
+ * only a ticket with enough retrieved source pushes the common part past that, and then
+ * its second and later calls may be served partly from cache.
+ */
+@Component
+public class PromptTemplateRegistry {
+    private static final Logger log = LoggerFactory.getLogger(PromptTemplateRegistry.class);
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\{\\s*(issueKey|project|task)\\s*}}");
+
+    public static final String DEFAULT_SCOPE = "*";
+
+    /** First system message of every request; keep it byte-for-byte stable so it never breaks a shared prefix. */
+    public static final String SHARED_PREFIX = "You are an expert Java developer working on defects reported in Jira against a Spring Boot service. "
+        + "Tickets arrive as pipe-separated fields: key|summary|status|description, sometimes followed by linked Confluence pages and ticket comments. "
+        + "Repository source retrieved for the ticket follows the ticket text; when it is included, base your answer on that code rather than inventing new classes. "
+        + "The task to perform is given after the ticket.";
+
+    private static final Map<LlmTask, String> DEFAULTS = new EnumMap<>(Map.of(
+        LlmTask.SUMMARIZE, "Summarize the defect or ticket description above in 1-2 concise lines, focusing on the main technical problem and context only. "
+            + "Do not include greetings or extra commentary.",
+        LlmTask.SUGGEST, "Suggest a code fix for the defect described above. Return only the code suggestion and a brief rationale.",
+        LlmTask.CODE_FIX, "Generate a code fix (Java code only) that resolves the defect described above. "
+            + "When repository source is included, change that code rather than inventing new classes. Return only the code block, no explanation.",
+        LlmTask.CODE_PATCH, "Fix the defect described above by editing the source file included above. "
+            + "Return only the changed parts as unified diff hunks (an @@ -line,count +line,count @@ header, then lines starting with ' ' for unchanged context, "
+            + "'-' for removed and '+' for added lines, with 2-3 context lines around each change), or as blocks of "
+            + "<<<<<<< SEARCH, the exact existing lines, =======, the replacement lines, >>>>>>> REPLACE. "
+            + "Put all hunks in one diff code block. Do not repeat unchanged parts of the file and do not explain.",
+        LlmTask.COMBINED, "For the defect or ticket description above, respond with a single JSON object "
+            + "with exactly these string members: \"summary\" (1-2 concise lines on the main technical problem), "
+            + "\"rationale\" (a brief explanation of the suggested fix) and \"codeFix\" (Java code only that resolves the issue). "
+            + "When repository source is included, base the fix on that code. "
+            + "Do not include any text outside the JSON object."));
+
+    /** A template parsed into literal and placeholder segments. */
+    public static final class PromptTemplate {
+        private final LlmTask task;
+        private final String scope;
+        private final int version;
+        private final String source;
+        private final long createdAt;
+        // even indexes are literals, odd indexes placeholder names
+        private final List<String> segments = new ArrayList<>();
+
+        PromptTemplate(LlmTask task, String scope, int version, String source) {
+            this.task = task;
+            this.scope = scope;
+            this.version = version;
+            this.source = source;
+            this.createdAt = System.currentTimeMillis();
+            Matcher m = PLACEHOLDER.matcher(source);
+            int last = 0;
+            while (m.find()) {
+                segments.add(source.substring(last, m.start()));
+                segments.add(m.group(1));
+                last = m.end();
+            }
+            segments.add(source.substring(last));
+        }
+
+        public LlmTask getTask() { return task; }
+        public String getScope() { return scope; }
+        public int getVersion() { return version; }
+        public String getSource() { return source; }
+        public long getCreatedAt() { return createdAt; }
+
+        /** Template id for logs, e.g. {@code code_fix@SCRUM#2}. */
+        public String id() {
+            return task.name().toLowerCase() + "@" + scope + "#" + version;
+        }
+
+        String render(String issueKey, String project) {
+            if (segments.size() == 1) return segments.get(0);
+            StringBuilder sb = new StringBuilder(source.length() + 32);
+            for (int i = 0; i < segments.size(); i++) {
+                String s = segments.get(i);
+                if (i % 2 == 0) {
+                    sb.append(s);
+                } else {
+                    sb.append(switch (s) {
+                        case "issueKey" -> issueKey == null ? "" : issueKey;
+                        case "project" -> project == null ? "" : project;
+                        default -> task.name().toLowerCase();
+                    });
+                }
+            }
+            return sb.toString();
+        }
+
+        public Map<String, Object> describe() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", id());
+            m.put("task", task.name());
+            m.put("scope", scope);
+            m.put("version", version);
+            m.put("createdAt", createdAt);
+            m.put("template", source);
+            return m;
+        }
+    }
+
+    // "<task>|<scope>" -> versions, oldest first; the last entry is active
+    private final Map<String, List<PromptTemplate>> templates = new ConcurrentHashMap<>();
+
+    public PromptTemplateRegistry() {
+        DEFAULTS.forEach((task, source) -> register(task, DEFAULT_SCOPE, source));
+    }
+
+    /**
+     * Adds a new version of the task's template for {@code scope}: {@link #DEFAULT_SCOPE}, a
+     * project key or an issue key. Returns the registered template.
+     */
+    public PromptTemplate register(LlmTask task, String scope, String source) {
+        if (source == null || source.isBlank()) {
+            throw new IllegalArgumentException("Prompt template must not be blank");
+        }
+        String normalized = normalizeScope(scope);
+        PromptTemplate[] registered = new PromptTemplate[1];
+        templates.compute(key(task, normalized), (k, versions) -> {
+            List<PromptTemplate> next = versions == null ? new ArrayList<>() : new ArrayList<>(versions);
+            registered[0] = new PromptTemplate(task, normalized, next.size() + 1, source.trim());
+            next.add(registered[0]);
+            return List.copyOf(next);
+        });
+        log.info("Registered prompt template {}", registered[0].id());
+        return registered[0];
+    }
+
+    /**
+     * Drops the override for {@code scope} with all its versions. The built-in defaults can
+     * only be superseded by a newer version, not removed.
+     */
+    public boolean remove(LlmTask task, String scope) {
+        String normalized = normalizeScope(scope);
+        if (DEFAULT_SCOPE.equals(normalized)) return false;
+        return templates.remove(key(task, normalized)) != null;
+    }
+
+    /** Makes an earlier version active again by registering its text as the newest version. */
+    public PromptTemplate rollback(LlmTask task, String scope, int version) {
+        for (PromptTemplate t : versions(task, scope)) {
+            if (t.getVersion() == version) return register(task, scope, t.getSource());
+        }
+        throw new IllegalArgumentException("No version " + version + " of " + task + " for scope " + normalizeScope(scope));
+    }
+
+    public List<PromptTemplate> versions(LlmTask task, String scope) {
+        return templates.getOrDefault(key(task, normalizeScope(scope)), List.of());
+    }
+
+    /** The active template for the ticket: issue override, project override or default. */
+    public PromptTemplate resolve(LlmTask task, String issueKey) {
+        List<PromptTemplate> versions = null;
+        if (issueKey != null) {
+            versions = templates.get(key(task, issueKey));
+            String project = project(issueKey);
+            if (versions == null && project != null) versions = templates.get(key(task, project));
+        }
+        if (versions == null) versions = templates.get(key(task, DEFAULT_SCOPE));
+        return versions.get(versions.size() - 1);
+    }
+
+    /** Task instructions for the ticket, sent after the ticket text. */
+    public String instructions(LlmTask task, String issueKey) {
+        return resolve(task, issueKey).render(issueKey, project(issueKey));
+    }
+
+    /** Active templates by task and scope. */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("sharedPrefix", SHARED_PREFIX);
+        List<Map<String, Object>> active = new ArrayList<>();
+        templates.values().forEach(versions -> {
+            Map<String, Object> m = versions.get(versions.size() - 1).describe();
+            m.put("versions", versions.size());
+            active.add(m);
+        });
+        active.sort((a, b) -> String.valueOf(a.get("id")).compareTo(String.valueOf(b.get("id"))));
+        out.put("templates", active);
+        return out;
+    }
+
+    /** Default instructions, for callers running without the Spring context. */
+    static String defaultInstructions(LlmTask task) {
+        return DEFAULTS.get(task);
+    }
+
+    static String project(String issueKey) {
+        if (issueKey == null) return null;
+        int dash = issueKey.indexOf('-');
+        return dash > 0 ? issueKey.substring(0, dash) : null;
+    }
+
+    private static String normalizeScope(String scope) {
+        return scope == null || scope.isBlank() ? DEFAULT_SCOPE : scope.trim().toUpperCase();
+    }
+
+    private static String key(LlmTask task, String scope) {
+        return task.name() + "|" + scope;
+    }
+}
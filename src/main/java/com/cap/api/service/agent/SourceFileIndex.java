@@ -0,0 +1,339 @@
+package com.cap.api.service.agent;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class name / FQN to source path index over {@code agent.sources.root}. Built once at
+ * startup by a parallel directory walk, then kept current by a {@link WatchService} so
+ * resolving a class is a map lookup instead of a tree walk per ticket. Simple names that
+ * map to several files are reported as ambiguous rather than silently picking one.
+ */
+@Component
+public class SourceFileIndex {
+    private static final Logger log = LoggerFactory.getLogger(SourceFileIndex.class);
+    private static final Pattern TYPE_NAME = Pattern.compile("\\b[A-Z][A-Za-z0-9_]*");
+
+    @Value("${agent.sources.root:src/main/java}")
+    private String sourceRoot;
+    @Value("${agent.sources.watch:true}")
+    private boolean watch;
+
+    /** Outcome of a lookup: the chosen path (null if none or ambiguous) and every candidate. */
+    public record Resolution(Path path, List<Path> candidates) {
+        public boolean isAmbiguous() {
+            return path == null && candidates.size() > 1;
+        }
+    }
+
+    private Path root;
+    private final Map<String, Set<Path>> bySimpleName = new ConcurrentHashMap<>();
+    private final Map<String, Path> byFqn = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final List<Consumer<Path>> listeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+    private Thread watcher;
+
+    @PostConstruct
+    public void start() {
+        root = Path.of(sourceRoot).toAbsolutePath().normalize();
+        if (watch) {
+            try {
+                watchService = root.getFileSystem().newWatchService();
+            } catch (IOException e) {
+                log.warn("WatchService unavailable; source index will not follow changes: {}", e.getMessage());
+            }
+        }
+        rebuild();
+        if (watchService != null) {
+            watcher = new Thread(this::watchLoop, "source-index-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    /**
+     * Registers a callback invoked with the changed path after each file create/modify/delete.
+     */
+    public void addListener(Consumer<Path> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Resolves a simple class name or a fully-qualified name. For a simple name with several
+     * files, {@code packageHint} (e.g. the package declared in an LLM code fix) picks one.
+     */
+    public Resolution resolve(String className, String packageHint) {
+        if (className == null || className.isBlank()) return new Resolution(null, List.of());
+        Path exact = byFqn.get(className);
+        if (exact != null) return new Resolution(exact, List.of(exact));
+        if (packageHint != null && !packageHint.isBlank()) {
+            Path hinted = byFqn.get(packageHint + "." + className);
+            if (hinted != null) return new Resolution(hinted, List.of(hinted));
+        }
+        Set<Path> paths = bySimpleName.get(className);
+        if (paths == null || paths.isEmpty()) return new Resolution(null, List.of());
+        List<Path> candidates = new ArrayList<>(paths);
+        return new Resolution(candidates.size() == 1 ? candidates.get(0) : null, candidates);
+    }
+
+    /**
+     * Returns the indexed class that {@code text} (e.g. a bug report) is about, or null when it
+     * names none or several unrelated ones. Only capitalised identifiers count, matched
+     * case-sensitively; a single-word name such as {@code Claim} is ignored at the start of a
+     * sentence, where it is more likely English than a type. When the mentions nest, as in
+     * "Claim submission fails in ClaimService", the longest one wins.
+     */
+    public String findMentionedClass(String text) {
+        if (text == null) return null;
+        Set<String> mentioned = new LinkedHashSet<>();
+        Matcher m = TYPE_NAME.matcher(text);
+        while (m.find()) {
+            String word = m.group();
+            if (!bySimpleName.containsKey(word)) continue;
+            if (!isCamelCase(word) && startsSentence(text, m.start())) continue;
+            mentioned.add(word);
+        }
+        String best = null;
+        for (String name : mentioned) {
+            if (best == null || name.length() > best.length()) best = name;
+        }
+        if (best == null) return null;
+        for (String name : mentioned) {
+            if (!best.contains(name)) {
+                log.debug("Text names several classes {}; not picking one", mentioned);
+                return null;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isCamelCase(String word) {
+        for (int i = 1; i < word.length(); i++) {
+            if (Character.isUpperCase(word.charAt(i))) return true;
+        }
+        return false;
+    }
+
+    /** True at the start of the text or after a sentence end or a {@code key|summary|...} separator. */
+    private static boolean startsSentence(String text, int index) {
+        for (int i = index - 1; i >= 0; i--) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) continue;
+            return c == '.' || c == '!' || c == '?' || c == ':' || c == '|';
+        }
+        return true;
+    }
+
+    /** Simple names that map to more than one file, with their paths. */
+    public Map<String, List<Path>> getAmbiguities() {
+        Map<String, List<Path>> out = new TreeMap<>();
+        bySimpleName.forEach((name, paths) -> {
+            if (paths.size() > 1) out.put(name, new ArrayList<>(paths));
+        });
+        return out;
+    }
+
+    /**
+     * Drops and rebuilds the whole index; also used when the watcher overflows.
+     */
+    public synchronized void rebuild() {
+        long started = System.currentTimeMillis();
+        bySimpleName.clear();
+        byFqn.clear();
+        if (!Files.isDirectory(root)) {
+            log.warn("Source root {} does not exist; class index is empty", root);
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(new DirectoryScan(root));
+        int ambiguous = getAmbiguities().size();
+        log.info("Indexed {} source file(s) under {} in {} ms ({} ambiguous simple name(s))",
+            byFqn.size(), root, System.currentTimeMillis() - started, ambiguous);
+    }
+
+    /** Lists one directory, indexes its .java files and forks a task per subdirectory. */
+    private final class DirectoryScan extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path dir;
+
+        DirectoryScan(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            register(dir);
+            List<DirectoryScan> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path p : entries) {
+                    if (Files.isDirectory(p)) {
+                        subtasks.add(new DirectoryScan(p));
+                    } else if (p.getFileName().toString().endsWith(".java")) {
+                        add(p);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Could not list {}: {}", dir, e.getMessage());
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    private void add(Path file) {
+        String simple = simpleName(file);
+        bySimpleName.computeIfAbsent(simple, k -> ConcurrentHashMap.newKeySet()).add(file);
+        byFqn.put(fqn(file), file);
+    }
+
+    private void remove(Path file) {
+        String simple = simpleName(file);
+        Set<Path> paths = bySimpleName.get(simple);
+        if (paths != null) {
+            paths.remove(file);
+            if (paths.isEmpty()) {
+                bySimpleName.remove(simple);
+            }
+        }
+        byFqn.remove(fqn(file));
+    }
+
+    private void removeUnder(Path dir) {
+        List<Path> gone = new ArrayList<>();
+        byFqn.values().forEach(p -> {
+            if (p.startsWith(dir)) gone.add(p);
+        });
+        gone.forEach(this::remove);
+    }
+
+    private static String simpleName(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - ".java".length());
+    }
+
+    /** Package from the directory layout, which is what javac requires for public classes. */
+    private String fqn(Path file) {
+        String rel = root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), ".");
+        return rel.substring(0, rel.length() - ".java".length());
+    }
+
+    private void register(Path dir) {
+        if (watchService == null) return;
+        try {
+            WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirs.put(key, dir);
+        } catch (IOException e) {
+            log.warn("Could not watch {}: {}", dir, e.getMessage());
+        }
+    }
+
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = watchedDirs.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                try {
+                    handle(dir, event);
+                } catch (Exception e) {
+                    log.warn("Source index update failed: {}", e.getMessage());
+                }
+            }
+            if (!key.reset()) {
+                watchedDirs.remove(key);
+            }
+        }
+    }
+
+    private void handle(Path dir, WatchEvent<?> event) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+            log.info("Source watcher overflowed; rebuilding class index");
+            rebuild();
+            notifyListeners(root);
+            return;
+        }
+        Path path = dir.resolve((Path) event.context());
+        boolean javaFile = path.getFileName().toString().endsWith(".java");
+        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+            if (Files.isDirectory(path)) {
+                // a new package directory may already contain files (e.g. a checkout or move)
+                ForkJoinPool.commonPool().invoke(new DirectoryScan(path));
+            } else if (javaFile) {
+                add(path);
+            }
+        } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+            if (javaFile) remove(path);
+            else removeUnder(path);
+        } else if (!javaFile) {
+            return;
+        }
+        notifyListeners(path);
+    }
+
+    private void notifyListeners(Path path) {
+        for (Consumer<Path> l : listeners) {
+            try {
+                l.accept(path);
+            } catch (Exception e) {
+                log.warn("Source index listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("root", String.valueOf(root));
+        m.put("files", byFqn.size());
+        m.put("simpleNames", bySimpleName.size());
+        m.put("watching", watchService != null);
+        m.put("watchedDirectories", watchedDirs.size());
+        Map<String, List<String>> ambiguous = new TreeMap<>();
+        getAmbiguities().forEach((k, v) -> ambiguous.put(k, v.stream().map(Path::toString).toList()));
+        m.put("ambiguous", ambiguous);
+        return m;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("Could not close watch service: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.cap.api.service.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Orders tickets in front of the {@link DefectPipeline} by Jira priority and age, and hands
+ * the next one over only when the pipeline has room, so a Blocker does not sit behind a burst
+ * of Trivial tickets in the LLM stage's FIFO queue.
+ * <p>
+ * Each ticket's sort key is {@code rank * agingMs + queuedAt}, where rank is 0 (Blocker/Highest)
+ * to 4 (Trivial/Lowest). Every {@code agingMs} spent waiting here therefore promotes a ticket
+ * by one priority level, up to the top one, which bounds starvation; the key never changes
+ * while it waits. Age is counted from queuing, not from Jira creation: a backlog of old Trivial
+ * tickets picked up after a restart or a reconciliation poll must not start at the top level
+ * ahead of a new Blocker. Within a key, the ticket created earlier in Jira goes first.
+ * Tickets are kept per project; the dispatcher picks the project whose head is in the best
+ * aged priority level and breaks ties round-robin, so one busy project cannot crowd out the
+ * others.
+ */
+public class TicketScheduler {
+    private static final Logger log = LoggerFactory.getLogger(TicketScheduler.class);
+    private static final int WAIT_SAMPLES = 256;
+    private static final String[] RANK_NAMES = {"highest", "high", "medium", "low", "lowest"};
+    private static final DateTimeFormatter JIRA_TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+    private static final class Entry {
+        final DefectPipeline.Ticket ticket;
+        final String project;
+        final int rank;
+        final String priority;
+        final long key;
+        final long createdAt;
+
+        Entry(DefectPipeline.Ticket ticket, String project, int rank, String priority, long queuedAt, long createdAt, long agingMs) {
+            this.ticket = ticket;
+            this.project = project;
+            this.rank = rank;
+            this.priority = priority;
+            this.key = rank * agingMs + queuedAt;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator.<Entry>comparingLong(e -> e.key)
+        .thenComparingLong(e -> e.createdAt)
+        .thenComparing(e -> e.ticket.getIssueKey());
+
+    private final long agingMs;
+    private final int capacity;
+    private final long pollMs;
+    private final Consumer<DefectPipeline.Ticket> dispatcher;
+    private final BooleanSupplier hasRoom;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final Map<String, PriorityQueue<Entry>> byProject = new TreeMap<>();
+    private final Map<String, Long> lastDispatchByProject = new HashMap<>();
+    private final Set<String> queuedKeys = ConcurrentHashMap.newKeySet();
+    private final long[][] waitSamples = new long[RANK_NAMES.length][WAIT_SAMPLES];
+    private final long[] waitCounts = new long[RANK_NAMES.length];
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private int size;
+    private int dispatching;
+    private long dispatchSeq;
+    private volatile boolean running = true;
+    private final Thread thread;
+
+    /**
+     * @param dispatcher receives each ticket in scheduling order; it owns any failure handling
+     * @param hasRoom    whether the pipeline can take another ticket right now
+     */
+    public TicketScheduler(long agingMs, int capacity, long pollMs, Consumer<DefectPipeline.Ticket> dispatcher, BooleanSupplier hasRoom) {
+        this.agingMs = Math.max(1, agingMs);
+        this.capacity = Math.max(1, capacity);
+        this.pollMs = Math.max(10, pollMs);
+        this.dispatcher = dispatcher;
+        this.hasRoom = hasRoom;
+        this.thread = new Thread(this::dispatchLoop, "agent-scheduler");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Maps a Jira priority name to a rank: 0 for Blocker/Highest down to 4 for Trivial/Lowest.
+     * Unknown or missing priorities rank as Medium.
+     */
+    public static int rank(String priority) {
+        if (priority == null) return 2;
+        return switch (priority.trim().toLowerCase()) {
+            case "blocker", "highest", "p0" -> 0;
+            case "critical", "high", "p1" -> 1;
+            case "minor", "low", "p3" -> 3;
+            case "trivial", "lowest", "p4" -> 4;
+            default -> 2;
+        };
+    }
+
+    /** Epoch millis of a Jira timestamp such as {@code 2024-05-01T09:30:00.000+0000}, or 0. */
+    public static long parseJiraTimestamp(String created) {
+        if (created == null || created.isBlank()) return 0;
+        try {
+            return OffsetDateTime.parse(created, JIRA_TIMESTAMP).toInstant().toEpochMilli();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Queues a ticket. {@code createdAt} (Jira creation time, 0 if unknown) only breaks ties
+     * between tickets with the same key. Returns false if it is already queued, the scheduler
+     * is full or it has been shut down.
+     */
+    public boolean offer(DefectPipeline.Ticket ticket, String priority, long createdAt) {
+        String issueKey = ticket.getIssueKey();
+        if (!running || !queuedKeys.add(issueKey)) return false;
+        long now = System.currentTimeMillis();
+        long created = createdAt > 0 ? Math.min(createdAt, now) : now;
+        int dash = issueKey.indexOf('-');
+        String project = dash > 0 ? issueKey.substring(0, dash) : issueKey;
+        Entry entry = new Entry(ticket, project, rank(priority), priority == null || priority.isBlank() ? "Medium" : priority, now, created, agingMs);
+        lock.lock();
+        try {
+            if (size >= capacity) {
+                queuedKeys.remove(issueKey);
+                rejected.incrementAndGet();
+                log.warn("Ticket scheduler full ({} waiting); not queuing {}", size, issueKey);
+                return false;
+            }
+            byProject.computeIfAbsent(project, p -> new PriorityQueue<>(ORDER)).add(entry);
+            size++;
+            offered.incrementAndGet();
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /** Tickets waiting to be dispatched. */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean contains(String issueKey) {
+        return queuedKeys.contains(issueKey);
+    }
+
+    /** Nudges the dispatcher, e.g. when a pipeline worker has freed up. */
+    public void wakeUp() {
+        lock.lock();
+        try {
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            Entry next;
+            lock.lock();
+            try {
+                while (running && (size == 0 || !hasRoom.getAsBoolean())) {
+                    available.await(pollMs, TimeUnit.MILLISECONDS);
+                }
+                if (!running) return;
+                next = pollBest(System.currentTimeMillis());
+                dispatching++;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                recordWait(next.rank, System.currentTimeMillis() - next.ticket.getEnqueuedAt());
+                dispatched.incrementAndGet();
+                dispatcher.accept(next.ticket);
+            } catch (Exception e) {
+                log.error("Failed to dispatch ticket {}: {}", next.ticket.getIssueKey(), e.getMessage(), e);
+            } finally {
+                // only now, so the key never looks free between the queue and the pipeline
+                queuedKeys.remove(next.ticket.getIssueKey());
+                lock.lock();
+                try {
+                    dispatching--;
+                    if (size == 0 && dispatching == 0) drained.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /** Best aged priority level across project heads; ties go to the least recently served project. */
+    private Entry pollBest(long now) {
+        PriorityQueue<Entry> best = null;
+        long bestLevel = 0;
+        long bestServed = 0;
+        for (PriorityQueue<Entry> q : byProject.values()) {
+            Entry head = q.peek();
+            if (head == null) continue;
+            long level = level(head, now);
+            long served = lastDispatchByProject.getOrDefault(head.project, 0L);
+            if (best == null || level < bestLevel
+                    || (level == bestLevel && (served < bestServed || (served == bestServed && ORDER.compare(head, best.peek()) < 0)))) {
+                best = q;
+                bestLevel = level;
+                bestServed = served;
+            }
+        }
+        Entry entry = best.poll();
+        if (best.isEmpty()) byProject.remove(entry.project);
+        lastDispatchByProject.put(entry.project, ++dispatchSeq);
+        size--;
+        return entry;
+    }
+
+    /**
+     * Rank minus one level per full agingMs since the ticket was queued, floored at the
+     * top level so an aged ticket can catch up with a Blocker but not overtake it.
+     */
+    private long level(Entry e, long now) {
+        return Math.max(0, -Math.floorDiv(now - e.key, agingMs));
+    }
+
+    private synchronized void recordWait(int rank, long millis) {
+        waitSamples[rank][(int) (waitCounts[rank]++ % WAIT_SAMPLES)] = millis;
+    }
+
+    /**
+     * Waits until every queued ticket has been handed to the pipeline. Returns false on timeout.
+     */
+    public boolean awaitEmpty(long timeoutMs) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lock();
+        try {
+            while (size > 0 || dispatching > 0) {
+                if (remaining <= 0) return false;
+                remaining = drained.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops dispatching and returns the tickets that were still waiting, in no particular order.
+     */
+    public List<DefectPipeline.Ticket> shutdown() {
+        running = false;
+        List<DefectPipeline.Ticket> left = new ArrayList<>();
+        lock.lock();
+        try {
+            byProject.values().forEach(q -> q.forEach(e -> left.add(e.ticket)));
+            byProject.clear();
+            queuedKeys.clear();
+            size = 0;
+            available.signalAll();
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        thread.interrupt();
+        return left;
+    }
+
+    public Map<String, Object> getStats() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> m = new LinkedHashMap<>();
+        Map<String, Integer> depthByPriority = new LinkedHashMap<>();
+        Map<String, Integer> depthByProject = new TreeMap<>();
+        List<Entry> waiting = new ArrayList<>();
+        lock.lock();
+        try {
+            m.put("depth", size);
+            m.put("dispatching", dispatching);
+            byProject.forEach((project, q) -> {
+                depthByProject.put(project, q.size());
+                waiting.addAll(q);
+            });
+        } finally {
+            lock.unlock();
+        }
+        m.put("capacity", capacity);
+        m.put("agingMs", agingMs);
+        m.put("offered", offered.get());
+        m.put("dispatched", dispatched.get());
+        m.put("rejected", rejected.get());
+        waiting.sort(ORDER);
+        for (Entry e : waiting) depthByPriority.merge(RANK_NAMES[e.rank], 1, Integer::sum);
+        m.put("depthByPriority", depthByPriority);
+        m.put("depthByProject", depthByProject);
+        m.put("oldestWaitMillis", waiting.stream().mapToLong(e -> now - e.ticket.getEnqueuedAt()).max().orElse(0));
+        m.put("waitMillisByPriority", waitPercentiles());
+        List<Map<String, Object>> head = new ArrayList<>();
+        for (Entry e : waiting.subList(0, Math.min(20, waiting.size()))) {
+            Map<String, Object> t = new LinkedHashMap<>();
+            t.put("issueKey", e.ticket.getIssueKey());
+            t.put("priority", e.priority);
+            t.put("agedLevel", RANK_NAMES[(int) level(e, now)]);
+            t.put("waitMillis", now - e.ticket.getEnqueuedAt());
+            head.add(t);
+        }
+        m.put("next", head);
+        return m;
+    }
+
+    private synchronized Map<String, Object> waitPercentiles() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        for (int r = 0; r < RANK_NAMES.length; r++) {
+            int n = (int) Math.min(waitCounts[r], WAIT_SAMPLES);
+            if (n == 0) continue;
+            long[] sorted = java.util.Arrays.copyOf(waitSamples[r], n);
+            java.util.Arrays.sort(sorted);
+            Map<String, Object> p = new LinkedHashMap<>();
+            p.put("count", waitCounts[r]);
+            p.put("p50", sorted[(n - 1) / 2]);
+            p.put("p90", sorted[(int) Math.ceil(0.9 * n) - 1]);
+            p.put("max", sorted[n - 1]);
+            out.put(RANK_NAMES[r], p);
+        }
+        return out;
+    }
+}
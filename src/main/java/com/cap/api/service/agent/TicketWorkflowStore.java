@@ -0,0 +1,259 @@
+package com.cap.api.service.agent;
+
+import com.cap.api.service.JsonSupport;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Per-ticket workflow state, checkpointed to an embedded H2 file database
+ * ({@code agent.workflow.url}, separate from the application datasource) so a restart
+ * resumes each ticket from its last completed step instead of redoing LLM and git work.
+ * <p>
+ * A ticket moves forward through {@link Step}; every checkpoint stores that step's outputs
+ * (suggestion, code fix, branch, PR url) alongside it. All rows are mirrored in a
+ * concurrent map of immutable {@link Workflow} snapshots; updates for one issue key are
+ * serialized and written through before the snapshot is published, so readers never see
+ * state that is not on disk. A write that fails leaves the previous snapshot in place. The
+ * JDBC write runs under a per-key lock rather than inside the map's compute, and connections
+ * come from a small pool ({@code agent.workflow.poolSize}).
+ */
+@Component
+public class TicketWorkflowStore {
+    private static final Logger log = LoggerFactory.getLogger(TicketWorkflowStore.class);
+    private static final TypeReference<Map<String, String>> OUTPUTS = new TypeReference<>() {};
+
+    public enum Step { FETCHED, SUMMARIZED, FIX_GENERATED, BRANCH_PUSHED, PR_CREATED, COMMENTED }
+
+    // keys of Workflow.outputs
+    public static final String BUG = "bug";
+    public static final String SUMMARY = "summary";
+    public static final String SUGGESTION = "suggestion";
+    public static final String CODE_FIX = "codeFix";
+    public static final String BRANCH = "branchName";
+    public static final String PR_URL = "prUrl";
+
+    /** Immutable snapshot of one ticket's workflow. */
+    public record Workflow(String issueKey, Step step, String priority, String created, Map<String, String> outputs,
+                           int attempts, String lastError, long startedAt, long updatedAt) {
+        public boolean reached(Step s) {
+            return step.ordinal() >= s.ordinal();
+        }
+
+        public boolean isDone() {
+            return step == Step.COMMENTED;
+        }
+
+        public String output(String key) {
+            return outputs.get(key);
+        }
+
+        /** The snapshot without step outputs, for listings. */
+        public Map<String, Object> summary() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("issueKey", issueKey);
+            m.put("step", step.name());
+            m.put("priority", priority);
+            m.put("attempts", attempts);
+            m.put("lastError", lastError);
+            m.put("startedAt", startedAt);
+            m.put("updatedAt", updatedAt);
+            return m;
+        }
+    }
+
+    @Value("${agent.workflow.url:jdbc:h2:file:./agent_generated/agent_state;DB_CLOSE_DELAY=-1}")
+    private String url;
+    @Value("${agent.workflow.retentionDays:7}")
+    private int retentionDays;
+    @Value("${agent.workflow.poolSize:4}")
+    private int poolSize;
+
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbc;
+    private final Map<String, Workflow> workflows = new ConcurrentHashMap<>();
+    private final Map<String, Object> keyLocks = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() {
+        try {
+            dataSource = new HikariDataSource();
+            dataSource.setJdbcUrl(url);
+            dataSource.setPoolName("agent-workflow");
+            dataSource.setMaximumPoolSize(Math.max(1, poolSize));
+            dataSource.setMinimumIdle(1);
+            jdbc = new JdbcTemplate(dataSource);
+            jdbc.execute("CREATE TABLE IF NOT EXISTS ticket_workflow ("
+                + "issue_key VARCHAR(64) PRIMARY KEY, step VARCHAR(32) NOT NULL, priority VARCHAR(32), created VARCHAR(64), "
+                + "outputs CLOB, attempts INT NOT NULL, last_error VARCHAR(1024), started_at BIGINT NOT NULL, updated_at BIGINT NOT NULL)");
+            long cutoff = System.currentTimeMillis() - retentionDays * 86_400_000L;
+            int purged = jdbc.update("DELETE FROM ticket_workflow WHERE updated_at < ?", cutoff);
+            jdbc.query("SELECT issue_key, step, priority, created, outputs, attempts, last_error, started_at, updated_at FROM ticket_workflow",
+                rs -> {
+                    Workflow w = new Workflow(rs.getString(1), Step.valueOf(rs.getString(2)), rs.getString(3), rs.getString(4),
+                        readOutputs(rs.getString(5)), rs.getInt(6), rs.getString(7), rs.getLong(8), rs.getLong(9));
+                    workflows.put(w.issueKey(), w);
+                });
+            log.info("Loaded {} ticket workflow(s) from {} ({} expired row(s) purged)", workflows.size(), url, purged);
+        } catch (RuntimeException e) {
+            // keep going in memory: checkpoints just will not survive a restart
+            log.error("Workflow store {} unavailable; ticket progress will not be persisted: {}", url, e.getMessage());
+            jdbc = null;
+            if (dataSource != null) dataSource.close();
+            dataSource = null;
+        }
+    }
+
+    /**
+     * Returns the ticket's workflow, creating it at FETCHED if there is none yet (or the
+     * previous one finished, e.g. a ticket reopened on a later day). If the new row cannot be
+     * written the fresh workflow is still returned, but not published.
+     */
+    public Workflow begin(String issueKey, String bug, String priority, String created) {
+        synchronized (lockFor(issueKey)) {
+            Workflow w = workflows.get(issueKey);
+            if (w != null && !w.isDone()) return w;
+            long now = System.currentTimeMillis();
+            Map<String, String> outputs = new LinkedHashMap<>();
+            outputs.put(BUG, bug);
+            Workflow fresh = new Workflow(issueKey, Step.FETCHED, priority, created, Collections.unmodifiableMap(outputs), 0, null, now, now);
+            if (persist(fresh)) workflows.put(issueKey, fresh);
+            return fresh;
+        }
+    }
+
+    /**
+     * Moves the ticket to {@code step} (never backwards) and merges the step's outputs.
+     * Null output values are ignored.
+     */
+    public Workflow checkpoint(String issueKey, Step step, Map<String, String> outputs) {
+        return update(issueKey, w -> {
+            Map<String, String> merged = new LinkedHashMap<>(w.outputs());
+            outputs.forEach((key, value) -> {
+                if (value != null) merged.put(key, value);
+            });
+            Step next = step.ordinal() > w.step().ordinal() ? step : w.step();
+            return new Workflow(issueKey, next, w.priority(), w.created(), Collections.unmodifiableMap(merged),
+                w.attempts(), null, w.startedAt(), System.currentTimeMillis());
+        });
+    }
+
+    /** Counts a failed attempt; the step stays where it was so a retry resumes from there. */
+    public Workflow recordFailure(String issueKey, String error) {
+        String message = error == null ? "unknown error" : error.length() > 1000 ? error.substring(0, 1000) : error;
+        return update(issueKey, w -> new Workflow(issueKey, w.step(), w.priority(), w.created(),
+            w.outputs(), w.attempts() + 1, message, w.startedAt(), System.currentTimeMillis()));
+    }
+
+    /** Clears the attempt count so a parked ticket is picked up again. */
+    public Workflow resetAttempts(String issueKey) {
+        return update(issueKey, w -> new Workflow(issueKey, w.step(), w.priority(), w.created(),
+            w.outputs(), 0, null, w.startedAt(), System.currentTimeMillis()));
+    }
+
+    /**
+     * Applies {@code change} to the ticket's current workflow, writes the result and publishes
+     * it. Returns the published snapshot: the previous one if the write failed, null if the
+     * ticket has no workflow.
+     */
+    private Workflow update(String issueKey, UnaryOperator<Workflow> change) {
+        synchronized (lockFor(issueKey)) {
+            Workflow current = workflows.get(issueKey);
+            if (current == null) return null;
+            Workflow next = change.apply(current);
+            if (!persist(next)) return current;
+            workflows.put(issueKey, next);
+            return next;
+        }
+    }
+
+    private Object lockFor(String issueKey) {
+        return keyLocks.computeIfAbsent(issueKey, k -> new Object());
+    }
+
+    public Workflow get(String issueKey) {
+        return workflows.get(issueKey);
+    }
+
+    /** Unfinished workflows, oldest first. */
+    public List<Workflow> unfinished() {
+        List<Workflow> out = new ArrayList<>();
+        for (Workflow w : workflows.values()) {
+            if (!w.isDone()) out.add(w);
+        }
+        out.sort(Comparator.comparingLong(Workflow::startedAt));
+        return out;
+    }
+
+    /** Workflows at {@code step} (all when null), most recently updated first. */
+    public List<Workflow> list(Step step, int limit) {
+        List<Workflow> out = new ArrayList<>();
+        for (Workflow w : workflows.values()) {
+            if (step == null || w.step() == step) out.add(w);
+        }
+        out.sort(Comparator.comparingLong(Workflow::updatedAt).reversed());
+        return out.size() > limit ? out.subList(0, Math.max(0, limit)) : out;
+    }
+
+    public Map<String, Integer> countsByStep() {
+        Map<Step, Integer> counts = new EnumMap<>(Step.class);
+        for (Step s : Step.values()) counts.put(s, 0);
+        workflows.values().forEach(w -> counts.merge(w.step(), 1, Integer::sum));
+        Map<String, Integer> out = new LinkedHashMap<>();
+        counts.forEach((s, n) -> out.put(s.name(), n));
+        return out;
+    }
+
+    /** Writes the row; true if it is on disk, or if the store runs in memory only. */
+    private boolean persist(Workflow w) {
+        if (jdbc == null) return true;
+        try {
+            jdbc.update("MERGE INTO ticket_workflow (issue_key, step, priority, created, outputs, attempts, last_error, started_at, updated_at) "
+                    + "KEY (issue_key) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                w.issueKey(), w.step().name(), w.priority(), w.created(), JsonSupport.MAPPER.writeValueAsString(w.outputs()),
+                w.attempts(), w.lastError(), w.startedAt(), w.updatedAt());
+        } catch (Exception e) {
+            log.warn("Could not persist workflow of {} at {}; keeping its previous state: {}", w.issueKey(), w.step(), e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    private static Map<String, String> readOutputs(String json) {
+        if (json == null || json.isEmpty()) return Map.of();
+        try {
+            return Collections.unmodifiableMap(JsonSupport.MAPPER.readValue(json, OUTPUTS));
+        } catch (Exception e) {
+            return Map.of();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (jdbc == null) return;
+        try {
+            jdbc.execute("SHUTDOWN");
+        } catch (DataAccessException e) {
+            log.debug("Workflow store shutdown: {}", e.getMessage());
+        } finally {
+            dataSource.close();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.cap.api.service.agent;
+
+/**
+ * Local token-count estimate for prompt budgeting, without shipping a tokenizer. Mirrors how
+ * BPE vocabularies split source text: a word costs about one token per four letters, digit
+ * runs one per three digits, each punctuation character one token, and whitespace is mostly
+ * absorbed into the following token. Tends to overestimate slightly, which is the safe side
+ * for a budget.
+ */
+public final class TokenEstimator {
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null) return 0;
+        int tokens = 0;
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            char c = text.charAt(i);
+            if (Character.isLetter(c)) {
+                int start = i;
+                while (i < n && Character.isLetter(text.charAt(i))) i++;
+                tokens += (i - start + 3) / 4;
+            } else if (Character.isDigit(c)) {
+                int start = i;
+                while (i < n && Character.isDigit(text.charAt(i))) i++;
+                tokens += (i - start + 2) / 3;
+            } else if (c == '\n') {
+                tokens++;
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                int start = i;
+                while (i < n && text.charAt(i) != '\n' && Character.isWhitespace(text.charAt(i))) i++;
+                // indentation runs are merged into a few tokens
+                if (i - start > 1) tokens += (i - start) / 4;
+            } else {
+                tokens++;
+                i++;
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,355 @@
+package com.cap.api.service.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Client-side guard for one upstream (Jira, Azure OpenAI, ...).
+ * <ul>
+ *   <li>Token bucket: the rate starts at the configured value, halves on 429/503 and
+ *       creeps back up on success. Retry-After and rate-limit headers pause the bucket.</li>
+ *   <li>Retries: throttling, 5xx and I/O errors are retried with full-jitter exponential
+ *       backoff, never sooner than the server asked for.</li>
+ *   <li>Circuit breaker: after repeated failures calls fail fast until a cool-down passes,
+ *       then a single trial call decides whether to close again.</li>
+ * </ul>
+ */
+public class UpstreamRateLimiter {
+    private static final Logger log = LoggerFactory.getLogger(UpstreamRateLimiter.class);
+
+    public enum CircuitState { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Thrown when the circuit is open or no permit became available in time.
+     */
+    public static class UpstreamUnavailableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public UpstreamUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * An upstream call whose result is not a {@link ResponseEntity}, e.g. a
+     * {@code RestTemplate.execute} with a response extractor: it passes the response
+     * headers to {@code headers} so the limiter still sees rate-limit headers.
+     */
+    @FunctionalInterface
+    public interface HeaderReportingCall<T> {
+        T call(Consumer<HttpHeaders> headers) throws Exception;
+    }
+
+    private final String name;
+    private final double maxPermitsPerSecond;
+    private final double minPermitsPerSecond;
+    private final double burst;
+    private final int maxRetries;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+    private final long acquireTimeoutMs;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    // Guarded by this
+    private double permitsPerSecond;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private long blockedUntilMillis;
+    private CircuitState state = CircuitState.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtMillis;
+    private boolean trialInFlight;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong shortCircuited = new AtomicLong();
+
+    public UpstreamRateLimiter(String name, double permitsPerSecond, double burst, int maxRetries, long baseBackoffMs,
+                               long maxBackoffMs, long acquireTimeoutMs, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.maxPermitsPerSecond = permitsPerSecond;
+        this.minPermitsPerSecond = Math.max(0.05, permitsPerSecond / 20);
+        this.burst = Math.max(1, burst);
+        this.maxRetries = maxRetries;
+        this.baseBackoffMs = baseBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.permitsPerSecond = permitsPerSecond;
+        this.tokens = this.burst;
+    }
+
+    /**
+     * Runs {@code request} under the limiter, retrying retryable failures. A returned
+     * {@link ResponseEntity} is inspected for rate-limit headers.
+     */
+    public <T> T execute(Callable<T> request) throws Exception {
+        return execute(headers -> request.call());
+    }
+
+    /**
+     * Runs {@code request} under the limiter, retrying retryable failures. Rate-limit headers
+     * are read from a returned {@link ResponseEntity}, or else from what the call reported.
+     */
+    public <T> T execute(HeaderReportingCall<T> request) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            boolean trial = beforeCall();
+            try {
+                AtomicReference<HttpHeaders> reported = new AtomicReference<>();
+                T result = request.call(reported::set);
+                onSuccess(result instanceof ResponseEntity<?> entity ? entity.getHeaders() : reported.get());
+                return result;
+            } catch (HttpStatusCodeException e) {
+                int status = e.getStatusCode().value();
+                if (!isRetryable(status)) {
+                    // Client errors say nothing about upstream health
+                    releaseTrial(trial);
+                    throw e;
+                }
+                long retryAfterMs = onFailure(status, e.getResponseHeaders());
+                if (attempt >= maxRetries) throw e;
+                pauseBeforeRetry(attempt, retryAfterMs, "HTTP " + status);
+            } catch (ResourceAccessException e) {
+                onFailure(-1, null);
+                if (attempt >= maxRetries) throw e;
+                pauseBeforeRetry(attempt, 0, e.getMessage());
+            } catch (Exception e) {
+                releaseTrial(trial);
+                throw e;
+            }
+        }
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    private void pauseBeforeRetry(int attempt, long retryAfterMs, String cause) throws InterruptedException {
+        retries.incrementAndGet();
+        // Full jitter: uniform in [0, min(max, base * 2^attempt)], but never before Retry-After
+        long ceiling = Math.min(maxBackoffMs, baseBackoffMs * (1L << Math.min(attempt, 20)));
+        long delay = Math.max(retryAfterMs, ThreadLocalRandom.current().nextLong(ceiling + 1));
+        log.warn("{} call failed ({}); retry {} of {} in {} ms", name, cause, attempt + 1, maxRetries, delay);
+        Thread.sleep(delay);
+    }
+
+    /**
+     * Checks the circuit and takes a permit, waiting up to the acquire timeout.
+     * Returns true when this call is the half-open trial.
+     */
+    private boolean beforeCall() throws InterruptedException {
+        boolean trial = false;
+        synchronized (this) {
+            if (state == CircuitState.OPEN) {
+                if (System.currentTimeMillis() - openedAtMillis < openMillis) {
+                    shortCircuited.incrementAndGet();
+                    throw new UpstreamUnavailableException(name + " circuit is open");
+                }
+                state = CircuitState.HALF_OPEN;
+                trialInFlight = false;
+            }
+            if (state == CircuitState.HALF_OPEN) {
+                if (trialInFlight) {
+                    shortCircuited.incrementAndGet();
+                    throw new UpstreamUnavailableException(name + " circuit is half-open; trial call in flight");
+                }
+                trialInFlight = true;
+                trial = true;
+            }
+        }
+        long deadline = System.currentTimeMillis() + acquireTimeoutMs;
+        while (true) {
+            long waitMs;
+            synchronized (this) {
+                refill();
+                long now = System.currentTimeMillis();
+                waitMs = Math.max(0, blockedUntilMillis - now);
+                if (waitMs == 0) {
+                    if (tokens >= 1) {
+                        tokens -= 1;
+                        calls.incrementAndGet();
+                        return trial;
+                    }
+                    waitMs = (long) Math.ceil((1 - tokens) / permitsPerSecond * 1000);
+                }
+            }
+            if (System.currentTimeMillis() + waitMs > deadline) {
+                releaseTrial(trial);
+                throttled.incrementAndGet();
+                throw new UpstreamUnavailableException(name + " rate limit: no permit within " + acquireTimeoutMs + " ms");
+            }
+            Thread.sleep(Math.max(1, waitMs));
+        }
+    }
+
+    private void refill() {
+        long nowNanos = System.nanoTime();
+        double elapsedSec = (nowNanos - lastRefillNanos) / 1_000_000_000.0;
+        tokens = Math.min(burst, tokens + elapsedSec * permitsPerSecond);
+        lastRefillNanos = nowNanos;
+    }
+
+    private synchronized void releaseTrial(boolean trial) {
+        if (trial) trialInFlight = false;
+    }
+
+    private synchronized void onSuccess(HttpHeaders headers) {
+        consecutiveFailures = 0;
+        if (state != CircuitState.CLOSED) {
+            log.info("{} circuit closed after successful trial call", name);
+            state = CircuitState.CLOSED;
+            trialInFlight = false;
+        }
+        // Additive increase back towards the configured rate
+        permitsPerSecond = Math.min(maxPermitsPerSecond, permitsPerSecond + maxPermitsPerSecond / 10);
+        applyRateLimitHeaders(headers);
+    }
+
+    /**
+     * Records a throttling or server failure and returns the server-requested delay in ms.
+     */
+    private synchronized long onFailure(int status, HttpHeaders headers) {
+        failures.incrementAndGet();
+        long retryAfterMs = 0;
+        if (status == 429 || status == 503) {
+            throttled.incrementAndGet();
+            // Multiplicative decrease
+            permitsPerSecond = Math.max(minPermitsPerSecond, permitsPerSecond / 2);
+            tokens = Math.min(tokens, 0);
+            retryAfterMs = retryAfterMillis(headers);
+            if (retryAfterMs > 0) {
+                blockedUntilMillis = Math.max(blockedUntilMillis, System.currentTimeMillis() + retryAfterMs);
+            }
+        }
+        applyRateLimitHeaders(headers);
+        consecutiveFailures++;
+        if (state == CircuitState.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != CircuitState.OPEN) {
+                log.warn("{} circuit opened after {} consecutive failure(s); cooling down for {} ms", name, consecutiveFailures, openMillis);
+            }
+            state = CircuitState.OPEN;
+            openedAtMillis = System.currentTimeMillis();
+            trialInFlight = false;
+        }
+        return retryAfterMs;
+    }
+
+    /**
+     * Pauses the bucket when the upstream reports an exhausted quota
+     * (X-RateLimit-Remaining / x-ratelimit-remaining-requests with a reset time).
+     */
+    private void applyRateLimitHeaders(HttpHeaders headers) {
+        if (headers == null) return;
+        String remaining = firstHeader(headers, "x-ratelimit-remaining-requests", "X-RateLimit-Remaining");
+        if (remaining == null) return;
+        try {
+            if (Long.parseLong(remaining.trim()) > 0) return;
+        } catch (NumberFormatException e) {
+            return;
+        }
+        long resetMs = 0;
+        String reset = firstHeader(headers, "X-RateLimit-Reset", "x-ratelimit-reset-requests");
+        if (reset != null) {
+            reset = reset.trim();
+            try {
+                long value = Long.parseLong(reset);
+                // Epoch seconds (GitHub/Jira style) or a relative number of seconds
+                resetMs = value > 1_000_000_000L ? value * 1000 - System.currentTimeMillis() : value * 1000;
+            } catch (NumberFormatException e) {
+                if (reset.endsWith("ms")) {
+                    resetMs = parseLongOr(reset.substring(0, reset.length() - 2), 0);
+                } else if (reset.endsWith("s")) {
+                    resetMs = (long) (parseDoubleOr(reset.substring(0, reset.length() - 1), 0) * 1000);
+                }
+            }
+        }
+        if (resetMs <= 0) resetMs = retryAfterMillis(headers);
+        if (resetMs <= 0) resetMs = 1000;
+        blockedUntilMillis = Math.max(blockedUntilMillis, System.currentTimeMillis() + resetMs);
+        log.info("{} reports exhausted quota; pausing for {} ms", name, resetMs);
+    }
+
+    private static long retryAfterMillis(HttpHeaders headers) {
+        if (headers == null) return 0;
+        String ms = headers.getFirst("retry-after-ms");
+        if (ms != null) return parseLongOr(ms.trim(), 0);
+        String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) return 0;
+        value = value.trim();
+        try {
+            return Long.parseLong(value) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, at.toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (Exception ignored) {
+                return 0;
+            }
+        }
+    }
+
+    private static String firstHeader(HttpHeaders headers, String... names) {
+        for (String n : names) {
+            String v = headers.getFirst(n);
+            if (v != null) return v;
+        }
+        return null;
+    }
+
+    private static long parseLongOr(String s, long fallback) {
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static double parseDoubleOr(String s, double fallback) {
+        try {
+            return Double.parseDouble(s.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    public String getName() { return name; }
+
+    public synchronized CircuitState getState() { return state; }
+
+    public synchronized double getPermitsPerSecond() { return permitsPerSecond; }
+
+    public synchronized Map<String, Object> snapshot() {
+        refill();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("circuit", state.name());
+        m.put("permitsPerSecond", permitsPerSecond);
+        m.put("configuredPermitsPerSecond", maxPermitsPerSecond);
+        m.put("availableTokens", tokens);
+        m.put("blockedForMillis", Math.max(0, blockedUntilMillis - System.currentTimeMillis()));
+        m.put("consecutiveFailures", consecutiveFailures);
+        m.put("calls", calls.get());
+        m.put("throttled", throttled.get());
+        m.put("retries", retries.get());
+        m.put("failures", failures.get());
+        m.put("shortCircuited", shortCircuited.get());
+        return m;
+    }
+}
@@ -0,0 +1,52 @@
+package com.cap.api.service.agent;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One {@link UpstreamRateLimiter} per upstream, configured from
+ * {@code agent.ratelimit.<upstream>.*} properties.
+ */
+@Component
+public class UpstreamRateLimiters {
+    public static final String JIRA = "jira";
+    public static final String OPENAI = "openai";
+    public static final String GITHUB = "github";
+
+    @Autowired(required = false)
+    private Environment env;
+
+    private final Map<String, UpstreamRateLimiter> limiters = new ConcurrentHashMap<>();
+
+    public UpstreamRateLimiter get(String upstream) {
+        return limiters.computeIfAbsent(upstream, this::create);
+    }
+
+    private UpstreamRateLimiter create(String upstream) {
+        String p = "agent.ratelimit." + upstream + ".";
+        return new UpstreamRateLimiter(upstream,
+            prop(p + "permitsPerSecond", Double.class, OPENAI.equals(upstream) ? 1.0 : 5.0),
+            prop(p + "burst", Double.class, OPENAI.equals(upstream) ? 4.0 : 10.0),
+            prop(p + "maxRetries", Integer.class, 3),
+            prop(p + "baseBackoffMs", Long.class, 500L),
+            prop(p + "maxBackoffMs", Long.class, 30000L),
+            prop(p + "acquireTimeoutMs", Long.class, 60000L),
+            prop(p + "failureThreshold", Integer.class, 5),
+            prop(p + "openMs", Long.class, 60000L));
+    }
+
+    private <T> T prop(String key, Class<T> type, T fallback) {
+        return env == null ? fallback : env.getProperty(key, type, fallback);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        limiters.forEach((name, limiter) -> m.put(name, limiter.snapshot()));
+        return m;
+    }
+}
@@ -0,0 +1,413 @@
+package com.cap.api.service.agent;
+
+import com.cap.api.service.JsonSupport;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Embedded stand-in for Jira, Azure OpenAI and the GitHub PR API, used by the {@code bench}
+ * profile so the agent can be driven end to end without network access.
+ * <p>
+ * Each upstream replays a recording from {@code agent.bench.recordings} when one exists
+ * ({@code jira_search.json}, {@code jira_comments.json}, {@code openai_completion.json},
+ * {@code openai_stream.txt}, {@code github_pull.json}) and otherwise answers with synthetic
+ * payloads. Recordings may use {@code {{today}}} and {@code {{run}}} placeholders so captured
+ * tickets still count as created today and get fresh keys per run. LLM calls are delayed by a
+ * FIXED, UNIFORM or LOGNORMAL latency distribution. The GitHub API sends X-RateLimit headers,
+ * answers a repeated PR list with 304 when the ETag still matches and rejects a second PR for
+ * the same head branch with 422.
+ */
+@Component
+@Profile("bench")
+public class UpstreamStandInServer {
+    private static final Logger log = LoggerFactory.getLogger(UpstreamStandInServer.class);
+    private static final ObjectMapper MAPPER = JsonSupport.MAPPER;
+    // z-score of the 99th percentile of a standard normal
+    private static final double Z99 = 2.326;
+
+    public enum Latency { FIXED, UNIFORM, LOGNORMAL }
+
+    @Value("${agent.bench.port:18089}")
+    private int port;
+    @Value("${agent.bench.serverThreads:64}")
+    private int serverThreads;
+    @Value("${agent.bench.recordings:bench/recordings}")
+    private String recordingsDir;
+    @Value("${agent.bench.tickets:50}")
+    private int tickets;
+    @Value("${agent.bench.project:BENCH}")
+    private String project;
+    @Value("${agent.bench.llm.latency:LOGNORMAL}")
+    private Latency llmLatency;
+    @Value("${agent.bench.llm.p50Ms:800}")
+    private long llmP50Ms;
+    @Value("${agent.bench.llm.p99Ms:4000}")
+    private long llmP99Ms;
+    @Value("${agent.bench.jira.latencyMs:40}")
+    private long jiraLatencyMs;
+    @Value("${agent.bench.github.latencyMs:120}")
+    private long githubLatencyMs;
+    @Value("${agent.bench.github.rateLimit:5000}")
+    private long githubRateLimit;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    // keys must be new per run, otherwise the processed-issue store skips them
+    private final long runId = System.currentTimeMillis() / 1000 % 100000;
+    private final Map<String, String> recordings = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+    // Simulated provider prompt cache: length and hash of every message prefix seen so far
+    private final Set<Long> promptPrefixes = ConcurrentHashMap.newKeySet();
+    private final AtomicLong pullNumbers = new AtomicLong();
+    private final AtomicLong commentIds = new AtomicLong();
+    // head branch -> PR json; a second PR for the same head is rejected with 422 like GitHub does
+    private final Map<String, String> openPulls = new ConcurrentHashMap<>();
+    // {hour, calls charged in that hour}
+    private final long[] githubQuota = new long[2];
+
+    @PostConstruct
+    public void start() throws IOException {
+        loadRecordings();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        executor = Executors.newFixedThreadPool(Math.max(4, serverThreads), r -> {
+            Thread t = new Thread(r, "bench-standin");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/rest/api/3/", this::handleJira);
+        server.createContext("/openai/", this::handleOpenAi);
+        server.createContext("/repos/", this::handleGitHub);
+        server.start();
+        log.info("Upstream stand-in listening on 127.0.0.1:{} ({} ticket(s), LLM latency {} p50={}ms p99={}ms, recordings: {})",
+            port, tickets, llmLatency, llmP50Ms, llmP99Ms, recordings.isEmpty() ? "none" : recordings.keySet());
+    }
+
+    private void loadRecordings() {
+        Path dir = Path.of(recordingsDir);
+        if (!Files.isDirectory(dir)) return;
+        for (String name : List.of("jira_search.json", "jira_comments.json", "openai_completion.json", "openai_stream.txt", "github_pull.json")) {
+            Path file = dir.resolve(name);
+            if (!Files.isRegularFile(file)) continue;
+            try {
+                recordings.put(name, Files.readString(file, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                log.warn("Could not read recording {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private String recording(String name) {
+        String body = recordings.get(name);
+        return body == null ? null : body.replace("{{today}}", LocalDate.now().toString()).replace("{{run}}", String.valueOf(runId));
+    }
+
+    private void handleJira(HttpExchange ex) throws IOException {
+        try (ex) {
+            String path = ex.getRequestURI().getPath();
+            drain(ex);
+            sleep(jiraLatencyMs);
+            if (path.endsWith("/search/jql")) {
+                count("jira.search");
+                String body = recording("jira_search.json");
+                send(ex, 200, "application/json", body != null ? body : syntheticSearch());
+            } else if (path.endsWith("/comment") && "POST".equals(ex.getRequestMethod())) {
+                count("jira.comment.post");
+                send(ex, 201, "application/json", "{\"id\":\"" + commentIds.incrementAndGet() + "\"}");
+            } else if (path.endsWith("/comment")) {
+                count("jira.comment.get");
+                String body = recording("jira_comments.json");
+                send(ex, 200, "application/json", body != null ? body : "{\"startAt\":0,\"maxResults\":100,\"total\":0,\"comments\":[]}");
+            } else {
+                count("jira.other");
+                send(ex, 404, "application/json", "{}");
+            }
+        } catch (Exception e) {
+            log.warn("Jira stand-in failed: {}", e.getMessage());
+        }
+    }
+
+    private String syntheticSearch() throws IOException {
+        String[] components = {"DefectPipeline", "GitAgentService", "JiraJsonExtractor", "SourceFileIndex", "AgentLogWriter"};
+        String[] priorities = {"Low", "Medium", "Lowest", "Medium", "High", "Low", "Highest"};
+        String created = LocalDate.now() + "T09:00:00.000+0000";
+        List<Map<String, Object>> issues = new ArrayList<>();
+        for (int i = 1; i <= tickets; i++) {
+            String component = components[i % components.length];
+            Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("summary", "NullPointerException in " + component + " (bench " + i + ")");
+            fields.put("status", Map.of("name", "To Do"));
+            fields.put("description", "Stack trace points at " + component + " when the input is empty. Expected a graceful error.");
+            fields.put("created", created);
+            fields.put("priority", Map.of("name", priorities[i % priorities.length]));
+            issues.add(Map.of("key", project + "-" + (runId * 10000 + i), "fields", fields));
+        }
+        return MAPPER.writeValueAsString(Map.of("total", issues.size(), "issues", issues));
+    }
+
+    private void handleOpenAi(HttpExchange ex) throws IOException {
+        try (ex) {
+            JsonNode request = MAPPER.readTree(ex.getRequestBody());
+            boolean stream = request.path("stream").asBoolean(false);
+            boolean json = "json_object".equals(request.path("response_format").path("type").asText());
+            count(stream ? "openai.stream" : "openai.completion");
+            long latency = sampleLlmLatency();
+            String content = json ? syntheticBundle() : syntheticText(request);
+            if (!stream) {
+                sleep(latency);
+                String body = recording("openai_completion.json");
+                send(ex, 200, "application/json", body != null ? body : completionJson(content, usage(request, content)));
+                return;
+            }
+            streamCompletion(ex, content, usage(request, content), latency);
+        } catch (Exception e) {
+            log.warn("OpenAI stand-in failed: {}", e.getMessage());
+        }
+    }
+
+    /** Spends ~30% of the latency before the first token and spreads the rest over the chunks. */
+    private void streamCompletion(HttpExchange ex, String content, Map<String, Object> usage, long latency) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+        ex.sendResponseHeaders(200, 0);
+        OutputStream out = ex.getResponseBody();
+        sleep(latency * 3 / 10);
+        String recorded = recording("openai_stream.txt");
+        if (recorded != null) {
+            out.write(recorded.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return;
+        }
+        List<String> pieces = new ArrayList<>();
+        for (int i = 0; i < content.length(); i += 16) pieces.add(content.substring(i, Math.min(content.length(), i + 16)));
+        long perChunk = pieces.isEmpty() ? 0 : latency * 7 / 10 / pieces.size();
+        for (String piece : pieces) {
+            Map<String, Object> chunk = Map.of("choices", List.of(Map.of("index", 0, "delta", Map.of("content", piece))));
+            out.write(("data: " + MAPPER.writeValueAsString(chunk) + "\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            sleep(perChunk);
+        }
+        Map<String, Object> last = Map.of("choices", List.of(), "usage", usage);
+        out.write(("data: " + MAPPER.writeValueAsString(last) + "\n\ndata: [DONE]\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private long sampleLlmLatency() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        return switch (llmLatency) {
+            case FIXED -> llmP50Ms;
+            // median p50Ms
+            case UNIFORM -> (long) (rnd.nextDouble() * 2 * llmP50Ms);
+            case LOGNORMAL -> {
+                double mu = Math.log(Math.max(1, llmP50Ms));
+                double sigma = Math.max(0, Math.log(Math.max(llmP99Ms, llmP50Ms + 1)) - mu) / Z99;
+                yield (long) Math.exp(mu + sigma * rnd.nextGaussian());
+            }
+        };
+    }
+
+    // no class declaration, so applyCodeFixToProject never touches real sources during a run
+    private static final String CODE_FIX = "```java\nif (input == null || input.isEmpty()) {\n    throw new IllegalArgumentException(\"input must not be empty\");\n}\n```";
+
+    // matches no real source, so patched fixes report a conflict and fall back to CODE_FIX
+    private static final String CODE_PATCH = "```diff\n<<<<<<< SEARCH\n    process(input);\n=======\n    process(java.util.Objects.requireNonNull(input, \"input\"));\n>>>>>>> REPLACE\n```";
+
+    private static String syntheticText(JsonNode request) {
+        // task instructions come last, after the shared prefix and the ticket
+        JsonNode messages = request.path("messages");
+        String instructions = messages.path(messages.size() - 1).path("content").asText("").toLowerCase();
+        if (instructions.contains("only the code block")) return CODE_FIX;
+        if (instructions.contains("diff hunks")) return CODE_PATCH;
+        return "Validate the input before use and return a descriptive error instead of dereferencing null.";
+    }
+
+    private static String syntheticBundle() throws IOException {
+        Map<String, String> bundle = new LinkedHashMap<>();
+        bundle.put("summary", "Null input is dereferenced without a guard.");
+        bundle.put("rationale", "Validate the input before use and return a descriptive error.");
+        bundle.put("codeFix", CODE_FIX);
+        return MAPPER.writeValueAsString(bundle);
+    }
+
+    private static String completionJson(String content, Map<String, Object> usage) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("id", "chatcmpl-bench");
+        body.put("object", "chat.completion");
+        body.put("choices", List.of(Map.of("index", 0, "finish_reason", "stop",
+            "message", Map.of("role", "assistant", "content", content))));
+        body.put("usage", usage);
+        return MAPPER.writeValueAsString(body);
+    }
+
+    /**
+     * Token usage with prompt caching the way Azure OpenAI reports it: the longest message
+     * prefix seen before counts as cached once it reaches 1024 tokens, in 128-token steps.
+     */
+    private Map<String, Object> usage(JsonNode request, String content) {
+        StringBuilder prefix = new StringBuilder();
+        long prompt = 0;
+        long cached = 0;
+        for (JsonNode message : request.path("messages")) {
+            prefix.append(message.path("role").asText()).append('\u0000').append(message.path("content").asText()).append('\u0001');
+            prompt = TokenEstimator.estimate(prefix.toString());
+            if (!promptPrefixes.add(((long) prefix.length() << 32) | (prefix.toString().hashCode() & 0xffffffffL))) {
+                cached = prompt;
+            }
+        }
+        cached = cached >= 1024 ? cached / 128 * 128 : 0;
+        long completion = TokenEstimator.estimate(content);
+        return Map.of("prompt_tokens", prompt, "completion_tokens", completion, "total_tokens", prompt + completion,
+            "prompt_tokens_details", Map.of("cached_tokens", cached));
+    }
+
+    private void handleGitHub(HttpExchange ex) throws IOException {
+        try (ex) {
+            String path = ex.getRequestURI().getPath();
+            String method = ex.getRequestMethod();
+            byte[] request = ex.getRequestBody().readAllBytes();
+            sleep(githubLatencyMs);
+            if (path.endsWith("/pulls") && "GET".equals(method)) {
+                count("github.list_pulls");
+                String head = queryParam(ex.getRequestURI().getRawQuery(), "head");
+                String pull = head == null ? null : openPulls.get(head.substring(head.indexOf(':') + 1));
+                String body = pull == null ? "[]" : "[" + pull + "]";
+                String etag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+                ex.getResponseHeaders().set("ETag", etag);
+                if (etag.equals(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+                    // like GitHub, a 304 is free
+                    count("github.not_modified");
+                    rateLimitHeaders(ex, false);
+                    ex.sendResponseHeaders(304, -1);
+                    return;
+                }
+                rateLimitHeaders(ex, true);
+                send(ex, 200, "application/json", body);
+                return;
+            }
+            rateLimitHeaders(ex, true);
+            if (path.endsWith("/pulls")) {
+                count("github.pull");
+                String head = MAPPER.readTree(request).path("head").asText();
+                String recorded = recording("github_pull.json");
+                long number = pullNumbers.incrementAndGet();
+                String repoPath = path.substring("/repos".length(), path.length() - "/pulls".length());
+                String body = recorded != null ? recorded
+                    : "{\"number\":" + number + ",\"html_url\":\"http://127.0.0.1:" + port + repoPath + "/pull/" + number + "\"}";
+                if (openPulls.putIfAbsent(head, body) != null) {
+                    send(ex, 422, "application/json", "{\"message\":\"Validation Failed\",\"errors\":[{\"message\":\"A pull request already exists for " + head + ".\"}]}");
+                    return;
+                }
+                send(ex, 201, "application/json", body);
+            } else if (path.endsWith("/requested_reviewers")) {
+                count("github.reviewers");
+                send(ex, 201, "application/json", "{}");
+            } else if (path.endsWith("/comments")) {
+                count("github.comment");
+                send(ex, 201, "application/json", "{\"id\":" + commentIds.incrementAndGet() + "}");
+            } else {
+                count("github.other");
+                send(ex, 404, "application/json", "{}");
+            }
+        } catch (Exception e) {
+            log.warn("GitHub stand-in failed: {}", e.getMessage());
+        }
+    }
+
+    /** X-RateLimit-* headers for a quota of {@code agent.bench.github.rateLimit} calls per hour. */
+    private void rateLimitHeaders(HttpExchange ex, boolean charge) {
+        long hour = System.currentTimeMillis() / 3_600_000;
+        long used;
+        synchronized (githubQuota) {
+            if (githubQuota[0] != hour) {
+                githubQuota[0] = hour;
+                githubQuota[1] = 0;
+            }
+            if (charge) githubQuota[1]++;
+            used = githubQuota[1];
+        }
+        ex.getResponseHeaders().set("X-RateLimit-Limit", String.valueOf(githubRateLimit));
+        ex.getResponseHeaders().set("X-RateLimit-Remaining", String.valueOf(Math.max(0, githubRateLimit - used)));
+        ex.getResponseHeaders().set("X-RateLimit-Reset", String.valueOf((hour + 1) * 3600));
+    }
+
+    private static String queryParam(String rawQuery, String name) {
+        if (rawQuery == null) return null;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return java.net.URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void drain(HttpExchange ex) throws IOException {
+        ex.getRequestBody().readAllBytes();
+    }
+
+    private static void send(HttpExchange ex, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", contentType);
+        ex.sendResponseHeaders(status, bytes.length);
+        ex.getResponseBody().write(bytes);
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void count(String route) {
+        requests.computeIfAbsent(route, k -> new LongAdder()).increment();
+    }
+
+    /** Number of tickets the synthetic Jira search returns. */
+    public int getTickets() {
+        return tickets;
+    }
+
+    /** Requests served per route since startup. */
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> m = new TreeMap<>();
+        requests.forEach((k, v) -> m.put(k, v.sum()));
+        return m;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (server != null) server.stop(0);
+        if (executor != null) executor.shutdownNow();
+    }
+}
@@ -0,0 +1,164 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Two coordinators sharing one in-memory H2 database, with leases short enough to let them
+ * expire inside a test. Heartbeats are called by hand, so a node that "stops renewing" is
+ * simply one whose heartbeat is no longer called.
+ */
+class AgentClusterCoordinatorTest {
+
+    private static final long LEASE_MS = 500;
+
+    private JdbcTemplate jdbc;
+    private AgentClusterCoordinator a;
+    private AgentClusterCoordinator b;
+
+    private AgentClusterCoordinator node(String id, AgentClusterCoordinator.Mode mode) {
+        AgentClusterCoordinator c = new AgentClusterCoordinator();
+        ReflectionTestUtils.setField(c, "mode", mode);
+        ReflectionTestUtils.setField(c, "configuredNodeId", id);
+        ReflectionTestUtils.setField(c, "leaseMs", LEASE_MS);
+        ReflectionTestUtils.setField(c, "claimLeaseMs", LEASE_MS);
+        ReflectionTestUtils.setField(c, "doneRetentionMs", 60_000L);
+        ReflectionTestUtils.setField(c, "jdbcTemplate", jdbc);
+        c.start();
+        return c;
+    }
+
+    private void start(AgentClusterCoordinator.Mode mode) {
+        a = node("node-a", mode);
+        b = node("node-b", mode);
+        // a's list was read before b joined
+        a.heartbeat();
+    }
+
+    @BeforeEach
+    void database() {
+        jdbc = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:cluster-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", ""));
+    }
+
+    @AfterEach
+    void shutdownDatabase() {
+        jdbc.execute("SHUTDOWN");
+    }
+
+    private static void outliveLease() throws InterruptedException {
+        Thread.sleep(LEASE_MS + 150);
+    }
+
+    @Test
+    void liveClaimBlocksTheOtherNodeUntilItsLeaseExpires() throws Exception {
+        start(AgentClusterCoordinator.Mode.PARTITION);
+
+        assertThat(a.tryClaim("SCRUM-1")).isTrue();
+        assertThat(b.tryClaim("SCRUM-1")).isFalse();
+        // renewing keeps it
+        assertThat(a.tryClaim("SCRUM-1")).isTrue();
+
+        outliveLease();
+
+        assertThat(b.tryClaim("SCRUM-1")).isTrue();
+        assertThat(jdbc.queryForObject("SELECT node_id FROM agent_ticket_claims WHERE issue_key = 'SCRUM-1'", String.class)).isEqualTo("node-b");
+        // the node that lost the claim cannot complete or release it
+        a.complete("SCRUM-1");
+        a.release("SCRUM-1");
+        assertThat(jdbc.queryForObject("SELECT state FROM agent_ticket_claims WHERE issue_key = 'SCRUM-1'", String.class)).isEqualTo("CLAIMED");
+        assertThat(a.tryClaim("SCRUM-1")).isFalse();
+    }
+
+    @Test
+    void heartbeatKeepsAnInFlightClaimAlive() throws Exception {
+        start(AgentClusterCoordinator.Mode.PARTITION);
+        assertThat(a.tryClaim("SCRUM-2")).isTrue();
+
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(LEASE_MS / 2);
+            a.heartbeat();
+        }
+
+        assertThat(b.tryClaim("SCRUM-2")).isFalse();
+    }
+
+    @Test
+    void doneMarkerBlocksEveryReclaim() throws Exception {
+        start(AgentClusterCoordinator.Mode.PARTITION);
+        assertThat(a.tryClaim("SCRUM-3")).isTrue();
+        a.complete("SCRUM-3");
+
+        outliveLease();
+        b.heartbeat();
+
+        assertThat(b.tryClaim("SCRUM-3")).isFalse();
+        assertThat(a.tryClaim("SCRUM-3")).isFalse();
+        assertThat(jdbc.queryForObject("SELECT state FROM agent_ticket_claims WHERE issue_key = 'SCRUM-3'", String.class)).isEqualTo("DONE");
+    }
+
+    @Test
+    void leadershipFailsOverWhenTheLeaderStopsRenewing() throws Exception {
+        start(AgentClusterCoordinator.Mode.LEADER);
+        b.heartbeat();
+
+        assertThat(a.isLeader()).isTrue();
+        assertThat(b.isLeader()).isFalse();
+        assertThat(b.shouldPoll()).isFalse();
+
+        // a goes silent; its own view drops leadership before the lease runs out
+        outliveLease();
+        assertThat(a.isLeader()).isFalse();
+        b.heartbeat();
+
+        assertThat(b.isLeader()).isTrue();
+        assertThat(b.shouldPoll()).isTrue();
+        a.heartbeat();
+        assertThat(a.isLeader()).isFalse();
+        assertThat(jdbc.queryForObject("SELECT node_id FROM agent_cluster_leader WHERE id = 1", String.class)).isEqualTo("node-b");
+    }
+
+    @Test
+    void stoppedLeaderHandsOverWithoutWaitingForTheLease() {
+        start(AgentClusterCoordinator.Mode.LEADER);
+        assertThat(a.isLeader()).isTrue();
+
+        a.stop();
+        b.heartbeat();
+
+        assertThat(b.isLeader()).isTrue();
+    }
+
+    @Test
+    void liveNodesSplitTheKeysWithoutOverlap() throws Exception {
+        start(AgentClusterCoordinator.Mode.PARTITION);
+        b.heartbeat();
+
+        int ownedByA = 0;
+        int ownedByB = 0;
+        for (int i = 1; i <= 200; i++) {
+            String key = "SCRUM-" + i;
+            boolean byA = a.owns(key);
+            boolean byB = b.owns(key);
+            assertThat(byA ^ byB).as(key).isTrue();
+            if (byA) ownedByA++;
+            else ownedByB++;
+        }
+        assertThat(ownedByA).isBetween(50, 150);
+        assertThat(ownedByB).isBetween(50, 150);
+
+        // b stops heartbeating: once it falls out of the live list a owns everything
+        outliveLease();
+        a.heartbeat();
+        for (int i = 1; i <= 200; i++) {
+            assertThat(a.owns("SCRUM-" + i)).isTrue();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.cap.api.service.agent;
+
+import com.cap.api.service.JsonSupport;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AgentLogWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private AgentLogWriter writer;
+
+    private AgentLogWriter writer(long maxBytes, AgentLogWriter.FsyncPolicy fsync) {
+        writer = new AgentLogWriter();
+        ReflectionTestUtils.setField(writer, "queueCapacity", 16);
+        ReflectionTestUtils.setField(writer, "maxBatch", 512);
+        ReflectionTestUtils.setField(writer, "fsyncPolicy", fsync);
+        ReflectionTestUtils.setField(writer, "fsyncIntervalMs", 50L);
+        ReflectionTestUtils.setField(writer, "maxBytes", maxBytes);
+        ReflectionTestUtils.setField(writer, "rotateIntervalMs", 86_400_000L);
+        ReflectionTestUtils.setField(writer, "keepRotated", 10);
+        writer.start();
+        return writer;
+    }
+
+    @AfterEach
+    void stop() {
+        writer.stop();
+    }
+
+    private List<Path> gzipped() throws Exception {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(p -> p.getFileName().toString().endsWith(".jsonl.gz")).sorted().toList();
+        }
+    }
+
+    private static List<String> gunzip(Path gz) throws Exception {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(gz)), StandardCharsets.UTF_8))) {
+            return r.lines().toList();
+        }
+    }
+
+    @Test
+    void recordsRoundTripAsJsonLines() throws Exception {
+        Path file = dir.resolve("defect_agent_log.jsonl");
+        AgentLogWriter w = writer(10_485_760, AgentLogWriter.FsyncPolicy.BATCH);
+
+        assertThat(w.append(file, "suggested_fix", Map.of("issueKey", "SCRUM-1", "codeFix", "if (a == null) {\n  return \"x\";\n}"))).isTrue();
+        assertThat(w.append(file, "suggestion_batch", Map.of("bugs", List.of("SCRUM-2|R\u00e9sum\u00e9 upload fails", "SCRUM-3|NPE")))).isTrue();
+        assertThat(w.flush(5000)).isTrue();
+
+        List<String> lines = Files.readAllLines(file);
+        assertThat(lines).hasSize(2);
+        JsonNode first = JsonSupport.MAPPER.readTree(lines.get(0));
+        assertThat(first.path("type").asText()).isEqualTo("suggested_fix");
+        assertThat(first.path("ts").asText()).isNotEmpty();
+        assertThat(first.path("codeFix").asText()).isEqualTo("if (a == null) {\n  return \"x\";\n}");
+        JsonNode second = JsonSupport.MAPPER.readTree(lines.get(1));
+        assertThat(second.path("bugs").get(0).asText()).isEqualTo("SCRUM-2|R\u00e9sum\u00e9 upload fails");
+        assertThat(w.getStats()).containsEntry("written", 2L).containsEntry("dropped", 0L);
+    }
+
+    @Test
+    void sizeRotationProducesReadableGzipsWithoutOverwritingWithinOneSecond() throws Exception {
+        Path file = dir.resolve("defect_agent_log.jsonl");
+        AgentLogWriter w = writer(100, AgentLogWriter.FsyncPolicy.INTERVAL);
+
+        // every flushed batch crosses 100 bytes, so each one rotates; all within the same second or two
+        for (int i = 0; i < 4; i++) {
+            w.append(file, "suggested_fix", Map.of("issueKey", "SCRUM-" + i, "suggestion", "x".repeat(120)));
+            assertThat(w.flush(5000)).isTrue();
+        }
+        long until = System.currentTimeMillis() + 5000;
+        while (gzipped().size() < 4 && System.currentTimeMillis() < until) Thread.sleep(20);
+
+        List<Path> rotated = gzipped();
+        assertThat(rotated).hasSize(4);
+        List<String> keys = new ArrayList<>();
+        for (Path gz : rotated) {
+            assertThat(gz.getFileName().toString()).matches("defect_agent_log\\.\\d{8}-\\d{6}-\\d{3}\\.jsonl\\.gz");
+            for (String line : gunzip(gz)) keys.add(JsonSupport.MAPPER.readTree(line).path("issueKey").asText());
+        }
+        // sorted by name is oldest first, which is what pruning relies on
+        assertThat(keys).containsExactly("SCRUM-0", "SCRUM-1", "SCRUM-2", "SCRUM-3");
+        assertThat(file).doesNotExist();
+
+        w.append(file, "suggested_fix", Map.of("issueKey", "SCRUM-4"));
+        assertThat(w.flush(5000)).isTrue();
+        assertThat(Files.readAllLines(file)).hasSize(1);
+    }
+
+    @Test
+    void appendOnAFullQueueReturnsAtOnceAndCountsTheDrop() throws Exception {
+        Path file = dir.resolve("defect_agent_log.jsonl");
+        AgentLogWriter w = writer(10_485_760, AgentLogWriter.FsyncPolicy.NONE);
+        // with the writer thread gone nothing drains the queue
+        w.stop();
+
+        for (int i = 0; i < 16; i++) {
+            assertThat(w.append(file, "suggested_fix", Map.of("issueKey", "SCRUM-" + i))).isTrue();
+        }
+        long started = System.nanoTime();
+        boolean accepted = w.append(file, "suggested_fix", Map.of("issueKey", "SCRUM-16"));
+        long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+
+        assertThat(accepted).isFalse();
+        assertThat(elapsedMs).isLessThan(100);
+        assertThat(w.getStats()).containsEntry("dropped", 1L).containsEntry("queued", 16);
+        assertThat(w.flush(50)).isFalse();
+    }
+}
@@ -0,0 +1,117 @@
+package com.cap.api.service.agent;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AgentMetricsTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final AgentMetrics metrics = new AgentMetrics();
+
+    @BeforeEach
+    void init() {
+        ReflectionTestUtils.setField(metrics, "registry", registry);
+        metrics.init();
+    }
+
+    private double failures(String component, String cause) {
+        var counter = registry.find("agent.failures").tags("component", component, "cause", cause).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    @Test
+    void causeTagsAreLowCardinality() {
+        assertThat(AgentMetrics.cause(HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "throttled", null, null, null))).isEqualTo("http_429");
+        assertThat(AgentMetrics.cause(HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "down", null, null, null))).isEqualTo("http_503");
+        assertThat(AgentMetrics.cause(new SocketTimeoutException("Read timed out"))).isEqualTo("timeout");
+        assertThat(AgentMetrics.cause(new HttpTimeoutException("request timed out"))).isEqualTo("timeout");
+        // RestTemplate wraps I/O errors; the cause chain is walked
+        assertThat(AgentMetrics.cause(new ResourceAccessException("I/O error", new SocketTimeoutException("Read timed out")))).isEqualTo("timeout");
+        assertThat(AgentMetrics.cause(new ResourceAccessException("I/O error", new ConnectException("Connection refused")))).isEqualTo("connect");
+        assertThat(AgentMetrics.cause(new UnknownHostException("jira.example"))).isEqualTo("connect");
+        assertThat(AgentMetrics.cause(new UpstreamRateLimiter.UpstreamUnavailableException("circuit open"))).isEqualTo("unavailable");
+        assertThat(AgentMetrics.cause(new IllegalStateException("SCRUM-1 " + System.nanoTime()))).isEqualTo("IllegalStateException");
+        assertThat(AgentMetrics.cause(null)).isEqualTo("unknown");
+    }
+
+    @Test
+    void upstreamCallsAreTimedByOutcomeAndFailuresCountedByCause() throws Exception {
+        AtomicInteger seenInFlight = new AtomicInteger();
+        String body = metrics.timeUpstream("jira", "search", () -> {
+            seenInFlight.set((int) registry.get("agent.upstream.inflight").tag("upstream", "jira").gauge().value());
+            return "ok";
+        });
+        assertThatThrownBy(() -> metrics.timeUpstream("jira", "search", () -> {
+            throw HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "down", null, null, null);
+        })).isInstanceOf(HttpServerErrorException.class);
+
+        assertThat(body).isEqualTo("ok");
+        assertThat(seenInFlight.get()).isEqualTo(1);
+        assertThat(registry.get("agent.upstream.inflight").tag("upstream", "jira").gauge().value()).isZero();
+        Timer ok = registry.get("agent.upstream.requests").tags("upstream", "jira", "operation", "search", "outcome", "success").timer();
+        Timer failed = registry.get("agent.upstream.requests").tags("upstream", "jira", "operation", "search", "outcome", "http_503").timer();
+        assertThat(ok.count()).isEqualTo(1);
+        assertThat(failed.count()).isEqualTo(1);
+        assertThat(failures("jira", "http_503")).isEqualTo(1);
+    }
+
+    @Test
+    void gitCommandsAreTaggedByExitAndTimeout() {
+        metrics.recordGitCommand("push", 5_000_000, 0);
+        metrics.recordGitCommand("push", 5_000_000, 128);
+        metrics.recordGitCommand("fetch", 5_000_000, -1, true);
+
+        assertThat(registry.get("agent.git.command").tags("command", "push", "outcome", "success").timer().count()).isEqualTo(1);
+        assertThat(registry.get("agent.git.command").tags("command", "push", "outcome", "exit_nonzero").timer().count()).isEqualTo(1);
+        assertThat(registry.get("agent.git.command").tags("command", "fetch", "outcome", "timeout").timer().count()).isEqualTo(1);
+        assertThat(failures("git", "exit_128")).isEqualTo(1);
+        assertThat(failures("git", "timeout")).isEqualTo(1);
+        assertThat(failures("git", "exit_0")).isZero();
+    }
+
+    @Test
+    void stagesTokensAndGaugesAreRegistered() {
+        metrics.recordStage("llm", 1_000_000, true);
+        metrics.recordStage("llm", 1_000_000, false);
+        metrics.recordTokens("code_fix", 1200, 1024, 300);
+        metrics.recordTokens("code_fix", 100, 0);
+        AtomicInteger depth = new AtomicInteger(3);
+        metrics.gauge("agent.scheduler.depth", "Tickets waiting", depth::get, "queue", "tickets");
+        depth.set(5);
+
+        assertThat(registry.get("agent.pipeline.stage").tags("stage", "llm", "outcome", "success").timer().count()).isEqualTo(1);
+        assertThat(registry.get("agent.pipeline.stage").tags("stage", "llm", "outcome", "failure").timer().count()).isEqualTo(1);
+        assertThat(registry.get("agent.llm.tokens").tags("task", "code_fix", "type", "prompt").counter().count()).isEqualTo(1300);
+        assertThat(registry.get("agent.llm.tokens").tags("task", "code_fix", "type", "cached").counter().count()).isEqualTo(1024);
+        assertThat(registry.get("agent.llm.tokens").tags("task", "code_fix", "type", "completion").counter().count()).isEqualTo(300);
+        assertThat(registry.get("agent.scheduler.depth").tag("queue", "tickets").gauge().value()).isEqualTo(5);
+    }
+
+    @Test
+    void fallsBackToAnInMemoryRegistry() {
+        AgentMetrics standalone = new AgentMetrics();
+        standalone.init();
+
+        standalone.countFailure("jira", "http_429");
+
+        assertThat(standalone.getRegistry()).isInstanceOf(SimpleMeterRegistry.class);
+        assertThat(standalone.getRegistry().get("agent.failures").tag("cause", "http_429").counter().count()).isEqualTo(1);
+    }
+}
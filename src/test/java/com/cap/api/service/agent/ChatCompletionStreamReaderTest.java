@@ -0,0 +1,124 @@
+package com.cap.api.service.agent;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Reads completions from a local SSE stub that streams like Azure OpenAI with
+ * {@code stream_options.include_usage}: content chunks, then a usage chunk, then [DONE].
+ */
+class ChatCompletionStreamReaderTest {
+
+    private static final String USAGE = "{\"choices\":[],\"usage\":{\"prompt_tokens\":120,\"completion_tokens\":40,"
+        + "\"prompt_tokens_details\":{\"cached_tokens\":64}}}";
+
+    private HttpServer server;
+    private String url;
+    private final CountDownLatch clientGone = new CountDownLatch(1);
+
+    private static String chunk(String content) {
+        String escaped = content.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + escaped + "\"}}]}\n\n";
+    }
+
+    @BeforeEach
+    void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // the code block is complete after the third chunk; the commentary then takes 3 s to generate
+        server.createContext("/slow", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            try {
+                for (String part : List.of("```java\nint x = 1;\n", "x++;\n", "```")) {
+                    out.write(chunk(part).getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+                for (int i = 0; i < 30; i++) {
+                    Thread.sleep(100);
+                    out.write(chunk(" and some more explanation").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+                out.write(("data: " + USAGE + "\n\ndata: [DONE]\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException e) {
+                clientGone.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/slow";
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    void assemblesChunksAndReadsUsageAfterContent() throws IOException {
+        String sse = ": keep-alive\n\n" + chunk("Add a ") + chunk("null check.") + "data: " + USAGE + "\n\ndata: [DONE]\n\n";
+        List<Integer> progress = new ArrayList<>();
+
+        ChatCompletionStreamReader.Result result = ChatCompletionStreamReader.read(
+            new ByteArrayInputStream(sse.getBytes(StandardCharsets.UTF_8)), false, (chunks, chars) -> progress.add(chars));
+
+        assertThat(result.getContent()).isEqualTo("Add a null check.");
+        assertThat(result.getChunks()).isEqualTo(2);
+        assertThat(progress).containsExactly(6, 17);
+        assertThat(result.isUsageReported()).isTrue();
+        assertThat(result.getPromptTokens()).isEqualTo(120);
+        assertThat(result.getCachedTokens()).isEqualTo(64);
+        assertThat(result.getCompletionTokens()).isEqualTo(40);
+        assertThat(result.isTerminatedEarly()).isFalse();
+    }
+
+    @Test
+    void stopsAfterCodeBlockWithoutWaitingForTheRestOfTheGeneration() throws Exception {
+        RestTemplate restTemplate = new RestTemplate();
+
+        long started = System.currentTimeMillis();
+        ChatCompletionStreamReader.Result result = restTemplate.execute(url, HttpMethod.POST, null,
+            response -> ChatCompletionStreamReader.read(response.getBody(), true, null));
+        long elapsed = System.currentTimeMillis() - started;
+
+        assertThat(result.getContent()).isEqualTo("```java\nint x = 1;\nx++;\n```");
+        assertThat(result.isTerminatedEarly()).isTrue();
+        assertThat(result.isUsageReported()).isFalse();
+        // the stub needs 3 s for the remaining chunks; the client must not have drained them
+        assertThat(elapsed).isLessThan(2000);
+        assertThat(clientGone.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void readsToTheEndWhenNotStoppingEarly() throws Exception {
+        RestTemplate restTemplate = new RestTemplate();
+
+        ChatCompletionStreamReader.Result result = restTemplate.execute(url, HttpMethod.POST, null,
+            response -> ChatCompletionStreamReader.read(response.getBody(), false, null));
+
+        assertThat(result.getContent()).startsWith("```java").endsWith("explanation");
+        assertThat(result.isUsageReported()).isTrue();
+        assertThat(result.getCompletionTokens()).isEqualTo(40);
+    }
+}
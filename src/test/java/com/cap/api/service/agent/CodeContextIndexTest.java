@@ -0,0 +1,183 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Retrieval over a three-file fixture tree: a claim service, a payment service and a date
+ * helper, each with a few methods.
+ */
+class CodeContextIndexTest {
+
+    private static final Pattern CHUNK_HEADER = Pattern.compile("// (\\S+) lines (\\d+)-(\\d+)\n");
+    private static final String TICKET = "SCRUM-9|Resubmitted claim keeps the first amount|To Do|"
+        + "When a claim is resubmitted with a new amount, the stored amount is not updated.";
+
+    @TempDir
+    Path root;
+
+    private final CodeContextIndex index = new CodeContextIndex();
+
+    private void write(String path, String... lines) throws Exception {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, String.join("\n", lines) + "\n");
+    }
+
+    @BeforeEach
+    void fixture() throws Exception {
+        write("com/cap/demo/ClaimService.java",
+            "package com.cap.demo;",
+            "",
+            "import java.math.BigDecimal;",
+            "",
+            "public class ClaimService {",
+            "    private final ClaimRepository repository = new ClaimRepository();",
+            "",
+            "    /**",
+            "     * Stores a resubmitted claim; the resubmission's amount replaces the stored amount.",
+            "     */",
+            "    @Transactional",
+            "    public Claim resubmitClaim(String claimId, BigDecimal amount) {",
+            "        Claim existing = repository.find(claimId);",
+            "        if (existing == null) {",
+            "            throw new IllegalStateException(\"no claim } \" + claimId); // stray } in a string",
+            "        }",
+            "        existing.setAmount(amount);",
+            "        return repository.save(existing);",
+            "    }",
+            "",
+            "    public Claim findClaim(String claimId) {",
+            "        return repository.find(claimId);",
+            "    }",
+            "}");
+        write("com/cap/demo/PaymentService.java",
+            "package com.cap.demo;",
+            "",
+            "public class PaymentService {",
+            "    /** Refunds a settled payment to the original card. */",
+            "    public void refundPayment(String paymentId) {",
+            "        gateway.refund(paymentId);",
+            "    }",
+            "",
+            "    public void schedulePayment(String claimId, java.time.LocalDate due) {",
+            "        scheduler.schedule(claimId, due);",
+            "    }",
+            "}");
+        write("com/cap/demo/util/DateUtils.java",
+            "package com.cap.demo.util;",
+            "",
+            "public final class DateUtils {",
+            "    public static java.time.LocalDate parseDue(String text) {",
+            "        return java.time.LocalDate.parse(text);",
+            "    }",
+            "}");
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "sourceRoot", root.toString());
+        ReflectionTestUtils.setField(index, "maxChunkLines", 80);
+        ReflectionTestUtils.setField(index, "refreshMs", 0L);
+    }
+
+    /** Header line and text of each packed chunk, in packing order. */
+    private static List<String[]> packed(String context) {
+        List<String[]> out = new ArrayList<>();
+        if (context.isEmpty()) return out;
+        int close = context.lastIndexOf("```");
+        Matcher m = CHUNK_HEADER.matcher(context);
+        List<int[]> spans = new ArrayList<>();
+        while (m.find()) spans.add(new int[] {m.start(), m.end()});
+        for (int i = 0; i < spans.size(); i++) {
+            int end = i + 1 < spans.size() ? spans.get(i + 1)[0] : close;
+            // each chunk is followed by one newline that is not part of its text
+            out.add(new String[] {context.substring(spans.get(i)[0], spans.get(i)[1]), context.substring(spans.get(i)[1], end - 1)});
+        }
+        return out;
+    }
+
+    /** "file:start-end" of each packed chunk, in packing order. */
+    private static List<String> chunks(String context) {
+        List<String> out = new ArrayList<>();
+        for (String[] chunk : packed(context)) {
+            Matcher m = CHUNK_HEADER.matcher(chunk[0]);
+            m.find();
+            out.add(Path.of(m.group(1)).getFileName() + ":" + m.group(2) + "-" + m.group(3));
+        }
+        return out;
+    }
+
+    @Test
+    void mostRelevantMethodRanksFirstWithItsJavadocAndAnnotation() {
+        String context = index.buildContext(TICKET, 4000);
+
+        // lines 8-19: Javadoc, annotation and body, ending at the method's own closing brace
+        assertThat(chunks(context)).first().isEqualTo("ClaimService.java:8-19");
+        assertThat(packed(context).get(0)[1]).startsWith("    /**").endsWith("        return repository.save(existing);\n    }")
+            .contains("@Transactional", "no claim } ").doesNotContain("findClaim", "class ClaimService");
+        assertThat(chunks(context)).doesNotContain("DateUtils.java:4-6");
+    }
+
+    @Test
+    void packedContextStaysWithinTheTokenBudget() {
+        String[] top = packed(index.buildContext(TICKET, 4000)).get(0);
+        int best = TokenEstimator.estimate(top[0]) + TokenEstimator.estimate(top[1]);
+        for (int budget : new int[] {best, best + 40, 150, 400}) {
+            int used = 0;
+            for (String[] chunk : packed(index.buildContext(TICKET, budget))) {
+                used += TokenEstimator.estimate(chunk[0]) + TokenEstimator.estimate(chunk[1]);
+            }
+            assertThat(used).as("budget %d", budget).isPositive().isLessThanOrEqualTo(budget);
+        }
+        assertThat(chunks(index.buildContext(TICKET, best))).containsExactly("ClaimService.java:8-19");
+        assertThat(chunks(index.buildContext(TICKET, 400))).hasSizeGreaterThan(1).first().isEqualTo("ClaimService.java:8-19");
+        // nothing fits: no context rather than a truncated snippet
+        assertThat(index.buildContext(TICKET, 10)).isEmpty();
+    }
+
+    @Test
+    void unrelatedQueryYieldsNoContext() {
+        assertThat(index.buildContext("Kafka consumer lag alert", 4000)).isEmpty();
+    }
+
+    @Test
+    void longMethodsAreSplitIntoWindows() throws Exception {
+        List<String> lines = new ArrayList<>(List.of("package com.cap.demo;", "", "public class Ledger {", "    public void reconcileLedger() {"));
+        for (int i = 0; i < 25; i++) lines.add("        reconcileEntry(" + i + ");");
+        lines.add("    }");
+        lines.add("}");
+        write("com/cap/demo/Ledger.java", lines.toArray(new String[0]));
+        ReflectionTestUtils.setField(index, "maxChunkLines", 10);
+
+        List<String> packed = chunks(index.buildContext("reconcile ledger entry", 4000));
+
+        assertThat(packed).contains("Ledger.java:4-13", "Ledger.java:14-23", "Ledger.java:24-30");
+    }
+
+    @Test
+    void tokenizerSplitsIdentifiersAndDropsKeywords() {
+        assertThat(CodeContextIndex.tokenize("public Claim resubmitClaim(String claimId) // HTTPServer_url"))
+            .containsExactly("claim", "resubmitclaim", "resubmit", "claim", "claimid", "claim", "id", "httpserver_url", "http", "server", "url");
+    }
+
+    @Test
+    void tokenEstimatesFollowTheBpeRules() {
+        assertThat(TokenEstimator.estimate(null)).isZero();
+        assertThat(TokenEstimator.estimate("")).isZero();
+        // 13 letters -> 4, "(" ")" ";" -> 3
+        assertThat(TokenEstimator.estimate("resubmitClaim();")).isEqualTo(7);
+        // 7 digits -> 3
+        assertThat(TokenEstimator.estimate("1234567")).isEqualTo(3);
+        // newline 1, eight spaces of indentation 2, "x" 1
+        assertThat(TokenEstimator.estimate("\n        x")).isEqualTo(4);
+    }
+}
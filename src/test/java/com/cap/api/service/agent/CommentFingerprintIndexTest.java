@@ -0,0 +1,143 @@
+package com.cap.api.service.agent;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The index on its own, and behind {@code updateJiraWithComment} against a Jira stand-in
+ * that pages an issue's comments 100 at a time.
+ */
+class CommentFingerprintIndexTest {
+
+    private static final String POSTED = "Code fix done and PR raised: https://github.com/o/r/pull/7\n\nAgent suggestion:\nGuard the null amount.";
+
+    @TempDir
+    Path dir;
+
+    private HttpServer jira;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final List<String> remoteComments = new ArrayList<>();
+
+    @BeforeEach
+    void startJira() throws IOException {
+        jira = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        jira.createContext("/rest/api/3/issue/", this::handle);
+        jira.start();
+    }
+
+    @AfterEach
+    void stopJira() {
+        jira.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        String query = exchange.getRequestURI().getQuery();
+        requests.add(exchange.getRequestMethod() + " " + (query == null ? "" : query));
+        String body;
+        int status = 200;
+        if ("GET".equals(exchange.getRequestMethod())) {
+            int startAt = Integer.parseInt(query.replaceAll(".*startAt=(\\d+).*", "$1"));
+            int maxResults = Integer.parseInt(query.replaceAll(".*maxResults=(\\d+).*", "$1"));
+            StringBuilder sb = new StringBuilder("{\"startAt\":" + startAt + ",\"maxResults\":" + maxResults + ",\"total\":" + remoteComments.size() + ",\"comments\":[");
+            for (int i = startAt; i < Math.min(remoteComments.size(), startAt + maxResults); i++) {
+                if (i > startAt) sb.append(',');
+                sb.append("{\"id\":\"").append(i).append("\",\"body\":{\"type\":\"doc\",\"version\":1,\"content\":[{\"type\":\"paragraph\",\"content\":[")
+                    .append("{\"type\":\"text\",\"text\":\"").append(remoteComments.get(i).replace("\n", "\\n")).append("\"}]}]}}");
+            }
+            body = sb.append("]}").toString();
+        } else {
+            status = 201;
+            body = "{\"id\":\"new\"}";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private CommentFingerprintIndex index() {
+        CommentFingerprintIndex index = new CommentFingerprintIndex(dir.resolve("comment_fingerprints.txt"));
+        index.load();
+        return index;
+    }
+
+    private DefectProcessingAgent agent(CommentFingerprintIndex index) {
+        DefectProcessingAgent agent = new DefectProcessingAgent();
+        ReflectionTestUtils.setField(agent, "jiraUrl", "http://127.0.0.1:" + jira.getAddress().getPort());
+        ReflectionTestUtils.setField(agent, "encodedAuth", "dXNlcjp0b2tlbg==");
+        ReflectionTestUtils.setField(agent, "commentIndex", index);
+        return agent;
+    }
+
+    private static void comment(DefectProcessingAgent agent, String bug, String comment) {
+        ReflectionTestUtils.invokeMethod(agent, "updateJiraWithComment", bug, comment);
+    }
+
+    @Test
+    void whitespaceDoesNotChangeTheFingerprint() {
+        assertThat(CommentFingerprintIndex.fingerprint("Agent suggestion:\nGuard the  null amount.\n"))
+            .isEqualTo(CommentFingerprintIndex.fingerprint("Agent suggestion: Guard the null amount."))
+            .isNotEqualTo(CommentFingerprintIndex.fingerprint("Agent suggestion: Guard the null total."))
+            .hasSize(32);
+        assertThat(CommentFingerprintIndex.fingerprint(null)).isEqualTo(CommentFingerprintIndex.fingerprint(" \n"));
+    }
+
+    @Test
+    void postedCommentsAndSyncedIssuesSurviveARestart() {
+        CommentFingerprintIndex index = index();
+        index.add("SCRUM-1", POSTED);
+        index.addRemote("SCRUM-2", List.of("From a developer", "From QA"));
+
+        CommentFingerprintIndex reloaded = index();
+
+        assertThat(reloaded.contains("SCRUM-1", POSTED)).isTrue();
+        assertThat(reloaded.isSynced("SCRUM-1")).isFalse();
+        assertThat(reloaded.contains("SCRUM-2", "From  QA")).isTrue();
+        assertThat(reloaded.isSynced("SCRUM-2")).isTrue();
+        assertThat(reloaded.contains("SCRUM-1", "From QA")).isFalse();
+        assertThat(reloaded.size()).isEqualTo(3);
+    }
+
+    @Test
+    void missOnAnUnsyncedIssueReadsEveryCommentPageOnceAndSkipsTheDuplicate() {
+        for (int i = 0; i < 130; i++) remoteComments.add("Comment " + i);
+        // Jira re-rendered the agent's earlier comment with its line breaks as spaces; it sits on the second page
+        remoteComments.set(120, POSTED.replace("\n", " "));
+        CommentFingerprintIndex index = index();
+        DefectProcessingAgent agent = agent(index);
+
+        comment(agent, "SCRUM-615|Claim total off by one|To Do|desc", POSTED);
+
+        assertThat(requests).containsExactly("GET startAt=0&maxResults=100", "GET startAt=100&maxResults=100");
+        assertThat(index.isSynced("SCRUM-615")).isTrue();
+        assertThat(index.size()).isEqualTo(130);
+
+        // synced: a new comment is posted without listing the issue again, and a repeat is skipped locally
+        requests.clear();
+        comment(agent, "SCRUM-615|Claim total off by one|To Do|desc", "Follow-up: fix merged.");
+        comment(agent, "SCRUM-615|Claim total off by one|To Do|desc", "Follow-up:  fix merged.");
+        assertThat(requests).containsExactly("POST ");
+
+        // after a restart the index answers from the file alone
+        requests.clear();
+        comment(agent(index()), "SCRUM-615|Claim total off by one|To Do|desc", POSTED);
+        assertThat(requests).isEmpty();
+    }
+}
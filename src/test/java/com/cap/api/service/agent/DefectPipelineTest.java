@@ -0,0 +1,60 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DefectPipelineTest {
+
+    private final List<String> finished = new CopyOnWriteArrayList<>();
+
+    private DefectPipeline pipeline(DefectPipeline.StageHandler llm) {
+        DefectPipeline pipeline = new DefectPipeline(1, 1, 1, 4, 1000, llm, t -> { }, t -> { });
+        pipeline.setCompletionListener((ticket, succeeded) -> finished.add(ticket.getIssueKey() + "=" + succeeded));
+        return pipeline;
+    }
+
+    @Test
+    void ticketPassesThroughEveryStage() throws Exception {
+        DefectPipeline pipeline = pipeline(t -> t.setCodeFix("fix"));
+
+        assertThat(pipeline.submit(new DefectPipeline.Ticket("SCRUM-1", "bug"))).isTrue();
+
+        assertThat(pipeline.awaitIdle(5000)).isTrue();
+        assertThat(finished).containsExactly("SCRUM-1=true");
+        assertThat(pipeline.getInFlightCount()).isZero();
+        pipeline.shutdown(1000);
+    }
+
+    @Test
+    void ticketOutlivingShutdownIsFinishedAsFailed() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        // ignores interrupts, like a handler stuck in a blocking HTTP read
+        DefectPipeline pipeline = pipeline(t -> {
+            started.countDown();
+            long until = System.currentTimeMillis() + 500;
+            while (System.currentTimeMillis() < until) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ignored) {
+                    // keep going
+                }
+            }
+        });
+        assertThat(pipeline.submit(new DefectPipeline.Ticket("SCRUM-2", "bug"))).isTrue();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // the LLM stage gives up after 100 ms and the git stage closes while the handler still runs
+        pipeline.shutdown(100);
+
+        assertThat(pipeline.awaitIdle(5000)).isTrue();
+        assertThat(finished).containsExactly("SCRUM-2=false");
+        assertThat(pipeline.isInFlight("SCRUM-2")).isFalse();
+        assertThat(pipeline.submit(new DefectPipeline.Ticket("SCRUM-3", "bug"))).isFalse();
+    }
+}
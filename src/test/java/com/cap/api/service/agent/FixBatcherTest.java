@@ -0,0 +1,95 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FixBatcherTest {
+
+    private final List<String> pushed = new CopyOnWriteArrayList<>();
+    private FixBatcher batcher;
+
+    private FixBatcher batcher(long windowMs, int maxTickets, FixBatcher.BatchHandler handler) {
+        batcher = new FixBatcher(windowMs, maxTickets, 2, handler);
+        return batcher;
+    }
+
+    private void record(String component, List<DefectPipeline.Ticket> tickets) {
+        pushed.add(component + "=" + tickets.stream().map(DefectPipeline.Ticket::getIssueKey).toList());
+    }
+
+    private static DefectPipeline.Ticket ticket(String key) {
+        return new DefectPipeline.Ticket(key, "bug");
+    }
+
+    @AfterEach
+    void stop() {
+        batcher.shutdown(1000);
+    }
+
+    @Test
+    void ticketsForOneComponentShareABatchUntilTheWindowCloses() throws Exception {
+        FixBatcher b = batcher(200, 10, this::record);
+
+        CompletableFuture<Void> first = b.add("ClaimService", ticket("SCRUM-1"));
+        CompletableFuture<Void> other = b.add("RiskService", ticket("SCRUM-2"));
+        CompletableFuture<Void> second = b.add("ClaimService", ticket("SCRUM-3"));
+        CompletableFuture.allOf(first, other, second).get(5, TimeUnit.SECONDS);
+
+        assertThat(pushed).containsExactlyInAnyOrder("ClaimService=[SCRUM-1, SCRUM-3]", "RiskService=[SCRUM-2]");
+    }
+
+    @Test
+    void fullBatchIsPushedWithoutWaitingForTheWindow() throws Exception {
+        FixBatcher b = batcher(60_000, 2, this::record);
+
+        b.add("ClaimService", ticket("SCRUM-1"));
+        b.add("ClaimService", ticket("SCRUM-2")).get(5, TimeUnit.SECONDS);
+
+        assertThat(pushed).containsExactly("ClaimService=[SCRUM-1, SCRUM-2]");
+    }
+
+    @Test
+    void failedPushFailsEveryTicketOfTheBatch() {
+        FixBatcher b = batcher(60_000, 2, (component, tickets) -> {
+            throw new IllegalStateException("push rejected");
+        });
+
+        CompletableFuture<Void> first = b.add("ClaimService", ticket("SCRUM-1"));
+        CompletableFuture<Void> second = b.add("ClaimService", ticket("SCRUM-2"));
+
+        assertThatThrownBy(() -> first.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class).hasMessageContaining("push rejected");
+        assertThatThrownBy(() -> second.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+        assertThat(b.getStats()).containsEntry("failedBatches", 1L);
+    }
+
+    @Test
+    void shutdownFlushesOpenBatchesAndThenDeclinesNewTickets() throws Exception {
+        FixBatcher b = batcher(60_000, 10, this::record);
+        CompletableFuture<Void> waiting = b.add("ClaimService", ticket("SCRUM-1"));
+
+        b.shutdown(5000);
+
+        assertThat(waiting).isCompleted();
+        assertThat(pushed).containsExactly("ClaimService=[SCRUM-1]");
+        assertThat(b.add("ClaimService", ticket("SCRUM-2"))).isNull();
+    }
+
+    @Test
+    void drainingHandlesNewTicketsImmediately() throws Exception {
+        FixBatcher b = batcher(60_000, 10, this::record);
+        b.drain();
+
+        b.add("ClaimService", ticket("SCRUM-1")).get(5, TimeUnit.SECONDS);
+
+        assertThat(pushed).containsExactly("ClaimService=[SCRUM-1]");
+    }
+}
@@ -0,0 +1,45 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FixBundleTest {
+
+    @Test
+    void parsesCompleteObject() {
+        FixBundle bundle = FixBundle.parse("{\"summary\":\"NPE on save\",\"rationale\":\"Guard null\",\"codeFix\":\"class A {}\"}");
+
+        assertThat(bundle.getSummary()).isEqualTo("NPE on save");
+        assertThat(bundle.getRationale()).isEqualTo("Guard null");
+        assertThat(bundle.getCodeFix()).isEqualTo("class A {}");
+        assertThat(bundle.missingFields()).isEmpty();
+    }
+
+    @Test
+    void keepsMembersBeforeTruncation() {
+        // cut off at max_tokens in the middle of the code
+        String truncated = "```json\n{\"summary\":\"NPE on save\",\"rationale\":\"Guard null\",\"codeFix\":\"public class A {\\n    void save(";
+
+        FixBundle bundle = FixBundle.parse(truncated);
+
+        assertThat(bundle.getSummary()).isEqualTo("NPE on save");
+        assertThat(bundle.getRationale()).isEqualTo("Guard null");
+        assertThat(bundle.missingFields()).containsExactly("codeFix");
+    }
+
+    @Test
+    void ignoresBlankAndNonStringMembers() {
+        FixBundle bundle = FixBundle.parse("```\n{\"summary\":\" \",\"rationale\":{\"text\":\"x\"},\"codeFix\":\"int x;\"}\n```");
+
+        assertThat(bundle.missingFields()).containsExactly("summary", "rationale");
+        assertThat(bundle.getCodeFix()).isEqualTo("int x;");
+    }
+
+    @Test
+    void proseYieldsEmptyBundle() {
+        assertThat(FixBundle.parse("Sorry, I cannot help with that.").missingFields())
+            .containsExactly("summary", "rationale", "codeFix");
+        assertThat(FixBundle.parse(null).missingFields()).hasSize(3);
+    }
+}
@@ -0,0 +1,120 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FixCompilerTest {
+
+    @TempDir
+    Path tmp;
+
+    private FixCompiler compiler(String classpath) throws IOException {
+        Path sources = Files.createDirectories(tmp.resolve("src/com/cap/demo"));
+        Files.writeString(sources.resolve("Claim.java"), "package com.cap.demo;\npublic class Claim { public int amount; }\n");
+        FixCompiler c = new FixCompiler();
+        ReflectionTestUtils.setField(c, "enabled", true);
+        ReflectionTestUtils.setField(c, "classpath", classpath);
+        ReflectionTestUtils.setField(c, "extractDir", tmp.resolve("extract").toString());
+        ReflectionTestUtils.setField(c, "sourceRoot", tmp.resolve("src").toString());
+        ReflectionTestUtils.setField(c, "maxDiagnostics", 10);
+        ReflectionTestUtils.setField(c, "cacheSize", 16);
+        c.init();
+        return c;
+    }
+
+    /** Compiles one class and returns the directory holding its class file. */
+    private Path compile(String name, String binaryName, String source) throws IOException {
+        Path src = Files.createDirectories(tmp.resolve("build-src-" + name)).resolve(binaryName.substring(binaryName.lastIndexOf('.') + 1) + ".java");
+        Files.writeString(src, source);
+        Path out = Files.createDirectories(tmp.resolve("build-out-" + name));
+        assertThat(ToolProvider.getSystemJavaCompiler().run(null, null, null, "-d", out.toString(), src.toString())).isZero();
+        return out;
+    }
+
+    private static void addTree(JarOutputStream jar, Path dir, String prefix) throws IOException {
+        try (var files = Files.walk(dir)) {
+            for (Path f : files.filter(Files::isRegularFile).toList()) {
+                jar.putNextEntry(new JarEntry(prefix + dir.relativize(f).toString().replace('\\', '/')));
+                jar.write(Files.readAllBytes(f));
+                jar.closeEntry();
+            }
+        }
+    }
+
+    /** A Spring Boot style jar: application classes under BOOT-INF/classes, dependencies nested under BOOT-INF/lib. */
+    private Path fatJar() throws IOException {
+        Path libClasses = compile("lib", "dep.lib.Helper", "package dep.lib;\npublic class Helper { public static int one() { return 1; } }\n");
+        Path lib = tmp.resolve("helper.jar");
+        try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(lib))) {
+            addTree(jar, libClasses, "");
+        }
+        Path appClasses = compile("app", "dep.app.AppBase", "package dep.app;\npublic class AppBase { }\n");
+        Path fat = tmp.resolve("app.jar");
+        try (OutputStream os = Files.newOutputStream(fat); JarOutputStream jar = new JarOutputStream(os)) {
+            jar.putNextEntry(new JarEntry("BOOT-INF/"));
+            jar.closeEntry();
+            jar.putNextEntry(new JarEntry("BOOT-INF/classes/"));
+            jar.closeEntry();
+            addTree(jar, appClasses, "BOOT-INF/classes/");
+            jar.putNextEntry(new JarEntry("BOOT-INF/lib/helper.jar"));
+            jar.write(Files.readAllBytes(lib));
+            jar.closeEntry();
+        }
+        return fat;
+    }
+
+    @Test
+    void passesAValidFixAndReportsErrorsOfABrokenOne() throws IOException {
+        FixCompiler c = compiler(System.getProperty("java.class.path"));
+
+        FixCompiler.Result ok = c.check("```java\npackage com.cap.demo;\npublic class ClaimService {\n"
+            + "    int total(Claim c) { return c.amount; }\n}\n```");
+        FixCompiler.Result broken = c.check("package com.cap.demo;\npublic class ClaimService {\n"
+            + "    int total(Claim c) { return c.missing; }\n}\n");
+
+        assertThat(ok.status()).isEqualTo(FixCompiler.Status.PASSED);
+        assertThat(broken.status()).isEqualTo(FixCompiler.Status.FAILED);
+        assertThat(broken.diagnosticsText()).startsWith("line 3: ").contains("missing");
+    }
+
+    @Test
+    void fixAgainstClassesNestedInABootJarCompiles() throws IOException {
+        Path fat = fatJar();
+        FixCompiler c = compiler(fat.toString());
+
+        FixCompiler.Result result = c.check("package com.cap.demo;\nimport dep.app.AppBase;\nimport dep.lib.Helper;\n"
+            + "public class ClaimService extends AppBase {\n    int one() { return Helper.one(); }\n}\n");
+
+        assertThat(result.status()).as(result.diagnosticsText()).isEqualTo(FixCompiler.Status.PASSED);
+        assertThat(FixCompiler.expandBootJars(fat.toString(), tmp.resolve("extract")))
+            .hasSize(2)
+            .allMatch(e -> e.startsWith(tmp.resolve("extract").toString()));
+    }
+
+    @Test
+    void unresolvedExternalPackageSkipsInsteadOfFailing() throws IOException {
+        FixCompiler c = compiler(tmp.resolve("nothing-here").toString());
+
+        FixCompiler.Result external = c.check("package com.cap.demo;\nimport org.springframework.stereotype.Service;\n"
+            + "@Service\npublic class ClaimService { }\n");
+        FixCompiler.Result project = c.check("package com.cap.demo;\nimport com.cap.demo.missing.Thing;\n"
+            + "public class ClaimService { Thing t; }\n");
+
+        assertThat(external.status()).isEqualTo(FixCompiler.Status.SKIPPED);
+        assertThat(external.diagnosticsText()).contains("org.springframework.stereotype");
+        // a package that should be in the project sources is the fix's fault
+        assertThat(project.status()).isEqualTo(FixCompiler.Status.FAILED);
+        assertThat(c.getStats()).containsEntry("skipped", 1L).containsEntry("failed", 1L);
+    }
+}
@@ -0,0 +1,109 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Starts the service against a working copy cloned from a local bare remote and checks which
+ * commit path it prepares.
+ */
+class GitAgentServiceTest {
+
+    private static final Map<String, String> IDENTITY = Map.of(
+        "GIT_AUTHOR_NAME", "Seed", "GIT_AUTHOR_EMAIL", "seed@example.com",
+        "GIT_COMMITTER_NAME", "Seed", "GIT_COMMITTER_EMAIL", "seed@example.com",
+        "GIT_CONFIG_NOSYSTEM", "1");
+
+    @TempDir
+    Path tmp;
+
+    private final ProcessExecutor executor = new ProcessExecutor();
+    private GitAgentService service;
+
+    @BeforeEach
+    void seed() throws Exception {
+        ReflectionTestUtils.setField(executor, "maxConcurrent", 4);
+        ReflectionTestUtils.setField(executor, "defaultTimeoutMs", 30_000L);
+        ReflectionTestUtils.setField(executor, "outputLimitBytes", 65536);
+        executor.init();
+
+        File remote = tmp.resolve("remote.git").toFile();
+        git(tmp.toFile(), "init", "--bare", "-b", "main", remote.getPath());
+        git(remote, "config", "uploadpack.allowFilter", "true");
+        File repo = tmp.resolve("repo").toFile();
+        git(tmp.toFile(), "clone", "file://" + remote.getPath(), repo.getPath());
+        Files.writeString(repo.toPath().resolve("README.md"), "readme\n");
+        git(repo, "add", "-A");
+        git(repo, "commit", "-m", "Initial import");
+        git(repo, "push", "origin", "HEAD:main");
+    }
+
+    @AfterEach
+    void stop() {
+        if (service != null) service.shutdown();
+        executor.shutdown();
+    }
+
+    private void git(File dir, String... args) throws Exception {
+        String[] command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy(args, 0, command, 1, args.length);
+        ProcessExecutor.Result result = executor.run(dir, IDENTITY, null, 30_000, command);
+        assertThat(result.exitCode()).as("%s: %s", String.join(" ", command), result.stderr()).isZero();
+    }
+
+    private GitAgentService service(Path mirrorDir) {
+        service = new GitAgentService();
+        ReflectionTestUtils.setField(service, "processExecutor", executor);
+        ReflectionTestUtils.setField(service, "repoDir", tmp.resolve("repo").toString());
+        ReflectionTestUtils.setField(service, "worktreesEnabled", true);
+        ReflectionTestUtils.setField(service, "worktreeRoot", tmp.resolve("worktrees").toString());
+        ReflectionTestUtils.setField(service, "worktreePoolSize", 2);
+        ReflectionTestUtils.setField(service, "worktreeAcquireTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(service, "plumbingEnabled", true);
+        ReflectionTestUtils.setField(service, "mirrorDir", mirrorDir.toString());
+        ReflectionTestUtils.setField(service, "mirrorFilter", "blob:none");
+        ReflectionTestUtils.setField(service, "gitAuthorName", "Defect Agent");
+        ReflectionTestUtils.setField(service, "gitAuthorEmail", "agent@example.com");
+        ReflectionTestUtils.setField(service, "gitTimeoutMs", 30_000L);
+        ReflectionTestUtils.setField(service, "gitNetworkTimeoutMs", 30_000L);
+        service.logToken();
+        return service;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> section(GitAgentService service, String name) {
+        return (Map<String, Object>) service.getWorktreeStats().get(name);
+    }
+
+    @Test
+    void worktreesAreNotStartedWhenPlumbingIsAvailable() {
+        GitAgentService s = service(tmp.resolve("mirror.git"));
+
+        assertThat(section(s, "plumbing")).doesNotContainEntry("enabled", false);
+        assertThat(section(s, "worktrees")).containsEntry("enabled", false);
+        // no pool directory: the manager never pruned or claimed anything
+        assertThat(tmp.resolve("worktrees")).doesNotExist();
+    }
+
+    @Test
+    void worktreesTakeOverWhenTheMirrorCannotBePrepared() throws Exception {
+        Path notADirectory = Files.writeString(tmp.resolve("mirror.git"), "in the way\n");
+
+        GitAgentService s = service(notADirectory);
+
+        assertThat(section(s, "plumbing")).containsEntry("enabled", false);
+        assertThat(section(s, "worktrees")).containsEntry("maxWorktrees", 2);
+        assertThat(tmp.resolve("worktrees")).isDirectory();
+    }
+}
@@ -0,0 +1,163 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the plumbing against real git: a bare "remote" seeded with a small source tree, a
+ * working copy cloned from it as the source repository, and a blobless bare mirror.
+ */
+class GitCommitBuilderTest {
+
+    private static final Map<String, String> IDENTITY = Map.of(
+        "GIT_AUTHOR_NAME", "Seed", "GIT_AUTHOR_EMAIL", "seed@example.com",
+        "GIT_COMMITTER_NAME", "Seed", "GIT_COMMITTER_EMAIL", "seed@example.com",
+        "GIT_CONFIG_NOSYSTEM", "1");
+
+    @TempDir
+    Path tmp;
+
+    private final ProcessExecutor executor = new ProcessExecutor();
+    private File remote;
+    private String base;
+
+    @BeforeEach
+    void seed() throws Exception {
+        ReflectionTestUtils.setField(executor, "maxConcurrent", 4);
+        ReflectionTestUtils.setField(executor, "defaultTimeoutMs", 30_000L);
+        ReflectionTestUtils.setField(executor, "outputLimitBytes", 65536);
+        executor.init();
+
+        remote = tmp.resolve("remote.git").toFile();
+        git(tmp.toFile(), "init", "--bare", "-b", "main", remote.getPath());
+        git(remote, "config", "uploadpack.allowFilter", "true");
+        File seed = tmp.resolve("seed").toFile();
+        git(tmp.toFile(), "clone", "file://" + remote.getPath(), seed.getPath());
+        write(seed, "README.md", "readme\n");
+        write(seed, "src/main/java/com/cap/Claim.java", "class Claim {}\n");
+        write(seed, "src/main/java/com/cap/ClaimService.java", "class ClaimService {}\n");
+        write(seed, "src/main/java/com/cap/util/Dates.java", "class Dates {}\n");
+        write(seed, "src/main/resources/application.properties", "server.port=8080\n");
+        git(seed, "add", "-A");
+        git(seed, "commit", "-m", "Initial import");
+        git(seed, "push", "origin", "HEAD:main");
+        base = git(remote, "rev-parse", "main");
+    }
+
+    @AfterEach
+    void stop() {
+        executor.shutdown();
+    }
+
+    private static void write(File repo, String path, String content) throws Exception {
+        Path file = repo.toPath().resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private GitCommitBuilder.Output exec(File dir, Map<String, String> env, String stdin, String... command) throws Exception {
+        Map<String, String> environment = new java.util.HashMap<>(IDENTITY);
+        if (env != null) environment.putAll(env);
+        ProcessExecutor.Result result = executor.run(dir, environment, stdin, 30_000, command);
+        return new GitCommitBuilder.Output(result.exitCode(), result.stdout(), result.stderr());
+    }
+
+    private String git(File dir, String... args) throws Exception {
+        String[] command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy(args, 0, command, 1, args.length);
+        GitCommitBuilder.Output out = exec(dir, null, null, command);
+        assertThat(out.exitCode()).as("%s: %s", String.join(" ", command), out.stderr()).isZero();
+        return out.line();
+    }
+
+    private GitCommitBuilder builder() throws Exception {
+        GitCommitBuilder builder = new GitCommitBuilder(tmp.resolve("seed").toFile(), tmp.resolve("mirrors/repo.git").toFile(),
+            "origin", "main", "blob:none", 0, "Defect Agent", "agent@example.com", this::exec);
+        builder.start();
+        return builder;
+    }
+
+    private String treeOf(String rev, String path) throws Exception {
+        return git(remote, "rev-parse", rev + ":" + path);
+    }
+
+    @Test
+    void nestedEditRewritesEveryTreeOnThePathAndKeepsSiblings() throws Exception {
+        GitCommitBuilder builder = builder();
+
+        String commit = builder.commitFile("defect/SCRUM-1", "src/main/java/com/cap/ClaimService.java",
+            "class ClaimService { void fixed() {} }\n", "SCRUM-1: fix claim service");
+
+        // the mirror is a partial clone: the commit was built without the base's blobs
+        assertThat(git(builder.getMirror().toFile(), "config", "--get", "remote.origin.promisor")).isEqualTo("true");
+        assertThat(git(remote, "rev-parse", "refs/heads/defect/SCRUM-1")).isEqualTo(commit);
+        assertThat(git(remote, "rev-parse", commit + "^")).isEqualTo(base);
+        assertThat(git(remote, "log", "-1", "--format=%an <%ae>|%s", commit)).isEqualTo("Defect Agent <agent@example.com>|SCRUM-1: fix claim service");
+        assertThat(git(remote, "show", commit + ":src/main/java/com/cap/ClaimService.java")).isEqualTo("class ClaimService { void fixed() {} }");
+        // only the edited file differs, and only the trees on its path were rewritten
+        assertThat(git(remote, "diff", "--name-only", base, commit)).isEqualTo("src/main/java/com/cap/ClaimService.java");
+        for (String dir : List.of("", "src", "src/main", "src/main/java", "src/main/java/com", "src/main/java/com/cap")) {
+            assertThat(treeOf(commit, dir)).as(dir).isNotEqualTo(treeOf(base, dir));
+        }
+        for (String kept : List.of("src/main/resources", "src/main/java/com/cap/util", "README.md", "src/main/java/com/cap/Claim.java")) {
+            assertThat(treeOf(commit, kept)).as(kept).isEqualTo(treeOf(base, kept));
+        }
+        // every object the branch needs made it to the remote
+        git(remote, "fsck", "--strict");
+    }
+
+    @Test
+    void newFileUnderNewDirectoriesIsAddedNextToTheExistingTree() throws Exception {
+        GitCommitBuilder builder = builder();
+
+        String last = builder.commitFiles("defect/batch-1", List.of(
+            GitAgentService.fixCommit("SCRUM-2", "fix two"),
+            GitAgentService.fixCommit("SCRUM-3", "fix three")));
+
+        String first = git(remote, "rev-parse", last + "^");
+        assertThat(git(remote, "rev-parse", first + "^")).isEqualTo(base);
+        assertThat(git(remote, "ls-tree", "-r", "--name-only", first).split("\n")).containsExactly(
+            "README.md",
+            "agent_generated/fixes/SCRUM-2/fix.txt",
+            "src/main/java/com/cap/Claim.java",
+            "src/main/java/com/cap/ClaimService.java",
+            "src/main/java/com/cap/util/Dates.java",
+            "src/main/resources/application.properties");
+        assertThat(git(remote, "ls-tree", "--name-only", last + ":agent_generated/fixes").split("\n")).containsExactly("SCRUM-2", "SCRUM-3");
+        assertThat(git(remote, "show", last + ":agent_generated/fixes/SCRUM-3/fix.txt")).isEqualTo("fix three");
+        assertThat(treeOf(last, "src")).isEqualTo(treeOf(base, "src"));
+        git(remote, "fsck", "--strict");
+    }
+
+    @Test
+    void laterBranchesBuildOnTheFetchedBaseNotOnEachOther() throws Exception {
+        GitCommitBuilder builder = builder();
+        builder.commitFile("defect/SCRUM-4", "README.md", "first\n", "SCRUM-4");
+
+        File seed = tmp.resolve("seed").toFile();
+        write(seed, "NOTES.md", "notes\n");
+        git(seed, "add", "NOTES.md");
+        git(seed, "commit", "-m", "Add notes");
+        git(seed, "push", "origin", "HEAD:main");
+        String advanced = git(remote, "rev-parse", "main");
+
+        String commit = builder.commitFile("defect/SCRUM-5", "src/main/java/com/cap/Claim.java", "class Claim { }\n", "SCRUM-5");
+
+        assertThat(git(remote, "rev-parse", commit + "^")).isEqualTo(advanced);
+        assertThat(git(remote, "show", commit + ":README.md")).isEqualTo("readme");
+        assertThat(git(remote, "show", commit + ":NOTES.md")).isEqualTo("notes");
+        assertThat(builder.getStats()).containsEntry("commits", 2L);
+    }
+}
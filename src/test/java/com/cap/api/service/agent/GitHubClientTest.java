@@ -0,0 +1,140 @@
+package com.cap.api.service.agent;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the client against a local stand-in for the GitHub REST API that records every
+ * request and answers like github.com does for pulls, reviewers and comments.
+ */
+class GitHubClientTest {
+
+    private static final String ETAG = "\"abc123\"";
+
+    /** Method, path (with query), Authorization and If-None-Match of one request, plus its body. */
+    private record Request(String method, String path, String authorization, String ifNoneMatch, String body) {}
+
+    private HttpServer server;
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private volatile boolean pullAlreadyOpen;
+    private GitHubClient client;
+    private final GitHubClient.Repo repo = new GitHubClient.Repo("octo", "demo");
+
+    @BeforeEach
+    void startStandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/repos/octo/demo/", this::handle);
+        server.start();
+        client = new GitHubClient();
+        ReflectionTestUtils.setField(client, "token", "t0ken");
+        ReflectionTestUtils.setField(client, "apiUrl", "http://127.0.0.1:" + server.getAddress().getPort());
+        ReflectionTestUtils.setField(client, "repository", "");
+        ReflectionTestUtils.setField(client, "connectTimeoutMs", 2000L);
+        ReflectionTestUtils.setField(client, "readTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(client, "etagCacheSize", 16);
+        client.init();
+    }
+
+    @AfterEach
+    void stopStandIn() {
+        client.shutdown();
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        String path = exchange.getRequestURI().getPath();
+        String query = exchange.getRequestURI().getRawQuery();
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        requests.add(new Request(exchange.getRequestMethod(), query == null ? path : path + "?" + query,
+            exchange.getRequestHeaders().getFirst("Authorization"), ifNoneMatch, body));
+        try {
+            if (path.equals("/repos/octo/demo/pulls") && exchange.getRequestMethod().equals("POST")) {
+                if (pullAlreadyOpen) {
+                    reply(exchange, 422, "{\"message\":\"Validation Failed\",\"errors\":[{\"message\":\"A pull request already exists\"}]}");
+                } else {
+                    reply(exchange, 201, "{\"number\":7,\"html_url\":\"https://github.com/octo/demo/pull/7\"}");
+                }
+            } else if (path.equals("/repos/octo/demo/pulls")) {
+                if (ETAG.equals(ifNoneMatch)) {
+                    exchange.getResponseHeaders().add("ETag", ETAG);
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    exchange.getResponseHeaders().add("ETag", ETAG);
+                    reply(exchange, 200, "[{\"number\":5,\"html_url\":\"https://github.com/octo/demo/pull/5\"}]");
+                }
+            } else {
+                reply(exchange, 201, "{\"id\":1}");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("X-RateLimit-Remaining", "4999");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    @Test
+    void createsPullThenRequestsReviewersAndComments() throws Exception {
+        GitHubClient.PullRequest pr = client.createPullRequest(repo, "defect/SCRUM-1", "main", "Fix SCRUM-1", "body",
+            List.of("alice", "bob"), "Agent applied suggested fix");
+
+        assertThat(pr).isEqualTo(new GitHubClient.PullRequest(7, "https://github.com/octo/demo/pull/7"));
+        assertThat(requests).hasSize(3);
+        assertThat(requests.get(0).path()).isEqualTo("/repos/octo/demo/pulls");
+        assertThat(requests.get(0).body()).contains("\"head\":\"defect/SCRUM-1\"", "\"base\":\"main\"");
+        assertThat(requests).allMatch(r -> "token t0ken".equals(r.authorization()));
+        // the follow-ups run concurrently, so only their set is fixed
+        assertThat(requests.subList(1, 3)).extracting(Request::path).containsExactlyInAnyOrder(
+            "/repos/octo/demo/pulls/7/requested_reviewers", "/repos/octo/demo/issues/7/comments");
+        assertThat(client.getStats()).containsEntry("pullsCreated", 1L);
+    }
+
+    @Test
+    void existingPullIsReturnedWhenGitHubRejectsADuplicate() throws Exception {
+        pullAlreadyOpen = true;
+
+        GitHubClient.PullRequest pr = client.createPullRequest(repo, "defect/SCRUM-2", "main", "Fix", "", List.of(), "comment");
+
+        assertThat(pr.number()).isEqualTo(5);
+        assertThat(requests).extracting(Request::method).containsExactly("POST", "GET");
+        assertThat(requests.get(1).path()).isEqualTo("/repos/octo/demo/pulls?state=open&head=octo:defect/SCRUM-2");
+    }
+
+    @Test
+    void repeatedLookupIsAnsweredFromTheEtagCache() throws Exception {
+        GitHubClient.PullRequest first = client.findOpenPullRequest(repo, "defect/SCRUM-3");
+        GitHubClient.PullRequest second = client.findOpenPullRequest(repo, "defect/SCRUM-3");
+
+        assertThat(second).isEqualTo(first);
+        assertThat(requests.get(0).ifNoneMatch()).isNull();
+        assertThat(requests.get(1).ifNoneMatch()).isEqualTo(ETAG);
+        Map<String, Object> stats = client.getStats();
+        assertThat(stats).containsEntry("notModified", 1L).containsEntry("requests", 2L);
+    }
+
+    @Test
+    void parsesHttpsAndSshRemotes() {
+        assertThat(GitHubClient.parseRemoteUrl("https://x@github.com/octo/demo.git")).isEqualTo(repo);
+        assertThat(GitHubClient.parseRemoteUrl("git@github.com:octo/demo.git")).isEqualTo(repo);
+        assertThat(GitHubClient.parseRemoteUrl("ssh://git@github.com/octo/demo/")).isEqualTo(repo);
+    }
+}
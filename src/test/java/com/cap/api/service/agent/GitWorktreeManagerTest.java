@@ -0,0 +1,103 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Drives the pool with a scripted git: {@code worktree add} creates the directory and any
+ * command listed in {@link #failing} exits with 1.
+ */
+class GitWorktreeManagerTest {
+
+    @TempDir
+    Path tmp;
+
+    private final List<String> commands = new CopyOnWriteArrayList<>();
+    private final List<String> failing = new CopyOnWriteArrayList<>();
+
+    private int git(File dir, String... command) throws Exception {
+        String line = String.join(" ", command);
+        commands.add(line);
+        if (line.startsWith("git worktree add")) Files.createDirectories(Path.of(command[5]));
+        return failing.stream().anyMatch(line::startsWith) ? 1 : 0;
+    }
+
+    private GitWorktreeManager manager() throws Exception {
+        GitWorktreeManager m = new GitWorktreeManager(tmp.toFile(), tmp.resolve("worktrees"), "origin", "main", 2, 60_000, this::git);
+        m.start();
+        return m;
+    }
+
+    @Test
+    void secondInstanceLeavesTheFirstOnesLeasedWorktreeAlone() throws Exception {
+        GitWorktreeManager first = manager();
+        GitWorktreeManager.Lease lease = first.acquire(1000);
+        Files.writeString(lease.dir().toPath().resolve("fix.txt"), "in progress");
+
+        GitWorktreeManager second = manager();
+
+        assertThat(lease.dir().toPath().resolve("fix.txt")).exists();
+        assertThat(second.getStats().get("root")).isNotEqualTo(first.getStats().get("root"));
+        lease.close();
+        first.shutdown(1000);
+        second.shutdown(1000);
+        try (var left = Files.list(tmp.resolve("worktrees"))) {
+            assertThat(left).isEmpty();
+        }
+    }
+
+    @Test
+    void startRemovesWorktreesOfAStoppedInstance() throws Exception {
+        Path dead = tmp.resolve("worktrees/node-1-deadbeef/wt-1");
+        Files.createDirectories(dead);
+        Files.writeString(dead.resolve("fix.txt"), "stale");
+
+        GitWorktreeManager m = manager();
+
+        assertThat(dead.getParent()).doesNotExist();
+        assertThat(commands).contains("git worktree remove --force " + dead);
+        m.shutdown(1000);
+    }
+
+    @Test
+    void failedStepThrowsAndTheWorktreeIsNotReused() throws Exception {
+        GitWorktreeManager m = manager();
+        failing.add("git commit");
+
+        Path used;
+        try (GitWorktreeManager.Lease lease = m.acquire(1000)) {
+            used = lease.dir().toPath();
+            lease.checkoutNewBranch("defect/SCRUM-1");
+            lease.check("git", "add", "--", "fix.txt");
+            assertThatThrownBy(() -> lease.check("git", "commit", "-m", "Fix for SCRUM-1"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("git commit");
+        }
+
+        assertThat(m.getStats()).containsEntry("discarded", 1L);
+        try (GitWorktreeManager.Lease next = m.acquire(1000)) {
+            assertThat(next.dir().toPath()).isNotEqualTo(used);
+        }
+        m.shutdown(1000);
+    }
+
+    @Test
+    void failedBranchCheckoutThrows() throws Exception {
+        GitWorktreeManager m = manager();
+        failing.add("git checkout -B");
+
+        try (GitWorktreeManager.Lease lease = m.acquire(1000)) {
+            assertThatThrownBy(() -> lease.checkoutNewBranch("defect/SCRUM-2")).isInstanceOf(IllegalStateException.class);
+        }
+        m.shutdown(1000);
+    }
+}
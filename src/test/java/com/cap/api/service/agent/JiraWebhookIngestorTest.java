@@ -0,0 +1,172 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Feeds signed deliveries straight into {@link JiraWebhookIngestor#ingest}, the way
+ * {@code POST /mcp/webhook} does, with an agent that records (and can hold) the handoff.
+ */
+class JiraWebhookIngestorTest {
+
+    private static final String SECRET = "webhook-secret";
+
+    /** Records handed-off tickets; blocks in the handoff until {@link #release} opens. */
+    private static final class RecordingAgent extends DefectProcessingAgent {
+        final List<String> tickets = new CopyOnWriteArrayList<>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release;
+
+        RecordingAgent(boolean hold) {
+            release = new CountDownLatch(hold ? 1 : 0);
+        }
+
+        @Override
+        public boolean onWebhookTicket(String issueKey, String summary, String status, String description, String created, String priority) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            tickets.add(issueKey + "|" + summary);
+            return true;
+        }
+    }
+
+    private JiraWebhookIngestor ingestor;
+
+    private JiraWebhookIngestor ingestor(RecordingAgent agent, int queueCapacity) {
+        ingestor = new JiraWebhookIngestor();
+        ReflectionTestUtils.setField(ingestor, "webhookSecret", SECRET);
+        ReflectionTestUtils.setField(ingestor, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.setField(ingestor, "dedupeEntries", 100);
+        ReflectionTestUtils.setField(ingestor, "defectProcessingAgent", agent);
+        ingestor.start();
+        return ingestor;
+    }
+
+    @AfterEach
+    void stop() {
+        ingestor.stop();
+    }
+
+    private static byte[] event(String issueKey, long timestamp) {
+        return ("{\"timestamp\":" + timestamp + ",\"webhookEvent\":\"jira:issue_updated\",\"issue\":{\"key\":\"" + issueKey
+            + "\",\"fields\":{\"summary\":\"Claim total off by one\",\"status\":{\"name\":\"To Do\"},"
+            + "\"created\":\"2025-01-15T09:00:00.000+0000\",\"priority\":{\"name\":\"High\"}}}}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String sign(byte[] payload, String secret) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        return "sha256=" + HexFormat.of().formatHex(mac.doFinal(payload));
+    }
+
+    private static void awaitTickets(RecordingAgent agent, int n) throws InterruptedException {
+        long until = System.currentTimeMillis() + 5000;
+        while (agent.tickets.size() < n && System.currentTimeMillis() < until) Thread.sleep(10);
+    }
+
+    @Test
+    void validSignatureIsAcceptedAndHandedToTheAgent() throws Exception {
+        RecordingAgent agent = new RecordingAgent(false);
+        JiraWebhookIngestor in = ingestor(agent, 10);
+        byte[] payload = event("SCRUM-1", 1000);
+
+        assertThat(in.ingest(payload, sign(payload, SECRET))).isEqualTo(JiraWebhookIngestor.Result.ACCEPTED);
+        // Jira may send the hex in upper case
+        byte[] next = event("SCRUM-2", 1000);
+        assertThat(in.ingest(next, sign(next, SECRET).toUpperCase().replace("SHA256=", "sha256="))).isEqualTo(JiraWebhookIngestor.Result.ACCEPTED);
+
+        awaitTickets(agent, 2);
+        assertThat(agent.tickets).containsExactly("SCRUM-1|Claim total off by one", "SCRUM-2|Claim total off by one");
+        assertThat(in.getStats()).containsEntry("rejectedSignature", 0L).containsEntry("enqueued", 2L);
+    }
+
+    @Test
+    void tamperedBodyOrWrongSecretIsRejected() throws Exception {
+        RecordingAgent agent = new RecordingAgent(false);
+        JiraWebhookIngestor in = ingestor(agent, 10);
+        byte[] payload = event("SCRUM-3", 1000);
+        String signature = sign(payload, SECRET);
+        byte[] tampered = new String(payload, StandardCharsets.UTF_8).replace("SCRUM-3", "SCRUM-4").getBytes(StandardCharsets.UTF_8);
+
+        assertThat(in.ingest(tampered, signature)).isEqualTo(JiraWebhookIngestor.Result.UNAUTHORIZED);
+        assertThat(in.ingest(payload, sign(payload, "another-secret"))).isEqualTo(JiraWebhookIngestor.Result.UNAUTHORIZED);
+
+        assertThat(in.getStats()).containsEntry("rejectedSignature", 2L);
+        // a rejected delivery does not count as seen: the genuine one still goes through
+        assertThat(in.ingest(payload, signature)).isEqualTo(JiraWebhookIngestor.Result.ACCEPTED);
+    }
+
+    @Test
+    void missingOrMalformedSignatureHeaderIsRejected() throws Exception {
+        JiraWebhookIngestor in = ingestor(new RecordingAgent(false), 10);
+        byte[] payload = event("SCRUM-5", 1000);
+        String valid = sign(payload, SECRET);
+
+        for (String header : new String[] {null, "", "   ", "sha256=", "sha256=not-hex-at-all", valid.substring(0, valid.length() - 2), valid + "00"}) {
+            assertThat(in.ingest(payload, header)).as(String.valueOf(header)).isEqualTo(JiraWebhookIngestor.Result.UNAUTHORIZED);
+        }
+        assertThat(in.getStats()).containsEntry("rejectedSignature", 7L).containsEntry("queued", 0);
+    }
+
+    @Test
+    void redeliveryIsDroppedAndANewerEventForTheSameIssueIsAccepted() throws Exception {
+        RecordingAgent agent = new RecordingAgent(false);
+        JiraWebhookIngestor in = ingestor(agent, 10);
+        byte[] first = event("SCRUM-6", 2000);
+        byte[] older = event("SCRUM-6", 1500);
+        byte[] newer = event("SCRUM-6", 2500);
+
+        assertThat(in.ingest(first, sign(first, SECRET))).isEqualTo(JiraWebhookIngestor.Result.ACCEPTED);
+        assertThat(in.ingest(first, sign(first, SECRET))).isEqualTo(JiraWebhookIngestor.Result.DUPLICATE);
+        assertThat(in.ingest(older, sign(older, SECRET))).isEqualTo(JiraWebhookIngestor.Result.DUPLICATE);
+        assertThat(in.ingest(newer, sign(newer, SECRET))).isEqualTo(JiraWebhookIngestor.Result.ACCEPTED);
+
+        awaitTickets(agent, 2);
+        assertThat(agent.tickets).hasSize(2);
+        assertThat(in.getStats()).containsEntry("duplicates", 2L);
+    }
+
+    @Test
+    void fullQueueAnswersBusyWithoutBlockingTheCaller() throws Exception {
+        RecordingAgent agent = new RecordingAgent(true);
+        JiraWebhookIngestor in = ingestor(agent, 1);
+        byte[] taken = event("SCRUM-7", 1000);
+        byte[] queued = event("SCRUM-8", 1000);
+        byte[] overflow = event("SCRUM-9", 1000);
+        assertThat(in.ingest(taken, sign(taken, SECRET))).isEqualTo(JiraWebhookIngestor.Result.ACCEPTED);
+        // the dispatcher holds SCRUM-7 in the agent; SCRUM-8 then fills the only queue slot
+        assertThat(agent.entered.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(in.ingest(queued, sign(queued, SECRET))).isEqualTo(JiraWebhookIngestor.Result.ACCEPTED);
+
+        long started = System.nanoTime();
+        JiraWebhookIngestor.Result result = in.ingest(overflow, sign(overflow, SECRET));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        assertThat(result).isEqualTo(JiraWebhookIngestor.Result.BUSY);
+        assertThat(elapsedMs).isLessThan(500);
+        assertThat(in.getStats()).containsEntry("overflow", 1L);
+
+        // the rejected event was not remembered, so Jira's retry is accepted once there is room
+        agent.release.countDown();
+        awaitTickets(agent, 2);
+        assertThat(in.ingest(overflow, sign(overflow, SECRET))).isEqualTo(JiraWebhookIngestor.Result.ACCEPTED);
+        awaitTickets(agent, 3);
+        assertThat(agent.tickets).extracting(t -> t.substring(0, t.indexOf('|'))).containsExactly("SCRUM-7", "SCRUM-8", "SCRUM-9");
+    }
+}
@@ -0,0 +1,173 @@
+package com.cap.api.service.agent;
+
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import jakarta.mail.Message;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Sends through {@link JavaMailSenderImpl} to a GreenMail SMTP server, the way the agent
+ * mails its DLs in production.
+ */
+class NotificationAgentTest {
+
+    @RegisterExtension
+    static final GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP);
+
+    private final JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+    private NotificationAgent agent;
+
+    private NotificationAgent agent(long digestWindowMs, boolean mergeRecipients) {
+        mailSender.setHost("127.0.0.1");
+        mailSender.setPort(greenMail.getSmtp().getPort());
+        agent = new NotificationAgent();
+        ReflectionTestUtils.setField(agent, "developerDlEmails", "dev-dl@example.com, qa-dl@example.com");
+        ReflectionTestUtils.setField(agent, "mailSender", mailSender);
+        ReflectionTestUtils.setField(agent, "async", true);
+        ReflectionTestUtils.setField(agent, "queueCapacity", 100);
+        ReflectionTestUtils.setField(agent, "digestWindowMs", digestWindowMs);
+        ReflectionTestUtils.setField(agent, "maxDigest", 50);
+        ReflectionTestUtils.setField(agent, "maxAttempts", 5);
+        ReflectionTestUtils.setField(agent, "backoffMs", 200L);
+        ReflectionTestUtils.setField(agent, "shutdownTimeoutMs", 10_000L);
+        ReflectionTestUtils.setField(agent, "mergeRecipients", mergeRecipients);
+        return agent;
+    }
+
+    @AfterEach
+    void stop() {
+        agent.shutdown();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> dispatcherStats() {
+        return (Map<String, Object>) agent.getStats().get("dispatcher");
+    }
+
+    /** The dispatcher counts a digest as delivered after the send returns, so GreenMail can see it first. */
+    private long awaitStat(String key, long atLeast) throws InterruptedException {
+        long until = System.currentTimeMillis() + 5000;
+        while ((Long) dispatcherStats().get(key) < atLeast && System.currentTimeMillis() < until) Thread.sleep(20);
+        return (Long) dispatcherStats().get(key);
+    }
+
+    @Test
+    void burstWithinTheWindowIsMailedAsOneDigest() throws Exception {
+        NotificationAgent a = agent(300, true);
+
+        a.notifyDLs("Automated PR created: SCRUM-1");
+        a.notifyDLs("Automated PR created: SCRUM-2");
+        a.notifyDLs("Automated PR created: SCRUM-3");
+
+        assertThat(greenMail.waitForIncomingEmail(5000, 1)).isTrue();
+        // one SMTP transaction for both DLs, stored once per mailbox
+        MimeMessage[] received = greenMail.getReceivedMessages();
+        assertThat(received).hasSize(2);
+        MimeMessage mail = received[0];
+        assertThat(mail.getSubject()).isEqualTo("Agent Notification: 3 updates");
+        assertThat(mail.getRecipients(Message.RecipientType.TO)).extracting(Object::toString)
+            .containsExactly("dev-dl@example.com", "qa-dl@example.com");
+        assertThat(GreenMailUtil.getBody(mail)).contains("1. Automated PR created: SCRUM-1", "3. Automated PR created: SCRUM-3");
+        assertThat(awaitStat("delivered", 3)).isEqualTo(3);
+        assertThat(dispatcherStats()).containsEntry("digests", 1L);
+    }
+
+    @Test
+    void separateCopyPerDlWhenRecipientsAreNotMerged() throws Exception {
+        NotificationAgent a = agent(0, false);
+
+        a.notifyDLs("Automated PR created: SCRUM-4");
+
+        assertThat(greenMail.waitForIncomingEmail(5000, 2)).isTrue();
+        for (MimeMessage mail : greenMail.getReceivedMessages()) {
+            assertThat(mail.getSubject()).isEqualTo("Agent Notification");
+            assertThat(mail.getRecipients(Message.RecipientType.TO)).hasSize(1);
+        }
+    }
+
+    @Test
+    void digestIsRetriedWithBackoffUntilTheServerAnswers() throws Exception {
+        NotificationAgent a = agent(0, true);
+        int closedPort;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            closedPort = probe.getLocalPort();
+        }
+        mailSender.setPort(closedPort);
+
+        a.notifyDLs("Automated PR created: SCRUM-5");
+        assertThat(awaitStat("retries", 1)).isGreaterThanOrEqualTo(1);
+        mailSender.setPort(greenMail.getSmtp().getPort());
+
+        assertThat(greenMail.waitForIncomingEmail(10_000, 1)).isTrue();
+        assertThat(GreenMailUtil.getBody(greenMail.getReceivedMessages()[0])).isEqualTo("Automated PR created: SCRUM-5");
+        assertThat(awaitStat("delivered", 1)).isEqualTo(1);
+        assertThat(dispatcherStats()).containsEntry("failedDigests", 0L);
+    }
+
+    @Test
+    void partialFailureRetriesOnlyTheRefusedEmail() throws Exception {
+        NotificationAgent a = agent(0, false);
+        List<List<String>> batches = new CopyOnWriteArrayList<>();
+        JavaMailSenderImpl refusesQaOnce = new JavaMailSenderImpl() {
+            private boolean refused;
+
+            @Override
+            public void send(SimpleMailMessage... messages) {
+                batches.add(Arrays.stream(messages).map(m -> m.getTo()[0]).toList());
+                if (refused) {
+                    super.send(messages);
+                    return;
+                }
+                refused = true;
+                SimpleMailMessage qa = Arrays.stream(messages).filter(m -> m.getTo()[0].startsWith("qa")).findFirst().orElseThrow();
+                super.send(Arrays.stream(messages).filter(m -> m != qa).toArray(SimpleMailMessage[]::new));
+                throw new MailSendException(Map.of(qa, new IllegalStateException("452 mailbox busy")));
+            }
+        };
+        refusesQaOnce.setHost("127.0.0.1");
+        refusesQaOnce.setPort(greenMail.getSmtp().getPort());
+        ReflectionTestUtils.setField(a, "mailSender", refusesQaOnce);
+
+        a.notifyDLs("Automated PR created: SCRUM-8");
+
+        assertThat(awaitStat("delivered", 1)).isEqualTo(1);
+        assertThat(batches).containsExactly(
+            List.of("dev-dl@example.com", "qa-dl@example.com"),
+            List.of("qa-dl@example.com"));
+        assertThat(greenMail.getReceivedMessages()).extracting(m -> m.getRecipients(Message.RecipientType.TO)[0].toString())
+            .containsExactlyInAnyOrder("dev-dl@example.com", "qa-dl@example.com");
+        assertThat(dispatcherStats()).containsEntry("retries", 1L);
+    }
+
+    @Test
+    void shutdownMailsWhatIsQueuedWithoutWaitingForTheWindow() throws Exception {
+        NotificationAgent a = agent(60_000, true);
+        a.notifyDLs("Automated PR created: SCRUM-6");
+        a.notifyDLs("Automated PR created: SCRUM-7");
+
+        long started = System.currentTimeMillis();
+        a.shutdown();
+
+        assertThat(System.currentTimeMillis() - started).isLessThan(5000);
+        assertThat(greenMail.getReceivedMessages()).hasSize(2);
+        assertThat(greenMail.getReceivedMessages()[0].getSubject()).isEqualTo("Agent Notification: 2 updates");
+        a.notifyDLs("after shutdown");
+        assertThat(dispatcherStats()).containsEntry("dropped", 1L);
+    }
+}
@@ -0,0 +1,73 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NotificationDispatcherTest {
+
+    private NotificationDispatcher dispatcher;
+
+    @AfterEach
+    void stop() {
+        dispatcher.shutdown(5000);
+    }
+
+    @Test
+    void backoffDoublesBetweenAttemptsAndGivesUpAfterMaxAttempts() throws Exception {
+        List<Long> attempts = new CopyOnWriteArrayList<>();
+        CountDownLatch exhausted = new CountDownLatch(3);
+        dispatcher = new NotificationDispatcher(10, 0, 10, 3, 150, messages -> {
+            attempts.add(System.nanoTime());
+            exhausted.countDown();
+            throw new IllegalStateException("smtp down");
+        });
+
+        dispatcher.offer("SCRUM-1");
+
+        assertThat(exhausted.await(5, TimeUnit.SECONDS)).isTrue();
+        long first = TimeUnit.NANOSECONDS.toMillis(attempts.get(1) - attempts.get(0));
+        long second = TimeUnit.NANOSECONDS.toMillis(attempts.get(2) - attempts.get(1));
+        assertThat(first).isGreaterThanOrEqualTo(150);
+        assertThat(second).isGreaterThanOrEqualTo(300);
+        long until = System.currentTimeMillis() + 2000;
+        while ((Long) dispatcher.getStats().get("failedDigests") == 0 && System.currentTimeMillis() < until) Thread.sleep(10);
+        assertThat(dispatcher.getStats()).containsEntry("retries", 2L).containsEntry("failedDigests", 1L);
+    }
+
+    @Test
+    void fullQueueDropsInsteadOfBlocking() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch busy = new CountDownLatch(1);
+        dispatcher = new NotificationDispatcher(2, 0, 1, 1, 0, messages -> {
+            busy.countDown();
+            release.await();
+        });
+        dispatcher.offer("taken by the worker");
+        assertThat(busy.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(dispatcher.offer("a")).isTrue();
+        assertThat(dispatcher.offer("b")).isTrue();
+        assertThat(dispatcher.offer("c")).isFalse();
+
+        assertThat(dispatcher.getStats()).containsEntry("dropped", 1L);
+        release.countDown();
+    }
+
+    @Test
+    void digestHoldsAtMostMaxDigestMessages() throws Exception {
+        List<Integer> sizes = new CopyOnWriteArrayList<>();
+        dispatcher = new NotificationDispatcher(100, 60_000, 3, 1, 0, messages -> sizes.add(messages.size()));
+
+        for (int i = 0; i < 7; i++) dispatcher.offer("m" + i);
+        dispatcher.shutdown(5000);
+
+        assertThat(sizes).containsExactly(3, 3, 1);
+    }
+}
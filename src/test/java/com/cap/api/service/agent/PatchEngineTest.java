@@ -0,0 +1,86 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PatchEngineTest {
+
+    private static final String SOURCE = String.join("\n",
+        "public class ClaimService {",
+        "    public void submit(Claim c) {",
+        "        if (c == null) {",
+        "            return;",
+        "        }",
+        "        store(c);",
+        "    }",
+        "",
+        "    public void cancel(Claim c) {",
+        "        if (c.isOpen()) {",
+        "            c.close();",
+        "        }",
+        "    }",
+        "}",
+        "");
+
+    private static PatchEngine.Result patch(String response) {
+        return PatchEngine.apply(SOURCE, PatchEngine.parse(response));
+    }
+
+    @Test
+    void appliesAtTheNamedLineAndFollowsDriftedLineNumbers() {
+        PatchEngine.Result result = patch("```diff\n--- a/ClaimService.java\n+++ b/ClaimService.java\n"
+            + "@@ -40,3 +40,4 @@\n         if (c.isOpen()) {\n+            log(c);\n             c.close();\n```");
+
+        assertThat(result.clean()).isTrue();
+        assertThat(result.fuzzy()).isZero();
+        assertThat(result.text()).contains("        if (c.isOpen()) {\n            log(c);\n            c.close();");
+    }
+
+    @Test
+    void searchReplaceWithDifferentIndentationIsReindented() {
+        PatchEngine.Result result = patch("<<<<<<< SEARCH\nstore(c);\n=======\nvalidate(c);\nstore(c);\n>>>>>>> REPLACE\n");
+
+        assertThat(result.clean()).isTrue();
+        assertThat(result.text()).contains("        }\n        validate(c);\n        store(c);\n");
+    }
+
+    @Test
+    void placesAHunkFuzzilyWhenOneContextLineDrifted() {
+        PatchEngine.Result result = patch("@@ -9,4 +9,5 @@\n"
+            + "     public void cancel(Claim c) {\n"
+            + "         if (c.isOpen()) {\n"
+            + "+            audit(c);\n"
+            + "             c.closeNow();\n"
+            + "         }\n");
+
+        assertThat(result.clean()).isTrue();
+        assertThat(result.fuzzy()).isEqualTo(1);
+        // the file's own version of the drifted line is kept
+        assertThat(result.text()).contains("        if (c.isOpen()) {\n            audit(c);\n            c.close();\n");
+    }
+
+    @Test
+    void bracesAndBlankLinesAloneDoNotPlaceAHunk() {
+        // three of four lines are "}", "}" and "", which match at the end of either method
+        PatchEngine.Result result = patch("@@ -20,4 +20,5 @@\n"
+            + "         }\n"
+            + "+        audit(c);\n"
+            + "     }\n"
+            + " \n"
+            + "     public void approve(Claim c) {\n");
+
+        assertThat(result.applied()).isZero();
+        assertThat(result.conflicts()).hasSize(1);
+        assertThat(result.conflicts().get(0).reason()).isEqualTo("existing lines not found");
+        assertThat(result.text()).isEqualTo(SOURCE);
+    }
+
+    @Test
+    void alignPairsEqualLines() {
+        assertThat(PatchEngine.align(List.of("a", "b", "c", "d"), List.of("a", "c", "x", "d")))
+            .containsExactly(0, -1, 1, 3);
+    }
+}
@@ -0,0 +1,56 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProcessExecutorTest {
+
+    private final ProcessExecutor executor = new ProcessExecutor();
+
+    @BeforeEach
+    void start() {
+        ReflectionTestUtils.setField(executor, "maxConcurrent", 2);
+        ReflectionTestUtils.setField(executor, "defaultTimeoutMs", 10_000L);
+        ReflectionTestUtils.setField(executor, "outputLimitBytes", 1024);
+        executor.init();
+    }
+
+    @AfterEach
+    void stop() {
+        executor.shutdown();
+    }
+
+    @Test
+    void keepsAllOfStdoutForParsingButCapsTheLoggedCopy() throws Exception {
+        // the shape of `git ls-tree -z` for a directory with 3000 entries, about 180 KB
+        String script = "i=0; while [ $i -lt 3000 ]; do printf '100644 blob %040d\\tFile%d.java\\0' 0 $i; i=$((i+1)); done; echo oops >&2";
+
+        ProcessExecutor.Result result = executor.run(null, Map.of(), null, 0, "sh", "-c", script);
+
+        assertThat(result.succeeded()).isTrue();
+        String[] entries = result.stdout().split("\0");
+        assertThat(entries).hasSize(3000);
+        assertThat(entries[0]).endsWith("\tFile0.java");
+        assertThat(entries[2999]).endsWith("\tFile2999.java");
+        assertThat(result.output()).startsWith("[").contains("bytes dropped]\n").endsWith("\noops\n");
+        assertThat(result.output().length()).isLessThan(1200);
+    }
+
+    @Test
+    void killsACommandThatOutlivesItsTimeout() throws Exception {
+        long started = System.currentTimeMillis();
+
+        ProcessExecutor.Result result = executor.run(null, Map.of(), null, 200, "sh", "-c", "echo started; sleep 30");
+
+        assertThat(result.timedOut()).isTrue();
+        assertThat(result.exitCode()).isEqualTo(-1);
+        assertThat(result.stdout()).isEqualTo("started\n");
+        assertThat(System.currentTimeMillis() - started).isLessThan(5000);
+    }
+}
@@ -0,0 +1,118 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProcessedIssueStoreTest {
+
+    private static final LocalDate TODAY = LocalDate.now();
+
+    @TempDir
+    Path dir;
+
+    private ProcessedIssueStore store;
+
+    private Path file() {
+        return dir.resolve("processed_issues.txt");
+    }
+
+    private ProcessedIssueStore open() {
+        // background fsync and compaction off: the tests call them directly
+        store = new ProcessedIssueStore(file(), 7, 1, 0, 0);
+        store.load();
+        return store;
+    }
+
+    @AfterEach
+    void close() {
+        if (store != null) store.close();
+    }
+
+    private static String day(LocalDate date) {
+        return date.format(DateTimeFormatter.BASIC_ISO_DATE);
+    }
+
+    @Test
+    void entriesSurviveAReload() {
+        ProcessedIssueStore s = open();
+        s.add("SCRUM-1", TODAY);
+        s.add("SCRUM-2", TODAY.minusDays(1));
+        s.add("SCRUM-1", TODAY);
+        s.close();
+
+        ProcessedIssueStore reopened = open();
+
+        assertThat(reopened.size()).isEqualTo(2);
+        assertThat(reopened.contains("SCRUM-1", TODAY)).isTrue();
+        assertThat(reopened.contains("SCRUM-2", TODAY.minusDays(1))).isTrue();
+        assertThat(reopened.contains("SCRUM-2", TODAY)).isFalse();
+    }
+
+    @Test
+    void expiredAndDuplicateLinesAreDroppedOnLoadAndCompactedAway() throws Exception {
+        Files.write(file(), java.util.List.of(
+            "SCRUM-1:" + day(TODAY.minusDays(30)),
+            "SCRUM-2:" + day(TODAY),
+            "SCRUM-2:" + day(TODAY),
+            "SCRUM-3:" + day(TODAY.minusDays(6))), StandardCharsets.UTF_8);
+
+        ProcessedIssueStore s = open();
+
+        assertThat(s.size()).isEqualTo(2);
+        assertThat(s.contains("SCRUM-1", TODAY.minusDays(30))).isFalse();
+        assertThat(Files.readAllLines(file())).containsExactlyInAnyOrder("SCRUM-2:" + day(TODAY), "SCRUM-3:" + day(TODAY.minusDays(6)));
+    }
+
+    @Test
+    void compactionRemovesEntriesThatExpiredWhileRunning() throws Exception {
+        ProcessedIssueStore s = open();
+        s.add("SCRUM-4", TODAY.minusDays(8));
+        s.add("SCRUM-5", TODAY);
+        assertThat(Files.readAllLines(file())).hasSize(2);
+
+        s.compactIfNeeded();
+
+        assertThat(s.contains("SCRUM-4", TODAY.minusDays(8))).isFalse();
+        assertThat(s.contains("SCRUM-5", TODAY)).isTrue();
+        assertThat(Files.readAllLines(file())).containsExactly("SCRUM-5:" + day(TODAY));
+        // appends continue on the compacted file
+        s.add("SCRUM-6", TODAY);
+        assertThat(Files.readAllLines(file())).containsExactly("SCRUM-5:" + day(TODAY), "SCRUM-6:" + day(TODAY));
+    }
+
+    @Test
+    void tornLastLineIsDroppedAndDoesNotSwallowTheNextAppend() throws Exception {
+        // a crash in the middle of an append: the last line has no newline and a partial date
+        Files.writeString(file(), "SCRUM-7:" + day(TODAY) + "\nSCRUM-8:" + day(TODAY).substring(0, 4), StandardCharsets.UTF_8);
+
+        ProcessedIssueStore s = open();
+        s.add("SCRUM-9", TODAY);
+        s.close();
+
+        assertThat(Files.readAllLines(file())).containsExactly("SCRUM-7:" + day(TODAY), "SCRUM-9:" + day(TODAY));
+        ProcessedIssueStore reopened = open();
+        assertThat(reopened.contains("SCRUM-8", TODAY)).isFalse();
+        assertThat(reopened.contains("SCRUM-9", TODAY)).isTrue();
+    }
+
+    @Test
+    void completeLastLineWithoutNewlineIsKeptAndTerminated() throws Exception {
+        Files.writeString(file(), "SCRUM-10:" + day(TODAY), StandardCharsets.UTF_8);
+
+        ProcessedIssueStore s = open();
+        s.add("SCRUM-11", TODAY);
+        s.close();
+
+        assertThat(Files.readAllLines(file())).containsExactly("SCRUM-10:" + day(TODAY), "SCRUM-11:" + day(TODAY));
+        assertThat(open().contains("SCRUM-11", TODAY)).isTrue();
+    }
+}
@@ -0,0 +1,31 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PromptControllerTest {
+
+    private final PromptController controller = new PromptController();
+
+    @Test
+    void issuePromptIsUsedOnceByThatTicketOnly() {
+        controller.setPrompt("Fix the rounding in ClaimService", "SCRUM-1");
+
+        assertThat(controller.consumePrompt("SCRUM-2")).isNull();
+        assertThat(controller.consumePrompt("SCRUM-1")).isEqualTo("Fix the rounding in ClaimService");
+        assertThat(controller.consumePrompt("SCRUM-1")).isNull();
+        assertThat(controller.getPrompt("SCRUM-1").getBody()).isEmpty();
+    }
+
+    @Test
+    void nextTicketPromptIsTakenByWhicheverTicketComesFirst() {
+        controller.setPrompt("Issue prompt", "SCRUM-3");
+        controller.setPrompt("Next prompt", null);
+
+        // the ticket's own prompt wins and leaves the next-ticket prompt in place
+        assertThat(controller.consumePrompt("SCRUM-3")).isEqualTo("Issue prompt");
+        assertThat(controller.consumePrompt("SCRUM-4")).isEqualTo("Next prompt");
+        assertThat(controller.consumePrompt("SCRUM-5")).isNull();
+    }
+}
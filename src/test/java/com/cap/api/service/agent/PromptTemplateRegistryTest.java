@@ -0,0 +1,61 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PromptTemplateRegistryTest {
+
+    private final PromptTemplateRegistry registry = new PromptTemplateRegistry();
+
+    @Test
+    void mostSpecificScopeWins() {
+        registry.register(LlmTask.SUGGEST, "scrum", "Project prompt for {{project}}");
+        registry.register(LlmTask.SUGGEST, "SCRUM-615", "Issue prompt for {{issueKey}}");
+
+        assertThat(registry.instructions(LlmTask.SUGGEST, "SCRUM-615")).isEqualTo("Issue prompt for SCRUM-615");
+        assertThat(registry.instructions(LlmTask.SUGGEST, "SCRUM-1")).isEqualTo("Project prompt for SCRUM");
+        assertThat(registry.instructions(LlmTask.SUGGEST, "OPS-1")).isEqualTo(PromptTemplateRegistry.defaultInstructions(LlmTask.SUGGEST));
+        assertThat(registry.instructions(LlmTask.SUGGEST, null)).isEqualTo(PromptTemplateRegistry.defaultInstructions(LlmTask.SUGGEST));
+        // other tasks keep their defaults
+        assertThat(registry.instructions(LlmTask.CODE_FIX, "SCRUM-615")).isEqualTo(PromptTemplateRegistry.defaultInstructions(LlmTask.CODE_FIX));
+    }
+
+    @Test
+    void placeholdersAreFilledPerCall() {
+        registry.register(LlmTask.CODE_FIX, null, "[{{ task }}] {{issueKey}} in {{project}}: {{unknown}}");
+
+        assertThat(registry.instructions(LlmTask.CODE_FIX, "SCRUM-7")).isEqualTo("[code_fix] SCRUM-7 in SCRUM: {{unknown}}");
+        assertThat(registry.instructions(LlmTask.CODE_FIX, null)).isEqualTo("[code_fix]  in : {{unknown}}");
+    }
+
+    @Test
+    void newVersionsAppendAndRollbackReactivatesAnEarlierText() {
+        PromptTemplateRegistry.PromptTemplate first = registry.register(LlmTask.SUMMARIZE, "SCRUM", "v1");
+        PromptTemplateRegistry.PromptTemplate second = registry.register(LlmTask.SUMMARIZE, "SCRUM", "v2");
+
+        assertThat(first.id()).isEqualTo("summarize@SCRUM#1");
+        assertThat(second.getVersion()).isEqualTo(2);
+        assertThat(registry.instructions(LlmTask.SUMMARIZE, "SCRUM-1")).isEqualTo("v2");
+
+        PromptTemplateRegistry.PromptTemplate rolledBack = registry.rollback(LlmTask.SUMMARIZE, "scrum", 1);
+
+        assertThat(rolledBack.getVersion()).isEqualTo(3);
+        assertThat(registry.instructions(LlmTask.SUMMARIZE, "SCRUM-1")).isEqualTo("v1");
+        assertThat(registry.versions(LlmTask.SUMMARIZE, "SCRUM")).extracting(PromptTemplateRegistry.PromptTemplate::getSource)
+            .containsExactly("v1", "v2", "v1");
+        assertThatThrownBy(() -> registry.rollback(LlmTask.SUMMARIZE, "SCRUM", 9)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void overridesCanBeRemovedButDefaultsCannot() {
+        registry.register(LlmTask.SUGGEST, "SCRUM", "project");
+
+        assertThat(registry.remove(LlmTask.SUGGEST, "SCRUM")).isTrue();
+        assertThat(registry.remove(LlmTask.SUGGEST, "SCRUM")).isFalse();
+        assertThat(registry.remove(LlmTask.SUGGEST, null)).isFalse();
+        assertThat(registry.instructions(LlmTask.SUGGEST, "SCRUM-1")).isEqualTo(PromptTemplateRegistry.defaultInstructions(LlmTask.SUGGEST));
+        assertThatThrownBy(() -> registry.register(LlmTask.SUGGEST, "SCRUM", "  ")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,65 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SourceFileIndexTest {
+
+    @TempDir
+    Path root;
+
+    private final SourceFileIndex index = new SourceFileIndex();
+
+    private void source(String pkg, String name) throws IOException {
+        Path dir = root.resolve(pkg.replace('.', '/'));
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve(name + ".java"), "package " + pkg + ";\npublic class " + name + " {}\n");
+    }
+
+    @BeforeEach
+    void indexTree() throws IOException {
+        source("com.cap.api.service.entity", "Claim");
+        source("com.cap.api.service.service", "ClaimService");
+        source("com.cap.api.service.riskapp.entity", "Risk");
+        source("com.cap.api.service.riskapp.service", "RiskService");
+        source("com.cap.api.service.paymentapp.service", "PaymentService");
+        source("com.cap.api.service.riskapp.service", "PaymentService");
+        ReflectionTestUtils.setField(index, "sourceRoot", root.toString());
+        ReflectionTestUtils.setField(index, "watch", false);
+        index.start();
+    }
+
+    @Test
+    void prefersTheServiceOverTheEntityItsNameContains() {
+        assertThat(index.findMentionedClass("SCRUM-7|Claim submission fails in ClaimService|To Do|"))
+            .isEqualTo("ClaimService");
+    }
+
+    @Test
+    void ignoresCapitalisedWordsAtSentenceStartAndLowerCaseWords() {
+        assertThat(index.findMentionedClass("Claim submission fails. The risk score is wrong.")).isNull();
+        assertThat(index.findMentionedClass("Saving a Claim drops the amount")).isEqualTo("Claim");
+        assertThat(index.findMentionedClass("claimservice throws")).isNull();
+    }
+
+    @Test
+    void unrelatedClassesAreAmbiguous() {
+        assertThat(index.findMentionedClass("ClaimService calls RiskService with a null id")).isNull();
+    }
+
+    @Test
+    void resolvesDuplicateSimpleNamesOnlyWithAPackageHint() {
+        assertThat(index.findMentionedClass("PaymentService rejects refunds")).isEqualTo("PaymentService");
+        assertThat(index.resolve("PaymentService", null).isAmbiguous()).isTrue();
+        assertThat(index.resolve("PaymentService", "com.cap.api.service.riskapp.service").path())
+            .isEqualTo(root.resolve("com/cap/api/service/riskapp/service/PaymentService.java"));
+    }
+}
@@ -0,0 +1,95 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TicketSchedulerTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private final List<String> order = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean room = new AtomicBoolean();
+    private TicketScheduler scheduler;
+
+    private TicketScheduler scheduler(long agingMs) {
+        scheduler = new TicketScheduler(agingMs, 100, 10, t -> order.add(t.getIssueKey()), room::get);
+        return scheduler;
+    }
+
+    private static DefectPipeline.Ticket ticket(String key) {
+        return new DefectPipeline.Ticket(key, "bug");
+    }
+
+    @AfterEach
+    void stop() {
+        scheduler.shutdown();
+    }
+
+    private void release() throws InterruptedException {
+        room.set(true);
+        scheduler.wakeUp();
+        assertThat(scheduler.awaitEmpty(5000)).isTrue();
+    }
+
+    @Test
+    void oldTrivialBacklogDoesNotJumpANewBlocker() throws Exception {
+        TicketScheduler s = scheduler(600_000);
+        long now = System.currentTimeMillis();
+        // picked up after a restart: created yesterday, queued just now
+        s.offer(ticket("SCRUM-1"), "Trivial", now - DAY);
+        s.offer(ticket("SCRUM-2"), "Low", now - DAY);
+        s.offer(ticket("SCRUM-3"), "Blocker", now);
+
+        release();
+
+        assertThat(order).containsExactly("SCRUM-3", "SCRUM-2", "SCRUM-1");
+    }
+
+    @Test
+    void earlierQueuedGoesFirstWithinALevel() throws Exception {
+        TicketScheduler s = scheduler(600_000);
+        long now = System.currentTimeMillis();
+        s.offer(ticket("SCRUM-5"), "High", now - 1000);
+        Thread.sleep(5);
+        s.offer(ticket("SCRUM-4"), "High", now - DAY);
+
+        release();
+
+        // an older Jira creation time does not buy a later-queued ticket a place
+        assertThat(order).containsExactly("SCRUM-5", "SCRUM-4");
+    }
+
+    @Test
+    void waitingPromotesATicketUpToTheTopLevel() throws Exception {
+        TicketScheduler s = scheduler(50);
+        long now = System.currentTimeMillis();
+        s.offer(ticket("SCRUM-1"), "Trivial", now);
+        // four levels of aging: the Trivial ticket now ranks with Blockers and was queued first
+        Thread.sleep(300);
+        s.offer(ticket("SCRUM-2"), "Blocker", now);
+
+        release();
+
+        assertThat(order).containsExactly("SCRUM-1", "SCRUM-2");
+    }
+
+    @Test
+    void projectsAtTheSameLevelTakeTurns() throws Exception {
+        TicketScheduler s = scheduler(600_000);
+        long now = System.currentTimeMillis();
+        s.offer(ticket("BUSY-1"), "High", now);
+        s.offer(ticket("BUSY-2"), "High", now);
+        s.offer(ticket("BUSY-3"), "High", now);
+        s.offer(ticket("QUIET-1"), "High", now);
+
+        release();
+
+        assertThat(order).startsWith("BUSY-1", "QUIET-1");
+    }
+}
@@ -0,0 +1,94 @@
+package com.cap.api.service.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TicketWorkflowStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private String url;
+    private TicketWorkflowStore store;
+
+    private TicketWorkflowStore open() {
+        TicketWorkflowStore s = new TicketWorkflowStore();
+        ReflectionTestUtils.setField(s, "url", url);
+        ReflectionTestUtils.setField(s, "retentionDays", 7);
+        ReflectionTestUtils.setField(s, "poolSize", 2);
+        s.start();
+        return s;
+    }
+
+    @BeforeEach
+    void openStore() {
+        url = "jdbc:h2:file:" + dir.resolve("state").toAbsolutePath() + ";DB_CLOSE_DELAY=-1";
+        store = open();
+    }
+
+    @AfterEach
+    void closeStore() {
+        store.stop();
+    }
+
+    @Test
+    void checkpointsSurviveAReopenAndSkipNullOutputs() {
+        store.begin("SCRUM-1", "NPE on save", "High", "2025-01-15T09:00:00.000+0000");
+        Map<String, String> outputs = new HashMap<>();
+        outputs.put(TicketWorkflowStore.SUMMARY, null);
+        outputs.put(TicketWorkflowStore.SUGGESTION, "Guard null");
+        store.checkpoint("SCRUM-1", TicketWorkflowStore.Step.SUMMARIZED, outputs);
+        store.stop();
+
+        store = open();
+        TicketWorkflowStore.Workflow w = store.get("SCRUM-1");
+
+        assertThat(w.step()).isEqualTo(TicketWorkflowStore.Step.SUMMARIZED);
+        assertThat(w.outputs()).containsEntry(TicketWorkflowStore.BUG, "NPE on save")
+            .containsEntry(TicketWorkflowStore.SUGGESTION, "Guard null")
+            .doesNotContainKey(TicketWorkflowStore.SUMMARY);
+    }
+
+    @Test
+    void failedWriteKeepsThePreviousState() {
+        store.begin("SCRUM-2", "bug", "Low", null);
+        store.checkpoint("SCRUM-2", TicketWorkflowStore.Step.SUMMARIZED, Map.of(TicketWorkflowStore.SUGGESTION, "x"));
+        // the database goes away underneath the store
+        store.stop();
+
+        TicketWorkflowStore.Workflow after = store.checkpoint("SCRUM-2", TicketWorkflowStore.Step.FIX_GENERATED,
+            Map.of(TicketWorkflowStore.CODE_FIX, "class A {}"));
+
+        assertThat(after.step()).isEqualTo(TicketWorkflowStore.Step.SUMMARIZED);
+        assertThat(store.get("SCRUM-2").reached(TicketWorkflowStore.Step.FIX_GENERATED)).isFalse();
+        assertThat(store.recordFailure("SCRUM-2", "boom").attempts()).isZero();
+        store = open();
+    }
+
+    @Test
+    void concurrentCheckpointsOfOneTicketAreSerialized() throws Exception {
+        store.begin("SCRUM-3", "bug", "Medium", null);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int n = 0; n < 25; n++) store.recordFailure("SCRUM-3", "retry");
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) t.join();
+
+        assertThat(store.get("SCRUM-3").attempts()).isEqualTo(200);
+        store.stop();
+        store = open();
+        assertThat(store.get("SCRUM-3").attempts()).isEqualTo(200);
+    }
+}
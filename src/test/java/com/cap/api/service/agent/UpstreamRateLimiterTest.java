@@ -0,0 +1,126 @@
+package com.cap.api.service.agent;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs the limiter against a local HTTP stand-in that throttles the way Jira and Azure OpenAI do.
+ */
+class UpstreamRateLimiterTest {
+
+    /** One scripted response: status plus headers. */
+    private record Reply(int status, Map<String, String> headers) {}
+
+    private HttpServer server;
+    private final ConcurrentLinkedQueue<Reply> script = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final RestTemplate restTemplate = new RestTemplate();
+    private String url;
+
+    @BeforeEach
+    void startStandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api", this::handle);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/api";
+    }
+
+    @AfterEach
+    void stopStandIn() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try (InputStream ignored = exchange.getRequestBody()) {
+            Reply reply = script.poll();
+            if (reply == null) reply = new Reply(200, Map.of());
+            reply.headers().forEach((k, v) -> exchange.getResponseHeaders().add(k, v));
+            byte[] body = "{\"ok\":true}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(reply.status(), body.length);
+            exchange.getResponseBody().write(body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static UpstreamRateLimiter limiter(int maxRetries, int failureThreshold) {
+        return new UpstreamRateLimiter("standin", 20, 5, maxRetries, 10, 200, 5000, failureThreshold, 60000);
+    }
+
+    @Test
+    void retriesThrottledCallNoSoonerThanRetryAfterAndBacksOff() throws Exception {
+        script.add(new Reply(429, Map.of("Retry-After", "1")));
+        UpstreamRateLimiter limiter = limiter(3, 5);
+
+        long started = System.currentTimeMillis();
+        ResponseEntity<String> response = limiter.execute(() -> restTemplate.getForEntity(url, String.class));
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        assertThat(System.currentTimeMillis() - started).isGreaterThanOrEqualTo(1000);
+        assertThat(requests.get()).isEqualTo(2);
+        Map<String, Object> stats = limiter.snapshot();
+        assertThat(stats).containsEntry("throttled", 1L).containsEntry("retries", 1L);
+        // halved on 429, then one additive step back up
+        assertThat(limiter.getPermitsPerSecond()).isLessThan(20);
+    }
+
+    @Test
+    void readsQuotaHeadersReportedFromResponseExtractor() throws Exception {
+        script.add(new Reply(200, Map.of("X-RateLimit-Remaining", "0", "X-RateLimit-Reset", "2")));
+        UpstreamRateLimiter limiter = limiter(0, 5);
+
+        String body = limiter.execute(headers -> restTemplate.execute(url, HttpMethod.GET, null, response -> {
+            headers.accept(response.getHeaders());
+            return new String(response.getBody().readAllBytes(), StandardCharsets.UTF_8);
+        }));
+
+        assertThat(body).contains("ok");
+        assertThat((Long) limiter.snapshot().get("blockedForMillis")).isGreaterThan(1000);
+    }
+
+    @Test
+    void plainCallableWithoutResponseEntityLearnsNothing() throws Exception {
+        script.add(new Reply(200, Map.of("X-RateLimit-Remaining", "0", "X-RateLimit-Reset", "2")));
+        UpstreamRateLimiter limiter = limiter(0, 5);
+
+        limiter.execute(() -> restTemplate.getForObject(url, String.class));
+
+        assertThat(limiter.snapshot()).containsEntry("blockedForMillis", 0L);
+    }
+
+    @Test
+    void opensCircuitAfterRepeatedServerErrorsAndFailsFast() {
+        for (int i = 0; i < 3; i++) script.add(new Reply(503, Map.of()));
+        UpstreamRateLimiter limiter = limiter(0, 3);
+
+        for (int i = 0; i < 3; i++) {
+            assertThatThrownBy(() -> limiter.execute(() -> restTemplate.getForEntity(url, String.class)))
+                .isInstanceOf(HttpServerErrorException.class);
+        }
+        assertThat(limiter.getState()).isEqualTo(UpstreamRateLimiter.CircuitState.OPEN);
+
+        assertThatThrownBy(() -> limiter.execute(() -> restTemplate.getForEntity(url, String.class)))
+            .isInstanceOf(UpstreamRateLimiter.UpstreamUnavailableException.class);
+        assertThat(requests.get()).isEqualTo(3);
+    }
+}
@@ -0,0 +1,121 @@
+package com.cap.api.service.jmh;
+
+import com.cap.api.service.JiraJsonExtractor;
+import com.cap.api.service.JsonSupport;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jira search response parsing: the JsonNode tree the agent used to build with a fresh
+ * ObjectMapper per call, against {@link JiraJsonExtractor}. Payloads are generated in the
+ * shape of {@code /rest/api/3/search} with comments, changelog and rendered fields, 2 MB and
+ * 8.7 MB. Allocation comes from the GC profiler ({@code gc.alloc.rate.norm}).
+ * <p>
+ * Run after {@code mvn test-compile}:
+ * <pre>
+ * java -cp "target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)" \
+ *     com.cap.api.service.jmh.JiraJsonParsingBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JiraJsonParsingBenchmark {
+
+    @Param({"620", "2700"})
+    public int issues;
+
+    private String json;
+
+    @Setup
+    public void generate() {
+        StringBuilder sb = new StringBuilder("{\"expand\":\"names,schema\",\"startAt\":0,\"maxResults\":")
+            .append(issues).append(",\"total\":").append(issues).append(",\"issues\":[");
+        for (int i = 0; i < issues; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":\"").append(10000 + i).append("\",\"key\":\"SCRUM-").append(i)
+                .append("\",\"self\":\"https://example.atlassian.net/rest/api/3/issue/").append(10000 + i).append("\",\"fields\":{")
+                .append("\"summary\":\"Claim amount mismatch on resubmission ").append(i).append("\",")
+                .append("\"status\":{\"name\":\"To Do\",\"id\":\"10000\",\"statusCategory\":{\"id\":2,\"key\":\"new\",\"colorName\":\"blue-gray\"}},")
+                .append("\"priority\":{\"name\":\"High\",\"id\":\"2\",\"iconUrl\":\"https://example.atlassian.net/images/icons/priorities/high.svg\"},")
+                .append("\"created\":\"2025-01-15T09:00:00.000+0000\",")
+                .append("\"description\":\"Submitting a claim twice stores the first amount; the second request is ignored.\",")
+                .append("\"assignee\":{\"accountId\":\"5b10a2844c20165700ede21g\",\"displayName\":\"Dev One\",\"avatarUrls\":{")
+                .append("\"48x48\":\"https://avatar/48\",\"24x24\":\"https://avatar/24\",\"16x16\":\"https://avatar/16\",\"32x32\":\"https://avatar/32\"}},")
+                .append("\"comment\":{\"startAt\":0,\"maxResults\":8,\"total\":8,\"comments\":[");
+            for (int c = 0; c < 8; c++) {
+                if (c > 0) sb.append(',');
+                sb.append("{\"id\":\"").append(c).append("\",\"author\":{\"displayName\":\"Reviewer\",\"active\":true},")
+                    .append("\"body\":{\"type\":\"doc\",\"version\":1,\"content\":[{\"type\":\"paragraph\",\"content\":[{\"type\":\"text\",")
+                    .append("\"text\":\"Reproduced on build ").append(c).append(", see attached logs for the stack trace.\"}]}]},")
+                    .append("\"created\":\"2025-01-15T10:0").append(c).append(":00.000+0000\"}");
+            }
+            sb.append("]}},\"renderedFields\":{\"description\":\"<p>Submitting a claim twice stores the first amount.</p>\"},")
+                .append("\"changelog\":{\"startAt\":0,\"total\":2,\"histories\":[{\"id\":\"1\",\"items\":[{\"field\":\"status\",")
+                .append("\"fromString\":\"Backlog\",\"toString\":\"To Do\"}]},{\"id\":\"2\",\"items\":[{\"field\":\"priority\",")
+                .append("\"fromString\":\"Medium\",\"toString\":\"High\"}]}]}}");
+        }
+        json = sb.append("]}").toString();
+    }
+
+    /** The code path before the extractor: a new mapper and a full tree per response. */
+    @Benchmark
+    public void tree(Blackhole bh) throws IOException {
+        JsonNode root = new ObjectMapper().readTree(json);
+        for (JsonNode issue : root.path("issues")) {
+            JsonNode fields = issue.path("fields");
+            bh.consume(issue.path("key").asText("") + "|" + fields.path("summary").asText("") + "|"
+                + fields.path("status").path("name").asText("") + "|" + fields.path("description").asText(""));
+            bh.consume(fields.path("created").asText(""));
+        }
+    }
+
+    /** The tree again, but with the shared mapper, to separate mapper setup from tree cost. */
+    @Benchmark
+    public void treeSharedMapper(Blackhole bh) throws IOException {
+        JsonNode root = JsonSupport.MAPPER.readTree(json);
+        for (JsonNode issue : root.path("issues")) {
+            JsonNode fields = issue.path("fields");
+            bh.consume(issue.path("key").asText("") + "|" + fields.path("summary").asText("") + "|"
+                + fields.path("status").path("name").asText("") + "|" + fields.path("description").asText(""));
+            bh.consume(fields.path("created").asText(""));
+        }
+    }
+
+    @Benchmark
+    public void streaming(Blackhole bh) throws IOException {
+        for (JiraJsonExtractor.JiraIssue issue : JiraJsonExtractor.parseIssues(json)) {
+            bh.consume(issue.toLine());
+            bh.consume(issue.created());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(JiraJsonParsingBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}